@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.philliphsu.clock2.alarms.Alarm;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares decoding every row of the alarms list the way {@link AlarmCursor} used to,
+ * looking up each column index by name for every row, with looking them up once.
+ * Logs the results; check logcat. Runs against a throwaway in-memory database.
+ */
+public class AlarmCursorBenchmarkTest extends TestCase {
+    private static final String TAG = "AlarmCursorBenchmark";
+    private static final int NUM_ALARMS = 10000;
+
+    private static final int BY_NAME = 0;
+    private static final int BY_INDEX = 1;
+    private static final int BY_INDEX_REUSED = 2;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        AlarmsTable.onCreate(mDb);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_ALARMS; i++) {
+                ContentValues values = new ContentValues();
+                values.put(AlarmsTable.COLUMN_HOUR, i % 24);
+                values.put(AlarmsTable.COLUMN_MINUTES, i % 60);
+                values.put(AlarmsTable.COLUMN_LABEL, "Alarm " + (i % 10));
+                values.put(AlarmsTable.COLUMN_RINGTONE, "");
+                values.put(AlarmsTable.COLUMN_VIBRATES, false);
+                values.put(AlarmsTable.COLUMN_ENABLED, i % 2 == 0);
+                values.put(AlarmsTable.COLUMN_RING_TIME_MILLIS, 0);
+                values.put(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS, 0);
+                values.put(AlarmsTable.COLUMN_DAYS_MASK, i % 128);
+                values.put(AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME, false);
+                mDb.insert(AlarmsTable.TABLE_ALARMS, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testDecodeByIndex_MatchesDecodeByName() {
+        AlarmCursor cursor = query();
+        try {
+            Alarm reused = null;
+            while (cursor.moveToNext()) {
+                Alarm expected = decodeByName(cursor);
+                assertAlarmEquals(expected, cursor.getItem());
+                reused = cursor.getItem(reused);
+                assertAlarmEquals(expected, reused);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testDecode_10000Alarms_BeforeAndAfter() {
+        long byName = timeDecode(BY_NAME);
+        long byIndex = timeDecode(BY_INDEX);
+        long reused = timeDecode(BY_INDEX_REUSED);
+        Log.i(TAG, String.format("Decoding %d alarms: column indexes by name %d ms, "
+                        + "looked up once %d ms, looked up once and filling one instance %d ms",
+                NUM_ALARMS, byName, byIndex, reused));
+    }
+
+    private long timeDecode(int mode) {
+        // Warm up once, then take the best of a few runs
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 4; run++) {
+            AlarmCursor cursor = query();
+            try {
+                // Fill the cursor window before we start the clock
+                cursor.getCount();
+                long start = SystemClock.elapsedRealtime();
+                Alarm reused = null;
+                while (cursor.moveToNext()) {
+                    switch (mode) {
+                        case BY_NAME:
+                            decodeByName(cursor);
+                            break;
+                        case BY_INDEX:
+                            cursor.getItem();
+                            break;
+                        case BY_INDEX_REUSED:
+                            reused = cursor.getItem(reused);
+                            break;
+                    }
+                }
+                if (run > 0) {
+                    best = Math.min(best, SystemClock.elapsedRealtime() - start);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return best;
+    }
+
+    private AlarmCursor query() {
+        return new AlarmCursor(mDb.query(AlarmsTable.TABLE_ALARMS, AlarmsTable.LIST_PROJECTION,
+                null, null, null, null, AlarmsTable.NEW_SORT_ORDER));
+    }
+
+    /**
+     * How AlarmCursor decoded a row before it looked up its column indexes once.
+     */
+    private static Alarm decodeByName(Cursor c) {
+        Alarm alarm = Alarm.builder()
+                .hour(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_HOUR)))
+                .minutes(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_MINUTES)))
+                .vibrates(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_VIBRATES)) == 1)
+                .ringtone(c.getString(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_RINGTONE)))
+                .label(c.getString(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_LABEL)))
+                .build();
+        alarm.setId(c.getLong(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_ID)));
+        alarm.setEnabled(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_ENABLED)) == 1);
+        alarm.setSnoozing(c.getLong(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS)));
+        alarm.setDaysMask(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_DAYS_MASK)));
+        alarm.ignoreUpcomingRingTime(c.getInt(c.getColumnIndexOrThrow(
+                AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME)) == 1);
+        return alarm;
+    }
+
+    private static void assertAlarmEquals(Alarm expected, Alarm actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.isEnabled(), actual.isEnabled());
+        assertEquals(expected.daysMask(), actual.daysMask());
+        assertEquals(expected.isIgnoringUpcomingRingTime(), actual.isIgnoringUpcomingRingTime());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.background.UpcomingAlarmReceiver;
+import com.philliphsu.clock2.util.ParcelableUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares intents that carry the whole marshalled alarm with intents that carry only its
+ * id, see {@link AlarmCache}. Logs the results; check logcat.
+ */
+public class AlarmIntentBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "AlarmIntentBenchmark";
+    private static final int RUNS = 200;
+    // Far enough away that nothing goes off while we measure
+    private static final long RING_AT = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365);
+    // Outside the range of real alarm ids
+    private static final int REQUEST_CODE = Integer.MAX_VALUE - 1;
+
+    private Alarm mAlarm;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mAlarm = Alarm.builder()
+                .hour(6)
+                .minutes(30)
+                .label("Wake up, take the bins out and water the plants")
+                .ringtone("content://media/internal/audio/media/42?title=Morning%20Glory&canonical=1")
+                .vibrates(true)
+                .build();
+        mAlarm.setId(Integer.MAX_VALUE - 1);
+        mAlarm.setEnabled(true);
+        mAlarm.setDaysMask(0x7F); // Every day
+    }
+
+    public void testIdOnlyIntent_ResolvesToSameAlarm() {
+        Intent intent = AlarmCache.getInstance(getContext()).putExtras(new Intent(), mAlarm);
+        Alarm resolved = AlarmCache.getInstance(getContext()).fromExtras(intent);
+        assertEquals(mAlarm, resolved);
+        assertEquals(mAlarm.daysMask(), resolved.daysMask());
+        assertEquals(mAlarm.isEnabled(), resolved.isEnabled());
+    }
+
+    public void testBytesPerIntent() {
+        int before = sizeOf(marshallingIntent());
+        int after = sizeOf(idOnlyIntent());
+        Log.i(TAG, String.format("Bytes per intent: whole alarm %d, id only %d", before, after));
+        assertTrue(after < before);
+    }
+
+    public void testScheduleAndCancelLatency() {
+        long before = timeScheduleAndCancel(true);
+        long after = timeScheduleAndCancel(false);
+        Log.i(TAG, String.format("Schedule and cancel, %d runs: whole alarm %d ms, id only %d ms",
+                RUNS, before, after));
+    }
+
+    private long timeScheduleAndCancel(boolean marshalling) {
+        AlarmManager am = (AlarmManager) getContext().getSystemService(Context.ALARM_SERVICE);
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < RUNS; i++) {
+            Intent intent = marshalling ? marshallingIntent() : idOnlyIntent();
+            PendingIntent pi = PendingIntent.getBroadcast(getContext(), REQUEST_CODE, intent,
+                    PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            am.set(AlarmManager.RTC_WAKEUP, RING_AT, pi);
+            am.cancel(pi);
+            pi.cancel();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private Intent marshallingIntent() {
+        return new Intent(getContext(), UpcomingAlarmReceiver.class)
+                .putExtra(UpcomingAlarmReceiver.EXTRA_ALARM, ParcelableUtil.marshall(mAlarm));
+    }
+
+    private Intent idOnlyIntent() {
+        return AlarmCache.getInstance(getContext()).putExtras(
+                new Intent(getContext(), UpcomingAlarmReceiver.class), mAlarm);
+    }
+
+    private static int sizeOf(Intent intent) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            intent.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} on the queries that {@link AlarmsTableManager} makes,
+ * and fails if SQLite would scan the whole table without an index or sort the rows
+ * in a temporary B-tree. Runs against a throwaway in-memory database.
+ */
+public class AlarmsQueryPlanTest extends TestCase {
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        AlarmsTable.onCreate(mDb);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testListQuery() {
+        assertUsesIndex(AlarmsTable.LIST_PROJECTION, null, null, null);
+    }
+
+    public void testEnabledAlarmsQuery() {
+        assertUsesIndex(null, AlarmsTable.WHERE_ENABLED, null, null);
+    }
+
+    public void testEnabledRingTimesQuery() {
+        assertUsesIndex(AlarmsTable.SCHEDULE_PROJECTION, AlarmsTable.WHERE_ENABLED, null, null);
+    }
+
+    public void testItemQuery() {
+        assertUsesIndex(null, AlarmsTable.WHERE_ID, new String[] {"1"}, "1");
+    }
+
+    /**
+     * The mask can't be looked up in an index, but the rows are
+     * still read in sort order instead of being sorted afterwards.
+     */
+    public void testRecurringOnQuery() {
+        assertUsesIndex(null, AlarmsTable.whereRecurringOn(0), null, null);
+    }
+
+    public void testUpgradeFromVersion2_CreatesIndexes() {
+        mDb.execSQL("DROP INDEX " + AlarmsTable.INDEX_SORT_ORDER);
+        mDb.execSQL("DROP INDEX " + AlarmsTable.INDEX_ENABLED);
+        AlarmsTable.onUpgrade(mDb, 2, 3);
+        assertUsesIndex(AlarmsTable.LIST_PROJECTION, null, null, null);
+        assertUsesIndex(null, AlarmsTable.WHERE_ENABLED, null, null);
+    }
+
+    /**
+     * Builds the query the same way {@link AlarmsTableManager} does, with
+     * {@link AlarmsTable#NEW_SORT_ORDER}, and checks its plan.
+     */
+    private void assertUsesIndex(String[] projection, String where, String[] whereArgs, String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, AlarmsTable.TABLE_ALARMS,
+                projection, where, null, null, AlarmsTable.NEW_SORT_ORDER, limit);
+        StringBuilder plan = new StringBuilder();
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, whereArgs);
+        try {
+            final int detailColumn = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                String detail = c.getString(detailColumn);
+                plan.append(detail).append('\n');
+                // Older SQLite versions say "SCAN TABLE alarms", newer ones "SCAN alarms".
+                boolean fullScan = detail.startsWith("SCAN") && !detail.contains("USING");
+                assertFalse("Full table scan in plan of " + sql + ":\n" + plan, fullScan);
+                assertFalse("Temp B-tree in plan of " + sql + ":\n" + plan,
+                        detail.contains("TEMP B-TREE"));
+            }
+        } finally {
+            c.close();
+        }
+        assertTrue("Empty plan for " + sql, plan.length() > 0);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.test.AndroidTestCase;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.DaysOfWeek;
+import com.philliphsu.clock2.alarms.misc.RingTimeCalculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that writes through {@link AlarmsTableManager} leave no entries in the
+ * {@link NextAlarmIndex} for rows that don't exist. Runs against a throwaway
+ * in-memory database, so the app's data is left alone.
+ */
+public class AlarmsTableIndexTest extends AndroidTestCase {
+
+    private SQLiteOpenHelper mDbHelper;
+    private NextAlarmIndex mIndex;
+    private AlarmsTableManager mTableManager;
+    private final List<Alarm> mInserted = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A null name makes an in-memory database
+        mDbHelper = new SQLiteOpenHelper(getContext(), null, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                AlarmsTable.onCreate(db);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        mIndex = new NextAlarmIndex(RingTimeCalculator.getDefault());
+        mTableManager = new AlarmsTableManager(getContext(), mDbHelper, mIndex);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Our ids may be those of real alarms, which the process-wide cache also holds
+        AlarmCache cache = AlarmCache.getInstance(getContext());
+        for (Alarm alarm : mInserted) {
+            cache.remove(alarm.getId());
+        }
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testDeleteThenSave_LeavesNoEntry() {
+        Alarm deleted = insertRecurringAlarm(6);
+        Alarm kept = insertRecurringAlarm(7);
+        mTableManager.deleteItem(deleted);
+        // What a save of the deleted alarm, e.g. by a cancel, ends in
+        assertEquals(0, mTableManager.updateItem(deleted.getId(), deleted));
+
+        assertEquals(1, mIndex.size());
+        assertTrue(Arrays.equals(new long[] {kept.getId()}, mIndex.nextN(2)));
+    }
+
+    public void testDeleteItemsThenUpdateItems_LeavesNoEntries() {
+        List<Alarm> alarms = new ArrayList<>();
+        for (int hour = 1; hour <= 4; hour++) {
+            alarms.add(insertRecurringAlarm(hour));
+        }
+        mTableManager.deleteItems(alarms.subList(0, 2));
+        assertEquals(2, mTableManager.updateItems(alarms));
+
+        assertEquals(2, mIndex.size());
+        long[] next = mIndex.nextN(4);
+        Arrays.sort(next);
+        assertTrue(Arrays.equals(new long[] {alarms.get(2).getId(), alarms.get(3).getId()}, next));
+    }
+
+    private Alarm insertRecurringAlarm(int hour) {
+        Alarm alarm = Alarm.builder().hour(hour).build();
+        alarm.setEnabled(true);
+        alarm.setRecurring(DaysOfWeek.SUNDAY, true);
+        alarm.setRecurring(DaysOfWeek.WEDNESDAY, true);
+        assertTrue(mTableManager.insertItem(alarm) != -1);
+        mInserted.add(alarm);
+        return alarm;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.DaysOfWeek;
+import com.philliphsu.clock2.data.ClockAppDatabaseHelper;
+import com.philliphsu.clock2.data.Migration;
+import com.philliphsu.clock2.data.MigrationRunner;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs against a throwaway in-memory database, so the app's data is left alone.
+ */
+public class AlarmsTableMigrationTest extends TestCase {
+    private static final String TAG = "AlarmsTableMigrationTest";
+    private static final String[] DAY_COLUMNS = {
+            "sunday", "monday", "tuesday", "wednesday", "thursday", "friday", "saturday"
+    };
+    private static final int NUM_ALARMS = 5000;
+    private static final int NUM_ALARMS_LARGE = 100000;
+    private static final int CHUNK_SIZE = MigrationRunner.DEFAULT_CHUNK_SIZE;
+    /** How much the Java heap may grow while a large table is migrated */
+    private static final long HEAP_CEILING_BYTES = 4 * 1024 * 1024;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testUpgradeFromVersion1_KeepsRowsAndFoldsDaysIntoMask() {
+        createVersion1Table(mDb);
+        insertVersion1Alarms(mDb, NUM_ALARMS);
+
+        upgradeFromVersion1();
+        runPending(AlarmsTable.RECURRING_DAYS_TO_MASK);
+
+        assertVersion1AlarmsMigrated(NUM_ALARMS);
+    }
+
+    public void testUpgradeFromVersion1_100kAlarms_StaysUnderHeapCeiling() {
+        createVersion1Table(mDb);
+        insertVersion1Alarms(mDb, NUM_ALARMS_LARGE);
+        upgradeFromVersion1();
+
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        final long baseline = runtime.totalMemory() - runtime.freeMemory();
+        final long[] peak = {baseline};
+        Migration migration = new AlarmsTable.RecurringDaysToMaskMigration() {
+            @Override
+            protected long copyChunk(SQLiteDatabase db, long afterId, int limit) {
+                long lastId = super.copyChunk(db, afterId, limit);
+                Runtime runtime = Runtime.getRuntime();
+                peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+                return lastId;
+            }
+        };
+        MigrationRunner.Result result = runPending(migration).get(0);
+
+        Log.i(TAG, String.format("Migrating %d alarms: %s, Java heap grew by at most %d KB",
+                NUM_ALARMS_LARGE, result, (peak[0] - baseline) / 1024));
+        assertEquals(NUM_ALARMS_LARGE / CHUNK_SIZE, result.chunks);
+        assertTrue("Java heap grew by " + (peak[0] - baseline) + " bytes",
+                peak[0] - baseline < HEAP_CEILING_BYTES);
+        assertVersion1AlarmsMigrated(NUM_ALARMS_LARGE);
+    }
+
+    public void testInterruptedUpgrade_ResumesFromLastChunk() {
+        final int chunksBeforeCrash = 3;
+        createVersion1Table(mDb);
+        insertVersion1Alarms(mDb, NUM_ALARMS);
+        upgradeFromVersion1();
+
+        Migration crashing = new AlarmsTable.RecurringDaysToMaskMigration() {
+            int mChunks;
+
+            @Override
+            protected long copyChunk(SQLiteDatabase db, long afterId, int limit) {
+                if (mChunks++ == chunksBeforeCrash) {
+                    throw new IllegalStateException("Process died");
+                }
+                return super.copyChunk(db, afterId, limit);
+            }
+        };
+        try {
+            runPending(crashing);
+            fail("Expected the migration to be interrupted");
+        } catch (IllegalStateException expected) {
+            // The chunks before the crash were committed.
+        }
+        assertEquals(chunksBeforeCrash * CHUNK_SIZE,
+                DatabaseUtils.queryNumEntries(mDb, AlarmsTable.TABLE_ALARMS + "_v2"));
+
+        List<MigrationRunner.Result> results = runPending(AlarmsTable.RECURRING_DAYS_TO_MASK);
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).resumed);
+        assertEquals(NUM_ALARMS / CHUNK_SIZE - chunksBeforeCrash, results.get(0).chunks);
+        assertVersion1AlarmsMigrated(NUM_ALARMS);
+        // Nothing is left to run on the next open.
+        assertTrue(runPending(AlarmsTable.RECURRING_DAYS_TO_MASK).isEmpty());
+    }
+
+    private void upgradeFromVersion1() {
+        mDb.beginTransaction();
+        try {
+            AlarmsTable.onUpgrade(mDb, 1, ClockAppDatabaseHelper.VERSION_3);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * What the database helper does when it opens the database after an upgrade.
+     */
+    private List<MigrationRunner.Result> runPending(Migration migration) {
+        return MigrationRunner.runPending(mDb, Collections.singletonList(migration), CHUNK_SIZE);
+    }
+
+    private void assertVersion1AlarmsMigrated(int count) {
+        AlarmCursor cursor = new AlarmCursor(mDb.query(AlarmsTable.TABLE_ALARMS,
+                null, null, null, null, null, AlarmsTable.COLUMN_ID + " ASC"));
+        try {
+            assertEquals(count, cursor.getCount());
+            while (cursor.moveToNext()) {
+                Alarm alarm = cursor.getItem();
+                int i = (int) alarm.getId() - 1;
+                assertEquals(i % 24, alarm.hour());
+                assertEquals(i % 60, alarm.minutes());
+                assertEquals("Alarm " + i, alarm.label());
+                assertEquals(i % 2 == 0, alarm.isEnabled());
+                assertEquals(i % 128, alarm.daysMask());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testQueryRecurringOn_MatchesMask() {
+        AlarmsTable.onCreate(mDb);
+        for (int mask = 0; mask < 128; mask++) {
+            mDb.insert(AlarmsTable.TABLE_ALARMS, null, version2Values(mask, mask));
+        }
+        for (int day = DaysOfWeek.SUNDAY; day <= DaysOfWeek.SATURDAY; day++) {
+            Cursor c = mDb.query(AlarmsTable.TABLE_ALARMS, null,
+                    AlarmsTable.whereRecurringOn(day), null, null, null, null);
+            try {
+                // Half of all masks have any given bit set
+                assertEquals(64, c.getCount());
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Not an assertion, but logs how long it takes to decode every row of the
+     * list query with the old and new schemas. Check logcat for the results.
+     */
+    public void testListLoad_5000Alarms_BeforeAndAfter() {
+        createVersion1Table(mDb);
+        insertVersion1Alarms(mDb, NUM_ALARMS);
+        long before = timeListLoad(true);
+
+        mDb.execSQL("DROP TABLE " + AlarmsTable.TABLE_ALARMS);
+        AlarmsTable.onCreate(mDb);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_ALARMS; i++) {
+                mDb.insert(AlarmsTable.TABLE_ALARMS, null, version2Values(i, i % 128));
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long after = timeListLoad(false);
+
+        Log.i(TAG, String.format("Loading %d alarms: seven day columns %d ms, days mask %d ms",
+                NUM_ALARMS, before, after));
+    }
+
+    private long timeListLoad(boolean version1) {
+        // Warm up once, then take the best of a few runs
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 4; run++) {
+            long start = SystemClock.elapsedRealtime();
+            Cursor c = mDb.query(AlarmsTable.TABLE_ALARMS,
+                    null, null, null, null, null, AlarmsTable.NEW_SORT_ORDER);
+            // AlarmCursor needs the days mask column, which version 1 doesn't have.
+            Cursor cursor = version1 ? c : new AlarmCursor(c);
+            try {
+                cursor.getCount();
+                while (cursor.moveToNext()) {
+                    if (version1) {
+                        decodeVersion1Row(cursor);
+                    } else {
+                        ((AlarmCursor) cursor).getItem();
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (run > 0) {
+                best = Math.min(best, SystemClock.elapsedRealtime() - start);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * How AlarmCursor decoded a row before the days mask existed.
+     */
+    private static Alarm decodeVersion1Row(Cursor c) {
+        Alarm alarm = Alarm.builder()
+                .hour(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_HOUR)))
+                .minutes(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_MINUTES)))
+                .vibrates(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_VIBRATES)) == 1)
+                .ringtone(c.getString(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_RINGTONE)))
+                .label(c.getString(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_LABEL)))
+                .build();
+        alarm.setId(c.getLong(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_ID)));
+        alarm.setEnabled(c.getInt(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_ENABLED)) == 1);
+        alarm.setSnoozing(c.getLong(c.getColumnIndexOrThrow(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS)));
+        for (int day = DaysOfWeek.SUNDAY; day <= DaysOfWeek.SATURDAY; day++) {
+            alarm.setRecurring(day, c.getInt(c.getColumnIndexOrThrow(DAY_COLUMNS[day])) == 1);
+        }
+        alarm.ignoreUpcomingRingTime(c.getInt(c.getColumnIndexOrThrow(
+                AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME)) == 1);
+        return alarm;
+    }
+
+    private static void createVersion1Table(SQLiteDatabase db) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE " + AlarmsTable.TABLE_ALARMS + " ("
+                + AlarmsTable.COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + AlarmsTable.COLUMN_HOUR + " INTEGER NOT NULL, "
+                + AlarmsTable.COLUMN_MINUTES + " INTEGER NOT NULL, "
+                + AlarmsTable.COLUMN_LABEL + " TEXT, "
+                + AlarmsTable.COLUMN_RINGTONE + " TEXT NOT NULL, "
+                + AlarmsTable.COLUMN_VIBRATES + " INTEGER NOT NULL, "
+                + AlarmsTable.COLUMN_ENABLED + " INTEGER NOT NULL, "
+                + AlarmsTable.COLUMN_RING_TIME_MILLIS + " INTEGER NOT NULL, "
+                + AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS + " INTEGER, ");
+        for (String day : DAY_COLUMNS) {
+            sql.append(day).append(" INTEGER NOT NULL DEFAULT 0, ");
+        }
+        sql.append(AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME).append(" INTEGER NOT NULL);");
+        db.execSQL(sql.toString());
+    }
+
+    private static void insertVersion1Alarms(SQLiteDatabase db, int count) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                ContentValues values = baseValues(i);
+                int mask = i % 128;
+                for (int day = DaysOfWeek.SUNDAY; day <= DaysOfWeek.SATURDAY; day++) {
+                    values.put(DAY_COLUMNS[day], (mask & (1 << day)) != 0);
+                }
+                db.insert(AlarmsTable.TABLE_ALARMS, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ContentValues version2Values(int i, int mask) {
+        ContentValues values = baseValues(i);
+        values.put(AlarmsTable.COLUMN_DAYS_MASK, mask);
+        return values;
+    }
+
+    private static ContentValues baseValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(AlarmsTable.COLUMN_HOUR, i % 24);
+        values.put(AlarmsTable.COLUMN_MINUTES, i % 60);
+        values.put(AlarmsTable.COLUMN_LABEL, "Alarm " + i);
+        values.put(AlarmsTable.COLUMN_RINGTONE, "");
+        values.put(AlarmsTable.COLUMN_VIBRATES, false);
+        values.put(AlarmsTable.COLUMN_ENABLED, i % 2 == 0);
+        values.put(AlarmsTable.COLUMN_RING_TIME_MILLIS, 0);
+        values.put(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS, 0);
+        values.put(AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME, false);
+        return values;
+    }
+}
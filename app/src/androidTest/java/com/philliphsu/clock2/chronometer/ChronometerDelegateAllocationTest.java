@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import android.content.res.Resources;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.text.style.RelativeSizeSpan;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Counts the objects {@link ChronometerDelegate#formatElapsedTime(long, Resources)} allocates
+ * per call with the runtime's allocation counters, and compares it with how it used to format.
+ * Logs the results; check logcat.
+ */
+public class ChronometerDelegateAllocationTest extends AndroidTestCase {
+    private static final String TAG = "ChronomDelegateAllocs";
+    private static final int WARMUP = 1000;
+    // A stopwatch ticking every 10 ms for a minute and a half
+    private static final int CALLS = 9000;
+
+    public void testStopwatch_AllocatesNothing() {
+        ChronometerDelegate delegate = new ChronometerDelegate();
+        delegate.setShowCentiseconds(true, false);
+        assertEquals(0, countAllocations("stopwatch", delegate, null));
+    }
+
+    public void testCountdownPastZero_AllocatesNothing() {
+        ChronometerDelegate delegate = new ChronometerDelegate();
+        delegate.setCountDown(true);
+        assertEquals(0, countAllocations("negative countdown", delegate, getContext().getResources()));
+    }
+
+    public void testStopwatchWithSizeSpan() {
+        ChronometerDelegate delegate = new ChronometerDelegate();
+        delegate.setShowCentiseconds(true, true);
+        int allocations = countAllocations("stopwatch with size span", delegate, null);
+        int before = countLegacyAllocations();
+        assertTrue(allocations < before);
+    }
+
+    /**
+     * @return the objects allocated by {@link #CALLS} calls, after warming up
+     */
+    private int countAllocations(String name, ChronometerDelegate delegate, Resources res) {
+        final long base = SystemClock.elapsedRealtime();
+        // Counting down, this is 5 seconds past zero.
+        delegate.setBase(delegate.isCountDown() ? base - 5000 : base);
+        for (int i = 0; i < WARMUP; i++) {
+            delegate.formatElapsedTime(base + i * 10, res);
+        }
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        final long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            delegate.formatElapsedTime(base + i * 10, res);
+        }
+        final long nanos = System.nanoTime() - start;
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        Log.i(TAG, String.format(Locale.US, "%s: %d allocations in %d calls, %d ns per call",
+                name, allocations, CALLS, nanos / CALLS));
+        return allocations;
+    }
+
+    /**
+     * Counts the allocations of the old implementation: DateUtils, String.format(),
+     * and a new SpannableString concatenated onto the text every tick.
+     */
+    private int countLegacyAllocations() {
+        final RelativeSizeSpan span = new RelativeSizeSpan(0.5f);
+        final StringBuilder recycle = new StringBuilder(8);
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        final long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            long millis = i * 10;
+            String text = DateUtils.formatElapsedTime(recycle, millis / 1000);
+            String centiseconds = String.format(Locale.getDefault(), ".%02d", millis % 1000 / 10);
+            SpannableString spannable = new SpannableString(centiseconds);
+            spannable.setSpan(span, 0, centiseconds.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            TextUtils.concat(text, spannable);
+        }
+        final long nanos = System.nanoTime() - start;
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        Log.i(TAG, String.format(Locale.US, "before: %d allocations in %d calls, %d ns per call",
+                allocations, CALLS, nanos / CALLS));
+        return allocations;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs 50 chronometers on the {@link ChronometerNotificationScheduler}, as if 50 timers
+ * started at random times were running, and checks they share one thread and no more
+ * wakeups than {@link TickSchedule#SLACK_MILLIS} allows. Logs the thread and wakeup
+ * counts; check logcat.
+ */
+public class ChronometerNotificationSchedulerTest extends TestCase {
+    private static final String TAG = "ChronomNotifSchedTest";
+    private static final int TIMERS = 50;
+    private static final int SECONDS = 5;
+    // How late a tick may be after its due time before we complain
+    private static final long MAX_LATE_MILLIS = TickSchedule.SLACK_MILLIS + 250;
+
+    private final ChronometerNotificationScheduler mScheduler =
+            ChronometerNotificationScheduler.getInstance();
+    private final List<CountingTickable> mTickables = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The services may have left chronometers running.
+        assertEquals(0, mScheduler.size());
+        // Wait for the thread from a previous test to finish quitting.
+        for (int i = 0; i < 100 && countSchedulerThreads() > 0; i++) {
+            SystemClock.sleep(10);
+        }
+        final Random random = new Random();
+        final long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < TIMERS; i++) {
+            mTickables.add(new CountingTickable(now - random.nextInt(60 * 60 * 1000)));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (CountingTickable t : mTickables) {
+            mScheduler.remove(t);
+        }
+        super.tearDown();
+    }
+
+    public void testFiftyTimers_OneThreadFewWakeups() throws Exception {
+        final int startedBefore = mScheduler.getThreadsStarted();
+        final long wakeupsBefore = mScheduler.getWakeupCount();
+        final long ticksBefore = mScheduler.getTickCount();
+
+        for (CountingTickable t : mTickables) {
+            mScheduler.add(t);
+        }
+        SystemClock.sleep(SECONDS * 1000 + 500);
+
+        final int threads = countSchedulerThreads();
+        final long wakeups = mScheduler.getWakeupCount() - wakeupsBefore;
+        final long ticks = mScheduler.getTickCount() - ticksBefore;
+        long maxLate = 0;
+        for (CountingTickable t : mTickables) {
+            maxLate = Math.max(maxLate, t.maxLate);
+            // One tick per second, give or take the ones in progress at either end
+            assertTrue("Ticked " + t.ticks + " times", Math.abs(SECONDS - t.ticks) <= 1);
+        }
+        Log.i(TAG, String.format("%d timers, %d s: %d thread(s), %d wakeups, %d ticks, "
+                        + "max %d ms late (one thread each: %d threads, %d wakeups)",
+                TIMERS, SECONDS, threads, wakeups, ticks, maxLate, TIMERS, TIMERS * SECONDS));
+
+        assertEquals(1, threads);
+        assertEquals(1, mScheduler.getThreadsStarted() - startedBefore);
+        // Wakeups are more than the slack apart, and the timers' phases are spread
+        // over the whole second, so it takes at least one wakeup a second.
+        final long maxWakeups = (SECONDS * 1000 + 500) / TickSchedule.SLACK_MILLIS + 1;
+        assertTrue("Expected " + SECONDS + " to " + maxWakeups + " wakeups, got " + wakeups,
+                wakeups >= SECONDS && wakeups <= maxWakeups);
+        assertTrue("Ticks were up to " + maxLate + " ms late", maxLate <= MAX_LATE_MILLIS);
+    }
+
+    public void testRemoveLast_QuitsThread() {
+        for (CountingTickable t : mTickables) {
+            mScheduler.add(t);
+        }
+        assertTrue(mScheduler.isRunning());
+        for (CountingTickable t : mTickables) {
+            mScheduler.remove(t);
+        }
+        assertFalse(mScheduler.isRunning());
+        assertEquals(0, mScheduler.size());
+    }
+
+    public void testRemove_NoMoreTicks() {
+        CountingTickable t = mTickables.get(0);
+        mScheduler.add(t);
+        SystemClock.sleep(1500);
+        mScheduler.remove(t);
+        final int ticks = t.ticks;
+        assertTrue(ticks > 0);
+        SystemClock.sleep(1500);
+        assertEquals(ticks, t.ticks);
+    }
+
+    private static int countSchedulerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("ChronomNotifScheduler")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class CountingTickable implements ChronometerNotificationScheduler.Tickable {
+        final long base;
+        volatile long dueAt;
+        volatile int ticks;
+        volatile long maxLate;
+
+        CountingTickable(long base) {
+            this.base = base;
+        }
+
+        @Override
+        public void onTick(long now) {
+            ticks++;
+            maxLate = Math.max(maxLate, now - dueAt);
+        }
+
+        @Override
+        public long nextTickAt(long now) {
+            // Every second since the base, like ChronometerDelegate.nextChangeAt()
+            dueAt = TickSchedule.nextBoundary(now, base, 1000);
+            return dueAt;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.philliphsu.clock2.stopwatch.Lap;
+import com.philliphsu.clock2.stopwatch.data.LapCursor;
+import com.philliphsu.clock2.stopwatch.data.LapsTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares writing rows one at a time, each in its own implicit transaction, with the
+ * bulk writes of {@link DatabaseTableManager}. Logs the results; check logcat.
+ * Runs against a throwaway in-memory database, so the app's data is left alone.
+ */
+public class BulkWriteBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "BulkWriteBenchmark";
+
+    private SQLiteOpenHelper mDbHelper;
+    private LapsManager mTableManager;
+
+    /**
+     * Writes to the laps table, like LapsTableManager, but in our own database.
+     */
+    private static final class LapsManager extends DatabaseTableManager<Lap> {
+        LapsManager(Context context, SQLiteOpenHelper dbHelper) {
+            super(context, dbHelper);
+        }
+
+        @Override
+        protected String getTableName() {
+            return LapsTable.TABLE_LAPS;
+        }
+
+        @Override
+        protected ContentValues toContentValues(Lap lap) {
+            ContentValues cv = new ContentValues();
+            cv.put(LapsTable.COLUMN_T1, lap.t1());
+            cv.put(LapsTable.COLUMN_T2, lap.t2());
+            cv.put(LapsTable.COLUMN_PAUSE_TIME, lap.pauseTime());
+            cv.put(LapsTable.COLUMN_TOTAL_TIME_TEXT, lap.totalTimeText());
+            return cv;
+        }
+
+        @Override
+        protected Lap readItem(long id) {
+            LapCursor cursor = new LapCursor(queryItem(id));
+            try {
+                return cursor.getCount() > 0 ? cursor.getItem() : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected String getOnContentChangeAction() {
+            // Nothing listens for this
+            return "com.philliphsu.clock2.data.action.BENCHMARK_CHANGE_CONTENT";
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A null name makes an in-memory database
+        mDbHelper = new SQLiteOpenHelper(getContext(), null, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                LapsTable.onCreate(db);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        mTableManager = new LapsManager(getContext(), mDbHelper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testBulkWrites_KeepEveryRow() {
+        List<Lap> laps = makeLaps(100);
+        long[] ids = mTableManager.insertItems(laps);
+        assertEquals(100, ids.length);
+        assertEquals(100, countRows());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], laps.get(i).getId());
+        }
+
+        for (Lap lap : laps) {
+            lap.setTotalTimeText("updated");
+        }
+        assertEquals(100, mTableManager.updateItems(laps));
+        Cursor c = mTableManager.queryItems();
+        try {
+            final int textColumn = c.getColumnIndexOrThrow(LapsTable.COLUMN_TOTAL_TIME_TEXT);
+            while (c.moveToNext()) {
+                assertEquals("updated", c.getString(textColumn));
+            }
+        } finally {
+            c.close();
+        }
+
+        assertEquals(50, mTableManager.deleteItems(laps.subList(0, 50)));
+        assertEquals(50, countRows());
+    }
+
+    public void testThroughput_1000Rows() {
+        logThroughput(1000);
+    }
+
+    public void testThroughput_10000Rows() {
+        logThroughput(10000);
+    }
+
+    private void logThroughput(int count) {
+        List<Lap> laps = makeLaps(count);
+
+        long start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            mTableManager.insertItem(lap);
+        }
+        long insertOneByOne = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            mTableManager.updateItem(lap.getId(), lap);
+        }
+        long updateOneByOne = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            mTableManager.deleteItem(lap);
+        }
+        long deleteOneByOne = SystemClock.elapsedRealtime() - start;
+        assertEquals(0, countRows());
+
+        start = SystemClock.elapsedRealtime();
+        mTableManager.insertItems(laps);
+        long insertBulk = SystemClock.elapsedRealtime() - start;
+        assertEquals(count, countRows());
+        start = SystemClock.elapsedRealtime();
+        mTableManager.updateItems(laps);
+        long updateBulk = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        mTableManager.deleteItems(laps);
+        long deleteBulk = SystemClock.elapsedRealtime() - start;
+        assertEquals(0, countRows());
+
+        Log.i(TAG, String.format("%d rows, one by one vs bulk: insert %d ms vs %d ms, "
+                        + "update %d ms vs %d ms, delete %d ms vs %d ms", count,
+                insertOneByOne, insertBulk, updateOneByOne, updateBulk, deleteOneByOne, deleteBulk));
+    }
+
+    private int countRows() {
+        Cursor c = mTableManager.queryItems();
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    private static List<Lap> makeLaps(int count) {
+        List<Lap> laps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Lap lap = new Lap();
+            lap.setT1(i * 1000L);
+            lap.setT2(i * 1000L + 500);
+            lap.setTotalTimeText("00:" + i);
+            laps.add(lap);
+        }
+        return laps;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.philliphsu.clock2.stopwatch.data.LapsTable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Backs up a 100k-row laps table to a file and restores it into another database.
+ * Logs the throughput and how much the live Java heap grew; check logcat.
+ * Runs against throwaway in-memory databases, so the app's data is left alone.
+ */
+public class DatabaseBackupTest extends AndroidTestCase {
+    private static final String TAG = "DatabaseBackupTest";
+    private static final int NUM_LAPS = 100000;
+    private static final int VERSION = 1;
+    private static final String[] TABLES = {LapsTable.TABLE_LAPS};
+    /** How much the live Java heap may grow while the laps are backed up or restored */
+    private static final long HEAP_CEILING_BYTES = 4 * 1024 * 1024;
+
+    private SQLiteDatabase mSource;
+    private SQLiteDatabase mTarget;
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = SQLiteDatabase.create(null);
+        mTarget = SQLiteDatabase.create(null);
+        LapsTable.onCreate(mSource);
+        LapsTable.onCreate(mTarget);
+        mFile = new File(getContext().getCacheDir(), "backup_test.bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSource.close();
+        mTarget.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void test100kLaps_RoundTrip() throws Exception {
+        insertLaps(mSource, NUM_LAPS);
+        DatabaseBackup.Stats written = backup();
+        DatabaseBackup.Stats read = restore();
+
+        Log.i(TAG, String.format("Backup of %d laps, %d bytes (%.1f per row): %d ms (%d rows/s)",
+                NUM_LAPS, written.bytes, (double) written.bytes / NUM_LAPS,
+                written.elapsedMillis, rowsPerSecond(written)));
+        Log.i(TAG, String.format("Restore of %d laps: %d ms (%d rows/s)",
+                NUM_LAPS, read.elapsedMillis, rowsPerSecond(read)));
+        assertEquals(NUM_LAPS, written.rows);
+        assertEquals(NUM_LAPS, read.rows);
+        assertEquals(written.blocks, read.blocks);
+        assertTablesEqual();
+    }
+
+    /**
+     * Backs up and restores again while a sampler collects garbage and measures the live heap,
+     * which slows both down, so this is kept apart from the throughput test.
+     */
+    public void test100kLaps_StaysUnderHeapCeiling() throws Exception {
+        insertLaps(mSource, NUM_LAPS);
+
+        HeapSampler sampler = new HeapSampler();
+        backup();
+        final long writeHeap = sampler.stop();
+
+        sampler = new HeapSampler();
+        restore();
+        final long readHeap = sampler.stop();
+
+        Log.i(TAG, String.format("Peak live heap growth for %d laps: backup %d KB, restore %d KB",
+                NUM_LAPS, writeHeap / 1024, readHeap / 1024));
+        assertTrue("Backup grew the heap by " + writeHeap + " bytes", writeHeap < HEAP_CEILING_BYTES);
+        assertTrue("Restore grew the heap by " + readHeap + " bytes", readHeap < HEAP_CEILING_BYTES);
+    }
+
+    public void testCorruptBlock_RestoresNothing() throws Exception {
+        insertLaps(mSource, 5000);
+        insertLaps(mTarget, 3);
+        backup();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(file.length() / 2);
+            final int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0x40);
+        } finally {
+            file.close();
+        }
+
+        try {
+            restore();
+            fail("Expected the corrupt block to be found");
+        } catch (IOException expected) {
+        }
+        assertEquals(3, DatabaseUtils.queryNumEntries(mTarget, LapsTable.TABLE_LAPS));
+    }
+
+    public void testNewerBackup_IsRefused() throws Exception {
+        FileChannel out = new FileOutputStream(mFile).getChannel();
+        try {
+            DatabaseBackup.write(mSource, VERSION + 1, TABLES, out);
+        } finally {
+            out.close();
+        }
+        try {
+            restore();
+            fail("Expected a backup of a newer version to be refused");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testUnknownTable_IsRefused() throws Exception {
+        mSource.execSQL("CREATE TABLE extra (_id INTEGER PRIMARY KEY AUTOINCREMENT)");
+        mTarget.execSQL("CREATE TABLE extra (_id INTEGER PRIMARY KEY AUTOINCREMENT)");
+        insertLaps(mTarget, 3);
+        backup(LapsTable.TABLE_LAPS, "extra");
+        try {
+            restore();
+            fail("Expected a table we didn't ask for to be refused");
+        } catch (IOException expected) {
+        }
+        assertEquals(3, DatabaseUtils.queryNumEntries(mTarget, LapsTable.TABLE_LAPS));
+    }
+
+    public void testUnknownColumn_IsRefused() throws Exception {
+        mSource.execSQL("ALTER TABLE " + LapsTable.TABLE_LAPS + " ADD COLUMN extra INTEGER");
+        insertLaps(mSource, 10);
+        insertLaps(mTarget, 3);
+        backup();
+        try {
+            restore();
+            fail("Expected a column the schema doesn't have to be refused");
+        } catch (IOException expected) {
+        }
+        assertEquals(3, DatabaseUtils.queryNumEntries(mTarget, LapsTable.TABLE_LAPS));
+    }
+
+    private DatabaseBackup.Stats backup() throws IOException {
+        return backup(TABLES);
+    }
+
+    private DatabaseBackup.Stats backup(String... tables) throws IOException {
+        FileChannel out = new FileOutputStream(mFile).getChannel();
+        try {
+            return DatabaseBackup.write(mSource, VERSION, tables, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private DatabaseBackup.Stats restore() throws IOException {
+        FileChannel in = new FileInputStream(mFile).getChannel();
+        try {
+            return DatabaseBackup.read(mTarget, VERSION, TABLES, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void assertTablesEqual() {
+        Cursor expected = mSource.query(LapsTable.TABLE_LAPS, null, null, null, null, null, LapsTable.COLUMN_ID);
+        Cursor actual = mTarget.query(LapsTable.TABLE_LAPS, null, null, null, null, null, LapsTable.COLUMN_ID);
+        try {
+            assertEquals(expected.getCount(), actual.getCount());
+            while (expected.moveToNext() && actual.moveToNext()) {
+                for (int i = 0; i < expected.getColumnCount(); i++) {
+                    assertEquals(expected.getType(i), actual.getType(i));
+                    assertEquals(expected.getString(i), actual.getString(i));
+                }
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static long rowsPerSecond(DatabaseBackup.Stats stats) {
+        return stats.rows * 1000 / Math.max(1, stats.elapsedMillis);
+    }
+
+    private static void insertLaps(SQLiteDatabase db, int count) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < count; i++) {
+                values.put(LapsTable.COLUMN_T1, i * 1000L);
+                values.put(LapsTable.COLUMN_T2, i * 1000L + 987);
+                values.put(LapsTable.COLUMN_PAUSE_TIME, 0);
+                if (i % 10 == 0) {
+                    values.putNull(LapsTable.COLUMN_TOTAL_TIME_TEXT);
+                } else {
+                    values.put(LapsTable.COLUMN_TOTAL_TIME_TEXT, String.format("%02d:%02d.%02d",
+                            i / 6000 % 60, i / 100 % 60, i % 100));
+                }
+                db.insert(LapsTable.TABLE_LAPS, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Samples how much the live Java heap has grown since it was made, on its own thread.
+     * Garbage is collected before each sample, so that only what is still held counts.
+     */
+    private static final class HeapSampler extends Thread {
+        private final long mBaseline;
+        private volatile boolean mStopped;
+        private volatile long mPeak;
+
+        HeapSampler() {
+            Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+            mBaseline = runtime.totalMemory() - runtime.freeMemory();
+            mPeak = mBaseline;
+            start();
+        }
+
+        @Override
+        public void run() {
+            Runtime runtime = Runtime.getRuntime();
+            while (!mStopped) {
+                runtime.gc();
+                mPeak = Math.max(mPeak, runtime.totalMemory() - runtime.freeMemory());
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the most the heap grew by
+         */
+        long stop() throws InterruptedException {
+            mStopped = true;
+            join();
+            return mPeak - mBaseline;
+        }
+    }
+}
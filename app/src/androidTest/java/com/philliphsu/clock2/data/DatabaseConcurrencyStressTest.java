@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.philliphsu.clock2.stopwatch.data.LapsTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reloads a list while another thread keeps writing to the same table, with and without
+ * write-ahead logging, and logs the percentiles of the reload latency; check logcat.
+ * Runs against a throwaway database file, so the app's data is left alone.
+ */
+public class DatabaseConcurrencyStressTest extends AndroidTestCase {
+    private static final String TAG = "DatabaseConcurrencyStress";
+    private static final String DB_NAME = "concurrency_stress_test.db";
+    private static final int ROWS = 500;
+    private static final long DURATION_MILLIS = 3000;
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    public void testGetInstance_FromManyThreads_ReturnsOneHelper() throws InterruptedException {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final ClockAppDatabaseHelper[] helpers = new ClockAppDatabaseHelper[threads];
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        helpers[index] = ClockAppDatabaseHelper.getInstance(getContext());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (ClockAppDatabaseHelper helper : helpers) {
+            assertSame(helpers[0], helper);
+        }
+    }
+
+    public void testReadLatency_RollbackJournal() throws InterruptedException {
+        logReadLatency(false);
+    }
+
+    public void testReadLatency_WriteAheadLog() throws InterruptedException {
+        logReadLatency(true);
+    }
+
+    private void logReadLatency(boolean writeAheadLogging) throws InterruptedException {
+        getContext().deleteDatabase(DB_NAME);
+        SQLiteOpenHelper dbHelper = new SQLiteOpenHelper(getContext(), DB_NAME, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                LapsTable.onCreate(db);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        dbHelper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        try {
+            final SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                for (int i = 0; i < ROWS; i++) {
+                    db.insert(LapsTable.TABLE_LAPS, null, lapValues(i));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final int[] writes = {0};
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Like a stopwatch that laps as fast as it can: each lap ends
+                    // the current one and inserts the next, in one transaction.
+                    for (int i = ROWS; running.get(); i++) {
+                        db.beginTransactionNonExclusive();
+                        try {
+                            db.update(LapsTable.TABLE_LAPS, lapValues(i),
+                                    LapsTable.COLUMN_ID + " = ?",
+                                    new String[] {Integer.toString(i)});
+                            db.insert(LapsTable.TABLE_LAPS, null, lapValues(i + 1));
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                        writes[0]++;
+                    }
+                }
+            }, "Writer");
+
+            List<Long> latencies = new ArrayList<>();
+            writer.start();
+            final long end = SystemClock.elapsedRealtime() + DURATION_MILLIS;
+            while (SystemClock.elapsedRealtime() < end) {
+                final long start = System.nanoTime();
+                // Like SQLiteCursorLoader.loadInBackground()
+                Cursor c = db.query(LapsTable.TABLE_LAPS, null, null, null, null, null,
+                        LapsTable.SORT_ORDER);
+                c.getCount();
+                c.close();
+                latencies.add(System.nanoTime() - start);
+            }
+            running.set(false);
+            writer.join();
+
+            long[] sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            Log.i(TAG, String.format("%s: %d reloads, %d writes, reload latency "
+                            + "p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    writeAheadLogging ? "WAL" : "Rollback journal", sorted.length, writes[0],
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    sorted[sorted.length - 1] / 1e6));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * @return the percentile of the sorted nanosecond latencies, in milliseconds
+     */
+    private static double percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static ContentValues lapValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(LapsTable.COLUMN_T1, i * 1000L);
+        values.put(LapsTable.COLUMN_T2, i * 1000L + 500);
+        values.put(LapsTable.COLUMN_TOTAL_TIME_TEXT, "00:" + i);
+        return values;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.philliphsu.clock2.timers.Timer;
+import com.philliphsu.clock2.timers.data.TimerCursor;
+import com.philliphsu.clock2.timers.data.TimersTable;
+
+/**
+ * Pages through a long timers table, whose sort order has columns in both directions,
+ * and checks that every row comes back in the same order as a plain query. Also logs how
+ * long it takes to read the last page by keyset and by {@code OFFSET}; check logcat.
+ * Runs against a throwaway in-memory database, so the app's data is left alone.
+ */
+public class KeysetPagedCursorTest extends AndroidTestCase {
+    private static final String TAG = "KeysetPagedCursorTest";
+    private static final int NUM_TIMERS = 5000;
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 3;
+
+    private SQLiteOpenHelper mDbHelper;
+    private TimersManager mTableManager;
+    private long[] mExpectedIds;
+
+    /**
+     * Reads the timers table in its list order, like TimersTableManager, but in our own database.
+     */
+    private static final class TimersManager extends DatabaseTableManager<Timer> {
+        TimersManager(Context context, SQLiteOpenHelper dbHelper) {
+            super(context, dbHelper);
+        }
+
+        @Override
+        protected String getTableName() {
+            return TimersTable.TABLE_TIMERS;
+        }
+
+        @Override
+        protected String getQuerySortOrder() {
+            return TimersTable.SORT_ORDER;
+        }
+
+        @Override
+        protected ContentValues toContentValues(Timer timer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected Timer readItem(long id) {
+            TimerCursor cursor = new TimerCursor(queryItem(id));
+            try {
+                return cursor.getCount() > 0 ? cursor.getItem() : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected String getOnContentChangeAction() {
+            // Nothing listens for this
+            return "com.philliphsu.clock2.data.action.TEST_CHANGE_CONTENT";
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A null name makes an in-memory database
+        mDbHelper = new SQLiteOpenHelper(getContext(), null, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                TimersTable.onCreate(db);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        mTableManager = new TimersManager(getContext(), mDbHelper);
+        insertTimers(mDbHelper.getWritableDatabase());
+
+        Cursor c = mTableManager.queryItems();
+        try {
+            mExpectedIds = new long[c.getCount()];
+            for (int i = 0; c.moveToPosition(i); i++) {
+                mExpectedIds[i] = c.getLong(c.getColumnIndexOrThrow(TimersTable.COLUMN_ID));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testForward_MatchesPlainQuery() {
+        KeysetPagedCursor cursor = queryPaged();
+        try {
+            assertEquals(NUM_TIMERS, cursor.getCount());
+            for (int i = 0; i < NUM_TIMERS; i++) {
+                assertIdAt(cursor, i);
+                assertTrue(cursor.getPageCount() <= MAX_PAGES);
+            }
+            assertFalse(cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBackward_RereadsDroppedPages() {
+        KeysetPagedCursor cursor = queryPaged();
+        try {
+            cursor.moveToLast();
+            for (int i = NUM_TIMERS - 1; i >= 0; i--) {
+                assertIdAt(cursor, i);
+                assertTrue(cursor.getPageCount() <= MAX_PAGES);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testJumps_ReadOnlyKeysOfSkippedPages() {
+        KeysetPagedCursor cursor = queryPaged();
+        try {
+            assertIdAt(cursor, 4321);
+            assertIdAt(cursor, 17);
+            assertIdAt(cursor, NUM_TIMERS - 1);
+            assertIdAt(cursor, 2500);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testPositionOf() {
+        KeysetPagedCursor cursor = queryPaged();
+        try {
+            for (int i : new int[] {0, 1, 49, 50, 2999, NUM_TIMERS - 1}) {
+                assertEquals(i, cursor.positionOf(mExpectedIds[i]));
+            }
+            assertEquals(-1, cursor.positionOf(-42));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Not an assertion, but compares reading the last page by keyset, once the key
+     * before it is known, with reading it by {@code OFFSET}.
+     */
+    public void testLastPage_KeysetVersusOffset() {
+        KeysetPagedCursor cursor = queryPaged();
+        final int lastPageStart = NUM_TIMERS - PAGE_SIZE;
+        try {
+            // Learn the key before the last page.
+            cursor.moveToPosition(lastPageStart - 1);
+            long start = SystemClock.elapsedRealtimeNanos();
+            cursor.moveToPosition(lastPageStart);
+            long keyset = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            Cursor c = mDbHelper.getReadableDatabase().query(TimersTable.TABLE_TIMERS, null,
+                    null, null, null, null, TimersTable.SORT_ORDER, lastPageStart + ", " + PAGE_SIZE);
+            c.getCount();
+            long offset = SystemClock.elapsedRealtimeNanos() - start;
+            c.close();
+
+            Log.i(TAG, String.format("Last page of %d timers: keyset %d us, offset %d us",
+                    NUM_TIMERS, keyset / 1000, offset / 1000));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private KeysetPagedCursor queryPaged() {
+        return (KeysetPagedCursor) mTableManager.queryPaged(PAGE_SIZE, MAX_PAGES);
+    }
+
+    private void assertIdAt(Cursor cursor, int position) {
+        assertTrue("Failed to move to " + position, cursor.moveToPosition(position));
+        assertEquals("Wrong row at " + position, mExpectedIds[position],
+                cursor.getLong(cursor.getColumnIndexOrThrow(TimersTable.COLUMN_ID)));
+    }
+
+    /**
+     * Many timers share a duration, so the list order often falls through to the id.
+     */
+    private static void insertTimers(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_TIMERS; i++) {
+                ContentValues values = new ContentValues();
+                values.put(TimersTable.COLUMN_HOUR, i % 3);
+                values.put(TimersTable.COLUMN_MINUTE, (i * 7) % 60);
+                values.put(TimersTable.COLUMN_SECOND, (i * 13) % 4);
+                values.put(TimersTable.COLUMN_LABEL, "Timer " + i);
+                values.put(TimersTable.COLUMN_END_TIME, 0);
+                values.put(TimersTable.COLUMN_PAUSE_TIME, 0);
+                values.put(TimersTable.COLUMN_DURATION, 0);
+                db.insert(TimersTable.TABLE_TIMERS, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
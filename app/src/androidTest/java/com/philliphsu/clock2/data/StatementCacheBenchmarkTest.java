@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.philliphsu.clock2.stopwatch.Lap;
+import com.philliphsu.clock2.stopwatch.data.LapCursor;
+import com.philliphsu.clock2.stopwatch.data.LapsTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the single-row operations of {@link DatabaseTableManager}, which run cached
+ * statements with bound arguments, with the same operations written with the id
+ * concatenated into the SQL, as they were before. Logs ops/sec; check logcat.
+ * Runs against a throwaway in-memory database, so the app's data is left alone.
+ */
+public class StatementCacheBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "StatementCacheBenchmark";
+    private static final int OPS = 2000;
+
+    private SQLiteOpenHelper mDbHelper;
+    private LapsManager mTableManager;
+
+    /**
+     * Writes to the laps table, like LapsTableManager, but in our own database.
+     */
+    private static final class LapsManager extends DatabaseTableManager<Lap> {
+        LapsManager(Context context, SQLiteOpenHelper dbHelper) {
+            super(context, dbHelper);
+        }
+
+        @Override
+        protected String getTableName() {
+            return LapsTable.TABLE_LAPS;
+        }
+
+        @Override
+        protected ContentValues toContentValues(Lap lap) {
+            ContentValues cv = new ContentValues();
+            cv.put(LapsTable.COLUMN_T1, lap.t1());
+            cv.put(LapsTable.COLUMN_T2, lap.t2());
+            cv.put(LapsTable.COLUMN_PAUSE_TIME, lap.pauseTime());
+            cv.put(LapsTable.COLUMN_TOTAL_TIME_TEXT, lap.totalTimeText());
+            return cv;
+        }
+
+        @Override
+        protected Lap readItem(long id) {
+            LapCursor cursor = new LapCursor(queryItem(id));
+            try {
+                return cursor.getCount() > 0 ? cursor.getItem() : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected String getOnContentChangeAction() {
+            // Nothing listens for this
+            return "com.philliphsu.clock2.data.action.BENCHMARK_CHANGE_CONTENT";
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A null name makes an in-memory database
+        mDbHelper = new SQLiteOpenHelper(getContext(), null, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                LapsTable.onCreate(db);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        mTableManager = new LapsManager(getContext(), mDbHelper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testCachedStatements_WriteTheRightRows() {
+        List<Lap> laps = makeLaps(3);
+        for (Lap lap : laps) {
+            mTableManager.insertItem(lap);
+        }
+        Lap second = laps.get(1);
+        second.setTotalTimeText("updated");
+        assertEquals(1, mTableManager.updateItem(second.getId(), second));
+        assertEquals(1, mTableManager.deleteItem(laps.get(0)));
+        assertEquals(0, mTableManager.deleteItem(laps.get(0)));
+
+        assertEquals(2, countRows());
+        assertEquals("updated", totalTimeTextOf(second.getId()));
+        assertEquals("00:2", totalTimeTextOf(laps.get(2).getId()));
+    }
+
+    public void testCachedStatements_SurviveReopenedDatabase() {
+        Lap lap = makeLaps(1).get(0);
+        mTableManager.insertItem(lap);
+        // An in-memory database starts over when it is reopened.
+        mDbHelper.close();
+        mTableManager.insertItem(lap);
+        lap.setTotalTimeText("updated");
+        assertEquals(1, mTableManager.updateItem(lap.getId(), lap));
+        assertEquals("updated", totalTimeTextOf(lap.getId()));
+    }
+
+    public void testOpsPerSecond() {
+        List<Lap> laps = makeLaps(OPS);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Before: each call has its own SQL text
+        long start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            lap.setId(db.insert(LapsTable.TABLE_LAPS, null, mTableManager.toContentValues(lap)));
+        }
+        long insertBefore = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            db.update(LapsTable.TABLE_LAPS, mTableManager.toContentValues(lap),
+                    LapsTable.COLUMN_ID + " = " + lap.getId(), null);
+        }
+        long updateBefore = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            Cursor c = db.query(LapsTable.TABLE_LAPS, null,
+                    LapsTable.COLUMN_ID + " = " + lap.getId(), null, null, null, null, "1");
+            c.moveToFirst();
+            c.close();
+        }
+        long selectBefore = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            db.delete(LapsTable.TABLE_LAPS, LapsTable.COLUMN_ID + " = " + lap.getId(), null);
+        }
+        long deleteBefore = SystemClock.elapsedRealtime() - start;
+        assertEquals(0, countRows());
+
+        // After: cached statements with bound arguments
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            mTableManager.insertItem(lap);
+        }
+        long insertAfter = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            mTableManager.updateItem(lap.getId(), lap);
+        }
+        long updateAfter = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            mTableManager.queryItem(lap.getId()).close();
+        }
+        long selectAfter = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (Lap lap : laps) {
+            mTableManager.deleteItem(lap);
+        }
+        long deleteAfter = SystemClock.elapsedRealtime() - start;
+        assertEquals(0, countRows());
+
+        Log.i(TAG, String.format("%d ops, ops/sec before vs after: insert %d vs %d, "
+                        + "update %d vs %d, select %d vs %d, delete %d vs %d", OPS,
+                opsPerSecond(insertBefore), opsPerSecond(insertAfter),
+                opsPerSecond(updateBefore), opsPerSecond(updateAfter),
+                opsPerSecond(selectBefore), opsPerSecond(selectAfter),
+                opsPerSecond(deleteBefore), opsPerSecond(deleteAfter)));
+    }
+
+    private static long opsPerSecond(long elapsedMillis) {
+        return OPS * 1000L / Math.max(1, elapsedMillis);
+    }
+
+    private String totalTimeTextOf(long id) {
+        Cursor c = mTableManager.queryItem(id);
+        try {
+            return c.getString(c.getColumnIndexOrThrow(LapsTable.COLUMN_TOTAL_TIME_TEXT));
+        } finally {
+            c.close();
+        }
+    }
+
+    private int countRows() {
+        Cursor c = mTableManager.queryItems();
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    private static List<Lap> makeLaps(int count) {
+        List<Lap> laps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Lap lap = new Lap();
+            lap.setT1(i * 1000L);
+            lap.setT2(i * 1000L + 500);
+            lap.setTotalTimeText("00:" + i);
+            laps.add(lap);
+        }
+        return laps;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.list;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.philliphsu.clock2.R;
+import com.philliphsu.clock2.data.RowSnapshot;
+import com.philliphsu.clock2.stopwatch.data.LapCursor;
+import com.philliphsu.clock2.stopwatch.data.LapsTable;
+import com.philliphsu.clock2.stopwatch.ui.LapsAdapter;
+
+/**
+ * Compares the main thread time of swapping in a reloaded cursor, and laying out the list
+ * afterwards, with and without the diffing mode of {@link BaseCursorAdapter}. Each reload
+ * changes one row of a 500-row list, like a running lap does. Logs the results; check logcat.
+ * Runs against a throwaway in-memory database, so the app's data is left alone.
+ */
+public class CursorAdapterDiffBenchmarkTest extends InstrumentationTestCase {
+    private static final String TAG = "CursorAdapterDiffBenchmark";
+    private static final int ROWS = 500;
+    private static final int RELOADS = 50;
+
+    private SQLiteDatabase mDb;
+    private RecyclerView mList;
+    private LapsAdapter mAdapter;
+    // The cursor the adapter holds. Only touched on the main thread,
+    // except for its snapshot, which is immutable.
+    private LapCursor mLastLoaded;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        LapsTable.onCreate(mDb);
+        ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                values.put(LapsTable.COLUMN_T1, i * 1000L);
+                values.put(LapsTable.COLUMN_T2, i * 1000L + 500);
+                values.put(LapsTable.COLUMN_TOTAL_TIME_TEXT, "00:" + i);
+                mDb.insert(LapsTable.TABLE_LAPS, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mList = new RecyclerView(new ContextThemeWrapper(
+                        getInstrumentation().getTargetContext(), R.style.AppTheme));
+                mList.setLayoutManager(new LinearLayoutManager(mList.getContext()));
+                // Time the binding and layout, not the animations
+                mList.setItemAnimator(null);
+                mList.setAdapter(mAdapter = new LapsAdapter());
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.swapCursor(null);
+            }
+        });
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testDiffing_KeepsAdapterInSyncWithCursor() {
+        swapAndLayout(load(null), true);
+        mDb.delete(LapsTable.TABLE_LAPS, LapsTable.COLUMN_ID + " <= 10", null);
+        mDb.execSQL("UPDATE " + LapsTable.TABLE_LAPS + " SET "
+                + LapsTable.COLUMN_TOTAL_TIME_TEXT + " = 'changed' WHERE "
+                + LapsTable.COLUMN_ID + " = 100");
+        final LapCursor cursor = load(currentSnapshot());
+        assertNotNull(cursor.getDiffFrom(currentSnapshot()));
+        final long[] expectedIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            expectedIds[i] = cursor.getId();
+        }
+        swapAndLayout(cursor, true);
+        assertEquals(expectedIds.length, mAdapter.getItemCount());
+        for (int i = 0; i < expectedIds.length; i++) {
+            assertEquals(expectedIds[i], mAdapter.getItemId(i));
+        }
+    }
+
+    public void testFrameTime_500Rows() {
+        long notifyAll = timeReloads(false);
+        long diffing = timeReloads(true);
+        Log.i(TAG, String.format("%d rows, %d reloads, avg main thread time per reload: "
+                        + "notifyDataSetChanged %.2f ms, diffing %.2f ms", ROWS, RELOADS,
+                notifyAll / 1e6 / RELOADS, diffing / 1e6 / RELOADS));
+    }
+
+    /**
+     * @return the total main thread time, in nanoseconds
+     */
+    private long timeReloads(boolean diffing) {
+        swapAndLayout(load(null), diffing);
+        long total = 0;
+        for (int i = 0; i < RELOADS; i++) {
+            // The newest lap, at the top of the list, changes each time
+            mDb.execSQL("UPDATE " + LapsTable.TABLE_LAPS + " SET "
+                    + LapsTable.COLUMN_TOTAL_TIME_TEXT + " = '" + diffing + i + "' WHERE "
+                    + LapsTable.COLUMN_ID + " = " + ROWS);
+            // Like SQLiteCursorLoader, diff on this (background) thread
+            total += swapAndLayout(load(currentSnapshot()), diffing);
+        }
+        return total;
+    }
+
+    private LapCursor load(RowSnapshot previous) {
+        LapCursor cursor = new LapCursor(mDb.query(LapsTable.TABLE_LAPS,
+                null, null, null, null, null, LapsTable.SORT_ORDER));
+        cursor.getCount();
+        cursor.prepareDiff(previous);
+        return cursor;
+    }
+
+    private RowSnapshot currentSnapshot() {
+        return mLastLoaded == null ? null : mLastLoaded.getSnapshot();
+    }
+
+    /**
+     * @return the main thread time of the swap and the layout pass that follows, in nanoseconds
+     */
+    private long swapAndLayout(final LapCursor cursor, final boolean diffing) {
+        final long[] elapsed = {0};
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                mAdapter.setDiffingEnabled(diffing);
+                mAdapter.swapCursor(cursor);
+                mLastLoaded = cursor;
+                mList.measure(
+                        View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+                mList.layout(0, 0, 1080, 1920);
+                elapsed[0] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        });
+        return elapsed[0];
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.ringtone;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.philliphsu.clock2.R;
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.AlarmCache;
+import com.philliphsu.clock2.alarms.misc.AlarmController;
+import com.philliphsu.clock2.alarms.misc.AlarmWriteExecutor;
+import com.philliphsu.clock2.ringtone.playback.AlarmRingtoneService;
+
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Checks that tapping dismiss or snooze on the ringing screen silences the
+ * ringtone within {@link #BUDGET_MILLIS}, measured from the tap.
+ */
+public class AlarmDismissLatencyTest extends ActivityInstrumentationTestCase2<AlarmActivity> {
+    private static final String TAG = "AlarmDismissLatency";
+    private static final long BUDGET_MILLIS = 100;
+    private static final long RING_TIMEOUT_MILLIS = 5000;
+
+    private Alarm mAlarm;
+
+    public AlarmDismissLatencyTest() {
+        super(AlarmActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mAlarm = Alarm.builder().hour(6).minutes(30).build();
+        // Outside the range of real alarm ids
+        mAlarm.setId(Integer.MAX_VALUE - 2);
+        mAlarm.setEnabled(true);
+        Intent intent = new Intent(getInstrumentation().getTargetContext(), AlarmActivity.class);
+        AlarmCache.getInstance(getInstrumentation().getTargetContext()).putExtras(intent, mAlarm);
+        setActivityIntent(intent);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // The click ran the real AlarmController on our alarm, which has no row: a snooze
+        // armed it with the AlarmManager, and either action put it in the NextAlarmIndex
+        // and AlarmCache. Let that finish on the writer thread, then forget the alarm.
+        final Context context = getInstrumentation().getTargetContext();
+        drainWriter(context); // the snooze or dismiss
+        drainWriter(context); // the save that it queued
+        new AlarmController(context, null).cancelDeletedAlarm(mAlarm);
+        super.tearDown();
+    }
+
+    public void testDismiss_SilencesWithinBudget() throws Throwable {
+        assertSilencedWithinBudget(R.id.btn_right);
+    }
+
+    public void testSnooze_SilencesWithinBudget() throws Throwable {
+        assertSilencedWithinBudget(R.id.btn_left);
+    }
+
+    private void assertSilencedWithinBudget(final int buttonId) throws Throwable {
+        final AlarmActivity activity = getActivity();
+        waitUntilRinging();
+
+        final long[] elapsed = new long[1];
+        final boolean[] ringingAfterClick = new boolean[1];
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                activity.findViewById(buttonId).performClick();
+                // Nothing after the click has had a chance to run yet,
+                // so the click itself must have silenced the ringtone.
+                ringingAfterClick[0] = AlarmRingtoneService.isRinging();
+                elapsed[0] = SystemClock.elapsedRealtime() - start;
+            }
+        });
+
+        Log.i(TAG, "Silenced in " + elapsed[0] + " ms");
+        assertFalse("Still ringing after the click returned", ringingAfterClick[0]);
+        assertTrue("Took " + elapsed[0] + " ms, budget is " + BUDGET_MILLIS + " ms",
+                elapsed[0] <= BUDGET_MILLIS);
+    }
+
+    private static void drainWriter(Context context) throws InterruptedException {
+        final CountDownLatch drained = new CountDownLatch(1);
+        AlarmWriteExecutor.getInstance(context).executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                drained.countDown();
+            }
+        });
+        assertTrue("Writer thread is stuck", drained.await(RING_TIMEOUT_MILLIS, MILLISECONDS));
+    }
+
+    private static void waitUntilRinging() throws InterruptedException {
+        final long deadline = SystemClock.elapsedRealtime() + RING_TIMEOUT_MILLIS;
+        while (!AlarmRingtoneService.isRinging()) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                fail("Ringtone didn't start within " + RING_TIMEOUT_MILLIS + " ms");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.stopwatch;
+
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import com.philliphsu.clock2.MainActivity;
+import com.philliphsu.clock2.R;
+import com.philliphsu.clock2.chronometer.BaseChronometer;
+import com.philliphsu.clock2.list.RecyclerViewFragment;
+import com.philliphsu.clock2.stopwatch.data.LapsTableManager;
+import com.philliphsu.clock2.stopwatch.ui.StopwatchFragment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the stopwatch, with a 200-row lap list, and collects {@link FrameMetrics} for
+ * the stopwatch screen. Logs the frame times and dropped frames; check logcat. Also checks
+ * that the chronometer's text isn't updated more often than the display can show it.
+ *
+ * Replaces the stopwatch's laps and state, and clears them afterwards.
+ */
+public class StopwatchFrameMetricsTest extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final String TAG = "StopwatchFrameMetrics";
+    private static final int NUM_LAPS = 200;
+    private static final long SETTLE_MILLIS = 2000;
+    private static final long MEASURE_MILLIS = 5000;
+
+    private LapsTableManager mLaps;
+
+    public StopwatchFrameMetricsTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLaps = new LapsTableManager(getInstrumentation().getTargetContext());
+        mLaps.clear();
+        final long now = SystemClock.elapsedRealtime();
+        List<Lap> laps = new ArrayList<>(NUM_LAPS);
+        for (int i = NUM_LAPS - 1; i > 0; i--) {
+            Lap lap = new Lap();
+            lap.setT1(now - (i + 1) * 1000L);
+            lap.end(String.format(Locale.US, "%02d:%02d.00", (NUM_LAPS - i) / 60, (NUM_LAPS - i) % 60));
+            laps.add(lap);
+        }
+        // The current lap, whose row ticks along with the stopwatch
+        Lap current = new Lap();
+        current.setT1(now - 1000);
+        laps.add(current);
+        mLaps.insertItems(laps);
+
+        // Opens on the stopwatch page, without scrolling to a lap.
+        setActivityIntent(new Intent(RecyclerViewFragment.ACTION_SCROLL_TO_STABLE_ID)
+                .putExtra(MainActivity.EXTRA_SHOW_PAGE, MainActivity.PAGE_STOPWATCH));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(getInstrumentation().getTargetContext())
+                .edit()
+                .putLong(StopwatchFragment.KEY_START_TIME, 0)
+                .putLong(StopwatchFragment.KEY_PAUSE_TIME, 0)
+                .putBoolean(StopwatchFragment.KEY_CHRONOMETER_RUNNING, false)
+                .commit();
+        mLaps.clear();
+        super.tearDown();
+    }
+
+    public void testRunningStopwatch() throws Throwable {
+        final MainActivity activity = getActivity();
+        // Wait for the page to settle before starting, since the
+        // stopwatch's view resets the stopwatch when it is created.
+        SystemClock.sleep(SETTLE_MILLIS);
+        PreferenceManager.getDefaultSharedPreferences(activity)
+                .edit()
+                .putLong(StopwatchFragment.KEY_START_TIME, SystemClock.elapsedRealtime() - NUM_LAPS * 1000L)
+                .putBoolean(StopwatchFragment.KEY_CHRONOMETER_RUNNING, true)
+                .commit();
+        SystemClock.sleep(SETTLE_MILLIS);
+
+        final BaseChronometer chronometer = (BaseChronometer) activity.findViewById(R.id.chronometer);
+        final int[] ticks = new int[1];
+        final List<Long> frameNanos = new ArrayList<>();
+        final Window.OnFrameMetricsAvailableListener metricsListener =
+                new Window.OnFrameMetricsAvailableListener() {
+                    @Override
+                    public void onFrameMetricsAvailable(Window window, FrameMetrics metrics,
+                                                        int dropCountSinceLastInvocation) {
+                        if (metrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 0) {
+                            synchronized (frameNanos) {
+                                frameNanos.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+                            }
+                        }
+                    }
+                };
+        HandlerThread metricsThread = new HandlerThread(TAG);
+        metricsThread.start();
+        final Handler metricsHandler = new Handler(metricsThread.getLooper());
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue("Stopwatch isn't running", chronometer.isRunning());
+                chronometer.setOnChronometerTickListener(new BaseChronometer.OnChronometerTickListener() {
+                    @Override
+                    public void onChronometerTick(BaseChronometer chronometer) {
+                        ticks[0]++;
+                    }
+                });
+                activity.getWindow().addOnFrameMetricsAvailableListener(metricsListener, metricsHandler);
+            }
+        });
+        SystemClock.sleep(MEASURE_MILLIS);
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                activity.getWindow().removeOnFrameMetricsAvailableListener(metricsListener);
+                chronometer.setOnChronometerTickListener(null);
+            }
+        });
+        metricsThread.quitSafely();
+
+        final float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        final long frameIntervalNanos = (long) (1e9 / refreshRate);
+        final long[] durations;
+        synchronized (frameNanos) {
+            durations = new long[frameNanos.size()];
+            for (int i = 0; i < durations.length; i++) {
+                durations[i] = frameNanos.get(i);
+            }
+        }
+        assertTrue("No frames were drawn", durations.length > 0);
+        Arrays.sort(durations);
+        long total = 0;
+        int janky = 0;
+        long dropped = 0;
+        for (long d : durations) {
+            total += d;
+            if (d > frameIntervalNanos) {
+                janky++;
+                // Every whole frame interval after the first is a frame that wasn't shown.
+                dropped += (d - 1) / frameIntervalNanos;
+            }
+        }
+        final float ticksPerSecond = ticks[0] * 1000f / MEASURE_MILLIS;
+        Log.i(TAG, String.format(Locale.US, "%d laps, %.0f Hz display: %d frames, "
+                        + "frame time mean %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms, "
+                        + "%d janky, %d dropped; %.1f chronometer updates/s",
+                NUM_LAPS, refreshRate, durations.length,
+                total / 1e6 / durations.length,
+                percentile(durations, 50), percentile(durations, 90), percentile(durations, 99),
+                durations[durations.length - 1] / 1e6,
+                janky, dropped, ticksPerSecond));
+
+        // Ticking every 10 ms used to update the text 100 times a second, whatever the display.
+        final float maxTicksPerSecond = Math.min(refreshRate, 100);
+        assertTrue(ticksPerSecond + " updates/s on a " + refreshRate + " Hz display",
+                ticksPerSecond <= maxTicksPerSecond * 1.1f);
+    }
+
+    /**
+     * @return the percentile of the sorted durations, in milliseconds
+     */
+    private static double percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -23,12 +23,11 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import com.google.auto.value.AutoValue;
+import com.philliphsu.clock2.alarms.misc.RingTimeCalculator;
 import com.philliphsu.clock2.data.ObjectWithId;
 
 import org.json.JSONObject;
 
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.concurrent.TimeUnit;
 
 import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.NUM_DAYS;
@@ -41,11 +40,12 @@ import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.SUNDAY;
 @AutoValue
 public abstract class Alarm extends ObjectWithId implements Parcelable {
     private static final int MAX_MINUTES_CAN_SNOOZE = 30;
+    private static final int ALL_DAYS_MASK = (1 << NUM_DAYS) - 1;
 
     // =================== MUTABLE =======================
     private long snoozingUntilMillis;
     private boolean enabled;
-    private final boolean[] recurringDays = new boolean[NUM_DAYS];
+    private int daysMask;
     private boolean ignoreUpcomingRingTime;
     // ====================================================
 
@@ -66,7 +66,7 @@ public abstract class Alarm extends ObjectWithId implements Parcelable {
         target.setId(this.getId());
         target.snoozingUntilMillis = this.snoozingUntilMillis;
         target.enabled = this.enabled;
-        System.arraycopy(this.recurringDays, 0, target.recurringDays, 0, NUM_DAYS);
+        target.daysMask = this.daysMask;
         target.ignoreUpcomingRingTime = this.ignoreUpcomingRingTime;
     }
 
@@ -118,29 +118,26 @@ public abstract class Alarm extends ObjectWithId implements Parcelable {
         return enabled;
     }
 
-    public boolean[] recurringDays() {
-        return recurringDays;
-    }
-
     public void setRecurring(int day, boolean recurring) {
         checkDay(day);
-        recurringDays[day] = recurring;
+        if (recurring) {
+            daysMask |= 1 << day;
+        } else {
+            daysMask &= ~(1 << day);
+        }
     }
 
     public boolean isRecurring(int day) {
         checkDay(day);
-        return recurringDays[day];
+        return (daysMask & (1 << day)) != 0;
     }
 
     public boolean hasRecurrence() {
-        return numRecurringDays() > 0;
+        return daysMask != 0;
     }
 
     public int numRecurringDays() {
-        int count = 0;
-        for (boolean b : recurringDays)
-            if (b) count++;
-        return count;
+        return Integer.bitCount(daysMask);
     }
 
     public void ignoreUpcomingRingTime(boolean ignore) {
@@ -151,71 +148,30 @@ public abstract class Alarm extends ObjectWithId implements Parcelable {
         return ignoreUpcomingRingTime;
     }
 
+    /**
+     * @return the recurring days as a 7-bit mask, where bit {@code i} is set
+     * if this Alarm recurs on our zero-based week day {@code i}
+     */
+    public int daysMask() {
+        return daysMask;
+    }
+
+    /** <b>ONLY CALL THIS WHEN CREATING AN ALARM INSTANCE FROM A CURSOR</b> */
+    public void setDaysMask(int daysMask) {
+        if ((daysMask & ~ALL_DAYS_MASK) != 0)
+            throw new IllegalArgumentException("Invalid recurrence mask: " + daysMask);
+        this.daysMask = daysMask;
+    }
+
     public long ringsAt() {
         // Always with respect to the current date and time
-        Calendar calendar = new GregorianCalendar();
-        calendar.set(Calendar.HOUR_OF_DAY, hour());
-        calendar.set(Calendar.MINUTE, minutes());
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
-
-        long baseRingTime = calendar.getTimeInMillis();
-
-        if (!hasRecurrence()) {
-            if (baseRingTime <= System.currentTimeMillis()) {
-                // The specified time has passed for today
-                baseRingTime += TimeUnit.DAYS.toMillis(1);
-            }
-            return baseRingTime;
-        } else {
-            // Compute the ring time just for the next closest recurring day.
-            // Remember that day constants defined in the Calendar class are
-            // not zero-based like ours, so we have to compensate with an offset
-            // of magnitude one, with the appropriate sign based on the situation.
-            int weekdayToday = calendar.get(Calendar.DAY_OF_WEEK);
-            int numDaysFromToday = -1;
-
-            for (int i = weekdayToday; i <= Calendar.SATURDAY; i++) {
-                if (isRecurring(i - 1 /*match up with our day constant*/)) {
-                    if (i == weekdayToday) {
-                        if (baseRingTime > System.currentTimeMillis()) {
-                            // The normal ring time has not passed yet
-                            numDaysFromToday = 0;
-                            break;
-                        }
-                    } else {
-                        numDaysFromToday = i - weekdayToday;
-                        break;
-                    }
-                }
-            }
-
-            // Not computed yet
-            if (numDaysFromToday < 0) {
-                for (int i = Calendar.SUNDAY; i < weekdayToday; i++) {
-                    if (isRecurring(i - 1 /*match up with our day constant*/)) {
-                        numDaysFromToday = Calendar.SATURDAY - weekdayToday + i;
-                        break;
-                    }
-                }
-            }
-
-            // Still not computed yet. The only recurring day is weekdayToday,
-            // and its normal ring time has already passed.
-            if (numDaysFromToday < 0 && isRecurring(weekdayToday - 1)
-                    && baseRingTime <= System.currentTimeMillis()) {
-                numDaysFromToday = 7;
-            }
-
-            if (numDaysFromToday < 0)
-                throw new IllegalStateException("How did we get here?");
-
-            return baseRingTime + TimeUnit.DAYS.toMillis(numDaysFromToday);
-        }
+        return RingTimeCalculator.getDefault().ringsAt(hour(), minutes(), daysMask());
     }
 
     public long ringsIn() {
-        return ringsAt() - System.currentTimeMillis();
+        RingTimeCalculator calculator = RingTimeCalculator.getDefault();
+        long now = calculator.getClock().currentTimeMillis();
+        return calculator.ringsAt(hour(), minutes(), daysMask(), now) - now;
     }
 
     /**
@@ -252,7 +208,12 @@ public abstract class Alarm extends ObjectWithId implements Parcelable {
         dest.writeLong(getId());
         dest.writeLong(snoozingUntilMillis);
         dest.writeInt(enabled ? 1 : 0);
-        dest.writeBooleanArray(recurringDays);
+        // Same layout as Parcel.writeBooleanArray(), which older versions used,
+        // so that PendingIntents created before an app update can still be read.
+        dest.writeInt(NUM_DAYS);
+        for (int i = SUNDAY; i <= SATURDAY; i++) {
+            dest.writeInt(isRecurring(i) ? 1 : 0);
+        }
         dest.writeInt(ignoreUpcomingRingTime ? 1 : 0);
     }
 
@@ -267,7 +228,10 @@ public abstract class Alarm extends ObjectWithId implements Parcelable {
         alarm.setId(in.readLong());
         alarm.snoozingUntilMillis = in.readLong();
         alarm.enabled = in.readInt() != 0;
-        in.readBooleanArray(alarm.recurringDays);
+        final int numDays = in.readInt();
+        for (int i = 0; i < numDays; i++) {
+            alarm.setRecurring(i, in.readInt() != 0);
+        }
         alarm.ignoreUpcomingRingTime = in.readInt() != 0;
         return alarm;
     }
@@ -23,10 +23,9 @@ import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
 
-import com.philliphsu.clock2.alarms.Alarm;
-import com.philliphsu.clock2.alarms.data.AlarmCursor;
-import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
-import com.philliphsu.clock2.alarms.misc.AlarmController;
+import com.philliphsu.clock2.alarms.misc.BatchAlarmScheduler;
+
+import java.util.concurrent.CountDownLatch;
 
 /**
  * An {@link IntentService} subclass for handling asynchronous task requests in
@@ -79,18 +78,24 @@ public class OnBootUpAlarmScheduler extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         if (intent != null) {
-            AlarmController controller = new AlarmController(this, null);
             // IntentService works in a background thread, so this won't hold us up.
-            AlarmCursor cursor = new AlarmsTableManager(this).queryEnabledAlarms();
-            while (cursor.moveToNext()) {
-                Alarm alarm = cursor.getItem();
-                if (!alarm.isEnabled()) {
-                    throw new IllegalStateException(
-                            "queryEnabledAlarms() returned alarm(s) that aren't enabled");
+            // Only the nearest alarms are armed; the scheduler sets its own wakeup
+            // to arm the next ones, which comes back through OnBootUpReceiver.
+            new BatchAlarmScheduler(this, BatchAlarmScheduler.DEFAULT_WINDOW_SIZE).scheduleAll();
+            // The service, and maybe the process, is gone once we return, so don't leave
+            // the notifications to the batched update that arming the alarms asked for.
+            final CountDownLatch updated = new CountDownLatch(1);
+            UpcomingAlarmNotifier.getInstance(this).updateNow(new Runnable() {
+                @Override
+                public void run() {
+                    updated.countDown();
                 }
-                controller.scheduleAlarm(alarm, false);
+            });
+            try {
+                updated.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            cursor.close();
 
 /*            final String action = intent.getAction();
             if (ACTION_FOO.equals(action)) {
@@ -28,6 +28,7 @@ public class OnBootUpReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         // Note that this will be called when the device boots up, not when the app first launches.
         // We may have a lot of alarms to reschedule, so do this in the background using an IntentService.
+        // This is also the target of BatchAlarmScheduler.ACTION_ARM_NEXT_WINDOW, which does the same work.
         context.startService(new Intent(context, OnBootUpAlarmScheduler.class));
     }
 }
@@ -22,13 +22,12 @@ package com.philliphsu.clock2.alarms.background;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.util.Log;
 
 import com.philliphsu.clock2.alarms.Alarm;
-import com.philliphsu.clock2.alarms.data.AlarmCursor;
 import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
 import com.philliphsu.clock2.alarms.misc.AlarmController;
-
-import static com.philliphsu.clock2.util.Preconditions.checkNotNull;
+import com.philliphsu.clock2.alarms.misc.AlarmWriteExecutor;
 
 /**
  * Used to reschedule recurring alarms that were dismissed in their upcoming state, so {@link Alarm#ringsAt()}
@@ -38,6 +37,8 @@ import static com.philliphsu.clock2.util.Preconditions.checkNotNull;
  */
 // TODO: Consider registering this locally instead of in the manifest.
 public class PendingAlarmScheduler extends BroadcastReceiver {
+    private static final String TAG = "PendingAlarmScheduler";
+
     // We include the class name in the string to distinguish this constant from the one defined
     // in UpcomingAlarmReceiver.
     public static final String EXTRA_ALARM_ID = "com.philliphsu.clock2.alarms.background.PendingAlarmScheduler.extra.ALARM_ID";
@@ -48,31 +49,40 @@ public class PendingAlarmScheduler extends BroadcastReceiver {
         if (id < 0) {
             throw new IllegalStateException("No alarm id received");
         }
-        // Start our own thread to load the alarm instead of:
+        final PendingResult result = goAsync();
+        // Load the alarm on the alarm writer thread, instead of:
         //  * using a Loader, because we have no complex lifecycle and thus
         //  BroadcastReceiver has no built-in LoaderManager, AND getting a Loader
         //  to work here might be a hassle, let alone it might not even be appropriate to
         //  use Loaders outside of an Activity/Fragment, since it does depend on LoaderCallbacks.
         //  * using an AsyncTask, because we don't need to do anything on the UI thread
         //  after the background work is complete.
-        // TODO: Verify using a Runnable like this won't cause a memory leak.
-        // It *probably* won't because a BroadcastReceiver doesn't hold a Context,
-        // and it also doesn't have a lifecycle, so it likely won't stick around
-        // in memory.
-        new Thread(new Runnable() {
+        // Since saves of this alarm run on the same thread, we read its latest state.
+        AlarmWriteExecutor.getInstance(context).executor().execute(new Runnable() {
             @Override
             public void run() {
-                AlarmCursor cursor = new AlarmsTableManager(context).queryItem(id);
-                Alarm alarm = checkNotNull(cursor.getItem());
-                if (!alarm.isEnabled()) {
-                    throw new IllegalStateException("Alarm must be enabled!");
+                try {
+                    Alarm alarm = new AlarmsTableManager(context).getItem(id);
+                    if (alarm == null) {
+                        // Deleted since we were armed
+                        Log.w(TAG, "Alarm " + id + " no longer exists");
+                        return;
+                    }
+                    if (!alarm.isEnabled()) {
+                        throw new IllegalStateException("Alarm must be enabled!");
+                    }
+                    alarm.ignoreUpcomingRingTime(false); // allow #ringsWithinHours() to behave normally
+                    // No UI work is done
+                    AlarmController controller = new AlarmController(context, null);
+                    controller.scheduleAlarm(alarm, false);
+                    controller.save(alarm);
+                } finally {
+                    // Queued behind the save. The batched update it asked for runs off the
+                    // main looper, which our process may not live to see.
+                    UpcomingAlarmNotifier.getInstance(context).updateNow(
+                            UpcomingAlarmReceiver.finisher(result));
                 }
-                alarm.ignoreUpcomingRingTime(false); // allow #ringsWithinHours() to behave normally
-                // No UI work is done
-                AlarmController controller = new AlarmController(context, null);
-                controller.scheduleAlarm(alarm, false);
-                controller.save(alarm);
             }
-        }).start();
+        });
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.background;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.philliphsu.clock2.alarms.misc.AlarmWriteExecutor;
+import com.philliphsu.clock2.alarms.misc.TimeChangeRescheduler;
+
+/**
+ * Reschedules the alarms whose ring times moved when the time, time zone or
+ * locale changes.
+ */
+public class TimeChangedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        TimeChangeRescheduler.onTimeChanged(context);
+        final PendingResult result = goAsync();
+        // Run on the alarm writer thread, so that any saves still queued
+        // are in the table before we compare ring times.
+        AlarmWriteExecutor.getInstance(context).executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new TimeChangeRescheduler(context).rescheduleChanged();
+                    // The times shown in the notifications are formatted for the old zone or locale.
+                    UpcomingAlarmNotifier.getInstance(context).update();
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.background;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.os.TraceCompat;
+
+import com.philliphsu.clock2.MainActivity;
+import com.philliphsu.clock2.R;
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
+import com.philliphsu.clock2.alarms.data.NextAlarmIndex;
+import com.philliphsu.clock2.alarms.misc.AlarmPreferences;
+import com.philliphsu.clock2.alarms.misc.AlarmWriteExecutor;
+import com.philliphsu.clock2.alarms.misc.RingTimeCalculator;
+import com.philliphsu.clock2.util.ContentIntentUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.philliphsu.clock2.util.TimeFormatUtils.formatTime;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Posts the upcoming and snoozing alarm notifications, as children of one group summary.
+ *
+ * Instead of a wakeup per alarm, the notifications are worked out from the {@link NextAlarmIndex}:
+ * every alarm whose upcoming time falls within {@link #WINDOW_MILLIS} of now is shown, and a single
+ * wakeup is set for the next upcoming time after that. Calls to {@link #requestUpdate()} that
+ * land within {@link #BATCH_DELAY_MILLIS} of each other are served by one pass, which only
+ * notifies for the notifications that changed. Receivers and services, which may be gone
+ * before that delay runs out, use {@link #updateNow(Runnable)} instead.
+ */
+public final class UpcomingAlarmNotifier {
+    private static final String TAG = "UpcomingAlarmNotifier";
+
+    /** The tag that the notifications have always been posted with. */
+    private static final String NOTIFICATION_TAG = "UpcomingAlarmReceiver";
+    private static final String SUMMARY_TAG = "UpcomingAlarmSummary";
+    private static final int SUMMARY_ID = 0;
+    // Alarm ids are positive, so this won't replace the content intent of a child.
+    private static final int SUMMARY_REQUEST_CODE = -1;
+    private static final String GROUP_KEY = "com.philliphsu.clock2.alarms.group.UPCOMING";
+
+    private static final long BATCH_DELAY_MILLIS = 500;
+    /** Alarms that become upcoming this soon after a wakeup are shown by that wakeup. */
+    private static final long WINDOW_MILLIS = MINUTES.toMillis(5);
+
+    private static UpcomingAlarmNotifier sInstance;
+
+    private final Context mAppContext;
+    private final AlarmWriteExecutor mWriteExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mUpdatePending;
+    private int mRequestCount;
+    private int mPassCount;
+
+    // Only touched on the writer thread.
+    // The text last posted for each child, by alarm id. Null until the first pass in this process.
+    private Map<Long, String> mPosted;
+    private boolean mSummaryPosted;
+
+    private final Runnable mSubmitUpdate = new Runnable() {
+        @Override
+        public void run() {
+            // Queued behind the saves that were made before the batch delay ran out,
+            // so that we read their results.
+            mWriteExecutor.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    update();
+                }
+            });
+        }
+    };
+
+    public static synchronized UpcomingAlarmNotifier getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UpcomingAlarmNotifier(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UpcomingAlarmNotifier(Context appContext) {
+        mAppContext = appContext;
+        mWriteExecutor = AlarmWriteExecutor.getInstance(appContext);
+    }
+
+    /**
+     * Updates the notifications and the wakeup shortly, together with
+     * any other requests made in the meantime. Call from any thread.
+     */
+    public void requestUpdate() {
+        synchronized (this) {
+            mRequestCount++;
+            if (mUpdatePending) {
+                return;
+            }
+            mUpdatePending = true;
+            mHandler.postDelayed(mSubmitUpdate, BATCH_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Queues an update on the {@link AlarmWriteExecutor} thread right away, behind the writes
+     * queued so far, instead of waiting for the batch delay on the main looper. Call from any
+     * thread, including the writer thread.
+     * @param done run on the writer thread once the update is done, e.g. to finish a
+     *             {@link android.content.BroadcastReceiver.PendingResult}. May be null.
+     */
+    public void updateNow(@Nullable final Runnable done) {
+        mWriteExecutor.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    update();
+                } finally {
+                    if (done != null) {
+                        done.run();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates the notifications and the wakeup right away. Does blocking database
+     * work, so call this on the {@link AlarmWriteExecutor} thread.
+     */
+    public void update() {
+        synchronized (this) {
+            // This pass serves the requests made so far, since their writes are done by now.
+            // Requests made from now on may follow writes we won't read, so they need another pass.
+            mHandler.removeCallbacks(mSubmitUpdate);
+            mUpdatePending = false;
+            mPassCount++;
+        }
+        TraceCompat.beginSection("UpcomingAlarmNotifier.update");
+        try {
+            final RingTimeCalculator calculator = RingTimeCalculator.getDefault();
+            final long now = calculator.getClock().currentTimeMillis();
+            final int hoursBefore = AlarmPreferences.hoursBeforeUpcoming(mAppContext);
+            final NextAlarmIndex index = NextAlarmIndex.getInstance(mAppContext);
+            final AlarmsTableManager tableManager = new AlarmsTableManager(mAppContext);
+
+            // Only alarms that are snoozing, or that ring before the window
+            // closes, can be shown. Read just those, usually from the cache.
+            final Set<Long> ids = new HashSet<>();
+            for (long id : index.snoozing()) {
+                ids.add(id);
+            }
+            long bound = 0;
+            if (hoursBefore > 0) {
+                bound = now + HOURS.toMillis(hoursBefore) + WINDOW_MILLIS;
+                for (long id : index.ringingUpTo(bound)) {
+                    ids.add(id);
+                }
+            }
+            final List<Alarm> alarms = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                Alarm alarm = tableManager.getItem(id);
+                if (alarm != null && alarm.isEnabled()) {
+                    alarms.add(alarm);
+                }
+            }
+            UpcomingAlarmPlan plan = UpcomingAlarmPlan.of(alarms, calculator, now,
+                    hoursBefore, WINDOW_MILLIS);
+            long nextWakeupAt = plan.nextWakeupAt;
+            if (hoursBefore > 0) {
+                // The alarms we didn't read are all shown later than the window
+                final long ringsAt = index.firstRingTimeAfter(bound);
+                if (ringsAt != -1) {
+                    final long upcomingAt = ringsAt - HOURS.toMillis(hoursBefore);
+                    if (nextWakeupAt == 0 || upcomingAt < nextWakeupAt) {
+                        nextWakeupAt = upcomingAt;
+                    }
+                }
+            }
+            post(plan.shown);
+            armWakeup(nextWakeupAt);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * @return the number of calls to {@link #requestUpdate()}, and the number of update passes
+     * that served them, since the process started
+     */
+    @Override
+    public synchronized String toString() {
+        return TAG + "{requests=" + mRequestCount + ", passes=" + mPassCount + "}";
+    }
+
+    private void post(List<UpcomingAlarmPlan.Entry> shown) {
+        NotificationManager nm = (NotificationManager)
+                mAppContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (mPosted == null) {
+            // First pass in this process. Find what an earlier process left behind.
+            mPosted = new HashMap<>();
+            for (StatusBarNotification sbn : nm.getActiveNotifications()) {
+                if (NOTIFICATION_TAG.equals(sbn.getTag())) {
+                    mPosted.put((long) sbn.getId(), null);
+                } else if (SUMMARY_TAG.equals(sbn.getTag())) {
+                    mSummaryPosted = true;
+                }
+            }
+        }
+
+        boolean changed = false;
+        final Set<Long> stale = new HashSet<>(mPosted.keySet());
+        final List<String> lines = new ArrayList<>(shown.size());
+        for (UpcomingAlarmPlan.Entry u : shown) {
+            final long id = u.alarm.getId();
+            stale.remove(id);
+            final String title = titleOf(u);
+            final String text = textOf(u);
+            lines.add(title + ", " + text);
+            final String posted = title + '\n' + text;
+            if (!posted.equals(mPosted.get(id))) {
+                nm.notify(NOTIFICATION_TAG, (int) id, buildChild(u, title, text));
+                mPosted.put(id, posted);
+                changed = true;
+            }
+        }
+        for (Long id : stale) {
+            nm.cancel(NOTIFICATION_TAG, id.intValue());
+            mPosted.remove(id);
+            changed = true;
+        }
+
+        if (shown.isEmpty()) {
+            if (mSummaryPosted) {
+                nm.cancel(SUMMARY_TAG, SUMMARY_ID);
+                mSummaryPosted = false;
+            }
+        } else if (changed || !mSummaryPosted) {
+            nm.notify(SUMMARY_TAG, SUMMARY_ID, buildSummary(shown.get(0).alarm.getId(), lines));
+            mSummaryPosted = true;
+        }
+        Log.d(TAG, "Showing " + shown.size() + " upcoming alarms, " + this);
+    }
+
+    private void armWakeup(long wakeupAt) {
+        AlarmManager am = (AlarmManager) mAppContext.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(mAppContext, UpcomingAlarmReceiver.class)
+                .setAction(UpcomingAlarmReceiver.ACTION_UPDATE_NOTIFICATIONS);
+        PendingIntent pi = PendingIntent.getBroadcast(mAppContext, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        if (wakeupAt == 0) {
+            am.cancel(pi);
+        } else {
+            // We use a WAKEUP alarm so the notifications are posted even if the
+            // device is asleep. Otherwise, they will not go off until the device is turned back on.
+            am.set(AlarmManager.RTC_WAKEUP, wakeupAt, pi);
+        }
+    }
+
+    private String titleOf(UpcomingAlarmPlan.Entry u) {
+        if (u.snoozing) {
+            return u.alarm.label().isEmpty() ? mAppContext.getString(R.string.alarm) : u.alarm.label();
+        }
+        return mAppContext.getString(R.string.upcoming_alarm);
+    }
+
+    private String textOf(UpcomingAlarmPlan.Entry u) {
+        if (u.snoozing) {
+            return mAppContext.getString(R.string.title_snoozing_until,
+                    formatTime(mAppContext, u.ringsAt));
+        }
+        String text = formatTime(mAppContext, u.ringsAt);
+        return u.alarm.label().isEmpty() ? text : u.alarm.label() + ", " + text;
+    }
+
+    private Notification buildChild(UpcomingAlarmPlan.Entry u, String title, String text) {
+        final long id = u.alarm.getId();
+        PendingIntent piDismiss = PendingIntent.getBroadcast(mAppContext, (int) id,
+                UpcomingAlarmReceiver.dismissNowIntent(mAppContext, u.alarm),
+                PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(mAppContext)
+                .setSmallIcon(R.drawable.ic_alarm_24dp)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setContentIntent(ContentIntentUtils.create(mAppContext,
+                        MainActivity.PAGE_ALARMS, id))
+                .addAction(R.drawable.ic_dismiss_alarm_24dp,
+                        mAppContext.getString(R.string.dismiss_now), piDismiss)
+                .setGroup(GROUP_KEY)
+                // Zero-padded, so that the children sort by ring time
+                .setSortKey(String.format(Locale.US, "%019d", u.ringsAt))
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+
+    private Notification buildSummary(long firstId, List<String> lines) {
+        final String title = mAppContext.getResources().getQuantityString(
+                R.plurals.upcoming_alarms, lines.size(), lines.size());
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        for (String line : lines) {
+            style.addLine(line);
+        }
+        return new NotificationCompat.Builder(mAppContext)
+                .setSmallIcon(R.drawable.ic_alarm_24dp)
+                .setContentTitle(title)
+                .setContentText(lines.get(0))
+                .setContentIntent(ContentIntentUtils.create(mAppContext,
+                        MainActivity.PAGE_ALARMS, firstId, SUMMARY_REQUEST_CODE))
+                .setStyle(style)
+                .setGroup(GROUP_KEY)
+                .setGroupSummary(true)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+}
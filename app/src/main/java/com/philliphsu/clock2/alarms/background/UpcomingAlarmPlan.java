@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.background;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.RingTimeCalculator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+/**
+ * Which alarms {@link UpcomingAlarmNotifier} shows notifications for, and when it
+ * next needs to wake up.
+ */
+/*package*/ final class UpcomingAlarmPlan {
+
+    /*package*/ static final class Entry {
+        final Alarm alarm;
+        /** The ring time, or the end of the snooze */
+        final long ringsAt;
+        final boolean snoozing;
+
+        Entry(Alarm alarm, long ringsAt, boolean snoozing) {
+            this.alarm = alarm;
+            this.ringsAt = ringsAt;
+            this.snoozing = snoozing;
+        }
+    }
+
+    /** In order of ring time */
+    final List<Entry> shown;
+    /** 0 if there is nothing to wake up for */
+    final long nextWakeupAt;
+
+    private UpcomingAlarmPlan(List<Entry> shown, long nextWakeupAt) {
+        this.shown = shown;
+        this.nextWakeupAt = nextWakeupAt;
+    }
+
+    /**
+     * Snoozed alarms are shown until their snooze ends. Other alarms are shown from
+     * {@code hoursToNotifyInAdvance} before they ring, unless they are ignoring that ring time.
+     * Alarms that would be shown within {@code windowMillis} of now are shown already, so that
+     * the wakeup for the first of them serves them all.
+     */
+    static UpcomingAlarmPlan of(List<Alarm> enabledAlarms, RingTimeCalculator calculator,
+                                long now, int hoursToNotifyInAdvance, long windowMillis) {
+        final List<Entry> shown = new ArrayList<>();
+        long nextWakeupAt = 0;
+        for (Alarm alarm : enabledAlarms) {
+            if (alarm.isSnoozed()) {
+                shown.add(new Entry(alarm, alarm.snoozingUntil(), true));
+                continue;
+            }
+            if (hoursToNotifyInAdvance <= 0 || alarm.isIgnoringUpcomingRingTime()) {
+                continue;
+            }
+            final long ringsAt = calculator.ringsAt(
+                    alarm.hour(), alarm.minutes(), alarm.daysMask(), now);
+            final long upcomingAt = ringsAt - HOURS.toMillis(hoursToNotifyInAdvance);
+            if (upcomingAt <= now + windowMillis) {
+                shown.add(new Entry(alarm, ringsAt, false));
+            } else if (nextWakeupAt == 0 || upcomingAt < nextWakeupAt) {
+                nextWakeupAt = upcomingAt;
+            }
+        }
+        Collections.sort(shown, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.ringsAt < rhs.ringsAt ? -1 : (lhs.ringsAt == rhs.ringsAt ? 0 : 1);
+            }
+        });
+        return new UpcomingAlarmPlan(shown, nextWakeupAt);
+    }
+}
@@ -19,90 +19,92 @@
 
 package com.philliphsu.clock2.alarms.background;
 
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import androidx.core.app.NotificationCompat;
 
-import com.philliphsu.clock2.MainActivity;
-import com.philliphsu.clock2.R;
 import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.AlarmCache;
 import com.philliphsu.clock2.alarms.misc.AlarmController;
-import com.philliphsu.clock2.util.ContentIntentUtils;
+import com.philliphsu.clock2.alarms.misc.AlarmWriteExecutor;
 import com.philliphsu.clock2.util.ParcelableUtil;
 
-import static com.philliphsu.clock2.util.TimeFormatUtils.formatTime;
-
+/**
+ * Receives the wakeup set by {@link UpcomingAlarmNotifier}, and the "Dismiss now"
+ * action of the notifications it posts.
+ */
 // TODO: Consider registering this locally instead of in the manifest.
 public class UpcomingAlarmReceiver extends BroadcastReceiver {
     private static final String TAG = "UpcomingAlarmReceiver";
     /*TOneverDO: not private*/
     private static final String ACTION_DISMISS_NOW = "com.philliphsu.clock2.action.DISMISS_NOW";
 
-    public static final String ACTION_CANCEL_NOTIFICATION = "com.philliphsu.clock2.action.CANCEL_NOTIFICATION";
-    public static final String ACTION_SHOW_SNOOZING = "com.philliphsu.clock2.action.SHOW_SNOOZING";
+    public static final String ACTION_UPDATE_NOTIFICATIONS = "com.philliphsu.clock2.action.UPDATE_NOTIFICATIONS";
+    /** The whole marshalled alarm. Only found in intents made by older versions of the app. */
     public static final String EXTRA_ALARM = "com.philliphsu.clock2.extra.ALARM";
 
+    /*package*/ static Intent dismissNowIntent(Context context, Alarm alarm) {
+        return AlarmCache.getInstance(context).putExtras(
+                new Intent(context, UpcomingAlarmReceiver.class).setAction(ACTION_DISMISS_NOW),
+                alarm);
+    }
+
     @Override
     public void onReceive(final Context context, final Intent intent) {
-        final byte[] alarmBytes = intent.getByteArrayExtra(EXTRA_ALARM);
-        // Unmarshall the bytes into a parcel and create our Alarm with it.
-        final Alarm alarm = ParcelableUtil.unmarshall(alarmBytes, Alarm.CREATOR);
-        if (alarm == null) {
-            throw new IllegalStateException("No alarm received");
-        }
-
-        final long id = alarm.getId();
-        final NotificationManager nm = (NotificationManager)
-                context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-        final boolean actionShowSnoozing = ACTION_SHOW_SNOOZING.equals(intent.getAction());
-        if (intent.getAction() == null || actionShowSnoozing) {
-            // Prepare notification
-            // http://stackoverflow.com/a/15803726/5055032
-            // Notifications aren't updated on the UI thread, so we could have
-            // done this in the background. However, no lengthy operations are
-            // done here, so doing so is a premature optimization.
-            String title;
-            String text;
-            if (actionShowSnoozing) {
-                if (!alarm.isSnoozed()) {
-                    throw new IllegalStateException("Can't show snoozing notif. if alarm not snoozed!");
+        final PendingResult result = goAsync();
+        if (ACTION_DISMISS_NOW.equals(intent.getAction())) {
+            // Reading the alarm may query the table, so do it on the writer thread.
+            AlarmWriteExecutor.getInstance(context).executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final Alarm alarm = readAlarm(context, intent);
+                        // Null if the alarm was deleted after this intent was made.
+                        if (alarm != null) {
+                            new AlarmController(context, null).cancelAlarm(alarm, false, true);
+                        }
+                    } finally {
+                        // Queued behind the save of the cancel, which drops the notification
+                        UpcomingAlarmNotifier.getInstance(context).updateNow(finisher(result));
+                    }
                 }
-                title = alarm.label().isEmpty() ? context.getString(R.string.alarm) : alarm.label();
-                text = context.getString(R.string.title_snoozing_until,
-                        formatTime(context, alarm.snoozingUntil()));
-            } else {
-                // No intent action required for default behavior
-                title = context.getString(R.string.upcoming_alarm);
-                text = formatTime(context, alarm.ringsAt());
-                if (!alarm.label().isEmpty()) {
-                    text = alarm.label() + ", " + text;
+            });
+            return;
+        }
+        // ACTION_UPDATE_NOTIFICATIONS, or the per-alarm wakeup of an older version of the app.
+        // Either way, work out all the notifications again.
+        AlarmWriteExecutor.getInstance(context).executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    UpcomingAlarmNotifier.getInstance(context).update();
+                } finally {
+                    result.finish();
                 }
             }
+        });
+    }
+
+    /*package*/ static Runnable finisher(final PendingResult result) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        };
+    }
 
-            Intent dismissIntent = new Intent(context, UpcomingAlarmReceiver.class)
-                    .setAction(ACTION_DISMISS_NOW)
-                    .putExtra(EXTRA_ALARM, ParcelableUtil.marshall(alarm));
-            PendingIntent piDismiss = PendingIntent.getBroadcast(context, (int) id,
-                    dismissIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-            Notification note = new NotificationCompat.Builder(context)
-                    .setSmallIcon(R.drawable.ic_alarm_24dp)
-                    .setContentTitle(title)
-                    .setContentText(text)
-                    .setContentIntent(ContentIntentUtils.create(context,
-                            MainActivity.PAGE_ALARMS, id))
-                    .addAction(R.drawable.ic_dismiss_alarm_24dp,
-                            context.getString(R.string.dismiss_now), piDismiss)
-                    .build();
-            nm.notify(TAG, (int) id, note);
-        } else if (ACTION_CANCEL_NOTIFICATION.equals(intent.getAction())) {
-            nm.cancel(TAG, (int) id);
-        } else if (ACTION_DISMISS_NOW.equals(intent.getAction())) {
-            new AlarmController(context, null).cancelAlarm(alarm, false, true);
+    /**
+     * Intents made before alarms were referred to by id still carry the whole alarm.
+     */
+    private static Alarm readAlarm(Context context, Intent intent) {
+        if (intent.hasExtra(AlarmCache.EXTRA_ALARM_ID)) {
+            return AlarmCache.getInstance(context).fromExtras(intent);
+        }
+        final byte[] alarmBytes = intent.getByteArrayExtra(EXTRA_ALARM);
+        if (alarmBytes == null) {
+            throw new IllegalStateException("No alarm received");
         }
+        return ParcelableUtil.unmarshall(alarmBytes, Alarm.CREATOR);
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.data.EntityCache;
+
+/**
+ * The latest known state of each alarm in this process, by id.
+ *
+ * Intents that refer to an alarm carry only its id and the version of its state at the time
+ * the intent was made, see {@link #putExtras(Intent, Alarm)}. The receiver looks the alarm up
+ * here with {@link #fromExtras(Intent)}. If the process was restarted in between, the alarm is
+ * read from the table instead.
+ *
+ * The one exception is the intent that rings the alarm, which also carries what it takes to
+ * ring it, so that the ringing screen and service can start without reading the table on the
+ * main thread, see {@link #putRingingExtras(Intent, Alarm)}.
+ *
+ * The cache hands out copies, since {@link Alarm} is mutable. It holds the most recently
+ * used alarms, and {@link AlarmsTableManager} writes through it, see {@link EntityCache}.
+ */
+public final class AlarmCache {
+    private static final String TAG = "AlarmCache";
+
+    public static final String EXTRA_ALARM_ID = "com.philliphsu.clock2.alarms.data.extra.ALARM_ID";
+    public static final String EXTRA_ALARM_VERSION = "com.philliphsu.clock2.alarms.data.extra.ALARM_VERSION";
+    // What the alarm rings with, only in ringing intents
+    private static final String EXTRA_ALARM_HOUR = "com.philliphsu.clock2.alarms.data.extra.ALARM_HOUR";
+    private static final String EXTRA_ALARM_MINUTES = "com.philliphsu.clock2.alarms.data.extra.ALARM_MINUTES";
+    private static final String EXTRA_ALARM_LABEL = "com.philliphsu.clock2.alarms.data.extra.ALARM_LABEL";
+    private static final String EXTRA_ALARM_RINGTONE = "com.philliphsu.clock2.alarms.data.extra.ALARM_RINGTONE";
+    private static final String EXTRA_ALARM_VIBRATES = "com.philliphsu.clock2.alarms.data.extra.ALARM_VIBRATES";
+
+    private static final int MAX_SIZE = 128;
+
+    private static AlarmCache sInstance;
+
+    private final Context mAppContext;
+    private final EntityCache<Alarm> mEntities = new EntityCache<>(MAX_SIZE,
+            new EntityCache.Copier<Alarm>() {
+                @Override
+                public Alarm copy(Alarm alarm) {
+                    Alarm copy = alarm.toBuilder().build();
+                    alarm.copyMutableFieldsTo(copy);
+                    return copy;
+                }
+            });
+
+    public static synchronized AlarmCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AlarmCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AlarmCache(Context appContext) {
+        mAppContext = appContext;
+    }
+
+    /**
+     * Stores a copy of the alarm's current state, under a new version.
+     */
+    public void put(Alarm alarm) {
+        mEntities.put(alarm);
+    }
+
+    public void remove(long id) {
+        mEntities.remove(id);
+    }
+
+    public void clear() {
+        mEntities.clear();
+    }
+
+    /**
+     * @return a copy of the alarm with this id, or null if it is not in the table.
+     * On a cache miss, this reads the table on the calling thread.
+     */
+    public Alarm get(long id) {
+        return new AlarmsTableManager(mAppContext).getItem(id);
+    }
+
+    /**
+     * @return the version of the alarm's cached state, or -1 if it isn't cached
+     */
+    public long versionOf(long id) {
+        return mEntities.versionOf(id);
+    }
+
+    /**
+     * The cache that {@link AlarmsTableManager} writes through.
+     */
+    EntityCache<Alarm> entities() {
+        return mEntities;
+    }
+
+    /**
+     * Caches the alarm and refers to it from the intent by id and version.
+     */
+    public Intent putExtras(Intent intent, Alarm alarm) {
+        final long version;
+        synchronized (mEntities) {
+            put(alarm);
+            version = versionOf(alarm.getId());
+        }
+        return putIdExtras(intent, alarm.getId(), version);
+    }
+
+    /**
+     * Refers to the alarm from the intent that rings it, along with what it rings with,
+     * see {@link #ringingStateFromExtras(Intent)}. Doesn't cache the alarm, since this is
+     * also used to pass on the ringing state, which may not be the whole alarm.
+     */
+    public Intent putRingingExtras(Intent intent, Alarm alarm) {
+        return putIdExtras(intent, alarm.getId(), versionOf(alarm.getId()))
+                .putExtra(EXTRA_ALARM_HOUR, alarm.hour())
+                .putExtra(EXTRA_ALARM_MINUTES, alarm.minutes())
+                .putExtra(EXTRA_ALARM_LABEL, alarm.label())
+                .putExtra(EXTRA_ALARM_RINGTONE, alarm.ringtone())
+                .putExtra(EXTRA_ALARM_VIBRATES, alarm.vibrates());
+    }
+
+    /**
+     * @return the latest state of the alarm that the intent refers to, or null if the
+     * intent doesn't refer to an alarm or the alarm has since been deleted
+     */
+    public Alarm fromExtras(Intent intent) {
+        final long id = intent.getLongExtra(EXTRA_ALARM_ID, -1);
+        if (id < 0) {
+            return null;
+        }
+        final long version = intent.getLongExtra(EXTRA_ALARM_VERSION, -1);
+        final Alarm alarm = get(id);
+        if (alarm != null && version != versionOf(id)) {
+            Log.d(TAG, "Alarm " + id + " changed since the intent was made");
+        }
+        return alarm;
+    }
+
+    /**
+     * @return enough of the alarm that the intent refers to for it to ring: its id, time,
+     * label, ringtone and vibration. This is the cached alarm if there is one, or else is
+     * made from the ringing intent, so it doesn't read the table unless the intent is from
+     * an older version of the app. Returns null if the intent doesn't refer to an alarm.
+     */
+    public Alarm ringingStateFromExtras(Intent intent) {
+        final long id = intent.getLongExtra(EXTRA_ALARM_ID, -1);
+        if (id < 0) {
+            return null;
+        }
+        final Alarm cached = mEntities.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        if (!intent.hasExtra(EXTRA_ALARM_HOUR)) {
+            return get(id);
+        }
+        final Alarm alarm = Alarm.builder()
+                .hour(intent.getIntExtra(EXTRA_ALARM_HOUR, 0))
+                .minutes(intent.getIntExtra(EXTRA_ALARM_MINUTES, 0))
+                .label(intent.getStringExtra(EXTRA_ALARM_LABEL))
+                .ringtone(intent.getStringExtra(EXTRA_ALARM_RINGTONE))
+                .vibrates(intent.getBooleanExtra(EXTRA_ALARM_VIBRATES, false))
+                .build();
+        alarm.setId(id);
+        alarm.setEnabled(true);
+        return alarm;
+    }
+
+    private static Intent putIdExtras(Intent intent, long id, long version) {
+        return intent.putExtra(EXTRA_ALARM_ID, id)
+                .putExtra(EXTRA_ALARM_VERSION, version);
+    }
+}
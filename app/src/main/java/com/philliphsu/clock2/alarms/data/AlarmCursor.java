@@ -24,14 +24,6 @@ import android.database.Cursor;
 import com.philliphsu.clock2.alarms.Alarm;
 import com.philliphsu.clock2.data.BaseItemCursor;
 
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.FRIDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.MONDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.SATURDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.SUNDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.THURSDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.TUESDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.WEDNESDAY;
-
 /**
  * Created by Phillip Hsu on 7/30/2016.
  */
@@ -43,8 +35,29 @@ import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.WEDNESDAY;
 public class AlarmCursor extends BaseItemCursor<Alarm> {
     private static final String TAG = "AlarmCursor";
 
+    private final int mIdColumn;
+    private final int mHourColumn;
+    private final int mMinutesColumn;
+    private final int mLabelColumn;
+    private final int mRingtoneColumn;
+    private final int mVibratesColumn;
+    private final int mEnabledColumn;
+    private final int mSnoozingColumn;
+    private final int mDaysMaskColumn;
+    private final int mIgnoreUpcomingColumn;
+
     public AlarmCursor(Cursor c) {
         super(c);
+        mIdColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_ID);
+        mHourColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_HOUR);
+        mMinutesColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_MINUTES);
+        mLabelColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_LABEL);
+        mRingtoneColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_RINGTONE);
+        mVibratesColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_VIBRATES);
+        mEnabledColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_ENABLED);
+        mSnoozingColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS);
+        mDaysMaskColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_DAYS_MASK);
+        mIgnoreUpcomingColumn = getColumnIndexOrThrow(AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME);
     }
 
     /**
@@ -53,26 +66,41 @@ public class AlarmCursor extends BaseItemCursor<Alarm> {
      */
     @Override
     public Alarm getItem() {
+        return getItem(null);
+    }
+
+    /**
+     * Only the mutable fields of an Alarm can be filled in, so {@code reuse}
+     * is only reused if its other fields already match the current row.
+     */
+    @Override
+    public Alarm getItem(Alarm reuse) {
         if (isBeforeFirst() || isAfterLast())
             return null;
-        Alarm alarm = Alarm.builder()
-                .hour(getInt(getColumnIndexOrThrow(AlarmsTable.COLUMN_HOUR)))
-                .minutes(getInt(getColumnIndexOrThrow(AlarmsTable.COLUMN_MINUTES)))
-                .vibrates(isTrue(AlarmsTable.COLUMN_VIBRATES))
-                .ringtone(getString(getColumnIndexOrThrow(AlarmsTable.COLUMN_RINGTONE)))
-                .label(getString(getColumnIndexOrThrow(AlarmsTable.COLUMN_LABEL)))
-                .build();
-        alarm.setId(getLong(getColumnIndexOrThrow(AlarmsTable.COLUMN_ID)));
-        alarm.setEnabled(isTrue(AlarmsTable.COLUMN_ENABLED));
-        alarm.setSnoozing(getLong(getColumnIndexOrThrow(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS)));
-        alarm.setRecurring(SUNDAY, isTrue(AlarmsTable.COLUMN_SUNDAY));
-        alarm.setRecurring(MONDAY, isTrue(AlarmsTable.COLUMN_MONDAY));
-        alarm.setRecurring(TUESDAY, isTrue(AlarmsTable.COLUMN_TUESDAY));
-        alarm.setRecurring(WEDNESDAY, isTrue(AlarmsTable.COLUMN_WEDNESDAY));
-        alarm.setRecurring(THURSDAY, isTrue(AlarmsTable.COLUMN_THURSDAY));
-        alarm.setRecurring(FRIDAY, isTrue(AlarmsTable.COLUMN_FRIDAY));
-        alarm.setRecurring(SATURDAY, isTrue(AlarmsTable.COLUMN_SATURDAY));
-        alarm.ignoreUpcomingRingTime(isTrue(AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME));
+        final int hour = getInt(mHourColumn);
+        final int minutes = getInt(mMinutesColumn);
+        final boolean vibrates = isTrue(mVibratesColumn);
+        final String ringtone = getString(mRingtoneColumn);
+        final String label = getString(mLabelColumn);
+        final Alarm alarm;
+        if (reuse != null && reuse.hour() == hour && reuse.minutes() == minutes
+                && reuse.vibrates() == vibrates && reuse.ringtone().equals(ringtone)
+                && reuse.label().equals(label)) {
+            alarm = reuse;
+        } else {
+            alarm = Alarm.builder()
+                    .hour(hour)
+                    .minutes(minutes)
+                    .vibrates(vibrates)
+                    .ringtone(ringtone)
+                    .label(label)
+                    .build();
+        }
+        alarm.setId(getLong(mIdColumn));
+        alarm.setEnabled(isTrue(mEnabledColumn));
+        alarm.setSnoozing(getLong(mSnoozingColumn));
+        alarm.setDaysMask(getInt(mDaysMaskColumn));
+        alarm.ignoreUpcomingRingTime(isTrue(mIgnoreUpcomingColumn));
         return alarm;
     }
 }
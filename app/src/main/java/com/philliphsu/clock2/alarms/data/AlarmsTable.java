@@ -19,8 +19,23 @@
 
 package com.philliphsu.clock2.alarms.data;
 
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.DaysOfWeek;
+import com.philliphsu.clock2.data.ClockAppDatabaseHelper;
+import com.philliphsu.clock2.data.Migration;
+import com.philliphsu.clock2.data.MigrationRunner;
+
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.FRIDAY;
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.MONDAY;
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.SATURDAY;
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.SUNDAY;
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.THURSDAY;
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.TUESDAY;
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.WEDNESDAY;
+
 /**
  * Created by Phillip Hsu on 7/30/2016.
  */
@@ -45,15 +60,24 @@ public final class AlarmsTable {
     public static final String COLUMN_RING_TIME_MILLIS = "ring_time_millis";
 
     public static final String COLUMN_SNOOZING_UNTIL_MILLIS = "snoozing_until_millis";
-    public static final String COLUMN_SUNDAY = "sunday";
-    public static final String COLUMN_MONDAY = "monday";
-    public static final String COLUMN_TUESDAY = "tuesday";
-    public static final String COLUMN_WEDNESDAY = "wednesday";
-    public static final String COLUMN_THURSDAY = "thursday";
-    public static final String COLUMN_FRIDAY = "friday";
-    public static final String COLUMN_SATURDAY = "saturday";
+    /**
+     * The recurring days, stored as a 7-bit mask where bit {@code i} is set if the
+     * alarm recurs on week day {@code i}, as defined in {@link DaysOfWeek}.
+     * @see Alarm#daysMask()
+     */
+    public static final String COLUMN_DAYS_MASK = "days_mask";
     public static final String COLUMN_IGNORE_UPCOMING_RING_TIME = "ignore_upcoming_ring_time";
 
+    // Version 1 of the schema stored each recurring day in its own column.
+    // These are only referenced when migrating old rows to COLUMN_DAYS_MASK.
+    @Deprecated private static final String COLUMN_SUNDAY = "sunday";
+    @Deprecated private static final String COLUMN_MONDAY = "monday";
+    @Deprecated private static final String COLUMN_TUESDAY = "tuesday";
+    @Deprecated private static final String COLUMN_WEDNESDAY = "wednesday";
+    @Deprecated private static final String COLUMN_THURSDAY = "thursday";
+    @Deprecated private static final String COLUMN_FRIDAY = "friday";
+    @Deprecated private static final String COLUMN_SATURDAY = "saturday";
+
     // First sort by ring time in ascending order (smaller values first),
     // then break ties by sorting by id in ascending order.
     @Deprecated
@@ -85,8 +109,153 @@ public final class AlarmsTable {
             // All else equal, newer alarms first
             + COLUMN_ID + " DESC"; // TODO: If duplicate alarm times disallowed, delete this
 
+    /** Serves the list query, which sorts by {@link #NEW_SORT_ORDER}. */
+    public static final String INDEX_SORT_ORDER = "alarms_sort_order_idx";
+    /** Serves {@link #WHERE_ENABLED}, with or without {@link #NEW_SORT_ORDER}. */
+    public static final String INDEX_ENABLED = "alarms_enabled_idx";
+
+    public static final String WHERE_ENABLED = COLUMN_ENABLED + " = 1";
+    public static final String WHERE_ID = COLUMN_ID + " = ?";
+
+    /**
+     * The columns that a list row binds. Leaves out the deprecated ring time.
+     */
+    public static final String[] LIST_PROJECTION = {
+            COLUMN_ID,
+            COLUMN_HOUR,
+            COLUMN_MINUTES,
+            COLUMN_LABEL,
+            COLUMN_RINGTONE,
+            COLUMN_VIBRATES,
+            COLUMN_ENABLED,
+            COLUMN_SNOOZING_UNTIL_MILLIS,
+            COLUMN_DAYS_MASK,
+            COLUMN_IGNORE_UPCOMING_RING_TIME
+    };
+
+    /**
+     * The columns needed to compute when an alarm rings, without the label and
+     * ringtone. Rows queried with this projection can't be made into an {@link Alarm}.
+     */
+    public static final String[] SCHEDULE_PROJECTION = {
+            COLUMN_ID,
+            COLUMN_HOUR,
+            COLUMN_MINUTES,
+            COLUMN_RING_TIME_MILLIS,
+            COLUMN_SNOOZING_UNTIL_MILLIS,
+            COLUMN_DAYS_MASK,
+            COLUMN_IGNORE_UPCOMING_RING_TIME
+    };
+
     public static void onCreate(SQLiteDatabase db) {
-        db.execSQL("CREATE TABLE " + TABLE_ALARMS + " ("
+        createTable(db, TABLE_ALARMS);
+        createIndexes(db);
+    }
+
+    public static void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < ClockAppDatabaseHelper.VERSION_2) {
+            MigrationRunner.schedule(db, RECURRING_DAYS_TO_MASK);
+        }
+        if (oldVersion < ClockAppDatabaseHelper.VERSION_3) {
+            createIndexes(db);
+        }
+    }
+
+    /**
+     * @return a WHERE clause that selects the alarms recurring on {@code day}
+     */
+    public static String whereRecurringOn(int day) {
+        return "(" + COLUMN_DAYS_MASK + " & " + (1 << day) + ") != 0";
+    }
+
+    /**
+     * Rebuilds the table in place, folding the seven day-of-week columns of
+     * version 1 into {@link #COLUMN_DAYS_MASK}. SQLite can't drop columns on
+     * the versions we support, so we copy the rows to a new table and swap it in.
+     * The rows are copied in chunks, after the upgrade, see {@link MigrationRunner}.
+     */
+    public static final Migration RECURRING_DAYS_TO_MASK = new RecurringDaysToMaskMigration();
+
+    static class RecurringDaysToMaskMigration extends Migration {
+        private final String mTempTable = TABLE_ALARMS + "_v2";
+        private final String mCopySql = "INSERT INTO " + mTempTable + " ("
+                + COLUMN_ID + ", "
+                + COLUMN_HOUR + ", "
+                + COLUMN_MINUTES + ", "
+                + COLUMN_LABEL + ", "
+                + COLUMN_RINGTONE + ", "
+                + COLUMN_VIBRATES + ", "
+                + COLUMN_ENABLED + ", "
+                + COLUMN_RING_TIME_MILLIS + ", "
+                + COLUMN_SNOOZING_UNTIL_MILLIS + ", "
+                + COLUMN_DAYS_MASK + ", "
+                + COLUMN_IGNORE_UPCOMING_RING_TIME + ") SELECT "
+                + COLUMN_ID + ", "
+                + COLUMN_HOUR + ", "
+                + COLUMN_MINUTES + ", "
+                + COLUMN_LABEL + ", "
+                + COLUMN_RINGTONE + ", "
+                + COLUMN_VIBRATES + ", "
+                + COLUMN_ENABLED + ", "
+                + COLUMN_RING_TIME_MILLIS + ", "
+                + COLUMN_SNOOZING_UNTIL_MILLIS + ", "
+                // << and | have the same precedence in SQLite, so each shift needs parentheses.
+                + dayBit(COLUMN_SUNDAY, SUNDAY) + " | "
+                + dayBit(COLUMN_MONDAY, MONDAY) + " | "
+                + dayBit(COLUMN_TUESDAY, TUESDAY) + " | "
+                + dayBit(COLUMN_WEDNESDAY, WEDNESDAY) + " | "
+                + dayBit(COLUMN_THURSDAY, THURSDAY) + " | "
+                + dayBit(COLUMN_FRIDAY, FRIDAY) + " | "
+                + dayBit(COLUMN_SATURDAY, SATURDAY) + ", "
+                + COLUMN_IGNORE_UPCOMING_RING_TIME
+                + " FROM " + TABLE_ALARMS
+                + " WHERE " + COLUMN_ID + " > ? ORDER BY " + COLUMN_ID + " LIMIT ?";
+        // The rows are copied in order of id, so the greatest id in the copy is the last one copied.
+        private final String mLastIdSql = "SELECT IFNULL(MAX(" + COLUMN_ID + "), ?) FROM " + mTempTable;
+
+        @Override
+        public String getName() {
+            return "alarms_recurring_days_to_mask";
+        }
+
+        @Override
+        protected void onStart(SQLiteDatabase db) {
+            db.execSQL("DROP TABLE IF EXISTS " + mTempTable);
+            createTable(db, mTempTable);
+        }
+
+        @Override
+        protected long copyChunk(SQLiteDatabase db, long afterId, int limit) {
+            db.execSQL(mCopySql, new Object[] {afterId, limit});
+            return DatabaseUtils.longForQuery(db, mLastIdSql, new String[] {String.valueOf(afterId)});
+        }
+
+        @Override
+        protected void onFinish(SQLiteDatabase db) {
+            db.execSQL("DROP TABLE " + TABLE_ALARMS);
+            db.execSQL("ALTER TABLE " + mTempTable + " RENAME TO " + TABLE_ALARMS);
+            createIndexes(db);
+        }
+    }
+
+    /**
+     * The index columns follow {@link #NEW_SORT_ORDER}, so that SQLite can walk the index
+     * in order instead of sorting the rows in a temporary B-tree.
+     */
+    private static void createIndexes(SQLiteDatabase db) {
+        final String sortColumns = COLUMN_HOUR + " ASC, " + COLUMN_MINUTES + " ASC, " + COLUMN_ID + " DESC";
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SORT_ORDER + " ON " + TABLE_ALARMS
+                + " (" + sortColumns + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_ENABLED + " ON " + TABLE_ALARMS
+                + " (" + COLUMN_ENABLED + ", " + sortColumns + ")");
+    }
+
+    private static String dayBit(String dayColumn, int day) {
+        return "((" + dayColumn + " != 0) << " + day + ")";
+    }
+
+    private static void createTable(SQLiteDatabase db, String tableName) {
+        db.execSQL("CREATE TABLE " + tableName + " ("
                 // https://sqlite.org/autoinc.html
                 // If the AUTOINCREMENT keyword appears after INTEGER PRIMARY KEY, that changes the
                 // automatic ROWID assignment algorithm to prevent the reuse of ROWIDs over the
@@ -101,18 +270,7 @@ public final class AlarmsTable {
                 + COLUMN_ENABLED + " INTEGER NOT NULL, "
                 + COLUMN_RING_TIME_MILLIS + " INTEGER NOT NULL, "
                 + COLUMN_SNOOZING_UNTIL_MILLIS + " INTEGER, "
-                + COLUMN_SUNDAY + " INTEGER NOT NULL DEFAULT 0, "
-                + COLUMN_MONDAY + " INTEGER NOT NULL DEFAULT 0, "
-                + COLUMN_TUESDAY + " INTEGER NOT NULL DEFAULT 0, "
-                + COLUMN_WEDNESDAY + " INTEGER NOT NULL DEFAULT 0, "
-                + COLUMN_THURSDAY + " INTEGER NOT NULL DEFAULT 0, "
-                + COLUMN_FRIDAY + " INTEGER NOT NULL DEFAULT 0, "
-                + COLUMN_SATURDAY + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DAYS_MASK + " INTEGER NOT NULL DEFAULT 0, "
                 + COLUMN_IGNORE_UPCOMING_RING_TIME + " INTEGER NOT NULL);");
     }
-
-    public static void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ALARMS);
-        onCreate(db);
-    }
 }
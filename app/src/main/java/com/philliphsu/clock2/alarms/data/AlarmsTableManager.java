@@ -22,25 +22,81 @@ package com.philliphsu.clock2.alarms.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.VisibleForTesting;
 
 import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.DaysOfWeek;
+import com.philliphsu.clock2.data.ContentChange;
 import com.philliphsu.clock2.data.DatabaseTableManager;
+import com.philliphsu.clock2.data.EntityCache;
 
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.FRIDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.MONDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.SATURDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.SUNDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.THURSDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.TUESDAY;
-import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.WEDNESDAY;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * Created by Phillip Hsu on 7/30/2016.
  */
 public class AlarmsTableManager extends DatabaseTableManager<Alarm> {
 
+    private final NextAlarmIndex mNextAlarmIndex;
+    private final AlarmCache mAlarmCache;
+
     public AlarmsTableManager(Context context) {
         super(context);
+        mNextAlarmIndex = NextAlarmIndex.getInstance(context);
+        mAlarmCache = AlarmCache.getInstance(context);
+    }
+
+    /**
+     * @param dbHelper the helper of a database other than the app's, e.g. an in-memory one
+     * @param index kept up to date by our writes, instead of the process-wide index
+     */
+    @VisibleForTesting
+    AlarmsTableManager(Context context, SQLiteOpenHelper dbHelper, NextAlarmIndex index) {
+        super(context, dbHelper);
+        mNextAlarmIndex = index;
+        mAlarmCache = AlarmCache.getInstance(context);
+    }
+
+    @Override
+    protected void onItemWritten(Alarm item, boolean rowExists) {
+        if (rowExists) {
+            mNextAlarmIndex.put(item);
+        } else {
+            // Drops what AlarmController#save() put there ahead of the write
+            mNextAlarmIndex.remove(item.getId());
+        }
+    }
+
+    @Override
+    public int deleteItem(Alarm item) {
+        int rowsDeleted = super.deleteItem(item);
+        mNextAlarmIndex.remove(item.getId());
+        return rowsDeleted;
+    }
+
+    @Override
+    public int deleteItems(Collection<? extends Alarm> items) {
+        int rowsDeleted = super.deleteItems(items);
+        for (Alarm item : items) {
+            mNextAlarmIndex.remove(item.getId());
+        }
+        return rowsDeleted;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mNextAlarmIndex.clear();
+    }
+
+    @Override
+    public void onTableReplaced() {
+        super.onTableReplaced();
+        mNextAlarmIndex.invalidate();
     }
 
     @Override
@@ -48,18 +104,78 @@ public class AlarmsTableManager extends DatabaseTableManager<Alarm> {
         return AlarmsTable.NEW_SORT_ORDER;
     }
 
+    @Override
+    protected EntityCache<Alarm> getEntityCache() {
+        return mAlarmCache.entities();
+    }
+
+    @Override
+    protected Alarm readItem(long id) {
+        AlarmCursor cursor = queryItem(id);
+        try {
+            return cursor.getItem();
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public AlarmCursor queryItem(long id) {
         return wrapInAlarmCursor(super.queryItem(id));
     }
 
+    /**
+     * Queries the columns of {@link AlarmsTable#LIST_PROJECTION}.
+     */
     @Override
     public AlarmCursor queryItems() {
-        return wrapInAlarmCursor(super.queryItems());
+        return wrapInAlarmCursor(queryItems(AlarmsTable.LIST_PROJECTION, null, null, null));
     }
 
     public AlarmCursor queryEnabledAlarms() {
-        return queryItems(AlarmsTable.COLUMN_ENABLED + " = 1", null);
+        return queryItems(AlarmsTable.WHERE_ENABLED, null);
+    }
+
+    /**
+     * Queries the columns of {@link AlarmsTable#SCHEDULE_PROJECTION} for the enabled alarms.
+     * Use {@link #queryItem(long)} for the whole alarm.
+     */
+    public Cursor queryEnabledRingTimes() {
+        return queryItems(AlarmsTable.SCHEDULE_PROJECTION, AlarmsTable.WHERE_ENABLED, null, null);
+    }
+
+    /**
+     * @param day one of the week day constants defined in {@link DaysOfWeek}
+     */
+    public AlarmCursor queryAlarmsRecurringOn(int day) {
+        return queryItems(AlarmsTable.whereRecurringOn(day), null);
+    }
+
+    /**
+     * Updates the stored ring times of many alarms in one transaction,
+     * and notifies observers of the change once.
+     * @param ids the ids of the alarms to update, parallel to {@code ringTimes}
+     * @param count the number of leading elements of the arrays to use
+     */
+    public void updateRingTimes(long[] ids, long[] ringTimes, int count) {
+        if (count == 0) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues(1);
+        String[] whereArgs = new String[1];
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < count; i++) {
+                values.put(AlarmsTable.COLUMN_RING_TIME_MILLIS, ringTimes[i]);
+                whereArgs[0] = Long.toString(ids[i]);
+                db.update(AlarmsTable.TABLE_ALARMS, values, AlarmsTable.COLUMN_ID + " = ?", whereArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyRowsChanged(ContentChange.UPDATE, Arrays.copyOf(ids, count));
     }
 
     @Override
@@ -83,13 +199,7 @@ public class AlarmsTableManager extends DatabaseTableManager<Alarm> {
         values.put(AlarmsTable.COLUMN_ENABLED, alarm.isEnabled());
         values.put(AlarmsTable.COLUMN_RING_TIME_MILLIS, alarm.ringsAt());
         values.put(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS, alarm.snoozingUntil());
-        values.put(AlarmsTable.COLUMN_SUNDAY, alarm.isRecurring(SUNDAY));
-        values.put(AlarmsTable.COLUMN_MONDAY, alarm.isRecurring(MONDAY));
-        values.put(AlarmsTable.COLUMN_TUESDAY, alarm.isRecurring(TUESDAY));
-        values.put(AlarmsTable.COLUMN_WEDNESDAY, alarm.isRecurring(WEDNESDAY));
-        values.put(AlarmsTable.COLUMN_THURSDAY, alarm.isRecurring(THURSDAY));
-        values.put(AlarmsTable.COLUMN_FRIDAY, alarm.isRecurring(FRIDAY));
-        values.put(AlarmsTable.COLUMN_SATURDAY, alarm.isRecurring(SATURDAY));
+        values.put(AlarmsTable.COLUMN_DAYS_MASK, alarm.daysMask());
         values.put(AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME, alarm.isIgnoringUpcomingRingTime());
         return values;
     }
@@ -29,6 +29,8 @@ import com.philliphsu.clock2.alarms.Alarm;
 import com.philliphsu.clock2.list.ScrollHandler;
 import com.philliphsu.clock2.alarms.misc.AlarmController;
 
+import java.util.List;
+
 /**
  * Created by Phillip Hsu on 7/1/2016.
  * TODO: Consider making an AsyncDatabaseChangeHandlerWithSnackbar abstract class
@@ -58,7 +60,7 @@ public final class AsyncAlarmsTableUpdateHandler extends AsyncDatabaseTableUpdat
 
     @Override
     protected void onPostAsyncDelete(Integer result, final Alarm alarm) {
-        mAlarmController.cancelAlarm(alarm, false, false);
+        mAlarmController.cancelDeletedAlarm(alarm);
         if (mSnackbarAnchor != null) {
             // TODO: Consider adding delay to allow the alarm item animation
             // to finish first before we show the snackbar. Inbox app does this.
@@ -74,6 +76,32 @@ public final class AsyncAlarmsTableUpdateHandler extends AsyncDatabaseTableUpdat
         }
     }
 
+    // The bulk callbacks below don't show a Snackbar for every alarm.
+
+    @Override
+    protected void onPostAsyncInsertItems(long[] ids, List<Alarm> alarms) {
+        for (Alarm alarm : alarms) {
+            mAlarmController.scheduleAlarm(alarm, false);
+        }
+    }
+
+    @Override
+    protected void onPostAsyncUpdateItems(Integer rowsUpdated, List<Alarm> alarms) {
+        for (Alarm alarm : alarms) {
+            mAlarmController.scheduleAlarm(alarm, false);
+        }
+    }
+
+    /**
+     * Unlike {@link #onPostAsyncDelete(Integer, Alarm)}, this doesn't offer to undo.
+     */
+    @Override
+    protected void onPostAsyncDeleteItems(Integer rowsDeleted, List<Alarm> alarms) {
+        for (Alarm alarm : alarms) {
+            mAlarmController.cancelDeletedAlarm(alarm);
+        }
+    }
+
     @Override
     protected void onPostAsyncInsert(Long result, Alarm alarm) {
         mAlarmController.scheduleAlarm(alarm, true);
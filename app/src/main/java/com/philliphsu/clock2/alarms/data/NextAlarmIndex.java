@@ -0,0 +1,483 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import android.content.Context;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.RingTimeCalculator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A min-heap of the enabled alarms, keyed by the next time each one rings.
+ *
+ * The process-wide instance returned by {@link #getInstance(Context)} is filled from
+ * the alarms table the first time it is queried, and from then on it is kept up to date
+ * by {@link AlarmsTableManager} writes. This answers "which alarm rings next" without
+ * going back to SQLite and computing the ring time of every row.
+ *
+ * Ring times move forward as time passes, e.g. a recurring alarm that just rang now
+ * rings next week. Rather than recomputing every key, only the entry at the top of the
+ * heap is checked: if its key has passed, it is recomputed and sifted down, until the
+ * top rings in the future. Since every other key is no earlier than the top's, the
+ * whole heap is then up to date. The one exception is the first query on a new local
+ * day, which rebuilds every key: ring times on later days are counted in whole 24-hour
+ * days from today's ring time, so they shift when a DST transition falls in between.
+ */
+public final class NextAlarmIndex {
+    private static NextAlarmIndex sInstance;
+
+    // Null for the process-wide instance, which follows the default calculator
+    private final RingTimeCalculator mCalculator;
+    private final Map<Long, Entry> mEntries = new HashMap<>();
+    private Entry[] mHeap = new Entry[16];
+    private int mSize;
+    // The local day on which every key was last computed
+    private long mKeysDay = Long.MIN_VALUE;
+
+    // Only set for the process-wide instance
+    private final Context mAppContext;
+    private boolean mLoaded;
+
+    private static final class Entry {
+        final long id;
+        int hour;
+        int minutes;
+        int daysMask;
+        long snoozingUntil;
+        boolean ignoringUpcomingRingTime;
+        long ringsAt;
+        int heapIndex;
+
+        Entry(long id) {
+            this.id = id;
+        }
+    }
+
+    public static synchronized NextAlarmIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NextAlarmIndex(context.getApplicationContext(), null);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates an empty index that is not backed by the database. For testing.
+     */
+    public NextAlarmIndex(RingTimeCalculator calculator) {
+        this(null, calculator);
+        mLoaded = true;
+    }
+
+    private NextAlarmIndex(Context appContext, RingTimeCalculator calculator) {
+        mAppContext = appContext;
+        mCalculator = calculator;
+    }
+
+    /**
+     * Adds, updates or removes the alarm's entry, depending on whether it is enabled.
+     */
+    public synchronized void put(Alarm alarm) {
+        if (!mLoaded) {
+            // Whenever we do load, we will read this change from the table.
+            return;
+        }
+        if (!alarm.isEnabled()) {
+            remove(alarm.getId());
+            return;
+        }
+        Entry e = mEntries.get(alarm.getId());
+        final boolean isNew = e == null;
+        if (isNew) {
+            e = new Entry(alarm.getId());
+            mEntries.put(e.id, e);
+        }
+        e.hour = alarm.hour();
+        e.minutes = alarm.minutes();
+        e.daysMask = alarm.daysMask();
+        e.snoozingUntil = alarm.snoozingUntil();
+        e.ignoringUpcomingRingTime = alarm.isIgnoringUpcomingRingTime();
+        e.ringsAt = computeRingTime(e, now());
+        if (isNew) {
+            ensureCapacity(mSize + 1);
+            e.heapIndex = mSize;
+            mHeap[mSize++] = e;
+            siftUp(e.heapIndex);
+        } else {
+            // Only one of these actually moves the entry
+            siftUp(e.heapIndex);
+            siftDown(e.heapIndex);
+        }
+    }
+
+    public synchronized void remove(long id) {
+        if (!mLoaded) {
+            return;
+        }
+        Entry e = mEntries.remove(id);
+        if (e == null) {
+            return;
+        }
+        final int i = e.heapIndex;
+        final Entry last = mHeap[--mSize];
+        mHeap[mSize] = null;
+        if (i < mSize) {
+            mHeap[i] = last;
+            last.heapIndex = i;
+            siftDown(i);
+            siftUp(last.heapIndex);
+        }
+    }
+
+    /**
+     * Forgets every entry, so that the next query reloads the index from the table.
+     * Call this when ring times may have changed for reasons other than a write,
+     * e.g. the time zone changed.
+     */
+    public synchronized void invalidate() {
+        clear();
+        mLoaded = mAppContext == null;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        for (int i = 0; i < mSize; i++) {
+            mHeap[i] = null;
+        }
+        mSize = 0;
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return mSize;
+    }
+
+    /**
+     * @return the next time the alarm with this id rings, or -1 if it isn't enabled
+     */
+    public synchronized long ringTimeOf(long id) {
+        ensureUpToDate();
+        Entry e = mEntries.get(id);
+        return e == null ? -1 : e.ringsAt;
+    }
+
+    /**
+     * @return the ids of the {@code n} alarms that ring next, in the order they ring.
+     * The result is shorter than {@code n} if fewer alarms are enabled.
+     */
+    public synchronized long[] nextN(int n) {
+        ensureUpToDate();
+        n = Math.min(n, mSize);
+        final long[] ids = new long[n];
+        if (n == 0) {
+            return ids;
+        }
+        // The nearest entries form a subtree at the root of the heap. Walk it
+        // with a small queue of frontier positions, ordered by ring time.
+        PriorityQueue<Entry> frontier = new PriorityQueue<>(Math.min(2 * n, mSize), ORDER);
+        frontier.add(mHeap[0]);
+        for (int found = 0; found < n; found++) {
+            Entry e = frontier.poll();
+            ids[found] = e.id;
+            int child = 2 * e.heapIndex + 1;
+            if (child < mSize) frontier.add(mHeap[child]);
+            if (child + 1 < mSize) frontier.add(mHeap[child + 1]);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids of the alarms that ring at or before {@code time}, in no particular order
+     */
+    public synchronized long[] ringingUpTo(long time) {
+        ensureUpToDate();
+        final List<Entry> result = new ArrayList<>();
+        collectUpTo(0, time, result);
+        final long[] ids = new long[result.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = result.get(i).id;
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids of the alarms that are snoozing, in no particular order
+     */
+    public synchronized long[] snoozing() {
+        ensureUpToDate();
+        final long now = now();
+        final List<Entry> result = new ArrayList<>();
+        for (int i = 0; i < mSize; i++) {
+            if (mHeap[i].snoozingUntil > now) {
+                result.add(mHeap[i]);
+            }
+        }
+        final long[] ids = new long[result.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = result.get(i).id;
+        }
+        return ids;
+    }
+
+    /**
+     * @return the earliest time after {@code time} at which an alarm that isn't
+     * snoozing rings, or -1 if there is none
+     */
+    public synchronized long firstRingTimeAfter(long time) {
+        ensureUpToDate();
+        return firstAfter(0, time, now());
+    }
+
+    /**
+     * Compares this index against the result of a full table scan. Throws
+     * an {@link IllegalStateException} describing the first difference found.
+     * @param alarms every alarm in the table, enabled or not
+     */
+    public synchronized void verifyAgainst(Iterable<Alarm> alarms) {
+        ensureUpToDate();
+        final long now = now();
+        int enabled = 0;
+        for (Alarm a : alarms) {
+            Entry e = mEntries.get(a.getId());
+            if (!a.isEnabled()) {
+                if (e != null)
+                    throw new IllegalStateException("Disabled alarm " + a.getId() + " is in the index");
+                continue;
+            }
+            enabled++;
+            if (e == null)
+                throw new IllegalStateException("Enabled alarm " + a.getId() + " is missing from the index");
+            Entry expected = new Entry(a.getId());
+            expected.hour = a.hour();
+            expected.minutes = a.minutes();
+            expected.daysMask = a.daysMask();
+            expected.snoozingUntil = a.snoozingUntil();
+            expected.ignoringUpcomingRingTime = a.isIgnoringUpcomingRingTime();
+            long ringsAt = computeRingTime(expected, now);
+            if (e.ringsAt != ringsAt && expected.ignoringUpcomingRingTime) {
+                // The ring time that was ignored may have passed already, in
+                // which case the table just hasn't caught up yet.
+                expected.ignoringUpcomingRingTime = false;
+                ringsAt = computeRingTime(expected, now);
+            }
+            if (e.ringsAt != ringsAt)
+                throw new IllegalStateException("Alarm " + a.getId() + " rings at " + ringsAt
+                        + ", but the index says " + e.ringsAt);
+        }
+        if (enabled != mSize)
+            throw new IllegalStateException(enabled + " alarms are enabled, but the index has " + mSize);
+        for (int i = 1; i < mSize; i++) {
+            if (mHeap[i].heapIndex != i)
+                throw new IllegalStateException("Entry at " + i + " thinks it is at " + mHeap[i].heapIndex);
+            if (ORDER.compare(mHeap[(i - 1) / 2], mHeap[i]) > 0)
+                throw new IllegalStateException("Heap order violated at " + i);
+        }
+    }
+
+    /**
+     * Convenience for {@link #verifyAgainst(Iterable)} with a scan of the alarms table.
+     */
+    public void verifyAgainstTable(Context context) {
+        List<Alarm> alarms = new ArrayList<>();
+        AlarmCursor cursor = new AlarmsTableManager(context).queryItems();
+        try {
+            while (cursor.moveToNext()) {
+                alarms.add(cursor.getItem());
+            }
+        } finally {
+            cursor.close();
+        }
+        verifyAgainst(alarms);
+    }
+
+    // ======================================================================
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        // Set first so that put() doesn't return early
+        mLoaded = true;
+        AlarmCursor cursor = new AlarmsTableManager(mAppContext).queryEnabledAlarms();
+        try {
+            while (cursor.moveToNext()) {
+                put(cursor.getItem());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void ensureUpToDate() {
+        ensureLoaded();
+        final long now = now();
+        final long today = localDay(now);
+        if (today != mKeysDay) {
+            mKeysDay = today;
+            rebuild(now);
+            return;
+        }
+        while (mSize > 0 && mHeap[0].ringsAt <= now) {
+            Entry top = mHeap[0];
+            // Whatever ring time it was ignoring is in the past now
+            top.ignoringUpcomingRingTime = false;
+            top.ringsAt = computeRingTime(top, now);
+            siftDown(0);
+        }
+    }
+
+    private void rebuild(long now) {
+        for (int i = 0; i < mSize; i++) {
+            final Entry e = mHeap[i];
+            if (e.ignoringUpcomingRingTime) {
+                final long ringsAt = calculator().ringsAt(e.hour, e.minutes, e.daysMask, now);
+                // Occurrences are about a day apart at the least, so if this is within
+                // DST slack of the old key, the ring time that was ignored has passed.
+                if (Math.abs(ringsAt - e.ringsAt) < TimeUnit.HOURS.toMillis(3)) {
+                    e.ignoringUpcomingRingTime = false;
+                }
+            }
+            e.ringsAt = computeRingTime(e, now);
+        }
+        // Floyd's heap construction
+        for (int i = mSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * The time the alarm will actually go off next. This matches what AlarmController
+     * arms: the snooze end time if snoozed, or else the regular ring time. If the user
+     * dismissed the upcoming ring time, the occurrence after it is next.
+     */
+    private long computeRingTime(Entry e, long now) {
+        if (e.snoozingUntil > now) {
+            return e.snoozingUntil;
+        }
+        final RingTimeCalculator calculator = calculator();
+        long ringsAt = calculator.ringsAt(e.hour, e.minutes, e.daysMask, now);
+        if (e.ignoringUpcomingRingTime) {
+            ringsAt = calculator.ringsAt(e.hour, e.minutes, e.daysMask, ringsAt);
+        }
+        return ringsAt;
+    }
+
+    private RingTimeCalculator calculator() {
+        return mCalculator != null ? mCalculator : RingTimeCalculator.getDefault();
+    }
+
+    private long localDay(long time) {
+        final long day = TimeUnit.DAYS.toMillis(1);
+        final long local = time + calculator().getTimeZone().getOffset(time);
+        return local >= 0 ? local / day : (local + 1) / day - 1;
+    }
+
+    private long now() {
+        return calculator().getClock().currentTimeMillis();
+    }
+
+    private void collectUpTo(int i, long bound, List<Entry> out) {
+        if (i >= mSize || mHeap[i].ringsAt > bound) {
+            return;
+        }
+        out.add(mHeap[i]);
+        collectUpTo(2 * i + 1, bound, out);
+        collectUpTo(2 * i + 2, bound, out);
+    }
+
+    private long firstAfter(int i, long bound, long now) {
+        if (i >= mSize) {
+            return -1;
+        }
+        final Entry e = mHeap[i];
+        if (e.ringsAt > bound && e.snoozingUntil <= now) {
+            // Nothing below rings earlier
+            return e.ringsAt;
+        }
+        final long left = firstAfter(2 * i + 1, bound, now);
+        final long right = firstAfter(2 * i + 2, bound, now);
+        if (left == -1 || right == -1) {
+            return Math.max(left, right);
+        }
+        return Math.min(left, right);
+    }
+
+    private void siftUp(int i) {
+        final Entry e = mHeap[i];
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (ORDER.compare(mHeap[parent], e) <= 0) {
+                break;
+            }
+            mHeap[i] = mHeap[parent];
+            mHeap[i].heapIndex = i;
+            i = parent;
+        }
+        mHeap[i] = e;
+        e.heapIndex = i;
+    }
+
+    private void siftDown(int i) {
+        final Entry e = mHeap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mSize) {
+                break;
+            }
+            if (child + 1 < mSize && ORDER.compare(mHeap[child + 1], mHeap[child]) < 0) {
+                child++;
+            }
+            if (ORDER.compare(e, mHeap[child]) <= 0) {
+                break;
+            }
+            mHeap[i] = mHeap[child];
+            mHeap[i].heapIndex = i;
+            i = child;
+        }
+        mHeap[i] = e;
+        e.heapIndex = i;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mHeap.length) {
+            Entry[] heap = new Entry[Math.max(capacity, 2 * mHeap.length)];
+            System.arraycopy(mHeap, 0, heap, 0, mSize);
+            mHeap = heap;
+        }
+    }
+
+    // Ties are broken by id so that the order is deterministic
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.ringsAt != b.ringsAt) {
+                return a.ringsAt < b.ringsAt ? -1 : 1;
+            }
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    };
+}
@@ -26,26 +26,28 @@ import android.content.Intent;
 import android.os.Build;
 import com.google.android.material.snackbar.Snackbar;
 import android.util.Log;
+import androidx.core.os.TraceCompat;
 import android.view.View;
 
 import com.philliphsu.clock2.MainActivity;
 import com.philliphsu.clock2.R;
 import com.philliphsu.clock2.alarms.Alarm;
 import com.philliphsu.clock2.alarms.background.PendingAlarmScheduler;
-import com.philliphsu.clock2.alarms.background.UpcomingAlarmReceiver;
-import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
+import com.philliphsu.clock2.alarms.background.UpcomingAlarmNotifier;
+import com.philliphsu.clock2.alarms.data.AlarmCache;
+import com.philliphsu.clock2.alarms.data.NextAlarmIndex;
 import com.philliphsu.clock2.ringtone.AlarmActivity;
 import com.philliphsu.clock2.ringtone.playback.AlarmRingtoneService;
 import com.philliphsu.clock2.util.ContentIntentUtils;
 import com.philliphsu.clock2.util.DelayedSnackbarHandler;
 import com.philliphsu.clock2.util.DurationUtils;
-import com.philliphsu.clock2.util.ParcelableUtil;
+
+import java.util.concurrent.Future;
 
 import static android.app.PendingIntent.FLAG_CANCEL_CURRENT;
 import static android.app.PendingIntent.FLAG_NO_CREATE;
 import static android.app.PendingIntent.getActivity;
 import static com.philliphsu.clock2.util.TimeFormatUtils.formatTime;
-import static java.util.concurrent.TimeUnit.HOURS;
 
 /**
  * Created by Phillip Hsu on 7/10/2016.
@@ -58,8 +60,10 @@ public final class AlarmController {
 
     private final Context mAppContext;
     private final View mSnackbarAnchor;
-    // TODO: Why aren't we using AsyncAlarmsTableUpdateHandler?
-    private final AlarmsTableManager mTableManager;
+    private final AlarmWriteExecutor mWriteExecutor;
+    private final NextAlarmIndex mNextAlarmIndex;
+    private final AlarmCache mAlarmCache;
+    private final UpcomingAlarmNotifier mUpcomingNotifier;
 
     /**
      *
@@ -69,7 +73,10 @@ public final class AlarmController {
     public AlarmController(Context context, View snackbarAnchor) {
         mAppContext = context.getApplicationContext();
         mSnackbarAnchor = snackbarAnchor;
-        mTableManager = new AlarmsTableManager(context);
+        mWriteExecutor = AlarmWriteExecutor.getInstance(context);
+        mNextAlarmIndex = NextAlarmIndex.getInstance(context);
+        mAlarmCache = AlarmCache.getInstance(context);
+        mUpcomingNotifier = UpcomingAlarmNotifier.getInstance(context);
     }
 
     /**
@@ -93,10 +100,28 @@ public final class AlarmController {
         // alarm is updated to recur on a weekday later than the current day.
         removeUpcomingAlarmNotification(alarm);
 
+        final long ringAt = alarm.isSnoozed() ? alarm.snoozingUntil() : alarm.ringsAt();
+        armAlarm(alarm, ringAt);
+
+        if (showSnackbar) {
+            String message = mAppContext.getString(R.string.alarm_set_for,
+                    DurationUtils.toString(mAppContext, alarm.ringsIn(), false/*abbreviate*/));
+            showSnackbar(message);
+        }
+    }
+
+    /**
+     * Sets the ring alarm for {@code alarm} with the {@link AlarmManager}, and asks for the
+     * upcoming notifications to be updated, without any of the UI work of
+     * {@link #scheduleAlarm(Alarm, boolean)}.
+     * @param ringAt the ring time that was computed for the alarm, or its snooze end time
+     * @return the number of calls made to the AlarmManager
+     */
+    /*package*/ int armAlarm(Alarm alarm, long ringAt) {
         AlarmManager am = (AlarmManager) mAppContext.getSystemService(Context.ALARM_SERVICE);
+        int alarmManagerCalls = 0;
 
-        final long ringAt = alarm.isSnoozed() ? alarm.snoozingUntil() : alarm.ringsAt();
-        final PendingIntent alarmIntent = alarmIntent(alarm, false);
+        final PendingIntent alarmIntent = ringIntent(alarm);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             PendingIntent showIntent = ContentIntentUtils.create(mAppContext, MainActivity.PAGE_ALARMS, alarm.getId());
             AlarmManager.AlarmClockInfo info = new AlarmManager.AlarmClockInfo(ringAt, showIntent);
@@ -110,20 +135,57 @@ public final class AlarmController {
             alarmChanged.putExtra("alarmSet", true/*enabled*/);
             mAppContext.sendBroadcast(alarmChanged);
         }
+        alarmManagerCalls++;
 
-        final int hoursToNotifyInAdvance = AlarmPreferences.hoursBeforeUpcoming(mAppContext);
-        if (hoursToNotifyInAdvance > 0 || alarm.isSnoozed()) {
-            // If snoozed, upcoming note posted immediately.
-            long upcomingAt = ringAt - HOURS.toMillis(hoursToNotifyInAdvance);
-            // We use a WAKEUP alarm to send the upcoming alarm notification so it goes off even if the
-            // device is asleep. Otherwise, it will not go off until the device is turned back on.
-            am.set(AlarmManager.RTC_WAKEUP, upcomingAt, notifyUpcomingAlarmIntent(alarm, false));
+        // The notifier sets one wakeup for all the upcoming notifications, instead of one per alarm.
+        // If snoozed, the notification is posted right away.
+        mUpcomingNotifier.requestUpdate();
+        return alarmManagerCalls;
+    }
+
+    /**
+     * Sets a wakeup at the ring time that a recurring alarm is ignoring, after which
+     * {@link PendingAlarmScheduler} schedules the alarm's next ring time.
+     */
+    /*package*/ void armPendingAlarmScheduler(Alarm alarm, long ignoredRingAt) {
+        AlarmManager am = (AlarmManager) mAppContext.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(mAppContext, PendingAlarmScheduler.class)
+                .putExtra(PendingAlarmScheduler.EXTRA_ALARM_ID, alarm.getId());
+        PendingIntent pi = PendingIntent.getBroadcast(mAppContext, alarm.getIntId(),
+                intent, FLAG_CANCEL_CURRENT);
+        am.set(AlarmManager.RTC_WAKEUP, ignoredRingAt, pi);
+    }
+
+    /**
+     * Cancels the intent that rings the alarm with this id, if it was armed, without
+     * changing or saving the alarm. Doesn't call the AlarmManager if it wasn't armed.
+     * @return the number of calls made to the AlarmManager
+     */
+    /*package*/ int disarmRingIntent(long id) {
+        PendingIntent ring = armedRingIntent(id);
+        if (ring == null) {
+            return 0;
         }
+        AlarmManager am = (AlarmManager) mAppContext.getSystemService(Context.ALARM_SERVICE);
+        am.cancel(ring);
+        ring.cancel();
+        return 1;
+    }
 
-        if (showSnackbar) {
-            String message = mAppContext.getString(R.string.alarm_set_for,
-                    DurationUtils.toString(mAppContext, alarm.ringsIn(), false/*abbreviate*/));
-            showSnackbar(message);
+    /**
+     * Cancels the wakeups that were armed for the alarm, i.e. its ring time and the
+     * rescheduling of an ignored ring time, without changing or saving the alarm.
+     * For alarms whose rows are about to be replaced, e.g. by a restore.
+     */
+    public void disarmAlarm(Alarm alarm) {
+        disarmRingIntent(alarm.getId());
+        AlarmManager am = (AlarmManager) mAppContext.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(mAppContext, PendingAlarmScheduler.class);
+        PendingIntent reschedule = PendingIntent.getBroadcast(mAppContext, alarm.getIntId(),
+                intent, FLAG_NO_CREATE);
+        if (reschedule != null) {
+            am.cancel(reschedule);
+            reschedule.cancel();
         }
     }
 
@@ -135,9 +197,79 @@ public final class AlarmController {
      */
     public void cancelAlarm(Alarm alarm, boolean showSnackbar, boolean rescheduleIfRecurring) {
         Log.d(TAG, "Cancelling alarm " + alarm);
+        TraceCompat.beginSection("AlarmController.cancelAlarm");
+        try {
+            cancelAlarmInternal(alarm, showSnackbar, rescheduleIfRecurring);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Cancels the alarm after its row was deleted. Unlike {@link #cancelAlarm(Alarm, boolean,
+     * boolean)}, this doesn't save the alarm, and forgets it instead of leaving its last state
+     * in the {@link NextAlarmIndex} and {@link AlarmCache}.
+     */
+    public void cancelDeletedAlarm(Alarm alarm) {
+        Log.d(TAG, "Cancelling deleted alarm " + alarm);
+        disarmAlarm(alarm);
+        mNextAlarmIndex.remove(alarm.getId());
+        mAlarmCache.remove(alarm.getId());
+        // Drops its notification, if it was upcoming
+        mUpcomingNotifier.requestUpdate();
+        // If service is not running, nothing happens
+        mAppContext.stopService(new Intent(mAppContext, AlarmRingtoneService.class));
+    }
+
+    /**
+     * Like {@link #cancelAlarm(Alarm, boolean, boolean)}, but for when the user dismisses a
+     * ringing alarm: the ringtone is silenced right away on the calling thread, which must
+     * be the main thread, and the rest of the work runs in the background.
+     */
+    public void dismissRingingAlarm(Alarm alarm) {
+        AlarmRingtoneService.silenceRunningService();
+        cancelRingingAlarm(alarm);
+    }
+
+    /**
+     * Cancels an alarm that was ringing, in the background.
+     * @param alarm its ringing state, which may not be the whole alarm. The latest
+     *              state is read in the background, see {@link AlarmCache}.
+     */
+    public void cancelRingingAlarm(final Alarm alarm) {
+        mWriteExecutor.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Alarm latest = latestStateOf(alarm);
+                if (latest != null) {
+                    cancelAlarm(latest, false, true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Like {@link #snoozeAlarm(Alarm)}, but for when the user snoozes a ringing alarm.
+     * @see #dismissRingingAlarm(Alarm)
+     */
+    public void snoozeRingingAlarm(final Alarm alarm) {
+        AlarmRingtoneService.silenceRunningService();
+        mWriteExecutor.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Alarm latest = latestStateOf(alarm);
+                if (latest != null) {
+                    snoozeAlarm(latest);
+                }
+            }
+        });
+    }
+
+    private void cancelAlarmInternal(Alarm alarm, boolean showSnackbar, boolean rescheduleIfRecurring) {
         AlarmManager am = (AlarmManager) mAppContext.getSystemService(Context.ALARM_SERVICE);
 
-        PendingIntent pi = alarmIntent(alarm, true);
+        TraceCompat.beginSection("cancelIntents");
+        PendingIntent pi = armedRingIntent(alarm.getId());
         if (pi != null) {
             am.cancel(pi);
             pi.cancel();
@@ -149,15 +281,14 @@ public final class AlarmController {
             }
         }
 
-        pi = notifyUpcomingAlarmIntent(alarm, true);
-        if (pi != null) {
-            am.cancel(pi);
-            pi.cancel();
-        }
+        TraceCompat.endSection();
 
         // Does nothing if it's not posted.
+        TraceCompat.beginSection("removeUpcomingNotification");
         removeUpcomingAlarmNotification(alarm);
+        TraceCompat.endSection();
 
+        TraceCompat.beginSection("reschedule");
         final int hoursToNotifyInAdvance = AlarmPreferences.hoursBeforeUpcoming(mAppContext);
         // ------------------------------------------------------------------------------------
         // TOneverDO: Place block after making value changes to the alarm.
@@ -183,23 +314,31 @@ public final class AlarmController {
                 // Still upcoming today, so wait until the normal ring time
                 // passes before rescheduling the alarm.
                 alarm.ignoreUpcomingRingTime(true); // Useful only for VH binding
-                Intent intent = new Intent(mAppContext, PendingAlarmScheduler.class)
-                        .putExtra(PendingAlarmScheduler.EXTRA_ALARM_ID, alarm.getId());
-                pi = PendingIntent.getBroadcast(mAppContext, alarm.getIntId(),
-                        intent, FLAG_CANCEL_CURRENT);
-                am.set(AlarmManager.RTC_WAKEUP, alarm.ringsAt(), pi);
+                armPendingAlarmScheduler(alarm, alarm.ringsAt());
             } else {
                 scheduleAlarm(alarm, false);
             }
         }
+        TraceCompat.endSection();
 
+        TraceCompat.beginSection("save");
         save(alarm);
+        TraceCompat.endSection();
 
         // If service is not running, nothing happens
         mAppContext.stopService(new Intent(mAppContext, AlarmRingtoneService.class));
     }
 
     public void snoozeAlarm(Alarm alarm) {
+        TraceCompat.beginSection("AlarmController.snoozeAlarm");
+        try {
+            snoozeAlarmInternal(alarm);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private void snoozeAlarmInternal(Alarm alarm) {
         int minutesToSnooze = AlarmPreferences.snoozeDuration(mAppContext);
         alarm.snooze(minutesToSnooze);
         scheduleAlarm(alarm, false);
@@ -214,42 +353,61 @@ public final class AlarmController {
         save(alarm);
     }
 
+    /**
+     * Asks for the upcoming notifications to be updated once the alarm's changes are saved.
+     * The alarm's notification is removed then, if it should no longer be shown.
+     */
     public void removeUpcomingAlarmNotification(Alarm a) {
-        Intent intent = new Intent(mAppContext, UpcomingAlarmReceiver.class)
-                .setAction(UpcomingAlarmReceiver.ACTION_CANCEL_NOTIFICATION)
-                .putExtra(UpcomingAlarmReceiver.EXTRA_ALARM, ParcelableUtil.marshall(a));
-        mAppContext.sendBroadcast(intent);
+        mUpcomingNotifier.requestUpdate();
     }
 
-    public void save(final Alarm alarm) {
-        // TODO: Will using the Runnable like this cause a memory leak?
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                mTableManager.updateItem(alarm.getId(), alarm);
-            }
-        }).start();
+    /**
+     * Writes the alarm to the table on the {@link AlarmWriteExecutor} thread.
+     * @return a Future that completes when the write is done
+     */
+    public Future<Void> save(Alarm alarm) {
+        // Update the index and cache right away, so that they reflect a snooze or
+        // dismiss before the write below completes. The write updates them again,
+        // or drops the alarm from them if its row was deleted in the meantime.
+        if (alarm.getId() != -1) {
+            mNextAlarmIndex.put(alarm);
+            mAlarmCache.put(alarm);
+        }
+        Future<Void> write = mWriteExecutor.save(alarm);
+        // The update runs after the write, on the same thread.
+        mUpcomingNotifier.requestUpdate();
+        return write;
     }
 
-    private PendingIntent alarmIntent(Alarm alarm, boolean retrievePrevious) {
-        Intent intent = new Intent(mAppContext, AlarmActivity.class)
-                .putExtra(AlarmActivity.EXTRA_RINGING_OBJECT, ParcelableUtil.marshall(alarm));
-        int flag = retrievePrevious ? FLAG_NO_CREATE : FLAG_CANCEL_CURRENT;
-        // Even when we try to retrieve a previous instance that actually did exist,
-        // null can be returned for some reason. Thus, we don't checkNotNull().
-        return getActivity(mAppContext, alarm.getIntId(), intent, flag);
+    /**
+     * @return the latest state of the ringing alarm, or null if it was deleted while it rang.
+     * May read the table, so call this on the writer thread.
+     */
+    private Alarm latestStateOf(Alarm ringing) {
+        Alarm latest = mAlarmCache.get(ringing.getId());
+        if (latest == null) {
+            Log.d(TAG, "Alarm " + ringing.getId() + " was deleted while it rang");
+        }
+        return latest;
     }
 
-    private PendingIntent notifyUpcomingAlarmIntent(Alarm alarm, boolean retrievePrevious) {
-        Intent intent = new Intent(mAppContext, UpcomingAlarmReceiver.class)
-                .putExtra(UpcomingAlarmReceiver.EXTRA_ALARM, ParcelableUtil.marshall(alarm));
-        if (alarm.isSnoozed()) {
-            intent.setAction(UpcomingAlarmReceiver.ACTION_SHOW_SNOOZING);
-        }
-        int flag = retrievePrevious ? FLAG_NO_CREATE : FLAG_CANCEL_CURRENT;
+    /**
+     * @return the intent that rings the alarm, which carries what it rings with, see AlarmCache
+     */
+    private PendingIntent ringIntent(Alarm alarm) {
+        Intent intent = mAlarmCache.putRingingExtras(new Intent(mAppContext, AlarmActivity.class), alarm);
+        return getActivity(mAppContext, alarm.getIntId(), intent, FLAG_CANCEL_CURRENT);
+    }
+
+    /**
+     * @return the intent that rings the alarm with this id, if one was made, for cancelling it.
+     * Extras don't count when intents are matched, so this needs only the request code.
+     */
+    private PendingIntent armedRingIntent(long id) {
+        Intent intent = new Intent(mAppContext, AlarmActivity.class);
         // Even when we try to retrieve a previous instance that actually did exist,
         // null can be returned for some reason. Thus, we don't checkNotNull().
-        return PendingIntent.getBroadcast(mAppContext, alarm.getIntId(), intent, flag);
+        return getActivity(mAppContext, (int) id, intent, FLAG_NO_CREATE);
     }
 
     private void showSnackbar(final String message) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.misc;
+
+import android.content.Context;
+import androidx.annotation.VisibleForTesting;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
+import com.philliphsu.clock2.data.DatabaseExecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Writes the alarm subsystem's changes to the alarms table, on the {@link DatabaseExecutor}
+ * writer thread. That is the one thread that writes to the database, so these writes are
+ * ordered with the edits made from the UI.
+ *
+ * Writes run one at a time, in the order they were submitted. If an alarm is saved
+ * again while an earlier save of it is still queued, the two collapse into one write of
+ * the latest state, and both callers get the same {@link Future}.
+ */
+public final class AlarmWriteExecutor {
+    private static final String TAG = "AlarmWriteExecutor";
+
+    private static AlarmWriteExecutor sInstance;
+
+    /**
+     * Persists the state of an alarm.
+     */
+    @VisibleForTesting
+    interface Writer {
+        void write(Alarm alarm);
+    }
+
+    // Does nothing with the result, but makes DatabaseExecutor rethrow failures
+    // on the main thread, as an uncaught exception on a thread of our own would be.
+    private static final DatabaseExecutor.Callback<Object> RETHROW_FAILURES =
+            new DatabaseExecutor.Callback<Object>() {
+                @Override
+                public void onResult(Object result) {
+                }
+            };
+
+    private final Executor mExecutor;
+    private final Writer mWriter;
+    // Writes that are queued, but not started, by alarm id
+    private final Map<Long, PendingWrite> mPending = new HashMap<>();
+
+    private long mQueuedCount;
+    private long mCoalescedCount;
+    private long mExecutedCount;
+
+    private final class PendingWrite implements Runnable {
+        final long id;
+        Alarm alarm;
+        FutureTask<Void> future;
+
+        PendingWrite(Alarm alarm) {
+            this.id = alarm.getId();
+            this.alarm = alarm;
+        }
+
+        @Override
+        public void run() {
+            final Alarm latest;
+            synchronized (AlarmWriteExecutor.this) {
+                // From now on, saves of this alarm need a write of their own.
+                mPending.remove(id);
+                latest = alarm;
+            }
+            mWriter.write(latest);
+            synchronized (AlarmWriteExecutor.this) {
+                mExecutedCount++;
+            }
+        }
+    }
+
+    public static synchronized AlarmWriteExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            final AlarmsTableManager tableManager = new AlarmsTableManager(context);
+            final DatabaseExecutor databaseExecutor = DatabaseExecutor.getInstance(context);
+            sInstance = new AlarmWriteExecutor(
+                    new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            databaseExecutor.write(TAG, Executors.callable(command),
+                                    RETHROW_FAILURES);
+                        }
+                    },
+                    new Writer() {
+                        @Override
+                        public void write(Alarm alarm) {
+                            tableManager.updateItem(alarm.getId(), alarm);
+                        }
+                    });
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AlarmWriteExecutor(Executor executor, Writer writer) {
+        mExecutor = executor;
+        mWriter = writer;
+    }
+
+    /**
+     * Queues a write of the alarm's current state to the alarms table.
+     * @return a Future that completes once the alarm's state, as of this call
+     * or later, is in the table
+     */
+    public synchronized Future<Void> save(Alarm alarm) {
+        PendingWrite write = mPending.get(alarm.getId());
+        if (write != null) {
+            write.alarm = alarm;
+            mCoalescedCount++;
+            return write.future;
+        }
+        write = new PendingWrite(alarm);
+        write.future = new FutureTask<>(write, null);
+        mPending.put(write.id, write);
+        mQueuedCount++;
+        mExecutor.execute(write.future);
+        return write.future;
+    }
+
+    /**
+     * Runs other alarm work, e.g. reading an alarm before scheduling it, on the writer
+     * thread, so that it is ordered with respect to the writes.
+     * Don't block on a {@link Future} returned by {@link #save(Alarm)} from here.
+     */
+    public Executor executor() {
+        return mExecutor;
+    }
+
+    /** @return the number of writes that were queued */
+    public synchronized long getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /** @return the number of saves that were folded into an already queued write */
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /** @return the number of writes that were made to the table */
+    public synchronized long getExecutedCount() {
+        return mExecutedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{queued=" + mQueuedCount
+                + ", coalesced=" + mCoalescedCount
+                + ", executed=" + mExecutedCount
+                + ", pending=" + mPending.size()
+                + "}";
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.misc;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.background.OnBootUpReceiver;
+import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
+import com.philliphsu.clock2.alarms.data.NextAlarmIndex;
+
+/**
+ * Schedules every enabled alarm at once, e.g. after the device boots up.
+ *
+ * Instead of calling {@link AlarmController#scheduleAlarm(Alarm, boolean)} for every
+ * alarm, this takes the nearest alarms from the {@link NextAlarmIndex} and only arms
+ * those with the {@link AlarmManager}. A wakeup is set for the ring time of
+ * the last alarm in this window, which runs the scheduler again to arm the next window.
+ * Running the scheduler again moves that wakeup, e.g. after ring times changed with the
+ * time zone, or cancels it if every enabled alarm fits in one window.
+ */
+public final class BatchAlarmScheduler {
+    private static final String TAG = "BatchAlarmScheduler";
+
+    public static final String ACTION_ARM_NEXT_WINDOW
+            = "com.philliphsu.clock2.alarms.misc.action.ARM_NEXT_WINDOW";
+
+    /** The number of alarms armed with the AlarmManager at any one time */
+    public static final int DEFAULT_WINDOW_SIZE = 8;
+
+    /**
+     * Timings and counts from one call to {@link #scheduleAll()}.
+     */
+    public static final class Result {
+        public final int enabledAlarms;
+        public final int armedAlarms;
+        public final int alarmManagerCalls;
+        public final long elapsedMillis;
+
+        Result(int enabledAlarms, int armedAlarms, int alarmManagerCalls, long elapsedMillis) {
+            this.enabledAlarms = enabledAlarms;
+            this.armedAlarms = armedAlarms;
+            this.alarmManagerCalls = alarmManagerCalls;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{"
+                    + "enabledAlarms=" + enabledAlarms
+                    + ", armedAlarms=" + armedAlarms
+                    + ", alarmManagerCalls=" + alarmManagerCalls
+                    + ", elapsedMillis=" + elapsedMillis
+                    + "}";
+        }
+    }
+
+    /**
+     * The alarms that one call to {@link #scheduleAll()} arms.
+     */
+    @VisibleForTesting
+    static final class Window {
+        final long[] ids;
+        /** When to arm the next window, or {@link Long#MAX_VALUE} if this one has every alarm */
+        final long end;
+
+        Window(long[] ids, long end) {
+            this.ids = ids;
+            this.end = end;
+        }
+    }
+
+    private final Context mAppContext;
+    private final AlarmController mAlarmController;
+    private final AlarmsTableManager mTableManager;
+    private final int mWindowSize;
+
+    public BatchAlarmScheduler(Context context, int windowSize) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        mAppContext = context.getApplicationContext();
+        mAlarmController = new AlarmController(context, null);
+        mTableManager = new AlarmsTableManager(context);
+        mWindowSize = windowSize;
+    }
+
+    /**
+     * Arms the nearest enabled alarms. May do blocking database work, so
+     * don't call this on the UI thread.
+     */
+    public Result scheduleAll() {
+        final long start = SystemClock.elapsedRealtime();
+        final NextAlarmIndex index = NextAlarmIndex.getInstance(mAppContext);
+        final int count = index.size();
+        int armed = 0;
+        int alarmManagerCalls = 0;
+
+        final Window window = windowOf(index, mWindowSize);
+        for (long id : window.ids) {
+            final long ringsAt = index.ringTimeOf(id);
+            // Only the armed alarms are read in full, usually from the cache.
+            Alarm alarm = ringsAt == -1 ? null : mTableManager.getItem(id);
+            if (alarm != null) {
+                alarmManagerCalls += mAlarmController.armAlarm(alarm, ringsAt);
+                armed++;
+            }
+        }
+
+        AlarmManager am = (AlarmManager) mAppContext.getSystemService(Context.ALARM_SERVICE);
+        if (window.end != Long.MAX_VALUE) {
+            am.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, window.end, nextWindowIntent());
+        } else {
+            am.cancel(nextWindowIntent());
+        }
+        alarmManagerCalls++;
+
+        Result result = new Result(count, armed, alarmManagerCalls,
+                SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, result.toString());
+        return result;
+    }
+
+    /**
+     * @return the nearest {@code windowSize} alarms in the index, and the ring time of the
+     * last of them if there are more alarms after it
+     */
+    @VisibleForTesting
+    static Window windowOf(NextAlarmIndex index, int windowSize) {
+        long[] ids = index.nextN(windowSize);
+        long end = Long.MAX_VALUE;
+        if (index.size() > windowSize) {
+            end = index.ringTimeOf(ids[ids.length - 1]);
+            // Alarms that ring at the same time as the last one in the window are also
+            // part of it, so that the next window only starts after the wakeup that arms it.
+            ids = index.ringingUpTo(end);
+        }
+        return new Window(ids, end);
+    }
+
+    private PendingIntent nextWindowIntent() {
+        Intent intent = new Intent(mAppContext, OnBootUpReceiver.class)
+                .setAction(ACTION_ARM_NEXT_WINDOW);
+        return PendingIntent.getBroadcast(mAppContext, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.misc;
+
+import java.util.TimeZone;
+
+import static com.philliphsu.clock2.alarms.misc.DaysOfWeek.NUM_DAYS;
+
+/**
+ * Computes the next time an alarm rings without going through {@link java.util.Calendar}.
+ *
+ * Recurrence is described by a 7-bit mask, where bit {@code i} is set if the alarm
+ * recurs on our zero-based week day {@code i} (see {@link DaysOfWeek}). A mask of
+ * zero means the alarm does not recur.
+ *
+ * The results are the same as those of the old Calendar-based {@code Alarm.ringsAt()}:
+ * the ring time for today is resolved in the calculator's time zone, and the ring time
+ * for a later day is that value plus a whole number of 24-hour days. A calculator
+ * with a fixed time zone allocates nothing per call, so it is safe to use when
+ * binding list items; the default calculator costs one zone lookup per call.
+ */
+public final class RingTimeCalculator {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    // 1970-01-01 was a Thursday.
+    private static final int EPOCH_DAY_OF_WEEK = DaysOfWeek.THURSDAY;
+    private static final int ALL_DAYS_MASK = (1 << NUM_DAYS) - 1;
+
+    /**
+     * Source of the current time. Production code uses {@link #SYSTEM_CLOCK},
+     * tests can supply a fixed or stepping clock.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private static final RingTimeCalculator sDefault = new RingTimeCalculator(SYSTEM_CLOCK);
+
+    private final Clock mClock;
+    // Null if we follow the default time zone
+    private final TimeZone mTimeZone;
+
+    /**
+     * @return a calculator that uses the system clock and whatever the default
+     * time zone is at the time of each call
+     */
+    public static RingTimeCalculator getDefault() {
+        return sDefault;
+    }
+
+    public RingTimeCalculator(Clock clock, TimeZone timeZone) {
+        if (clock == null || timeZone == null)
+            throw new NullPointerException();
+        mClock = clock;
+        mTimeZone = timeZone;
+    }
+
+    private RingTimeCalculator(Clock clock) {
+        mClock = clock;
+        mTimeZone = null;
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * @return the time zone this calculator currently resolves wall times in
+     */
+    public TimeZone getTimeZone() {
+        return mTimeZone != null ? mTimeZone : TimeZone.getDefault();
+    }
+
+    /**
+     * @param daysMask the 7-bit recurrence mask, or zero if the alarm does not recur
+     * @return the next time, in UTC millis, that an alarm set for {@code hour:minutes}
+     * rings after the current time
+     */
+    public long ringsAt(int hour, int minutes, int daysMask) {
+        return ringsAt(hour, minutes, daysMask, mClock.currentTimeMillis());
+    }
+
+    /**
+     * Same as {@link #ringsAt(int, int, int)}, but with respect to {@code now}
+     * instead of the current time. Useful when computing the ring times of many
+     * alarms at once, so that they all agree on what time it is.
+     */
+    public long ringsAt(int hour, int minutes, int daysMask, long now) {
+        if (hour < 0 || hour > 23 || minutes < 0 || minutes > 59)
+            throw new IllegalArgumentException("Hour and minutes invalid");
+        if ((daysMask & ~ALL_DAYS_MASK) != 0)
+            throw new IllegalArgumentException("Invalid recurrence mask: " + daysMask);
+
+        final TimeZone zone = getTimeZone();
+        final long localDay = floorDiv(now + zone.getOffset(now), DAY);
+        final long baseRingTime = toUtc(zone, localDay * DAY + hour * HOUR + minutes * MINUTE);
+        final boolean passedToday = baseRingTime <= now;
+
+        if (daysMask == 0) {
+            // The specified time has passed for today
+            return passedToday ? baseRingTime + DAY : baseRingTime;
+        }
+
+        final int today = (int) floorMod(localDay + EPOCH_DAY_OF_WEEK, NUM_DAYS);
+        // Starting today, find the first recurring day whose ring time has not passed.
+        // If the only recurring day is today and its ring time has passed,
+        // we wrap around to the same day next week.
+        for (int offset = passedToday ? 1 : 0; offset <= NUM_DAYS; offset++) {
+            if ((daysMask & (1 << ((today + offset) % NUM_DAYS))) != 0) {
+                return baseRingTime + offset * DAY;
+            }
+        }
+        throw new IllegalStateException("How did we get here?");
+    }
+
+    /**
+     * Converts local wall time to UTC the same way a lenient {@link java.util.GregorianCalendar}
+     * does: wall times that fall in a DST gap are interpreted with the offset in effect
+     * before the transition, and wall times that occur twice resolve to the later instant.
+     */
+    private static long toUtc(TimeZone zone, long wallTime) {
+        // Every zone offset is well within a day, so the offsets a day on either side
+        // are the ones in effect before and after any transition near this wall time.
+        final int offsetBefore = zone.getOffset(wallTime - DAY);
+        final int offsetAfter = zone.getOffset(wallTime + DAY);
+        final long utcAfter = wallTime - offsetAfter;
+        if (offsetBefore == offsetAfter || zone.getOffset(utcAfter) == offsetAfter) {
+            return utcAfter;
+        }
+        return wallTime - offsetBefore;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.misc;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.AlarmsTable;
+import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
+import com.philliphsu.clock2.alarms.data.NextAlarmIndex;
+
+/**
+ * Reschedules the alarms whose ring times moved because the wall clock jumped, e.g. the
+ * user set the time or changed time zones.
+ *
+ * Every enabled alarm's ring time is recomputed and compared with the ring time stored the
+ * last time it was saved. Only the alarms whose ring times differ are written back, in a
+ * single transaction. Snoozed alarms are skipped, since a snooze ends at an absolute time
+ * that does not depend on the time zone, and so are alarms whose stored ring time has
+ * passed, since that time was stale before the clock changed.
+ *
+ * The changed alarms are not armed one by one. Any of them that were armed are cancelled,
+ * and the {@link BatchAlarmScheduler} then arms the nearest alarms and its next window.
+ */
+public final class TimeChangeRescheduler {
+    private static final String TAG = "TimeChangeRescheduler";
+
+    /**
+     * Counts and timings from one call to {@link #rescheduleChanged()}.
+     */
+    public static final class Result {
+        public final int rescheduled;
+        public final int skipped;
+        public final int alarmManagerCalls;
+        public final long elapsedMillis;
+
+        Result(int rescheduled, int skipped, int alarmManagerCalls, long elapsedMillis) {
+            this.rescheduled = rescheduled;
+            this.skipped = skipped;
+            this.alarmManagerCalls = alarmManagerCalls;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{"
+                    + "rescheduled=" + rescheduled
+                    + ", skipped=" + skipped
+                    + ", alarmManagerCalls=" + alarmManagerCalls
+                    + ", elapsedMillis=" + elapsedMillis
+                    + "}";
+        }
+    }
+
+    private final Context mAppContext;
+    private final AlarmController mAlarmController;
+    private final AlarmsTableManager mTableManager;
+    private final BatchAlarmScheduler mBatchScheduler;
+
+    public TimeChangeRescheduler(Context context) {
+        mAppContext = context.getApplicationContext();
+        mAlarmController = new AlarmController(context, null);
+        mTableManager = new AlarmsTableManager(context);
+        mBatchScheduler = new BatchAlarmScheduler(context, BatchAlarmScheduler.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Drops the cached ring times, which were computed with the old wall clock.
+     * Cheap enough to call from the receiver, before the background work starts.
+     */
+    public static void onTimeChanged(Context context) {
+        NextAlarmIndex.getInstance(context).invalidate();
+    }
+
+    /**
+     * Does blocking database work, so don't call this on the UI thread.
+     */
+    public Result rescheduleChanged() {
+        final long start = SystemClock.elapsedRealtime();
+        final RingTimeCalculator calculator = RingTimeCalculator.getDefault();
+        final long now = calculator.getClock().currentTimeMillis();
+        int skipped = 0;
+        int alarmManagerCalls = 0;
+
+        Cursor cursor = mTableManager.queryEnabledRingTimes();
+        try {
+            final int count = cursor.getCount();
+            // Parallel arrays of the alarms that changed
+            final long[] ids = new long[count];
+            final long[] ringTimes = new long[count];
+            final boolean[] ignoring = new boolean[count];
+            int changed = 0;
+
+            final int idColumn = cursor.getColumnIndexOrThrow(AlarmsTable.COLUMN_ID);
+            final int hourColumn = cursor.getColumnIndexOrThrow(AlarmsTable.COLUMN_HOUR);
+            final int minutesColumn = cursor.getColumnIndexOrThrow(AlarmsTable.COLUMN_MINUTES);
+            final int daysMaskColumn = cursor.getColumnIndexOrThrow(AlarmsTable.COLUMN_DAYS_MASK);
+            final int snoozingColumn = cursor.getColumnIndexOrThrow(AlarmsTable.COLUMN_SNOOZING_UNTIL_MILLIS);
+            final int ringTimeColumn = cursor.getColumnIndexOrThrow(AlarmsTable.COLUMN_RING_TIME_MILLIS);
+            final int ignoringColumn = cursor.getColumnIndexOrThrow(AlarmsTable.COLUMN_IGNORE_UPCOMING_RING_TIME);
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                if (cursor.getLong(snoozingColumn) > now || cursor.getLong(ringTimeColumn) <= now) {
+                    skipped++;
+                    continue;
+                }
+                final long ringsAt = calculator.ringsAt(
+                        cursor.getInt(hourColumn),
+                        cursor.getInt(minutesColumn),
+                        cursor.getInt(daysMaskColumn),
+                        now);
+                if (ringsAt == cursor.getLong(ringTimeColumn)) {
+                    skipped++;
+                    continue;
+                }
+                ids[changed] = cursor.getLong(idColumn);
+                ringTimes[changed] = ringsAt;
+                ignoring[changed] = cursor.getInt(ignoringColumn) != 0;
+                changed++;
+            }
+
+            mTableManager.updateRingTimes(ids, ringTimes, changed);
+
+            for (int i = 0; i < changed; i++) {
+                if (ignoring[i]) {
+                    // The ring time it was ignoring moved, so move the wakeup that
+                    // schedules its next ring time. Only these alarms are read in full.
+                    final Alarm alarm = mTableManager.getItem(ids[i]);
+                    if (alarm != null) {
+                        mAlarmController.armPendingAlarmScheduler(alarm, ringTimes[i]);
+                        alarmManagerCalls++;
+                    }
+                } else {
+                    // It may have been armed for the old time, outside of the new window.
+                    alarmManagerCalls += mAlarmController.disarmRingIntent(ids[i]);
+                }
+            }
+            if (changed > 0) {
+                alarmManagerCalls += mBatchScheduler.scheduleAll().alarmManagerCalls;
+            }
+
+            Result result = new Result(changed, skipped, alarmManagerCalls,
+                    SystemClock.elapsedRealtime() - start);
+            Log.d(TAG, result.toString());
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class AlarmsCursorAdapter extends BaseCursorAdapter<Alarm, BaseAlarmViewH
                                AlarmController alarmController) {
         super(listener);
         mAlarmController = alarmController;
+        setDiffingEnabled(true);
     }
 
     @Override
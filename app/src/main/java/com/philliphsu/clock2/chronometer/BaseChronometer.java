@@ -24,6 +24,7 @@ import android.content.Context;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.TextView;
 
@@ -32,6 +33,10 @@ import android.widget.TextView;
  *
  * Based on the framework's Chronometer class. Can be configured as a countdown
  * chronometer and can also show centiseconds.
+ *
+ * With centiseconds, the text is redrawn on every display frame with {@link Choreographer},
+ * while this view is visible; more often would be wasted, since it couldn't be shown.
+ * Otherwise, it ticks once per second, on the seconds of its base.
  */
 public class BaseChronometer extends TextView {
     private static final String TAG = "BaseChronometer";
@@ -49,7 +54,7 @@ public class BaseChronometer extends TextView {
     private boolean mVisible;
     private boolean mStarted;
     private boolean mRunning;
-    private long mTickInterval;
+    private long mNextChangeAt; // when the displayed text next changes
     private OnChronometerTickListener mOnChronometerTickListener;
     private final ChronometerDelegate mDelegate = new ChronometerDelegate();
 
@@ -99,7 +104,6 @@ public class BaseChronometer extends TextView {
     private void init() {
         mDelegate.init();
         updateText(SystemClock.elapsedRealtime());
-        mTickInterval = 1000;
     }
 
     /**
@@ -143,10 +147,8 @@ public class BaseChronometer extends TextView {
         // centiseconds value initially displayed. By resetting the timer, we minimize
         // this time delta, and that should display an initial centiseconds value of zero.
         init();
-        // ----------------------------------------------------------------------------
-        // TOneverDO: Precede init(), because init() resets mTickInterval to 1000.
-        mTickInterval = showCentiseconds ? 10 : 1000;
-        // ----------------------------------------------------------------------------
+        // Switch between frame callbacks and once-per-second ticks.
+        scheduleNextTick();
     }
 
     /**
@@ -292,10 +294,24 @@ public class BaseChronometer extends TextView {
     protected void onVisibilityChanged(View changedView, int visibility) {
         super.onVisibilityChanged(changedView, visibility);
         updateRunning();
+        // Frames are only rendered while this view is visible. This is also
+        // called from TextView's constructor, before our fields are set.
+        if (mRunning) {
+            scheduleNextTick();
+        }
     }
 
     private synchronized void updateText(long now) {
-        setText(mDelegate.formatElapsedTime(now, getResources()));
+        mNextChangeAt = mDelegate.nextChangeAt(now);
+        CharSequence text = mDelegate.formatElapsedTime(now, getResources());
+        if (text instanceof ElapsedTimeFormatter) {
+            // Plain text can be shown straight from the delegate's buffer,
+            // instead of TextView making a String out of it every tick. The buffer
+            // only changes right before the next call here, as TextView requires.
+            setText(((ElapsedTimeFormatter) text).getBuffer(), 0, text.length());
+        } else {
+            setText(text);
+        }
     }
 
     private void updateRunning() {
@@ -303,16 +319,44 @@ public class BaseChronometer extends TextView {
         // It is preventing the chronometer in TimerViewHolder from ticking, so leave it off.
         boolean running = mVisible && mStarted /*&& isShown()*/;
         if (running != mRunning) {
+            mRunning = running;
             if (running) {
                 Log.d(TAG, "Running");
                 updateText(SystemClock.elapsedRealtime());
                 dispatchChronometerTick();
-                postDelayed(mTickRunnable, mTickInterval);
             } else {
                 Log.d(TAG, "Not running anymore");
-                removeCallbacks(mTickRunnable);
             }
-            mRunning = running;
+            scheduleNextTick();
+        }
+    }
+
+    /**
+     * Replaces any pending tick with the next one for the current mode,
+     * or just cancels it if this shouldn't be ticking.
+     */
+    private void scheduleNextTick() {
+        removeCallbacks(mTickRunnable);
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        if (!mRunning) {
+            return;
+        }
+        if (showsCentiseconds()) {
+            if (getVisibility() == VISIBLE) {
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            }
+        } else {
+            // On the next second of the base, so that ticks don't drift.
+            postDelayed(mTickRunnable, mNextChangeAt - SystemClock.elapsedRealtime());
+        }
+    }
+
+    private void tick() {
+        final long now = SystemClock.elapsedRealtime();
+        // The frame rate may be faster than the centiseconds change.
+        if (now >= mNextChangeAt) {
+            updateText(now);
+            dispatchChronometerTick();
         }
     }
 
@@ -320,9 +364,20 @@ public class BaseChronometer extends TextView {
         @Override
         public void run() {
             if (mRunning) {
-                updateText(SystemClock.elapsedRealtime());
-                dispatchChronometerTick();
-                postDelayed(mTickRunnable, mTickInterval);
+                tick();
+                scheduleNextTick();
+            }
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mRunning) {
+                tick();
+                if (getVisibility() == VISIBLE) {
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
             }
         }
     };
@@ -22,10 +22,8 @@ package com.philliphsu.clock2.chronometer;
 import android.content.res.Resources;
 import android.os.SystemClock;
 import androidx.annotation.Nullable;
-import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
 import android.text.Spanned;
-import android.text.TextUtils;
-import android.text.format.DateUtils;
 import android.text.style.RelativeSizeSpan;
 import android.util.Log;
 
@@ -46,6 +44,7 @@ public final class ChronometerDelegate {
     private static final String TAG = "ChronometerDelegate";
 
     private static final RelativeSizeSpan SIZE_SPAN = new RelativeSizeSpan(0.5f);
+    private static final String NEGATIVE_DURATION_PLACEHOLDER = "%1$s";
 
     private long mBase;
     private long mNow; // the currently displayed time
@@ -55,7 +54,11 @@ public final class ChronometerDelegate {
     private Locale mFormatterLocale;
     private Object[] mFormatterArgs = new Object[1];
     private StringBuilder mFormatBuilder;
-    private StringBuilder mRecycle = new StringBuilder(8);
+    private final ElapsedTimeFormatter mText = new ElapsedTimeFormatter();
+    private final SpannableStringBuilder mSpannedText = new SpannableStringBuilder();
+    private Locale mNegativeLocale;
+    private String mNegativePrefix;
+    private String mNegativeSuffix;
     private boolean mCountDown;
     private boolean mShowCentiseconds;
     private boolean mApplySizeSpanOnCentiseconds;
@@ -100,64 +103,111 @@ public final class ChronometerDelegate {
         return mFormat;
     }
 
+    /**
+     * @return the elapsed realtime, after {@code now}, that the formatted text next changes
+     */
+    public long nextChangeAt(long now) {
+        // Counting down, the remaining time is truncated, so e.g. 5 is shown
+        // until 1 ms after there are exactly 5 seconds left.
+        final long phase = mCountDown ? mBase + 1 : mBase;
+        return TickSchedule.nextBoundary(now, phase, mShowCentiseconds ? 10 : 1000);
+    }
+
+    /**
+     * Formats the time elapsed since, or remaining until, the base. Allocates nothing
+     * unless a {@link #setFormat(String) format} is set or the locale has changed.
+     * @return the formatted text, which is reused by the next call. Copy it,
+     * e.g. with {@code toString()}, if you need to keep it.
+     */
     public CharSequence formatElapsedTime(long now, @Nullable Resources resources) {
         mNow = now;
-        long seconds = mCountDown ? mBase - now : now - mBase;
+        long millis = mCountDown ? mBase - now : now - mBase;
         boolean negative = false;
-        // Only modify how negative timers are displayed if we have a Resources.
-        // Otherwise, if we invert the sign of seconds and we don't have a Resources,
-        // the timer will be positive again which will confuse the user.
-        if (seconds < 0 && resources != null) {
-            seconds = -seconds;
+        if (millis < 0) {
+            millis = -millis;
             negative = true;
         }
-        String text = DateUtils.formatElapsedTime(mRecycle, seconds / 1000);
+
+        mText.clear();
         if (negative) {
-            // The only way this can call through is if the previous null check on
-            // `resources` passed.
-            text = resources.getString(R.string.negative_duration, text);
+            // Only show negative timers with the proper sign if we have a Resources.
+            // Otherwise, fall back to a hyphen-minus, so that the timer doesn't
+            // look positive again, which would confuse the user.
+            if (resources != null) {
+                updateNegativeAffixes(resources);
+                mText.append(mNegativePrefix);
+            } else {
+                mText.append('-');
+            }
+        }
+        mText.appendElapsedSeconds(millis / 1000);
+        if (negative && resources != null) {
+            mText.append(mNegativeSuffix);
         }
-
-        Locale loc = Locale.getDefault();
         if (mFormat != null) {
-            if (mFormatter == null || !loc.equals(mFormatterLocale)) {
-                mFormatterLocale = loc;
-                mFormatter = new Formatter(mFormatBuilder, loc);
-            }
-            mFormatBuilder.setLength(0);
-            mFormatterArgs[0] = text;
-            try {
-                mFormatter.format(mFormat, mFormatterArgs);
-                text = mFormatBuilder.toString();
-            } catch (IllegalFormatException ex) {
-                if (!mLogged) {
-                    Log.w(TAG, "Illegal format string: " + mFormat);
-                    mLogged = true;
-                }
-            }
+            applyFormat();
         }
+
         if (mShowCentiseconds) {
-            long centiseconds = (seconds % 1000) / 10;
-            String centisecondsText = String.format(loc,
-                    // TODO: Different locales use different decimal marks.
-                    // The two most common are . and ,
-                    // Consider removing the . and just let the size span
-                    // represent this as fractional seconds?
-                    // ...or figure out how to get the correct mark for the
-                    // current locale.
-                    // It looks like Google's Clock app strictly uses .
-                    ".%02d", // The . before % is not a format specifier
-                    centiseconds);
+            final int centisecondsStart = mText.length();
+            // TODO: Different locales use different decimal marks.
+            // The two most common are . and ,
+            // It looks like Google's Clock app strictly uses .
+            mText.appendCentiseconds((int) (millis % 1000 / 10));
             if (mApplySizeSpanOnCentiseconds) {
-                SpannableString span = new SpannableString(centisecondsText);
-                span.setSpan(SIZE_SPAN, 0, centisecondsText.length(),
+                mSpannedText.removeSpan(SIZE_SPAN);
+                mSpannedText.replace(0, mSpannedText.length(), mText, 0, mText.length());
+                mSpannedText.setSpan(SIZE_SPAN, centisecondsStart, mText.length(),
                         Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                return TextUtils.concat(text, span);
-            } else {
-                return text.concat(centisecondsText);
+                return mSpannedText;
             }
         }
 
-        return text;
+        return mText;
+    }
+
+    /**
+     * Formats the text so far with {@link #getFormat()}, and replaces it with the result.
+     */
+    private void applyFormat() {
+        Locale loc = Locale.getDefault();
+        if (mFormatter == null || !loc.equals(mFormatterLocale)) {
+            mFormatterLocale = loc;
+            mFormatter = new Formatter(mFormatBuilder, loc);
+        }
+        mFormatBuilder.setLength(0);
+        mFormatterArgs[0] = mText.toString();
+        try {
+            mFormatter.format(mFormat, mFormatterArgs);
+            mText.clear();
+            mText.append(mFormatBuilder.toString());
+        } catch (IllegalFormatException ex) {
+            if (!mLogged) {
+                Log.w(TAG, "Illegal format string: " + mFormat);
+                mLogged = true;
+            }
+        }
+    }
+
+    /**
+     * Splits the negative duration string around its placeholder, once per locale.
+     */
+    private void updateNegativeAffixes(Resources resources) {
+        Locale loc = Locale.getDefault();
+        if (loc.equals(mNegativeLocale)) {
+            return;
+        }
+        String negativeDuration = resources.getString(R.string.negative_duration);
+        int placeholder = negativeDuration.indexOf(NEGATIVE_DURATION_PLACEHOLDER);
+        if (placeholder < 0) {
+            // Translated without the placeholder, so just put it in front.
+            mNegativePrefix = negativeDuration;
+            mNegativeSuffix = "";
+        } else {
+            mNegativePrefix = negativeDuration.substring(0, placeholder);
+            mNegativeSuffix = negativeDuration.substring(
+                    placeholder + NEGATIVE_DURATION_PLACEHOLDER.length());
+        }
+        mNegativeLocale = loc;
     }
 }
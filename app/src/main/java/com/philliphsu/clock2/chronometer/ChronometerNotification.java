@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import android.app.NotificationManager;
+import android.content.res.Resources;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+/**
+ * Created by Phillip Hsu on 9/10/2016.
+ *
+ * A chronometer-based notification. While notifications have built-in support for
+ * using a chronometer, it lacks pause/resume functionality and the ability to choose
+ * between count up or count down. While it is added to the
+ * {@link ChronometerNotificationScheduler}, its text is updated shortly after the displayed
+ * second changes, see {@link TickSchedule}.
+ */
+final class ChronometerNotification implements ChronometerNotificationScheduler.Tickable {
+    private final ChronometerDelegate mDelegate;
+    private final NotificationManager mNotificationManager;
+    private final NotificationCompat.Builder mNoteBuilder;
+    private final Resources mResources;
+    private final String mNoteTag;
+    private final int mNoteId;
+
+    private String mLastText; // the text of the last notification posted
+
+    /**
+     * @param delegate Configured by the client service, including whether to be counting down or not.
+     * @param builder A preconfigured Builder from the client service whose content
+     *                text will be updated and eventually built from.
+     * @param resources Required only if the ChronometerDelegate is configured to count down.
+     *                  Used to retrieve a String resource if/when the countdown reaches negative.
+     * @param noteTag An optional tag for posting notifications.
+     */
+    ChronometerNotification(@NonNull ChronometerDelegate delegate,
+                            @NonNull NotificationManager manager,
+                            @NonNull NotificationCompat.Builder builder,
+                            @Nullable Resources resources,
+                            @Nullable String noteTag,
+                            int noteId) {
+        mDelegate = delegate;
+        mNotificationManager = manager;
+        mNoteBuilder = builder;
+        mResources = resources;
+        mNoteTag = noteTag;
+        mNoteId = noteId;
+    }
+
+    /**
+     * Posts the notification, unless its text would be the same as the last one posted.
+     */
+    @Override
+    public synchronized void onTick(long now) {
+        if (setContentText(now)) {
+            mNotificationManager.notify(mNoteTag, mNoteId, mNoteBuilder.build());
+        }
+    }
+
+    @Override
+    public long nextTickAt(long now) {
+        return mDelegate.nextChangeAt(now);
+    }
+
+    /**
+     * @param updateText whether the new notification should update its chronometer.
+     *                   Use {@code false} if you are updating everything else about the notification,
+     *                   e.g. you just want to refresh the actions due to a start/pause state change.
+     */
+    synchronized void updateNotification(boolean updateText) {
+        if (updateText) {
+            setContentText(SystemClock.elapsedRealtime());
+        }
+        // Always posted, since the client may have changed more than the text.
+        mNotificationManager.notify(mNoteTag, mNoteId, mNoteBuilder.build());
+    }
+
+    /**
+     * @return whether the text changed since it was last set
+     */
+    private boolean setContentText(long now) {
+        CharSequence text = mDelegate.formatElapsedTime(now, mResources);
+        if (TextUtils.equals(text, mLastText)) {
+            return false;
+        }
+        // Copied, because the delegate reuses the text.
+        mLastText = text.toString();
+        mNoteBuilder.setContentText(mLastText);
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import android.annotation.SuppressLint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+
+/**
+ * The one thread that ticks every running chronometer notification in the process.
+ *
+ * Each {@link Tickable} says when its next tick is due, e.g. when the next second of its
+ * chronometer starts. A single message is posted for the next due time, and every tickable
+ * that is due is ticked in that one wakeup, see {@link TickSchedule}. The thread is started
+ * when the first tickable is added and quit when the last one is removed.
+ */
+public final class ChronometerNotificationScheduler {
+    private static final String TAG = "ChronomNotifScheduler";
+
+    private static final int MSG_TICK = 1;
+
+    private static ChronometerNotificationScheduler sInstance;
+
+    /**
+     * Something that should be updated periodically while it is registered.
+     */
+    public interface Tickable {
+        /**
+         * Called on the scheduler's thread.
+         * @param now the {@link SystemClock#elapsedRealtime() elapsed realtime} of this tick
+         */
+        void onTick(long now);
+
+        /**
+         * @return the elapsed realtime, after {@code now}, that the next tick is due
+         */
+        long nextTickAt(long now);
+    }
+
+    private final TickSchedule mSchedule = new TickSchedule();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private int mThreadsStarted;
+    private long mWakeups;
+    private long mTicks;
+
+    public static synchronized ChronometerNotificationScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new ChronometerNotificationScheduler();
+        }
+        return sInstance;
+    }
+
+    private ChronometerNotificationScheduler() {
+    }
+
+    /**
+     * Starts ticking the tickable from its next due time on. Does nothing
+     * if it is already registered.
+     */
+    public synchronized void add(Tickable tickable) {
+        if (!mSchedule.add(tickable, SystemClock.elapsedRealtime())) {
+            return;
+        }
+        if (mThread == null) {
+            startThread();
+        }
+        scheduleNextTick();
+    }
+
+    /**
+     * Stops ticking the tickable. Once this returns, the tickable won't be ticked
+     * again, even if a tick was in progress when this was called.
+     */
+    public synchronized void remove(Tickable tickable) {
+        if (mSchedule.remove(tickable) && mSchedule.size() == 0) {
+            quitThread();
+        }
+    }
+
+    public synchronized int size() {
+        return mSchedule.size();
+    }
+
+    /**
+     * @return how many times the thread was woken up to tick
+     */
+    public synchronized long getWakeupCount() {
+        return mWakeups;
+    }
+
+    /**
+     * @return how many times a tickable was ticked, over all wakeups
+     */
+    public synchronized long getTickCount() {
+        return mTicks;
+    }
+
+    /**
+     * @return how many times a thread was started, since the thread is quit while idle
+     */
+    public synchronized int getThreadsStarted() {
+        return mThreadsStarted;
+    }
+
+    /**
+     * @return whether the scheduler's thread is currently running
+     */
+    public synchronized boolean isRunning() {
+        return mThread != null;
+    }
+
+    // There won't be a memory leak since our handler is using a looper that is not
+    // associated with the main thread.
+    @SuppressLint("HandlerLeak")
+    private void startThread() {
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mThreadsStarted++;
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                onTickMessage(this);
+            }
+        };
+    }
+
+    private void quitThread() {
+        mHandler.removeMessages(MSG_TICK);
+        mThread.quit();
+        mThread = null;
+        mHandler = null;
+    }
+
+    private synchronized void onTickMessage(Handler handler) {
+        if (handler != mHandler) {
+            // Delivered to a thread that was quit while this was waiting for the lock.
+            return;
+        }
+        mWakeups++;
+        // Ticked while holding the lock, so that remove() waits for the tick to finish.
+        mTicks += mSchedule.tickDue(SystemClock.elapsedRealtime());
+        scheduleNextTick();
+    }
+
+    /**
+     * Replaces the pending tick message with one for the next due time.
+     */
+    private void scheduleNextTick() {
+        mHandler.removeMessages(MSG_TICK);
+        final long wakeupAt = mSchedule.nextWakeupAt();
+        if (wakeupAt != TickSchedule.NONE) {
+            // The handler's clock stops during deep sleep, so the tick can only be late,
+            // never early. Since due times are absolute, lateness doesn't add up.
+            final long delay = wakeupAt - SystemClock.elapsedRealtime();
+            mHandler.sendEmptyMessageDelayed(MSG_TICK, Math.max(0, delay));
+        }
+    }
+}
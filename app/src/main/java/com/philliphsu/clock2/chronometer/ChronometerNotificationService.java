@@ -47,9 +47,10 @@ public abstract class ChronometerNotificationService extends Service {
     // builder instance with attributes that all timer notifications will have.
 //    private NotificationCompat.Builder mNoteBuilder;
     private NotificationManager mNotificationManager;
+    private ChronometerNotificationScheduler mScheduler;
 
     private final SimpleArrayMap<Long, NotificationCompat.Builder> mNoteBuilders = new SimpleArrayMap<>();
-    private final SimpleArrayMap<Long, ChronometerNotificationThread> mThreads = new SimpleArrayMap<>();
+    private final SimpleArrayMap<Long, ChronometerNotification> mNotifications = new SimpleArrayMap<>();
     private final SimpleArrayMap<Long, ChronometerDelegate> mDelegates = new SimpleArrayMap<>();
 
     /**
@@ -116,6 +117,7 @@ public abstract class ChronometerNotificationService extends Service {
     public void onCreate() {
         super.onCreate();
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        mScheduler = ChronometerNotificationScheduler.getInstance();
         if (isForeground()) {
             registerNewNoteBuilder(getNoteId());
             // IGNORE THE LINT WARNING ABOUT UNNECESSARY BOXING. Because getNoteId() returns an int,
@@ -139,23 +141,9 @@ public abstract class ChronometerNotificationService extends Service {
      * then register a new instance. Each new builder comes with a new chronometer.
      */
     protected final void registerNewNoteBuilder(long id) {
-        // If we didn't have this check, then we'd be replacing a previous
-        // builder with a new instance. The problem with that is the new id->builder
-        // mapping here will not kept in sync with the builder reference in the
-        // ChronometerNotificationThread, unless you make a later call to
-        // startNewThread(). If the chronometer represents a Timer and it gets paused,
-        // quitCurrentThread() is called, but startNewThread() will NOT be called.
-        // In quitCurrentThread(), we tell the thread to update the notification for us
-        // prior to actually quiting. This is where the problem manifests: because the
-        // thread is holding onto the previous builder instance, updating the notification
-        // means the old builder's attributes will be used to build a new notification.
-        // When we later make attribute changes to the builder via e.g. addAction(),
-        // we are actually affecting the new builder instance registered here,
-        // not the old instance held by the thread.
-        //
-        // We could have avoided this out-of-sync issue by updating the notification
-        // in this class, using getNoteTag() and the id passed to quitCurrentThread(),
-        // instead of telling the thread to do it for us.
+        // If we didn't have this check, then we'd be replacing a previous builder
+        // with a new instance, and the notification registered for this id would
+        // keep building from the previous one.
         if (mNoteBuilders.containsKey(id))
             return;
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
@@ -165,6 +153,13 @@ public abstract class ChronometerNotificationService extends Service {
                 .setContentIntent(getContentIntent());
         mNoteBuilders.put(id, builder);
         registerNewChronometer(id);
+        mNotifications.put(id, new ChronometerNotification(
+                mDelegates.get(id),
+                mNotificationManager,
+                builder,
+                getResources(),
+                getNoteTag(),
+                (int) id));
     }
 
     // Didn't work!
@@ -186,9 +181,9 @@ public abstract class ChronometerNotificationService extends Service {
 
     @Override
     public void onDestroy() {
-        for (int i = 0; i < mThreads.size(); i++) {
-            // TOneverDO: quitCurrentThread() because that posts the notification again
-            quitThread(mThreads.keyAt(i));
+        for (int i = 0; i < mNotifications.size(); i++) {
+            // TOneverDO: stopTicking() because that posts the notification again
+            mScheduler.remove(mNotifications.valueAt(i));
         }
     }
 
@@ -224,62 +219,35 @@ public abstract class ChronometerNotificationService extends Service {
     }
 
     /**
-     * If there is a thread currently running, then this will push any notification updates
-     * you might have configured in the Builder and then call the thread's {@link
-     * ChronometerNotificationThread#quit() quit()}.
-     * @param id the id associated with the thread to quit
+     * Pushes any notification updates you might have configured in the Builder,
+     * and stops updating the notification's chronometer.
+     * @param id the id associated with the notification
      */
-    public void quitCurrentThread(long id) {
-        ChronometerNotificationThread thread = mThreads.get(id);
-        if (thread != null) {
+    public void stopTicking(long id) {
+        ChronometerNotification notification = mNotifications.get(id);
+        if (notification != null) {
             // Display any notification updates associated with the current state
-            // of the chronometer. If we relied on the HandlerThread to do this for us,
-            // the message delivery would be delayed.
-            // TODO: We could update the notification ourselves using getNoteTag() and
-            // the id param. This is desirable if we ever encounter other "out-of-sync"
-            // issues regarding the notification builder references between this class
-            // and the thread. See #registerNewNoteBuilder() for more info.
-            thread.updateNotification(false/*updateText*/);
+            // of the chronometer. If we waited for the next tick to do this for us,
+            // the update would be delayed.
+            notification.updateNotification(false/*updateText*/);
             // If the chronometer has been set to not run, the effect is obvious.
-            // Otherwise, we're preparing for the start of a new thread.
-            quitThread(id);
+            // Otherwise, we're preparing for it to start ticking again.
+            mScheduler.remove(notification);
         }
     }
 
     /**
-     * Instantiates a new HandlerThread and calls its {@link Thread#start() start()}.
-     * The calling thread will be blocked until the HandlerThread created here finishes
-     * initializing its looper.
+     * Starts updating the notification's chronometer from the next whole second on.
+     * Every running chronometer notification is updated by the same thread,
+     * see {@link ChronometerNotificationScheduler}.
      * @param id
      * @param base the new base time of the chronometer
      */
-    public void startNewThread(long id, long base) {
-        // An instance of Thread cannot be started more than once. You must create
-        // a new instance if you want to start the Thread's work again.
-        ChronometerNotificationThread thread = new ChronometerNotificationThread(
-                mDelegates.get(id),
-                mNotificationManager,
-                mNoteBuilders.get(id),
-                getResources(),
-                getNoteTag(),
-                (int) id);
-        mThreads.put(id, thread);
-        // Initializes this thread as a looper. HandlerThread.run() will be executed
-        // in this thread.
-        // This gives you a chance to create handlers that then reference this looper,
-        // before actually starting the loop.
-        thread.start();
-        // If this thread has been started, this method will block *the calling thread*
-        // until the looper has been initialized. This ensures the handler thread is
-        // fully initialized before we proceed.
-        thread.getLooper();
-        // -------------------------------------------------------------------------------
-        // TOneverDO: Set base BEFORE the thread is ready to begin working, or else when
-        // the thread actually begins working, it will initially show that some time has
-        // passed.
-        ChronometerDelegate delegate = mDelegates.get(id);
-        delegate.setBase(base);
-        // -------------------------------------------------------------------------------
+    public void startTicking(long id, long base) {
+        // TOneverDO: Set base AFTER the notification is added to the scheduler, or else
+        // the first tick may show the time elapsed since the old base.
+        mDelegates.get(id).setBase(base);
+        mScheduler.add(mNotifications.get(id));
     }
 
     /**
@@ -290,9 +258,11 @@ public abstract class ChronometerNotificationService extends Service {
      */
     @CallSuper
     protected void releaseResources(long id) {
+        ChronometerNotification notification = mNotifications.remove(id);
+        if (notification != null) {
+            mScheduler.remove(notification);
+        }
         mNoteBuilders.remove(id);
-        quitThread(id);
-        mThreads.remove(id);
         mDelegates.remove(id);
     }
 
@@ -346,10 +316,10 @@ public abstract class ChronometerNotificationService extends Service {
     }
 
     /**
-     * @param id The id associated with the thread that should update the notification.
+     * @param id The id associated with the notification that should be updated.
      */
     protected final void updateNotification(long id, boolean updateText) {
-        mThreads.get(id).updateNotification(updateText);
+        mNotifications.get(id).updateNotification(updateText);
     }
 
     /**
@@ -380,15 +350,4 @@ public abstract class ChronometerNotificationService extends Service {
     protected final void cancelNotification(long id/*TODO: change to int noteId?*/) {
         mNotificationManager.cancel(getNoteTag(), (int) id);
     }
-
-    /**
-     * Causes the handler thread's looper to terminate without processing
-     * any more messages in the message queue.
-     */
-    private void quitThread(long id) {
-        ChronometerNotificationThread thread = mThreads.get(id);
-        if (thread != null && thread.isAlive()) {
-            thread.quit();
-        }
-    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import android.text.GetChars;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Formats elapsed times as "MM:SS" or "H:MM:SS", optionally followed by ".cc" centiseconds,
+ * into a char buffer that is reused by every call. Digits are in the default locale's
+ * numbering system, as {@link android.text.format.DateUtils#formatElapsedTime(long)} does.
+ *
+ * Once the buffer has grown to fit, formatting allocates nothing. The formatter is the
+ * formatted text, so it is only valid until the next call.
+ */
+final class ElapsedTimeFormatter implements CharSequence, GetChars {
+    private char[] mChars = new char[16];
+    private int mLength;
+
+    private Locale mLocale;
+    private char mZeroDigit;
+
+    /**
+     * Empties the buffer, and looks up the digits again if the default locale changed.
+     */
+    void clear() {
+        mLength = 0;
+        final Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        }
+    }
+
+    /**
+     * Appends "MM:SS", or "H:MM:SS" if there is at least an hour.
+     * @param seconds a duration in whole seconds, not negative
+     */
+    void appendElapsedSeconds(long seconds) {
+        final long hours = seconds / 3600;
+        final int minutes = (int) (seconds % 3600 / 60);
+        if (hours > 0) {
+            appendNumber(hours);
+            append(':');
+        }
+        appendTwoDigits(minutes);
+        append(':');
+        appendTwoDigits((int) (seconds % 60));
+    }
+
+    /**
+     * Appends ".cc". The decimal mark is always a period, as it always has been.
+     */
+    void appendCentiseconds(int centiseconds) {
+        append('.');
+        appendTwoDigits(centiseconds);
+    }
+
+    void append(char c) {
+        ensureCapacity(mLength + 1);
+        mChars[mLength++] = c;
+    }
+
+    void append(String s) {
+        ensureCapacity(mLength + s.length());
+        s.getChars(0, s.length(), mChars, mLength);
+        mLength += s.length();
+    }
+
+    /**
+     * @return the buffer that holds the text, from 0 to {@link #length()}.
+     * The buffer may be replaced when the text grows.
+     */
+    char[] getBuffer() {
+        return mChars;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= mLength) {
+            throw new IndexOutOfBoundsException(index + " >= " + mLength);
+        }
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        System.arraycopy(mChars, start, dest, destoff, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+    private void appendTwoDigits(int n) {
+        append((char) (mZeroDigit + n / 10));
+        append((char) (mZeroDigit + n % 10));
+    }
+
+    private void appendNumber(long n) {
+        if (n >= 10) {
+            appendNumber(n / 10);
+        }
+        append((char) (mZeroDigit + n % 10));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mChars.length) {
+            mChars = Arrays.copyOf(mChars, Math.max(capacity, mChars.length * 2));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import java.util.ArrayList;
+
+/**
+ * When each registered {@link ChronometerNotificationScheduler.Tickable} is next due.
+ * Kept apart from the scheduler's thread and clock so that it can be run against a fake clock.
+ *
+ * Due times are absolute, so a tick that runs late doesn't push back the ones after it.
+ * Ticks that fall due within {@link #SLACK_MILLIS} of the earliest one are run together,
+ * so chronometers on different phases don't each need their own wakeup. Wakeups are
+ * then more than the slack apart, i.e. at most two a second however many chronometers
+ * run, at the cost of a second being shown up to the slack late.
+ *
+ * Each chronometer still ticks on its own phase, rather than all on one shared boundary:
+ * a tick that runs after its due time but before the next one always shows the right
+ * second, while a shared boundary that lands near a chronometer's phase would show it
+ * skip or repeat seconds as the wakeups jitter.
+ */
+final class TickSchedule {
+    /** What {@link #nextWakeupAt()} returns when nothing is registered. */
+    static final long NONE = Long.MAX_VALUE;
+
+    /**
+     * How late a tick may run to share a wakeup with an earlier one. Together with how late
+     * the wakeup itself runs, this must stay under a second, or seconds would be skipped.
+     * Notifications are glanced at rather than watched, and the system throttles how often
+     * an app may update them anyway, so half a second of lag is a fair price.
+     */
+    static final long SLACK_MILLIS = 500;
+
+    private static final class Entry {
+        final ChronometerNotificationScheduler.Tickable tickable;
+        long dueAt;
+
+        Entry(ChronometerNotificationScheduler.Tickable tickable, long dueAt) {
+            this.tickable = tickable;
+            this.dueAt = dueAt;
+        }
+    }
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+
+    /**
+     * @return the first time after {@code now} that is a whole number of intervals from the base
+     */
+    static long nextBoundary(long now, long base, long interval) {
+        return now + interval - Math.floorMod(now - base, interval);
+    }
+
+    /**
+     * @return false if the tickable was already registered
+     */
+    boolean add(ChronometerNotificationScheduler.Tickable tickable, long now) {
+        if (indexOf(tickable) >= 0) {
+            return false;
+        }
+        mEntries.add(new Entry(tickable, tickable.nextTickAt(now)));
+        return true;
+    }
+
+    /**
+     * @return false if the tickable wasn't registered
+     */
+    boolean remove(ChronometerNotificationScheduler.Tickable tickable) {
+        final int i = indexOf(tickable);
+        if (i < 0) {
+            return false;
+        }
+        mEntries.remove(i);
+        return true;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return when to wake up next: the latest due time within {@link #SLACK_MILLIS}
+     * of the earliest one, or {@link #NONE} if nothing is registered
+     */
+    long nextWakeupAt() {
+        long earliest = NONE;
+        for (int i = 0; i < mEntries.size(); i++) {
+            earliest = Math.min(earliest, mEntries.get(i).dueAt);
+        }
+        if (earliest == NONE) {
+            return NONE;
+        }
+        long wakeup = earliest;
+        for (int i = 0; i < mEntries.size(); i++) {
+            final long dueAt = mEntries.get(i).dueAt;
+            if (dueAt <= earliest + SLACK_MILLIS) {
+                wakeup = Math.max(wakeup, dueAt);
+            }
+        }
+        return wakeup;
+    }
+
+    /**
+     * Ticks every tickable that is due by {@code now}, and works out when each is due next.
+     * @return how many were ticked
+     */
+    int tickDue(long now) {
+        int ticked = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            final Entry entry = mEntries.get(i);
+            if (entry.dueAt <= now) {
+                entry.tickable.onTick(now);
+                entry.dueAt = entry.tickable.nextTickAt(now);
+                ticked++;
+            }
+        }
+        return ticked;
+    }
+
+    private int indexOf(ChronometerNotificationScheduler.Tickable tickable) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (mEntries.get(i).tickable == tickable) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
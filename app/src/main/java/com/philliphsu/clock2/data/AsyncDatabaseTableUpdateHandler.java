@@ -20,12 +20,21 @@
 package com.philliphsu.clock2.data;
 
 import android.content.Context;
-import android.os.AsyncTask;
 
 import com.philliphsu.clock2.list.ScrollHandler;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 /**
  * Created by Phillip Hsu on 7/1/2016.
+ *
+ * Writes to a table on the {@link DatabaseExecutor}, and calls the {@code onPostAsync*}
+ * hooks with the results on the main thread. Writes run in the order they were made,
+ * so e.g. an edit made after a bulk delete can't be undone by it.
  */
 public abstract class AsyncDatabaseTableUpdateHandler<
         T extends ObjectWithId,
@@ -35,6 +44,7 @@ public abstract class AsyncDatabaseTableUpdateHandler<
     private final Context mAppContext;
     private final ScrollHandler mScrollHandler;
     private final TM mTableManager;
+    private final DatabaseExecutor mExecutor;
 
     /**
      * @param context the Context from which we get the application context
@@ -43,41 +53,132 @@ public abstract class AsyncDatabaseTableUpdateHandler<
         mAppContext = context.getApplicationContext(); // to prevent memory leaks
         mScrollHandler = scrollHandler;
         mTableManager = onCreateTableManager(context);
+        mExecutor = DatabaseExecutor.getInstance(context);
+    }
+
+    public final Future<Long> asyncInsert(final T item) {
+        return mExecutor.write(operationName("insert"),
+                new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return mTableManager.insertItem(item);
+                    }
+                },
+                new DatabaseExecutor.Callback<Long>() {
+                    @Override
+                    public void onResult(Long result) {
+                        prepareScrollTo(result);
+                        onPostAsyncInsert(result, item);
+                    }
+                });
+    }
+
+    public final Future<Long> asyncUpdate(final long id, final T newItem) {
+        return mExecutor.write(operationName("update"),
+                new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        mTableManager.updateItem(id, newItem);
+                        return id;
+                    }
+                },
+                new DatabaseExecutor.Callback<Long>() {
+                    @Override
+                    public void onResult(Long result) {
+                        prepareScrollTo(result);
+                        onPostAsyncUpdate(result, newItem);
+                    }
+                });
+    }
+
+    public final Future<Integer> asyncDelete(final T item) {
+        return mExecutor.write(operationName("delete"),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return mTableManager.deleteItem(item);
+                    }
+                },
+                new DatabaseExecutor.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer result) {
+                        onPostAsyncDelete(result, item);
+                    }
+                });
     }
 
-    public final void asyncInsert(final T item) {
-        new InsertAsyncTask(item).execute();
+    /**
+     * Inserts the items in one transaction. See {@link DatabaseTableManager#insertItems(Collection)}.
+     */
+    public final Future<long[]> asyncInsertItems(Collection<? extends T> items) {
+        // Copied, so the caller can't change what we write
+        final List<T> copy = new ArrayList<>(items);
+        return mExecutor.write(operationName("insertItems"),
+                new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        return mTableManager.insertItems(copy);
+                    }
+                },
+                new DatabaseExecutor.Callback<long[]>() {
+                    @Override
+                    public void onResult(long[] ids) {
+                        onPostAsyncInsertItems(ids, copy);
+                    }
+                });
     }
 
-    public final void asyncUpdate(final long id, final T newItem) {
-        new UpdateAsyncTask(id, newItem).execute();
+    /**
+     * Updates the items, by their ids, in one transaction.
+     * See {@link DatabaseTableManager#updateItems(Collection)}.
+     */
+    public final Future<Integer> asyncUpdateItems(Collection<? extends T> items) {
+        final List<T> copy = new ArrayList<>(items);
+        return mExecutor.write(operationName("updateItems"),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return mTableManager.updateItems(copy);
+                    }
+                },
+                new DatabaseExecutor.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer rowsUpdated) {
+                        onPostAsyncUpdateItems(rowsUpdated, copy);
+                    }
+                });
     }
 
-    public final void asyncDelete(final T item) {
-        // TODO: If we want to scroll somewhere after we delete this item, we can
-        // create a DeleteAsyncTask subclass of the BaseAsyncTask. This involves
-        // using a Long result, however.
-        new AsyncTask<Void, Void, Integer>() {
-            @Override
-            protected Integer doInBackground(Void... params) {
-                return mTableManager.deleteItem(item);
-            }
-
-            @Override
-            protected void onPostExecute(Integer integer) {
-                onPostAsyncDelete(integer, item);
-            }
-        }.execute();
+    /**
+     * Deletes the items in one transaction. See {@link DatabaseTableManager#deleteItems(Collection)}.
+     */
+    public final Future<Integer> asyncDeleteItems(Collection<? extends T> items) {
+        final List<T> copy = new ArrayList<>(items);
+        return mExecutor.write(operationName("deleteItems"),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return mTableManager.deleteItems(copy);
+                    }
+                },
+                new DatabaseExecutor.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer rowsDeleted) {
+                        onPostAsyncDeleteItems(rowsDeleted, copy);
+                    }
+                });
     }
 
-    public final void asyncClear() {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                mTableManager.clear();
-                return null;
-            }
-        }.execute();
+    public final Future<Void> asyncClear() {
+        return mExecutor.write(operationName("clear"),
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        mTableManager.clear();
+                        return null;
+                    }
+                },
+                null);
     }
 
     public final TM getTableManager() {
@@ -96,64 +197,48 @@ public abstract class AsyncDatabaseTableUpdateHandler<
 
     protected abstract void onPostAsyncUpdate(Long result, T item);
 
-    ////////////////////////////////////////////////////////////
-    // Insert and update AsyncTasks
-    ////////////////////////////////////////////////////////////
-
     /**
-     * Created because the code in insert and update AsyncTasks are exactly the same.
+     * The default implementation calls {@link #onPostAsyncInsert(Long, ObjectWithId)}
+     * for each item.
+     * @param ids the ids of the new rows, in the order of {@code items}
      */
-    private abstract class BaseAsyncTask extends AsyncTask<Void, Void, Long> {
-        final T mItem;
-
-        BaseAsyncTask(T item) {
-            mItem = item;
-        }
-
-        @Override
-        protected void onPostExecute(Long result) {
-            if (mScrollHandler != null) {
-                // Prepare to scroll to this alarm
-                mScrollHandler.setScrollToStableId(result);
-            }
+    protected void onPostAsyncInsertItems(long[] ids, List<T> items) {
+        for (int i = 0; i < ids.length; i++) {
+            onPostAsyncInsert(ids[i], items.get(i));
         }
     }
 
-    private class InsertAsyncTask extends BaseAsyncTask {
-        InsertAsyncTask(T item) {
-            super(item);
-        }
-
-        @Override
-        protected Long doInBackground(Void... params) {
-            return mTableManager.insertItem(mItem);
-        }
-
-        @Override
-        protected void onPostExecute(Long result) {
-            super.onPostExecute(result);
-            onPostAsyncInsert(result, mItem);
+    /**
+     * The default implementation calls {@link #onPostAsyncUpdate(Long, ObjectWithId)}
+     * for each item.
+     */
+    protected void onPostAsyncUpdateItems(Integer rowsUpdated, List<T> items) {
+        for (T item : items) {
+            onPostAsyncUpdate(item.getId(), item);
         }
     }
 
-    private class UpdateAsyncTask extends BaseAsyncTask {
-        private final long mId;
-
-        UpdateAsyncTask(long id, T item) {
-            super(item);
-            mId = id;
+    /**
+     * The default implementation calls {@link #onPostAsyncDelete(Integer, ObjectWithId)}
+     * for each item, with a result of one row each.
+     */
+    protected void onPostAsyncDeleteItems(Integer rowsDeleted, List<T> items) {
+        for (T item : items) {
+            onPostAsyncDelete(1, item);
         }
+    }
 
-        @Override
-        protected Long doInBackground(Void... params) {
-            mTableManager.updateItem(mId, mItem);
-            return mId;
+    private void prepareScrollTo(long stableId) {
+        if (mScrollHandler != null) {
+            // Prepare to scroll to this item
+            mScrollHandler.setScrollToStableId(stableId);
         }
+    }
 
-        @Override
-        protected void onPostExecute(Long result) {
-            super.onPostExecute(result);
-            onPostAsyncUpdate(result, mItem);
-        }
+    /**
+     * @return the name under which {@link DatabaseExecutor} keeps the timings of the operation
+     */
+    private String operationName(String operation) {
+        return mTableManager.getTableName() + "." + operation;
     }
 }
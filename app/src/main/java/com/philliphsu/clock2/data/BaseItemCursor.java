@@ -23,14 +23,27 @@ import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.util.Log;
 
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.Arrays;
+
 /**
  * Created by Phillip Hsu on 7/29/2016.
  */
 public abstract class BaseItemCursor<T extends ObjectWithId> extends CursorWrapper {
     private static final String TAG = "BaseItemCursor";
 
+    // Subclasses likewise look up their column indexes once, in their constructors,
+    // since getColumnIndexOrThrow() searches the column names on every call.
+    private final int mIdColumn;
+
+    private RowSnapshot mSnapshot;
+    private RowSnapshot mDiffBase;
+    private DiffUtil.DiffResult mDiff;
+
     public BaseItemCursor(Cursor cursor) {
         super(cursor);
+        mIdColumn = getColumnIndexOrThrow("_id"); // TODO: Refer to a constant instead of a hardcoded value
     }
 
     /**
@@ -39,19 +52,106 @@ public abstract class BaseItemCursor<T extends ObjectWithId> extends CursorWrapp
      */
     public abstract T getItem();
 
+    /**
+     * Like {@link #getItem()}, but fills in {@code reuse} with the current row instead of
+     * making a new item, where the item's type allows it. Only pass an item that nothing
+     * else holds on to. The default implementation ignores {@code reuse}.
+     */
+    public T getItem(T reuse) {
+        return getItem();
+    }
+
     public long getId() {
         if (isBeforeFirst() || isAfterLast()) {
             Log.e(TAG, "Failed to retrieve id, cursor out of range");
             return -1;
         }
-        return getLong(getColumnIndexOrThrow("_id")); // TODO: Refer to a constant instead of a hardcoded value
+        return getLong(mIdColumn);
+    }
+
+    /**
+     * @return the position of the row with this id, or -1 if there is none. This may
+     * move the cursor. A {@link KeysetPagedCursor} looks the position up in its table
+     * instead of reading every page.
+     */
+    public int positionOf(long id) {
+        Cursor cursor = getWrappedCursor();
+        if (cursor instanceof KeysetPagedCursor) {
+            return ((KeysetPagedCursor) cursor).positionOf(id);
+        }
+        for (int i = 0; moveToPosition(i); i++) {
+            if (getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a hash of the contents of the current row, for {@link RowSnapshot}.
+     * The default implementation hashes the value of every column.
+     */
+    protected long getContentHash() {
+        long hash = 17;
+        for (int i = 0, columns = getColumnCount(); i < columns; i++) {
+            final long value;
+            switch (getType(i)) {
+                case FIELD_TYPE_INTEGER:
+                    value = getLong(i);
+                    break;
+                case FIELD_TYPE_FLOAT:
+                    value = Double.doubleToLongBits(getDouble(i));
+                    break;
+                case FIELD_TYPE_STRING:
+                    value = getString(i).hashCode();
+                    break;
+                case FIELD_TYPE_BLOB:
+                    value = Arrays.hashCode(getBlob(i));
+                    break;
+                default:
+                    value = 0;
+                    break;
+            }
+            hash = 31 * hash + value;
+        }
+        return hash;
+    }
+
+    /**
+     * Takes the snapshot of our rows and computes the changes from the rows of
+     * {@code previous}, for {@link #getDiffFrom(RowSnapshot)}. This reads every row,
+     * so call it off the UI thread before the cursor is handed out, like
+     * {@link SQLiteCursorLoader#loadInBackground()} does.
+     * @param previous the snapshot of the cursor that this one replaces, or null
+     */
+    public final void prepareDiff(RowSnapshot previous) {
+        mSnapshot = RowSnapshot.of(this);
+        if (previous != null) {
+            mDiff = previous.diffTo(mSnapshot);
+            mDiffBase = previous;
+        }
+    }
+
+    /**
+     * @return the snapshot taken in {@link #prepareDiff(RowSnapshot)}, or null
+     */
+    public final RowSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * @return the changes from the rows of {@code previous} to our rows,
+     * or null if they weren't computed
+     */
+    public final DiffUtil.DiffResult getDiffFrom(RowSnapshot previous) {
+        return previous != null && previous == mDiffBase ? mDiff : null;
     }
 
     /**
      * Helper method to determine boolean-valued columns.
      * SQLite does not support a BOOLEAN data type.
      */
-    protected boolean isTrue(String columnName) {
-        return getInt(getColumnIndexOrThrow(columnName)) == 1;
+    protected boolean isTrue(int columnIndex) {
+        return getInt(columnIndex) == 1;
     }
 }
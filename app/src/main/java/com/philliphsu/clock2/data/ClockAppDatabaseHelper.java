@@ -22,11 +22,15 @@ package com.philliphsu.clock2.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.philliphsu.clock2.alarms.data.AlarmsTable;
 import com.philliphsu.clock2.stopwatch.data.LapsTable;
 import com.philliphsu.clock2.timers.data.TimersTable;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by Phillip Hsu on 7/30/2016.
  */
@@ -34,10 +38,20 @@ public class ClockAppDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "ClockAppDatabaseHelper";
     private static final String DB_NAME = "clock_app.db";
     private static final int VERSION_1 = 1;
+    /** Recurring days of alarms stored as a single bitmask column */
+    public static final int VERSION_2 = 2;
+    /** Indexes on the alarms table for the list and scheduler queries */
+    public static final int VERSION_3 = 3;
+    /** Index on the timers table for reading the list a page at a time */
+    public static final int VERSION_4 = 4;
+
+    /** The chunked migrations that upgrades may schedule, in the order they must run */
+    private static final List<Migration> MIGRATIONS =
+            Collections.singletonList(AlarmsTable.RECURRING_DAYS_TO_MASK);
 
     private static ClockAppDatabaseHelper sDatabaseHelper;
 
-    public static ClockAppDatabaseHelper getInstance(Context context) {
+    public static synchronized ClockAppDatabaseHelper getInstance(Context context) {
         if (sDatabaseHelper == null)
             sDatabaseHelper = new ClockAppDatabaseHelper(context);
         return sDatabaseHelper;
@@ -47,7 +61,11 @@ public class ClockAppDatabaseHelper extends SQLiteOpenHelper {
      * @param context the Context with which the application context will be retrieved
      */
     private ClockAppDatabaseHelper(Context context) {
-        super(context.getApplicationContext(), DB_NAME, null, VERSION_1);
+        super(context.getApplicationContext(), DB_NAME, null, VERSION_4);
+        // With write-ahead logging, the database keeps one primary connection, through which
+        // every write goes, and a pool of reader connections. Loaders then read from a
+        // snapshot while a save or a lap insert is being written, instead of waiting for it.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -63,4 +81,22 @@ public class ClockAppDatabaseHelper extends SQLiteOpenHelper {
         TimersTable.onUpgrade(db, oldVersion, newVersion);
         LapsTable.onUpgrade(db, oldVersion, newVersion);
     }
+
+    /**
+     * Finishes the migrations that {@link #onUpgrade(SQLiteDatabase, int, int)} scheduled,
+     * or that an earlier open was interrupted in. This runs before the database is
+     * handed out, outside of the upgrade transaction, so each chunk commits on its own.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        List<MigrationRunner.Result> results = MigrationRunner.runPending(
+                db, MIGRATIONS, MigrationRunner.DEFAULT_CHUNK_SIZE);
+        for (MigrationRunner.Result result : results) {
+            Log.i(TAG, "Migrated " + result);
+        }
+    }
 }
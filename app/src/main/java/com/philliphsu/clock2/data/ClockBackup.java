@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.background.UpcomingAlarmNotifier;
+import com.philliphsu.clock2.alarms.data.AlarmCursor;
+import com.philliphsu.clock2.alarms.data.AlarmsTable;
+import com.philliphsu.clock2.alarms.data.AlarmsTableManager;
+import com.philliphsu.clock2.alarms.misc.AlarmController;
+import com.philliphsu.clock2.alarms.misc.BatchAlarmScheduler;
+import com.philliphsu.clock2.stopwatch.data.LapsTable;
+import com.philliphsu.clock2.stopwatch.data.LapsTableManager;
+import com.philliphsu.clock2.timers.data.TimersTable;
+import com.philliphsu.clock2.timers.data.TimersTableManager;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backs up and restores the alarms, timers and laps, see {@link DatabaseBackup}.
+ * Both do blocking I/O, so don't call them on the UI thread.
+ */
+public final class ClockBackup {
+    private static final String TAG = "ClockBackup";
+
+    private static final String[] TABLES = {
+            AlarmsTable.TABLE_ALARMS,
+            TimersTable.TABLE_TIMERS,
+            LapsTable.TABLE_LAPS
+    };
+
+    public static DatabaseBackup.Stats backup(Context context, WritableByteChannel out) throws IOException {
+        SQLiteDatabase db = ClockAppDatabaseHelper.getInstance(context).getReadableDatabase();
+        DatabaseBackup.Stats stats = DatabaseBackup.write(db, db.getVersion(), TABLES, out);
+        Log.i(TAG, "Backed up " + stats);
+        return stats;
+    }
+
+    /**
+     * Replaces the alarms, timers and laps with those in the backup, and arms the restored alarms.
+     * @throws IOException if the backup is corrupt or from a later version of the app,
+     * in which case nothing was changed
+     */
+    public static DatabaseBackup.Stats restore(Context context, ReadableByteChannel in) throws IOException {
+        // Wakeups carry only an alarm's id, so those of the alarms being replaced would ring
+        // whichever restored alarm has that id, or fail to find an alarm at all.
+        final List<Alarm> armed = new ArrayList<>();
+        AlarmCursor cursor = new AlarmsTableManager(context).queryEnabledAlarms();
+        try {
+            while (cursor.moveToNext()) {
+                armed.add(cursor.getItem());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        SQLiteDatabase db = ClockAppDatabaseHelper.getInstance(context).getWritableDatabase();
+        DatabaseBackup.Stats stats = DatabaseBackup.read(db, db.getVersion(), TABLES, in);
+        Log.i(TAG, "Restored " + stats);
+
+        // Only once the backup is known to be good. Nothing is saved, since the rows are gone.
+        AlarmController controller = new AlarmController(context, null);
+        for (Alarm alarm : armed) {
+            controller.disarmAlarm(alarm);
+        }
+        new AlarmsTableManager(context).onTableReplaced();
+        new TimersTableManager(context).onTableReplaced();
+        new LapsTableManager(context).onTableReplaced();
+        new BatchAlarmScheduler(context, BatchAlarmScheduler.DEFAULT_WINDOW_SIZE).scheduleAll();
+        // Drops the notifications of the replaced alarms, even if no alarms were restored
+        UpcomingAlarmNotifier.getInstance(context).requestUpdate();
+        return stats;
+    }
+
+    private ClockBackup() {}
+}
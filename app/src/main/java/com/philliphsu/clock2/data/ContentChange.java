@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The rows of a table that changed within one notification window of
+ * {@link ContentChangeNotifier}, by the net operation on each row.
+ */
+public final class ContentChange {
+    public static final int INSERT = 1;
+    public static final int UPDATE = 2;
+    public static final int DELETE = 3;
+
+    private static final long[] NO_IDS = {};
+
+    /** Any row may have changed, e.g. because the table was cleared. */
+    public static final ContentChange ALL_ROWS = new ContentChange(true, NO_IDS, NO_IDS, NO_IDS);
+
+    private final boolean mAllRows;
+    private final long[] mInsertedIds;
+    private final long[] mUpdatedIds;
+    private final long[] mDeletedIds;
+
+    public ContentChange(boolean allRows, long[] insertedIds, long[] updatedIds, long[] deletedIds) {
+        mAllRows = allRows;
+        mInsertedIds = insertedIds;
+        mUpdatedIds = updatedIds;
+        mDeletedIds = deletedIds;
+    }
+
+    /**
+     * @return whether any row may have changed. If so, the ids are empty.
+     */
+    public boolean isAllRows() {
+        return mAllRows;
+    }
+
+    public long[] getInsertedIds() {
+        return mInsertedIds;
+    }
+
+    public long[] getUpdatedIds() {
+        return mUpdatedIds;
+    }
+
+    public long[] getDeletedIds() {
+        return mDeletedIds;
+    }
+
+    public boolean isEmpty() {
+        return !mAllRows && mInsertedIds.length == 0 && mUpdatedIds.length == 0
+                && mDeletedIds.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return mAllRows ? "ContentChange{allRows}" : "ContentChange{"
+                + "inserted=" + mInsertedIds.length
+                + ", updated=" + mUpdatedIds.length
+                + ", deleted=" + mDeletedIds.length
+                + "}";
+    }
+
+    /**
+     * Folds the changes made to each row into their net operation, e.g. a row that was
+     * inserted and then updated counts as inserted, and a row that was inserted and then
+     * deleted doesn't count at all. Not thread-safe.
+     */
+    public static final class Builder {
+        private boolean mAllRows;
+        // The net operation on each row, in the order the rows first changed
+        private final Map<Long, Integer> mOps = new LinkedHashMap<>();
+
+        public Builder add(int op, long id) {
+            if (mAllRows) {
+                return this;
+            }
+            final Integer earlier = mOps.get(id);
+            final int net = earlier == null ? op : fold(earlier, op);
+            if (net == 0) {
+                mOps.remove(id);
+            } else {
+                mOps.put(id, net);
+            }
+            return this;
+        }
+
+        public Builder add(int op, long[] ids) {
+            for (long id : ids) {
+                add(op, id);
+            }
+            return this;
+        }
+
+        public Builder addAllRows() {
+            mAllRows = true;
+            mOps.clear();
+            return this;
+        }
+
+        public Builder add(ContentChange change) {
+            if (change.isAllRows()) {
+                return addAllRows();
+            }
+            return add(INSERT, change.mInsertedIds)
+                    .add(UPDATE, change.mUpdatedIds)
+                    .add(DELETE, change.mDeletedIds);
+        }
+
+        public boolean isEmpty() {
+            return !mAllRows && mOps.isEmpty();
+        }
+
+        public ContentChange build() {
+            if (mAllRows) {
+                return ALL_ROWS;
+            }
+            int inserted = 0, updated = 0, deleted = 0;
+            for (int op : mOps.values()) {
+                switch (op) {
+                    case INSERT: inserted++; break;
+                    case UPDATE: updated++; break;
+                    case DELETE: deleted++; break;
+                }
+            }
+            final long[] insertedIds = new long[inserted];
+            final long[] updatedIds = new long[updated];
+            final long[] deletedIds = new long[deleted];
+            inserted = updated = deleted = 0;
+            for (Map.Entry<Long, Integer> e : mOps.entrySet()) {
+                switch (e.getValue()) {
+                    case INSERT: insertedIds[inserted++] = e.getKey(); break;
+                    case UPDATE: updatedIds[updated++] = e.getKey(); break;
+                    case DELETE: deletedIds[deleted++] = e.getKey(); break;
+                }
+            }
+            return new ContentChange(false, insertedIds, updatedIds, deletedIds);
+        }
+
+        /**
+         * @return the net operation of {@code earlier} followed by {@code later},
+         * or 0 if the row is as it was before either
+         */
+        private static int fold(int earlier, int later) {
+            switch (earlier) {
+                case INSERT:
+                    return later == DELETE ? 0 : INSERT;
+                case UPDATE:
+                    return later == DELETE ? DELETE : UPDATE;
+                case DELETE:
+                    // An insert after a delete reuses the id, so the row now holds something else.
+                    return later == DELETE ? DELETE : UPDATE;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + earlier);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.philliphsu.clock2.util.LocalBroadcastHelper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends the content change broadcasts of the tables, see
+ * {@link DatabaseTableManager#getOnContentChangeAction()}.
+ *
+ * The changes to a table are collected for a window of time that starts with the first
+ * change, and then sent in one broadcast that says which rows were inserted, updated
+ * and deleted. A burst of writes then makes a loader reload once instead of once per write.
+ * Call {@link #fromIntent(Intent)} to read the change from the broadcast.
+ */
+public final class ContentChangeNotifier {
+    private static final String TAG = "ContentChangeNotifier";
+
+    public static final String EXTRA_ALL_ROWS = "com.philliphsu.clock2.data.extra.ALL_ROWS";
+    public static final String EXTRA_INSERTED_IDS = "com.philliphsu.clock2.data.extra.INSERTED_IDS";
+    public static final String EXTRA_UPDATED_IDS = "com.philliphsu.clock2.data.extra.UPDATED_IDS";
+    public static final String EXTRA_DELETED_IDS = "com.philliphsu.clock2.data.extra.DELETED_IDS";
+
+    private static ContentChangeNotifier sInstance;
+
+    private final Context mAppContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // The changes not yet sent, by action. Guarded by this.
+    private final Map<String, ContentChange.Builder> mPending = new HashMap<>();
+
+    public static synchronized ContentChangeNotifier getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContentChangeNotifier(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ContentChangeNotifier(Context appContext) {
+        mAppContext = appContext;
+    }
+
+    /**
+     * Adds the rows to the change that will be sent with the action. Safe to call on any thread.
+     * @param windowMillis how long to collect changes for, if this starts a new window
+     * @param op one of {@link ContentChange#INSERT}, {@link ContentChange#UPDATE}
+     *           or {@link ContentChange#DELETE}
+     */
+    public void notifyChange(String action, long windowMillis, int op, long... ids) {
+        synchronized (this) {
+            pendingChange(action, windowMillis).add(op, ids);
+        }
+    }
+
+    /**
+     * Says that any row may have changed with the action. Safe to call on any thread.
+     */
+    public void notifyAllChanged(String action, long windowMillis) {
+        synchronized (this) {
+            pendingChange(action, windowMillis).addAllRows();
+        }
+    }
+
+    /**
+     * Sends the pending change of the action now, instead of when its window ends.
+     */
+    public void flush(String action) {
+        final ContentChange change;
+        synchronized (this) {
+            ContentChange.Builder builder = mPending.remove(action);
+            if (builder == null) {
+                return;
+            }
+            change = builder.build();
+        }
+        if (change.isEmpty()) {
+            // e.g. a row was inserted and deleted within the window
+            return;
+        }
+        Log.d(TAG, "Sending " + change + " for " + action);
+        LocalBroadcastHelper.sendBroadcast(mAppContext, action, toExtras(change));
+    }
+
+    /**
+     * @return the change that the broadcast describes. A broadcast without
+     * any extras means that any row may have changed.
+     */
+    public static ContentChange fromIntent(Intent intent) {
+        if (intent.getBooleanExtra(EXTRA_ALL_ROWS, false)
+                || !intent.hasExtra(EXTRA_INSERTED_IDS)) {
+            return ContentChange.ALL_ROWS;
+        }
+        return new ContentChange(false,
+                intent.getLongArrayExtra(EXTRA_INSERTED_IDS),
+                intent.getLongArrayExtra(EXTRA_UPDATED_IDS),
+                intent.getLongArrayExtra(EXTRA_DELETED_IDS));
+    }
+
+    private static Bundle toExtras(ContentChange change) {
+        Bundle extras = new Bundle();
+        if (change.isAllRows()) {
+            extras.putBoolean(EXTRA_ALL_ROWS, true);
+        } else {
+            extras.putLongArray(EXTRA_INSERTED_IDS, change.getInsertedIds());
+            extras.putLongArray(EXTRA_UPDATED_IDS, change.getUpdatedIds());
+            extras.putLongArray(EXTRA_DELETED_IDS, change.getDeletedIds());
+        }
+        return extras;
+    }
+
+    /**
+     * Call while holding the lock.
+     */
+    private ContentChange.Builder pendingChange(final String action, long windowMillis) {
+        ContentChange.Builder builder = mPending.get(action);
+        if (builder == null) {
+            builder = new ContentChange.Builder();
+            mPending.put(action, builder);
+            // The window isn't extended by later changes, so a steady
+            // stream of writes still gets a broadcast every window.
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    flush(action);
+                }
+            }, windowMillis);
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Writes tables of a database to a byte stream, and reads them back, a chunk of rows at a time,
+ * so the memory used doesn't depend on the size of the tables. Unlike a copy of the database
+ * file, a backup can be made while the database is open and being written to.
+ *
+ * The format, version {@value #FORMAT_VERSION}:
+ * <pre>
+ * backup  := MAGIC format-version:varint database-version:varint table* END
+ * table   := TABLE name:string column-count:varint name:string* block* 0:varint
+ * block   := row-count:varint payload-length:varint row* crc32:int
+ * row     := value*, one per column
+ * value   := NULL | INTEGER zigzag:varint | FLOAT double | TEXT string | BLOB bytes
+ * string  := length:varint utf-8 bytes
+ * </pre>
+ * Varints are unsigned LEB128, and fixed-size numbers are big-endian. The checksum of a
+ * block covers its payload, the rows, so a corrupt block is found before any of its rows
+ * are restored.
+ */
+public final class DatabaseBackup {
+    static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x434C4B42; // "CLKB"
+    private static final byte SECTION_END = 0;
+    private static final byte SECTION_TABLE = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_TEXT = 3;
+    private static final byte TYPE_BLOB = 4;
+
+    private static final String COLUMN_ID = "_id";
+    /** How many rows are read from a table per query */
+    private static final int CHUNK_ROWS = 1000;
+    /** A block ends with the first row past this many bytes */
+    private static final int BLOCK_BYTES = 64 * 1024;
+    /** Larger blocks are taken to be corrupt, rather than allocated */
+    private static final int MAX_BLOCK_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * What one backup or restore did.
+     */
+    public static final class Stats {
+        public final int tables;
+        public final long rows;
+        public final long blocks;
+        public final long bytes;
+        public final long elapsedMillis;
+
+        Stats(int tables, long rows, long blocks, long bytes, long elapsedMillis) {
+            this.tables = tables;
+            this.rows = rows;
+            this.blocks = blocks;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{"
+                    + "tables=" + tables
+                    + ", rows=" + rows
+                    + ", blocks=" + blocks
+                    + ", bytes=" + bytes
+                    + ", elapsedMillis=" + elapsedMillis
+                    + "}";
+        }
+    }
+
+    /**
+     * Writes the tables to the channel. Each table must have an {@code _id} column, by which
+     * its rows are read in chunks. The rows of a table are not read in one transaction, so
+     * a row written during the backup may or may not be in it. Does blocking I/O, so don't
+     * call this on the UI thread.
+     * @param databaseVersion the schema version of the database, checked on restore
+     */
+    public static Stats write(SQLiteDatabase db, int databaseVersion, String[] tables,
+                              WritableByteChannel out) throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+        final Writer writer = new Writer(out);
+        writer.putInt(MAGIC);
+        writer.putVarint(FORMAT_VERSION);
+        writer.putVarint(databaseVersion);
+        long rows = 0;
+        for (String table : tables) {
+            rows += writeTable(db, table, writer);
+        }
+        writer.putByte(SECTION_END);
+        writer.flush();
+        return new Stats(tables.length, rows, writer.mBlocks, writer.mBytes,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Replaces the rows of every table in the backup with the rows from the backup,
+     * in one transaction. If the backup is corrupt or doesn't fit the schema, nothing
+     * is changed. Does blocking I/O, so don't call this on the UI thread.
+     * @param databaseVersion the schema version of the database. Backups of
+     *                        later versions are refused.
+     * @param tables the tables the backup may restore. The names of tables and columns are
+     *               checked against these and the schema before they go into any SQL.
+     */
+    public static Stats read(SQLiteDatabase db, int databaseVersion, String[] tables,
+                             ReadableByteChannel in) throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+        final Reader reader = new Reader(in);
+        if (reader.getInt() != MAGIC) {
+            throw new IOException("Not a backup");
+        }
+        final long formatVersion = reader.getVarint();
+        if (formatVersion > FORMAT_VERSION) {
+            throw new IOException("Backup format " + formatVersion + " is newer than ours");
+        }
+        final long backupVersion = reader.getVarint();
+        if (backupVersion > databaseVersion) {
+            throw new IOException("Backup of database version " + backupVersion
+                    + " is newer than ours, " + databaseVersion);
+        }
+
+        final List<String> allowed = Arrays.asList(tables);
+        final Set<String> restored = new HashSet<>();
+        long rows = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            byte section;
+            while ((section = reader.getByte()) == SECTION_TABLE) {
+                final String table = reader.getString();
+                if (!allowed.contains(table)) {
+                    throw new IOException("Unknown table " + table);
+                }
+                if (!restored.add(table)) {
+                    throw new IOException("Table " + table + " is in the backup twice");
+                }
+                rows += readTable(db, table, reader);
+            }
+            if (section != SECTION_END) {
+                throw new IOException("Unknown section " + section);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new IOException("Backup doesn't fit the database", e);
+        } catch (BufferUnderflowException e) {
+            // A row count that doesn't match the block, read past its end
+            throw new IOException("Backup is corrupt", e);
+        } finally {
+            db.endTransaction();
+        }
+        return new Stats(restored.size(), rows, reader.mBlocks, reader.mBytes,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    private static long writeTable(SQLiteDatabase db, String table, Writer writer) throws IOException {
+        final String[] args = {Long.toString(Long.MIN_VALUE)};
+        long rows = 0;
+        int rowsInBlock = 0;
+        boolean wroteHeader = false;
+        while (true) {
+            // Read by id instead of OFFSET, so that every chunk costs the same.
+            Cursor c = db.query(table, null, COLUMN_ID + " > ?", args,
+                    null, null, COLUMN_ID, Integer.toString(CHUNK_ROWS));
+            try {
+                final int columns = c.getColumnCount();
+                if (!wroteHeader) {
+                    writer.putByte(SECTION_TABLE);
+                    writer.putString(table);
+                    writer.putVarint(columns);
+                    for (String column : c.getColumnNames()) {
+                        writer.putString(column);
+                    }
+                    writer.startBlock();
+                    wroteHeader = true;
+                }
+                final int idColumn = c.getColumnIndexOrThrow(COLUMN_ID);
+                while (c.moveToNext()) {
+                    for (int i = 0; i < columns; i++) {
+                        writer.putValue(c, i);
+                    }
+                    rowsInBlock++;
+                    if (writer.blockSize() >= BLOCK_BYTES) {
+                        writer.endBlock(rowsInBlock);
+                        writer.startBlock();
+                        rowsInBlock = 0;
+                    }
+                }
+                rows += c.getCount();
+                if (c.getCount() < CHUNK_ROWS) {
+                    break;
+                }
+                c.moveToLast();
+                args[0] = Long.toString(c.getLong(idColumn));
+            } finally {
+                c.close();
+            }
+        }
+        if (rowsInBlock > 0) {
+            writer.endBlock(rowsInBlock);
+        }
+        writer.endTable();
+        return rows;
+    }
+
+    /**
+     * @param table one of the tables we were asked to restore, so safe to put into SQL
+     */
+    private static long readTable(SQLiteDatabase db, String table, Reader reader) throws IOException {
+        final Set<String> schema = columnsOf(db, table);
+        final long columnCount = reader.getVarint();
+        if (columnCount < 1 || columnCount > schema.size()) {
+            throw new IOException("Table " + table + " can't have " + columnCount + " columns");
+        }
+        final int columns = (int) columnCount;
+        final Set<String> seen = new HashSet<>();
+        final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        final StringBuilder params = new StringBuilder();
+        for (int i = 0; i < columns; i++) {
+            final String column = reader.getString();
+            if (!schema.contains(column) || !seen.add(column)) {
+                throw new IOException("Unknown or repeated column " + column + " in " + table);
+            }
+            if (i > 0) {
+                sql.append(", ");
+                params.append(", ");
+            }
+            sql.append(column);
+            params.append('?');
+        }
+        sql.append(") VALUES (").append(params).append(')');
+
+        db.delete(table, null, null);
+        final SQLiteStatement insert = db.compileStatement(sql.toString());
+        long rows = 0;
+        try {
+            long rowsInBlock;
+            while ((rowsInBlock = reader.getVarint()) != 0) {
+                if (rowsInBlock < 0) {
+                    throw new IOException("Block " + (reader.mBlocks + 1) + " of " + table
+                            + " has a bad row count");
+                }
+                reader.startBlock(table);
+                for (long row = 0; row < rowsInBlock; row++) {
+                    for (int i = 1; i <= columns; i++) {
+                        reader.bindValue(insert, i);
+                    }
+                    insert.executeInsert();
+                }
+                reader.endBlock(table);
+                rows += rowsInBlock;
+            }
+        } finally {
+            insert.close();
+        }
+        return rows;
+    }
+
+    /**
+     * @return the names of the columns the table has now
+     */
+    private static Set<String> columnsOf(SQLiteDatabase db, String table) {
+        final Set<String> columns = new HashSet<>();
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            final int nameColumn = c.getColumnIndexOrThrow("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(nameColumn));
+            }
+        } finally {
+            c.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Encodes into a buffer that is written to the channel a block at a time.
+     */
+    private static final class Writer {
+        private final WritableByteChannel mOut;
+        private final CRC32 mCrc = new CRC32();
+        // Holds everything written since the last flush. A block's row count and length
+        // aren't known until it ends, so its rows go into their own buffer.
+        private ByteBuffer mBuffer = ByteBuffer.allocate(BLOCK_BYTES + 1024);
+        private ByteBuffer mBlock = ByteBuffer.allocate(BLOCK_BYTES + 1024);
+        private ByteBuffer mTarget = mBuffer;
+        long mBlocks;
+        long mBytes;
+
+        Writer(WritableByteChannel out) {
+            mOut = out;
+        }
+
+        void startBlock() {
+            mBlock.clear();
+            mTarget = mBlock;
+        }
+
+        int blockSize() {
+            return mBlock.position();
+        }
+
+        void endBlock(int rows) throws IOException {
+            mTarget = mBuffer;
+            putVarint(rows);
+            putVarint(mBlock.position());
+            mCrc.reset();
+            mCrc.update(mBlock.array(), mBlock.arrayOffset(), mBlock.position());
+            // The header goes out before the rows, so the buffer is written first.
+            flush();
+            mBlock.flip();
+            writeFully(mBlock);
+            mBlock.clear();
+            putInt((int) mCrc.getValue());
+            mBlocks++;
+        }
+
+        /**
+         * Drops the block that was started, if it has no rows, and marks the end of the table.
+         */
+        void endTable() {
+            mTarget = mBuffer;
+            // No more blocks
+            putVarint(0);
+        }
+
+        void putValue(Cursor c, int column) {
+            switch (c.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    putByte(TYPE_NULL);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    putByte(TYPE_INTEGER);
+                    final long value = c.getLong(column);
+                    putVarint((value << 1) ^ (value >> 63));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    putByte(TYPE_FLOAT);
+                    ensure(8).putDouble(c.getDouble(column));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    putByte(TYPE_TEXT);
+                    putString(c.getString(column));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    putByte(TYPE_BLOB);
+                    putBytes(c.getBlob(column));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown column type");
+            }
+        }
+
+        void putByte(byte b) {
+            ensure(1).put(b);
+        }
+
+        void putInt(int i) {
+            ensure(4).putInt(i);
+        }
+
+        void putVarint(long value) {
+            final ByteBuffer buffer = ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putString(String s) {
+            putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putBytes(byte[] bytes) {
+            putVarint(bytes.length);
+            ensure(bytes.length).put(bytes);
+        }
+
+        void flush() throws IOException {
+            mBuffer.flip();
+            writeFully(mBuffer);
+            mBuffer.clear();
+        }
+
+        /**
+         * @return the buffer being written to, with room for {@code bytes} more
+         */
+        private ByteBuffer ensure(int bytes) {
+            if (mTarget.remaining() < bytes) {
+                // Only a row bigger than a block gets here; blocks end once they are past
+                // BLOCK_BYTES, and the header buffer is flushed with every block.
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(mTarget.capacity() * 2,
+                        mTarget.position() + bytes));
+                mTarget.flip();
+                grown.put(mTarget);
+                if (mTarget == mBlock) {
+                    mBlock = grown;
+                } else {
+                    mBuffer = grown;
+                }
+                mTarget = grown;
+            }
+            return mTarget;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            mBytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                mOut.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Decodes from a buffer that is refilled from the channel as it runs out.
+     */
+    private static final class Reader {
+        private final ReadableByteChannel mIn;
+        private final CRC32 mCrc = new CRC32();
+        // Kept ready for reading between calls
+        private ByteBuffer mBuffer = ByteBuffer.allocate(BLOCK_BYTES + 1024);
+        private int mBlockEnd;
+        long mBlocks;
+        long mBytes;
+
+        Reader(ReadableByteChannel in) {
+            mIn = in;
+            mBuffer.flip();
+        }
+
+        /**
+         * Reads the whole block into the buffer and checks it against its checksum.
+         */
+        void startBlock(String table) throws IOException {
+            final long length = getVarint();
+            if (length < 0 || length > MAX_BLOCK_BYTES) {
+                throw new IOException("Block " + (mBlocks + 1) + " of " + table + " is corrupt");
+            }
+            require((int) length + 4);
+            mCrc.reset();
+            mCrc.update(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), (int) length);
+            mBlockEnd = mBuffer.position() + (int) length;
+            if ((int) mCrc.getValue() != mBuffer.getInt(mBlockEnd)) {
+                throw new IOException("Block " + (mBlocks + 1) + " of " + table + " is corrupt");
+            }
+        }
+
+        void endBlock(String table) throws IOException {
+            if (mBuffer.position() != mBlockEnd) {
+                throw new IOException("Block " + (mBlocks + 1) + " of " + table + " has the wrong length");
+            }
+            // Skip the checksum
+            mBuffer.position(mBlockEnd + 4);
+            mBlocks++;
+        }
+
+        /**
+         * Binds the next value of the block. The block is in the buffer already, and reads
+         * past its end are refused, as they would be of a block with too few rows.
+         */
+        void bindValue(SQLiteStatement statement, int index) throws IOException {
+            requireInBlock(1);
+            final byte type = mBuffer.get();
+            switch (type) {
+                case TYPE_NULL:
+                    statement.bindNull(index);
+                    break;
+                case TYPE_INTEGER:
+                    final long zigzag = getVarintInBlock();
+                    statement.bindLong(index, (zigzag >>> 1) ^ -(zigzag & 1));
+                    break;
+                case TYPE_FLOAT:
+                    requireInBlock(8);
+                    statement.bindDouble(index, mBuffer.getDouble());
+                    break;
+                case TYPE_TEXT:
+                    final int textLength = toLength(getVarintInBlock());
+                    requireInBlock(textLength);
+                    statement.bindString(index, takeString(textLength));
+                    break;
+                case TYPE_BLOB:
+                    final int blobLength = toLength(getVarintInBlock());
+                    requireInBlock(blobLength);
+                    final byte[] blob = new byte[blobLength];
+                    mBuffer.get(blob);
+                    statement.bindBlob(index, blob);
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+
+        byte getByte() throws IOException {
+            require(1);
+            return mBuffer.get();
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return mBuffer.getInt();
+        }
+
+        long getVarint() throws IOException {
+            return getVarint(false);
+        }
+
+        /**
+         * Like {@link #getVarint()}, for a varint that must end inside the block that was started.
+         */
+        private long getVarintInBlock() throws IOException {
+            return getVarint(true);
+        }
+
+        private long getVarint(boolean inBlock) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b;
+                if (inBlock) {
+                    requireInBlock(1);
+                    b = mBuffer.get();
+                } else {
+                    b = getByte();
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String getString() throws IOException {
+            final int length = toLength(getVarint());
+            require(length);
+            return takeString(length);
+        }
+
+        private String takeString(int length) {
+            final String s = new String(mBuffer.array(),
+                    mBuffer.arrayOffset() + mBuffer.position(), length, StandardCharsets.UTF_8);
+            mBuffer.position(mBuffer.position() + length);
+            return s;
+        }
+
+        /**
+         * @return the length of a string or blob, if it is one we are willing to read
+         */
+        private static int toLength(long length) throws IOException {
+            if (length < 0 || length > MAX_BLOCK_BYTES) {
+                throw new IOException("Malformed length " + length);
+            }
+            return (int) length;
+        }
+
+        /**
+         * Makes sure the next {@code bytes} bytes are in the block that was started.
+         */
+        private void requireInBlock(int bytes) throws IOException {
+            if (mBlockEnd - mBuffer.position() < bytes) {
+                throw new IOException("Value runs past the end of block " + (mBlocks + 1));
+            }
+        }
+
+        /**
+         * Makes sure the next {@code bytes} bytes are in the buffer.
+         */
+        private void require(int bytes) throws IOException {
+            if (mBuffer.remaining() >= bytes) {
+                return;
+            }
+            if (mBuffer.capacity() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(bytes);
+                grown.put(mBuffer);
+                mBuffer = grown;
+            } else {
+                mBuffer.compact();
+            }
+            while (mBuffer.position() < bytes) {
+                final int read = mIn.read(mBuffer);
+                if (read < 0) {
+                    throw new EOFException("Backup ends early");
+                }
+                mBytes += read;
+            }
+            mBuffer.flip();
+        }
+    }
+
+    private DatabaseBackup() {}
+}
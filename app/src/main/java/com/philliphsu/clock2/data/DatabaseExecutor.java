@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs database work off the main thread: writes on one writer thread, in the order they
+ * were submitted, and reads on a small pool of reader threads. A read with
+ * {@link #PRIORITY_UI} runs before queued reads with {@link #PRIORITY_BACKGROUND}.
+ * Writes have no priority, since a write that overtook an earlier one could be undone by it.
+ *
+ * Each operation returns a {@link Future}, which can cancel it until it starts, and can
+ * deliver its result to a {@link Callback} on the main thread. The failure of an operation
+ * without a callback is logged. The timings of each kind of operation are kept by name,
+ * see {@link #getStats()}.
+ */
+public final class DatabaseExecutor {
+    private static final String TAG = "DatabaseExecutor";
+
+    /** For reads whose result the user is waiting to see, e.g. the page they scrolled to. */
+    public static final int PRIORITY_UI = 0;
+    /** For reads that nobody is waiting on, e.g. prefetching. */
+    public static final int PRIORITY_BACKGROUND = 1;
+    // Every write has this one priority, so writes run in the order they were submitted.
+    private static final int PRIORITY_WRITE = PRIORITY_UI;
+
+    private static final int READ_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static DatabaseExecutor sInstance;
+
+    /**
+     * Receives the result of an operation on the main thread.
+     */
+    public interface Callback<V> {
+        void onResult(V result);
+    }
+
+    /**
+     * The timings of one kind of operation, in milliseconds.
+     */
+    public static final class Stats {
+        public final long count;
+        public final long failed;
+        public final long totalRunMillis;
+        public final long maxRunMillis;
+        /** Time spent queued before running */
+        public final long totalWaitMillis;
+
+        Stats(long count, long failed, long totalRunMillis, long maxRunMillis, long totalWaitMillis) {
+            this.count = count;
+            this.failed = failed;
+            this.totalRunMillis = totalRunMillis;
+            this.maxRunMillis = maxRunMillis;
+            this.totalWaitMillis = totalWaitMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{"
+                    + "count=" + count
+                    + ", failed=" + failed
+                    + ", totalRunMillis=" + totalRunMillis
+                    + ", maxRunMillis=" + maxRunMillis
+                    + ", totalWaitMillis=" + totalWaitMillis
+                    + "}";
+        }
+    }
+
+    private final ThreadPoolExecutor mWriter;
+    private final ThreadPoolExecutor mReaders;
+    private final Executor mCallbackExecutor;
+    private final Callback<Throwable> mFailureLog;
+    // Orders operations of the same priority by when they were submitted
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Map<String, Stats> mStats = new HashMap<>();
+
+    private final class Operation<V> extends FutureTask<V> implements Comparable<Operation<?>> {
+        final String name;
+        final int priority;
+        final long sequence;
+        final long queuedAt;
+        final Callback<? super V> callback;
+        volatile long startedAt;
+
+        Operation(String name, int priority, Callable<V> work, Callback<? super V> callback) {
+            super(work);
+            this.name = name;
+            this.priority = priority;
+            this.sequence = mSequence.getAndIncrement();
+            this.queuedAt = System.nanoTime();
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            startedAt = System.nanoTime();
+            super.run();
+        }
+
+        // The timings are recorded before the result is set, so they
+        // are in the stats by the time a caller's get() returns.
+        @Override
+        protected void set(V v) {
+            record(name, true, startedAt - queuedAt, System.nanoTime() - startedAt);
+            super.set(v);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            record(name, false, startedAt - queuedAt, System.nanoTime() - startedAt);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                // Never started, or the caller no longer wants the result
+                return;
+            }
+            final V result;
+            try {
+                result = get();
+            } catch (final ExecutionException e) {
+                if (callback == null) {
+                    // Nobody may be waiting on this, but the failure shouldn't go unnoticed.
+                    mFailureLog.onResult(new RuntimeException(name + " failed", e.getCause()));
+                    return;
+                }
+                // Don't swallow the failure of work that someone is waiting on.
+                mCallbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new RuntimeException(name + " failed", e.getCause());
+                    }
+                });
+                return;
+            } catch (InterruptedException e) {
+                // Can't happen, since we're done.
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (callback == null) {
+                return;
+            }
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Operation<?> other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    public static synchronized DatabaseExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            final AtomicInteger threadCount = new AtomicInteger();
+            sInstance = new DatabaseExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, TAG + "-" + threadCount.incrementAndGet());
+                        }
+                    },
+                    READ_THREADS,
+                    new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            mainHandler.post(command);
+                        }
+                    },
+                    new Callback<Throwable>() {
+                        @Override
+                        public void onResult(Throwable failure) {
+                            Log.e(TAG, failure.getMessage(), failure.getCause());
+                        }
+                    });
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param callbackExecutor where callbacks run, e.g. the main thread
+     * @param failureLog receives the failures of operations without a callback,
+     *                   on the thread that ran them
+     */
+    @VisibleForTesting
+    DatabaseExecutor(ThreadFactory threadFactory, int readThreads, Executor callbackExecutor,
+                     Callback<Throwable> failureLog) {
+        mWriter = newPool(1, threadFactory);
+        mReaders = newPool(readThreads, threadFactory);
+        mCallbackExecutor = callbackExecutor;
+        mFailureLog = failureLog;
+    }
+
+    /**
+     * Queues a write on the writer thread, behind every write queued so far.
+     * @param name the kind of operation, for {@link #getStats()}
+     * @param callback receives the result on the main thread, or null to only log a failure
+     */
+    public <V> Future<V> write(String name, Callable<V> work, Callback<? super V> callback) {
+        return submit(mWriter, name, PRIORITY_WRITE, work, callback);
+    }
+
+    /**
+     * Queues a read on one of the reader threads. Reads don't wait for queued writes,
+     * so submit a read that must see a write from that write's callback.
+     * @param name the kind of operation, for {@link #getStats()}
+     * @param callback receives the result on the main thread, or null to only log a failure
+     */
+    public <V> Future<V> read(String name, int priority, Callable<V> work, Callback<? super V> callback) {
+        return submit(mReaders, name, priority, work, callback);
+    }
+
+    /**
+     * @return the timings of each kind of operation that finished, by name
+     */
+    public synchronized Map<String, Stats> getStats() {
+        return new HashMap<>(mStats);
+    }
+
+    private <V> Future<V> submit(ThreadPoolExecutor pool, String name, int priority,
+                                 Callable<V> work, Callback<? super V> callback) {
+        Operation<V> operation = new Operation<>(name, priority, work, callback);
+        pool.execute(operation);
+        return operation;
+    }
+
+    private synchronized void record(String name, boolean succeeded, long waitNanos, long runNanos) {
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        final long runMillis = TimeUnit.NANOSECONDS.toMillis(runNanos);
+        Stats old = mStats.get(name);
+        mStats.put(name, old == null
+                ? new Stats(1, succeeded ? 0 : 1, runMillis, runMillis, waitMillis)
+                : new Stats(old.count + 1,
+                        old.failed + (succeeded ? 0 : 1),
+                        old.totalRunMillis + runMillis,
+                        Math.max(old.maxRunMillis, runMillis),
+                        old.totalWaitMillis + waitMillis));
+    }
+
+    private static ThreadPoolExecutor newPool(int threads, ThreadFactory threadFactory) {
+        // Every runnable we queue is an Operation, which orders itself by priority.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), threadFactory);
+        // Idle threads exit, since the app is idle most of the time.
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
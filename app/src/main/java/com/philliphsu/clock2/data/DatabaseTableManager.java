@@ -22,27 +22,47 @@ package com.philliphsu.clock2.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
-import com.philliphsu.clock2.util.LocalBroadcastHelper;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Collection;
 
 /**
  * Created by Phillip Hsu on 7/30/2016.
  */
 public abstract class DatabaseTableManager<T extends ObjectWithId> {
+    private static final String TAG = "DatabaseTableManager";
+
     // TODO: Consider implementing BaseColumns for your table schemas.
     // This column should be present in all table schemas, and the value is simple enough
     // we can reproduce it here instead of relying on our subclasses to retrieve it from
     // their designated table schema.
     private static final String COLUMN_ID = "_id";
+    private static final long DEFAULT_CHANGE_WINDOW_MILLIS = 100;
 
     private final SQLiteOpenHelper mDbHelper;
+    private final StatementCache mStatementCache;
     private final Context mAppContext;
 
     public DatabaseTableManager(Context context) {
         // Internally uses the app context
-        mDbHelper = ClockAppDatabaseHelper.getInstance(context);
+        this(context, ClockAppDatabaseHelper.getInstance(context));
+    }
+
+    /**
+     * @param dbHelper the helper of the database that holds our table,
+     *                 e.g. a throwaway in-memory database in tests
+     */
+    @VisibleForTesting
+    protected DatabaseTableManager(Context context, SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+        mStatementCache = StatementCache.of(dbHelper);
         mAppContext = context.getApplicationContext();
     }
 
@@ -77,39 +97,257 @@ public abstract class DatabaseTableManager<T extends ObjectWithId> {
         return null;
     }
 
+    /**
+     * @return the cache that our writes go through and {@link #getItem(long)} reads from,
+     * or null for none. The default implementation returns null. Return the same instance
+     * from every manager of the table, e.g. a static one.
+     */
+    protected EntityCache<T> getEntityCache() {
+        return null;
+    }
+
+    /**
+     * @return the item with this id, read from the table, or null if there is no such row.
+     * Usually the item at {@link #queryItem(long)}, decoded by the table's cursor.
+     */
+    protected abstract T readItem(long id);
+
+    /**
+     * Called after a write of the item, on the writing thread, once its cached copy is
+     * up to date. The default implementation does nothing.
+     * @param rowExists false if the item has no row, i.e. its insert failed, or the row
+     *                  it was to update was deleted
+     */
+    protected void onItemWritten(T item, boolean rowExists) {
+    }
+
+    /**
+     * @return how long to collect changes to our table for before they are sent to
+     * our {@link SQLiteCursorLoader} in one broadcast, see {@link ContentChangeNotifier}
+     */
+    protected long getChangeWindowMillis() {
+        return DEFAULT_CHANGE_WINDOW_MILLIS;
+    }
+
     public long insertItem(T item) {
-        long id = mDbHelper.getWritableDatabase().insert(
-                getTableName(), null, toContentValues(item));
+        ContentValues values = toContentValues(item);
+        String[] columns = columnsOf(values);
+        String sql = insertSql(columns);
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = mStatementCache.acquire(db, sql);
+        long id;
+        try {
+            bindValues(insert, columns, values);
+            id = insert.executeInsert();
+        } catch (SQLException e) {
+            // Like SQLiteDatabase.insert()
+            Log.e(TAG, "Error inserting " + values, e);
+            id = -1;
+        } finally {
+            mStatementCache.release(db, sql, insert);
+        }
         item.setId(id);
-        notifyContentChanged();
+        if (id != -1) {
+            notifyRowsChanged(ContentChange.INSERT, id);
+            cacheItem(item);
+        }
+        onItemWritten(item, id != -1);
         return id;
     }
 
     public int updateItem(long id, T newItem) {
         newItem.setId(id);
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        int rowsUpdated = db.update(getTableName(),
-                toContentValues(newItem),
-                COLUMN_ID + " = " + id,
-                null);
-//        if (rowsUpdated == 0) {
-//            throw new IllegalStateException("wtf?");
-//        }
-        notifyContentChanged();
+        ContentValues values = toContentValues(newItem);
+        String[] columns = columnsOf(values);
+        String sql = updateSql(columns);
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement update = mStatementCache.acquire(db, sql);
+        int rowsUpdated;
+        try {
+            bindValues(update, columns, values);
+            update.bindLong(columns.length + 1, id);
+            rowsUpdated = update.executeUpdateDelete();
+        } finally {
+            mStatementCache.release(db, sql, update);
+        }
+        notifyRowsChanged(ContentChange.UPDATE, id);
+        if (rowsUpdated > 0) {
+            cacheItem(newItem);
+        }
+        onItemWritten(newItem, rowsUpdated > 0);
         return rowsUpdated;
     }
 
     public int deleteItem(T item) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        int rowsDeleted = db.delete(getTableName(),
-                COLUMN_ID + " = " + item.getId(),
-                null);
-        notifyContentChanged();
+        String sql = deleteSql();
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement delete = mStatementCache.acquire(db, sql);
+        int rowsDeleted;
+        try {
+            delete.bindLong(1, item.getId());
+            rowsDeleted = delete.executeUpdateDelete();
+        } finally {
+            mStatementCache.release(db, sql, delete);
+        }
+        notifyRowsChanged(ContentChange.DELETE, item.getId());
         return rowsDeleted;
     }
 
+    /**
+     * Inserts the items in one transaction, with one compiled statement, and notifies
+     * observers of the change once. {@link #toContentValues(ObjectWithId)} must put
+     * the same columns for every item.
+     * @return the ids of the new rows, in the order of {@code items}
+     */
+    public long[] insertItems(Collection<? extends T> items) {
+        final long[] ids = new long[items.size()];
+        if (ids.length == 0) {
+            return ids;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = null;
+        String[] columns = null;
+        String sql = null;
+        int i = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            for (T item : items) {
+                ContentValues values = toContentValues(item);
+                if (insert == null) {
+                    columns = columnsOf(values);
+                    sql = insertSql(columns);
+                    insert = mStatementCache.acquire(db, sql);
+                }
+                bindValues(insert, columns, values);
+                ids[i] = insert.executeInsert();
+                item.setId(ids[i]);
+                i++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (insert != null) {
+                mStatementCache.release(db, sql, insert);
+            }
+            db.endTransaction();
+        }
+        notifyRowsChanged(ContentChange.INSERT, ids);
+        for (T item : items) {
+            cacheItem(item);
+            onItemWritten(item, true);
+        }
+        return ids;
+    }
+
+    /**
+     * Updates the rows of the items, by their ids, in one transaction, with one compiled
+     * statement, and notifies observers of the change once.
+     * {@link #toContentValues(ObjectWithId)} must put the same columns for every item.
+     * @return the number of rows updated
+     */
+    public int updateItems(Collection<? extends T> items) {
+        if (items.isEmpty()) {
+            return 0;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement update = null;
+        String[] columns = null;
+        String sql = null;
+        int rowsUpdated = 0;
+        // Whether each item's row was there to update, in the order of items
+        final boolean[] updated = new boolean[items.size()];
+        int i = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            for (T item : items) {
+                ContentValues values = toContentValues(item);
+                if (update == null) {
+                    columns = columnsOf(values);
+                    sql = updateSql(columns);
+                    update = mStatementCache.acquire(db, sql);
+                }
+                bindValues(update, columns, values);
+                update.bindLong(columns.length + 1, item.getId());
+                updated[i] = update.executeUpdateDelete() > 0;
+                if (updated[i++]) {
+                    rowsUpdated++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (update != null) {
+                mStatementCache.release(db, sql, update);
+            }
+            db.endTransaction();
+        }
+        notifyRowsChanged(ContentChange.UPDATE, idsOf(items));
+        i = 0;
+        for (T item : items) {
+            if (updated[i]) {
+                cacheItem(item);
+            }
+            onItemWritten(item, updated[i++]);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Deletes the rows of the items, by their ids, in one transaction, with one compiled
+     * statement, and notifies observers of the change once.
+     * @return the number of rows deleted
+     */
+    public int deleteItems(Collection<? extends T> items) {
+        if (items.isEmpty()) {
+            return 0;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        String sql = deleteSql();
+        SQLiteStatement delete = mStatementCache.acquire(db, sql);
+        int rowsDeleted = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            for (T item : items) {
+                delete.bindLong(1, item.getId());
+                rowsDeleted += delete.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            mStatementCache.release(db, sql, delete);
+            db.endTransaction();
+        }
+        notifyRowsChanged(ContentChange.DELETE, idsOf(items));
+        return rowsDeleted;
+    }
+
+    /**
+     * Like {@link #readItem(long)}, but from {@link #getEntityCache()} when it has the item.
+     * This reads the table on the calling thread on a cache miss, so don't call it on the
+     * UI thread.
+     */
+    public T getItem(long id) {
+        EntityCache<T> cache = getEntityCache();
+        if (cache == null) {
+            return readItem(id);
+        }
+        T item = cache.get(id);
+        if (item != null) {
+            return item;
+        }
+        // Don't cache what we read if a write may have made it stale in the meantime.
+        long stamp = cache.stamp();
+        item = readItem(id);
+        if (item != null) {
+            cache.putIfUnchangedSince(item, stamp);
+        }
+        return item;
+    }
+
+    /**
+     * Queries can't be run with a {@link SQLiteStatement}, but with the id bound as an
+     * argument, the SQL is the same on every call, so SQLite's own per-connection
+     * statement cache compiles it once.
+     */
     public Cursor queryItem(long id) {
-        Cursor c = queryItems(COLUMN_ID + " = " + id, "1");
+        Cursor c = queryItems(null, COLUMN_ID + " = ?", new String[] {Long.toString(id)}, "1");
         // Since the query returns at most one row, move the cursor to that row.
         // Most callers of this method will not know they have to move the cursor.
         // How come we don't need to do this for queries that can potentially return
@@ -126,25 +364,225 @@ public abstract class DatabaseTableManager<T extends ObjectWithId> {
     }
 
     protected Cursor queryItems(String where, String limit) {
+        return queryItems(null, where, null, limit);
+    }
+
+    /**
+     * @param projection the columns to select, or null for all columns. Subclasses
+     *                   can select fewer columns for queries that don't need every property.
+     * @param whereArgs the values bound to the {@code ?}s in {@code where}
+     */
+    protected Cursor queryItems(String[] projection, String where, String[] whereArgs, String limit) {
         return mDbHelper.getReadableDatabase().query(getTableName(),
-                null, // All columns
-                where, // Selection, i.e. where COLUMN_* = [value we're looking for]
-                null, // selection args, none b/c id already specified in selection
+                projection,
+                where, // Selection, i.e. where COLUMN_* = ?
+                whereArgs, // Selection args, bound to the ?s in the selection
                 null, // group by
                 null, // having
                 getQuerySortOrder(), // order/sort by
                 limit); // limit
     }
 
+    /**
+     * Queries every row, in pages of {@code pageSize} rows, of which at most {@code maxPages}
+     * are held at a time, see {@link KeysetPagedCursor}. The pages are read in the order of
+     * {@link #getQuerySortOrder()}, which must be a valid {@link Keyset}. This reads the
+     * row count and the first page, so call it off the main thread.
+     */
+    public Cursor queryPaged(int pageSize, int maxPages) {
+        return new KeysetPagedCursor(new TablePageSource(Keyset.fromSortOrder(getQuerySortOrder())),
+                pageSize, maxPages, DatabaseExecutor.getInstance(mAppContext));
+    }
+
     /**
      * Deletes all rows in this table.
      */
-    public final void clear() {
+    public void clear() {
         mDbHelper.getWritableDatabase().delete(getTableName(), null/*all rows*/, null);
         notifyContentChanged();
     }
 
-    private void notifyContentChanged() {
-        LocalBroadcastHelper.sendBroadcast(mAppContext, getOnContentChangeAction());
+    /**
+     * Drops every cached item and notifies observers, after the rows of the table were
+     * replaced without going through us, e.g. by {@link DatabaseBackup#read}.
+     */
+    public void onTableReplaced() {
+        notifyContentChanged();
+    }
+
+    /**
+     * @return the database for subclasses that need to batch their writes in a transaction.
+     * Begin it with {@link SQLiteDatabase#beginTransactionNonExclusive()}, so readers aren't
+     * blocked, and call {@link #notifyRowsChanged(int, long...)} once the transaction ends.
+     */
+    protected final SQLiteDatabase getWritableDatabase() {
+        return mDbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Notifies observers that any row may have changed, and drops every cached item.
+     */
+    protected final void notifyContentChanged() {
+        EntityCache<T> cache = getEntityCache();
+        if (cache != null) {
+            cache.clear();
+        }
+        ContentChangeNotifier.getInstance(mAppContext)
+                .notifyAllChanged(getOnContentChangeAction(), getChangeWindowMillis());
+    }
+
+    /**
+     * Notifies observers that these rows changed, and drops their cached items.
+     * @param op one of {@link ContentChange#INSERT}, {@link ContentChange#UPDATE}
+     *           or {@link ContentChange#DELETE}
+     */
+    protected final void notifyRowsChanged(int op, long... ids) {
+        EntityCache<T> cache = getEntityCache();
+        if (cache != null) {
+            // Writes of whole items put them back afterwards.
+            cache.remove(ids);
+        }
+        ContentChangeNotifier.getInstance(mAppContext)
+                .notifyChange(getOnContentChangeAction(), getChangeWindowMillis(), op, ids);
+    }
+
+    private final class TablePageSource implements KeysetPagedCursor.PageSource {
+        private final Keyset mKeyset;
+        private final String[] mKeyColumns;
+
+        TablePageSource(Keyset keyset) {
+            mKeyset = keyset;
+            mKeyColumns = keyset.getColumns();
+        }
+
+        @Override
+        public int queryCount() {
+            return (int) DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), getTableName());
+        }
+
+        @Override
+        public Cursor queryPage(String[] afterKey, int limit) {
+            return queryItems(null,
+                    afterKey == null ? null : mKeyset.whereAfter(),
+                    afterKey == null ? null : mKeyset.argsOf(afterKey),
+                    Integer.toString(limit));
+        }
+
+        @Override
+        public String[] queryKeyAt(String[] afterKey, int offset) {
+            Cursor c = queryItems(mKeyColumns,
+                    afterKey == null ? null : mKeyset.whereAfter(),
+                    afterKey == null ? null : mKeyset.argsOf(afterKey),
+                    offset + ", 1");
+            try {
+                return c.moveToFirst() ? mKeyset.keyOf(c) : null;
+            } finally {
+                c.close();
+            }
+        }
+
+        @Override
+        public String[] keyOf(Cursor page) {
+            return mKeyset.keyOf(page);
+        }
+
+        @Override
+        public int queryPosition(long id) {
+            Cursor c = queryItems(mKeyColumns, COLUMN_ID + " = ?", new String[] {Long.toString(id)}, "1");
+            final String[] key;
+            try {
+                if (!c.moveToFirst()) {
+                    return -1;
+                }
+                key = mKeyset.keyOf(c);
+            } finally {
+                c.close();
+            }
+            return (int) DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                    getTableName(), mKeyset.whereBefore(), mKeyset.argsOf(key));
+        }
+    }
+
+    private void cacheItem(T item) {
+        EntityCache<T> cache = getEntityCache();
+        if (cache != null) {
+            cache.put(item);
+        }
+    }
+
+    private static long[] idsOf(Collection<? extends ObjectWithId> items) {
+        final long[] ids = new long[items.size()];
+        int i = 0;
+        for (ObjectWithId item : items) {
+            ids[i++] = item.getId();
+        }
+        return ids;
+    }
+
+    private String insertSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(getTableName()).append(" (");
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                params.append(", ");
+            }
+            sql.append(columns[i]);
+            params.append('?');
+        }
+        return sql.append(") VALUES (").append(params).append(')').toString();
+    }
+
+    private String deleteSql() {
+        return "DELETE FROM " + getTableName() + " WHERE " + COLUMN_ID + " = ?";
+    }
+
+    /**
+     * The id of the row is bound after the columns.
+     */
+    private String updateSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(getTableName()).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]).append(" = ?");
+        }
+        return sql.append(" WHERE ").append(COLUMN_ID).append(" = ?").toString();
+    }
+
+    private static String[] columnsOf(ContentValues values) {
+        return values.keySet().toArray(new String[values.size()]);
+    }
+
+    /**
+     * Binds the values of the columns to the first {@code columns.length} parameters.
+     */
+    private static void bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+        if (values.size() != columns.length) {
+            throw new IllegalArgumentException("Items must all have the same columns");
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!values.containsKey(columns[i])) {
+                throw new IllegalArgumentException("Items must all have the same columns");
+            }
+            final Object value = values.get(columns[i]);
+            final int index = i + 1;
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof String) {
+                statement.bindString(index, (String) value);
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported value type: " + value.getClass());
+            }
+        }
     }
 }
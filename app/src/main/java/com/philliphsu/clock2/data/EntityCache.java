@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the items of a table, by id, that holds the least recently used
+ * items up to its size. {@link DatabaseTableManager} writes through it and invalidates it
+ * whenever it notifies observers of a change, so a read sees every write made before it
+ * in this process. It has no UI dependencies, so background receivers and services
+ * share it with the rest of the app.
+ *
+ * Items are mutable, so the cache holds and hands out copies.
+ */
+public final class EntityCache<T extends ObjectWithId> {
+
+    /**
+     * Makes an independent copy of an item, including its id.
+     */
+    public interface Copier<T> {
+        T copy(T item);
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        final long version;
+
+        Entry(T item, long version) {
+            this.item = item;
+            this.version = version;
+        }
+    }
+
+    private final Copier<T> mCopier;
+    private final Map<Long, Entry<T>> mEntries;
+    private long mNextVersion = 1;
+    // Counts every put and invalidation, see stamp()
+    private long mModCount;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param maxSize the number of items to hold before the least recently used are evicted
+     */
+    public EntityCache(final int maxSize, Copier<T> copier) {
+        mCopier = copier;
+        mEntries = new LinkedHashMap<Long, Entry<T>>(16, 0.75f, true/*accessOrder*/) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry<T>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Stores a copy of the item's current state, under a new version.
+     */
+    public synchronized void put(T item) {
+        mEntries.put(item.getId(), new Entry<>(mCopier.copy(item), mNextVersion++));
+        mModCount++;
+    }
+
+    /**
+     * Stores a copy of an item that was read from the table, unless the cache was written to
+     * or invalidated since {@code stamp} was taken. A write may then have made the item stale.
+     * @param stamp from {@link #stamp()}, taken before the item was read
+     */
+    public synchronized void putIfUnchangedSince(T item, long stamp) {
+        if (stamp == mModCount) {
+            put(item);
+        }
+    }
+
+    /**
+     * @return a copy of the item with this id, or null if it isn't cached
+     */
+    public synchronized T get(long id) {
+        Entry<T> e = mEntries.get(id);
+        if (e == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return mCopier.copy(e.item);
+    }
+
+    /**
+     * @return the version of the item's cached state, or -1 if it isn't cached
+     */
+    public synchronized long versionOf(long id) {
+        Entry<T> e = mEntries.get(id);
+        return e == null ? -1 : e.version;
+    }
+
+    /**
+     * @return a value that changes whenever the cache is written to or invalidated
+     */
+    public synchronized long stamp() {
+        return mModCount;
+    }
+
+    public synchronized void remove(long... ids) {
+        for (long id : ids) {
+            mEntries.remove(id);
+        }
+        mModCount++;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mModCount++;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** @return the number of gets that found their item */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /** @return the number of gets that didn't find their item */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EntityCache{size=" + mEntries.size()
+                + ", hits=" + mHits
+                + ", misses=" + mMisses
+                + "}";
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * The columns of a sort order, used to select the rows that come after a given row
+ * without {@code OFFSET}, which would read and skip every row before it.
+ *
+ * The sort order must end with {@code _id}, so that no two rows have the same key,
+ * and none of its columns may be null.
+ */
+public final class Keyset {
+    private static final String COLUMN_ID = "_id";
+
+    private final String[] mColumns;
+    private final boolean[] mDescending;
+    private final String mWhereAfter;
+    private final String mWhereBefore;
+
+    /**
+     * @param sortOrder an ORDER BY clause of plain columns, e.g. {@code "hour ASC, _id DESC"}
+     * @throws IllegalArgumentException if rows can't be paged in this order
+     */
+    public static Keyset fromSortOrder(String sortOrder) {
+        if (sortOrder == null) {
+            throw new IllegalArgumentException("Rows without a sort order can't be paged");
+        }
+        final String[] terms = sortOrder.split(",");
+        final String[] columns = new String[terms.length];
+        final boolean[] descending = new boolean[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            final String[] parts = terms[i].trim().split("\\s+");
+            if (parts.length > 2 || parts.length == 2
+                    && !parts[1].equalsIgnoreCase("ASC") && !parts[1].equalsIgnoreCase("DESC")) {
+                throw new IllegalArgumentException("Can't page by " + terms[i].trim());
+            }
+            columns[i] = parts[0];
+            descending[i] = parts.length == 2 && parts[1].equalsIgnoreCase("DESC");
+        }
+        if (!COLUMN_ID.equals(columns[columns.length - 1])) {
+            throw new IllegalArgumentException("Sort order must end with " + COLUMN_ID
+                    + " to tell rows apart: " + sortOrder);
+        }
+        return new Keyset(columns, descending);
+    }
+
+    private Keyset(String[] columns, boolean[] descending) {
+        mColumns = columns;
+        mDescending = descending;
+        mWhereAfter = buildWhere(true);
+        mWhereBefore = buildWhere(false);
+    }
+
+    /**
+     * @return the columns of the key, in sort order
+     */
+    public String[] getColumns() {
+        return mColumns.clone();
+    }
+
+    /**
+     * @return a WHERE clause that selects the rows after a key, with the arguments
+     * from {@link #argsOf(String[])}
+     */
+    public String whereAfter() {
+        return mWhereAfter;
+    }
+
+    /**
+     * @return a WHERE clause that selects the rows before a key, with the arguments
+     * from {@link #argsOf(String[])}
+     */
+    public String whereBefore() {
+        return mWhereBefore;
+    }
+
+    /**
+     * @return the arguments to bind to {@link #whereAfter()} or {@link #whereBefore()}
+     */
+    public String[] argsOf(String[] key) {
+        if (key.length != mColumns.length) {
+            throw new IllegalArgumentException("Expected a key of " + Arrays.toString(mColumns)
+                    + ", got " + Arrays.toString(key));
+        }
+        // The first column's bound, then the i-th term of the clause compares the first i + 1 columns.
+        final String[] args = new String[1 + mColumns.length * (mColumns.length + 1) / 2];
+        int arg = 0;
+        args[arg++] = key[0];
+        for (int i = 0; i < mColumns.length; i++) {
+            for (int j = 0; j <= i; j++) {
+                args[arg++] = key[j];
+            }
+        }
+        return args;
+    }
+
+    /**
+     * @return the key of the cursor's current row. The cursor must have every column of the key.
+     */
+    public String[] keyOf(Cursor cursor) {
+        final String[] key = new String[mColumns.length];
+        for (int i = 0; i < mColumns.length; i++) {
+            key[i] = cursor.getString(cursor.getColumnIndexOrThrow(mColumns[i]));
+        }
+        return key;
+    }
+
+    /**
+     * Expands the row value comparison, e.g. {@code (a, b) > (?, ?)}, which SQLite
+     * only supports from 3.15 on, into {@code a >= ? AND ((a > ?) OR (a = ? AND b > ?))}.
+     * SQLite can't seek an index to a disjunction, but it can to the bound on the first column,
+     * so the rows before the key aren't read and thrown away.
+     */
+    private String buildWhere(boolean after) {
+        final boolean firstGreater = after != mDescending[0];
+        final StringBuilder where = new StringBuilder(mColumns[0])
+                .append(firstGreater ? " >= ?" : " <= ?")
+                .append(" AND (");
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0) {
+                where.append(" OR ");
+            }
+            where.append('(');
+            for (int j = 0; j < i; j++) {
+                where.append(mColumns[j]).append(" = ? AND ");
+            }
+            // Later in a descending column means a smaller value.
+            final boolean greater = after != mDescending[i];
+            where.append(mColumns[i]).append(greater ? " > ?" : " < ?").append(')');
+        }
+        return where.append(')').toString();
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * A cursor over all the rows of a query that holds only a few pages of them at a time.
+ *
+ * Each page is read with a {@link Keyset} query that starts after the last row of the page
+ * before it, so reading a page costs the same wherever it is in the list. The pages most
+ * recently moved to are kept, up to a limit; the others are closed, and read again when
+ * they are moved to. While moving through a page, the next page in the direction of travel
+ * is read ahead on the {@link DatabaseExecutor}, so that scrolling a list seldom has to
+ * wait for a read on the main thread.
+ *
+ * The row count is read once, when the cursor is made. Like any cursor, this one doesn't
+ * see changes made after that, so reload it when the table changes.
+ */
+public class KeysetPagedCursor extends AbstractCursor {
+    private static final String TAG = "KeysetPagedCursor";
+
+    /**
+     * Reads the rows of a query in keyset order.
+     */
+    public interface PageSource {
+        /**
+         * @return how many rows the query selects
+         */
+        int queryCount();
+
+        /**
+         * @param afterKey the key of the row before the page, or null for the first page
+         * @return up to {@code limit} rows after {@code afterKey}, in order
+         */
+        Cursor queryPage(String[] afterKey, int limit);
+
+        /**
+         * @return the key of the row {@code offset} rows after the first row after
+         * {@code afterKey}, or null if there is no such row. Reads only the key columns.
+         */
+        String[] queryKeyAt(String[] afterKey, int offset);
+
+        /**
+         * @return the key of the current row of a cursor from {@link #queryPage(String[], int)}
+         */
+        String[] keyOf(Cursor page);
+
+        /**
+         * @return the position of the row with this id, or -1 if there is no such row
+         */
+        int queryPosition(long id);
+    }
+
+    private final PageSource mSource;
+    private final int mPageSize;
+    private final int mMaxPages;
+    private final DatabaseExecutor mExecutor;
+    private final int mCount;
+    private final String[] mColumnNames;
+
+    // The pages we hold, least recently used first
+    private final LinkedHashMap<Integer, Cursor> mPages;
+    // The key of the last row of each page, as far as we have read. The last row of
+    // page i is the row before page i + 1, so we know where to start reading any page
+    // up to one past the last key.
+    private final List<String[]> mLastKeys = new ArrayList<>();
+    private final Set<Integer> mPrefetching = new HashSet<>();
+    private Cursor mCurrentPage;
+
+    /**
+     * Reads the row count and the first page, so call this off the main thread.
+     * @param executor where pages are read ahead, or null to read pages only when moved to
+     */
+    public KeysetPagedCursor(PageSource source, int pageSize, int maxPages, DatabaseExecutor executor) {
+        if (pageSize < 1 || maxPages < 2) {
+            throw new IllegalArgumentException("Need pages of at least one row, and room for two pages");
+        }
+        mSource = source;
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+        mExecutor = executor;
+        mPages = new LinkedHashMap<Integer, Cursor>(maxPages + 1, 0.75f, true /*access order*/);
+        mCount = source.queryCount();
+        // Even if there are no rows, the first page tells us the column names.
+        Cursor first = readPage(null);
+        mColumnNames = first.getColumnNames();
+        putPage(0, first);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    /**
+     * @return the number of pages we hold, for tests
+     */
+    public synchronized int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * @return the position of the row with this id, or -1 if there is no such row.
+     * Reads the position from the table, without reading the pages before it.
+     */
+    public int positionOf(long id) {
+        final int position = mSource.queryPosition(id);
+        return position < mCount ? position : -1;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        final int page = newPosition / mPageSize;
+        final int offset = newPosition % mPageSize;
+        final Cursor cursor = moveToPage(page);
+        if (cursor == null || !cursor.moveToPosition(offset)) {
+            // Rows were deleted since we counted them.
+            Log.w(TAG, "No row at position " + newPosition);
+            return false;
+        }
+        if (newPosition > oldPosition && offset >= mPageSize / 2) {
+            prefetch(page + 1);
+        } else if (newPosition < oldPosition && offset < mPageSize / 2 && page > 0) {
+            prefetch(page - 1);
+        }
+        return true;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCurrentPage.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCurrentPage.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCurrentPage.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCurrentPage.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCurrentPage.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCurrentPage.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCurrentPage.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCurrentPage.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCurrentPage.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            for (Cursor page : mPages.values()) {
+                page.close();
+            }
+            mPages.clear();
+            mCurrentPage = null;
+        }
+    }
+
+    /**
+     * Makes the page current, so that it isn't dropped while we are on it.
+     * @return the page, read on the calling thread if we don't hold it, or null if it is past the end
+     */
+    private Cursor moveToPage(int page) {
+        final String[] afterKey;
+        synchronized (this) {
+            mCurrentPage = mPages.get(page);
+            if (mCurrentPage != null) {
+                return mCurrentPage;
+            }
+            afterKey = findKeyBefore(page);
+        }
+        if (page > 0 && afterKey == null) {
+            return null;
+        }
+        Cursor cursor = readPage(afterKey);
+        synchronized (this) {
+            putPage(page, cursor);
+            // A read ahead of this page may have finished while we were reading.
+            mCurrentPage = mPages.get(page);
+            return mCurrentPage;
+        }
+    }
+
+    /**
+     * Reads the page on the executor, if we don't hold it and aren't reading it already.
+     */
+    private void prefetch(final int page) {
+        if (mExecutor == null || page * mPageSize >= mCount) {
+            return;
+        }
+        final String[] afterKey;
+        synchronized (this) {
+            if (mPages.containsKey(page) || mPrefetching.contains(page)
+                    // Only read ahead from a page we know the end of.
+                    || page > mLastKeys.size()) {
+                return;
+            }
+            afterKey = findKeyBefore(page);
+            mPrefetching.add(page);
+        }
+        mExecutor.read(TAG + ".prefetch", DatabaseExecutor.PRIORITY_UI,
+                new Callable<Cursor>() {
+                    @Override
+                    public Cursor call() {
+                        try {
+                            return readPage(afterKey);
+                        } catch (RuntimeException e) {
+                            // The page is read on the main thread when moved to.
+                            Log.w(TAG, "Failed to read ahead page " + page, e);
+                            return null;
+                        }
+                    }
+                },
+                new DatabaseExecutor.Callback<Cursor>() {
+                    @Override
+                    public void onResult(Cursor cursor) {
+                        synchronized (KeysetPagedCursor.this) {
+                            mPrefetching.remove(page);
+                            if (cursor != null) {
+                                putPage(page, cursor);
+                            }
+                        }
+                    }
+                });
+    }
+
+    private Cursor readPage(String[] afterKey) {
+        Cursor cursor = mSource.queryPage(afterKey, mPageSize);
+        // Fill the window now, off the main thread if we're reading ahead.
+        cursor.getCount();
+        return cursor;
+    }
+
+    /**
+     * Holds the page and remembers where it ends. Must hold the lock.
+     */
+    private void putPage(int page, Cursor cursor) {
+        if (isClosed() || mPages.containsKey(page)) {
+            cursor.close();
+            return;
+        }
+        if (page == mLastKeys.size() && cursor.getCount() == mPageSize && cursor.moveToLast()) {
+            mLastKeys.add(mSource.keyOf(cursor));
+        }
+        mPages.put(page, cursor);
+        // Drop the least recently used pages, but never the one we are on.
+        Iterator<Map.Entry<Integer, Cursor>> it = mPages.entrySet().iterator();
+        while (mPages.size() > mMaxPages && it.hasNext()) {
+            Cursor eldest = it.next().getValue();
+            if (eldest != mCurrentPage && eldest != cursor) {
+                eldest.close();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the key of the row before the page, or null for the first page or if the page
+     * is past the end. Reads the keys of the pages in between if we haven't seen them.
+     * Must hold the lock.
+     */
+    private String[] findKeyBefore(int page) {
+        if (page == 0) {
+            return null;
+        }
+        while (mLastKeys.size() < page) {
+            // Skip through a page we haven't read, e.g. after a fast scroll.
+            // Only the key columns of one row are read, and never more than a page ahead.
+            final int known = mLastKeys.size();
+            String[] after = known == 0 ? null : mLastKeys.get(known - 1);
+            String[] key = mSource.queryKeyAt(after, mPageSize - 1);
+            if (key == null) {
+                return null;
+            }
+            mLastKeys.add(key);
+        }
+        return mLastKeys.get(page - 1);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A schema change that copies the rows of a table into a new table, in chunks of rows
+ * ordered by id, so that it doesn't need memory or a journal for the whole table at once.
+ * {@link MigrationRunner} records the progress after each chunk, so an interrupted
+ * migration resumes from the last chunk instead of starting over.
+ */
+public abstract class Migration {
+
+    /**
+     * @return the name under which the progress is recorded. Never change it once shipped.
+     */
+    public abstract String getName();
+
+    /**
+     * Prepares the copy, e.g. creates the new table. Runs once, before the first chunk.
+     */
+    protected abstract void onStart(SQLiteDatabase db);
+
+    /**
+     * Copies up to {@code limit} rows whose ids are greater than {@code afterId}, in order of id.
+     * @return the greatest id copied, or {@code afterId} if no rows remain
+     */
+    protected abstract long copyChunk(SQLiteDatabase db, long afterId, int limit);
+
+    /**
+     * Swaps in the new table. Runs after the last chunk, in the transaction
+     * that records the migration as done.
+     */
+    protected abstract void onFinish(SQLiteDatabase db);
+}
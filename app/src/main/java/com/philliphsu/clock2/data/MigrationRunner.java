@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link Migration}s chunk by chunk, each chunk in its own transaction, and records
+ * their progress in the database.
+ *
+ * {@link android.database.sqlite.SQLiteOpenHelper#onUpgrade(SQLiteDatabase, int, int)} runs
+ * in one transaction, so nothing it does can be resumed. Instead, it {@link #schedule}s the
+ * migrations, and {@link android.database.sqlite.SQLiteOpenHelper#onOpen(SQLiteDatabase)}
+ * {@link #runPending runs} them. Every open runs the migrations that haven't finished,
+ * before the database is handed out, so nobody reads the old schema.
+ */
+public final class MigrationRunner {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    static final String TABLE_PROGRESS = "migration_progress";
+    private static final String COLUMN_NAME = "name";
+    /** The id of the last row copied, or null if the migration hasn't started */
+    private static final String COLUMN_LAST_ID = "last_id";
+    private static final String COLUMN_DONE = "done";
+
+    /**
+     * What one call to {@link #run(SQLiteDatabase, Migration, int)} did.
+     */
+    public static final class Result {
+        public final String name;
+        public final int chunks;
+        public final boolean resumed;
+        public final long elapsedMillis;
+
+        Result(String name, int chunks, boolean resumed, long elapsedMillis) {
+            this.name = name;
+            this.chunks = chunks;
+            this.resumed = resumed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{"
+                    + "name=" + name
+                    + ", chunks=" + chunks
+                    + ", resumed=" + resumed
+                    + ", elapsedMillis=" + elapsedMillis
+                    + "}";
+        }
+    }
+
+    /**
+     * Records the migration as pending. Call from {@code onUpgrade()}.
+     */
+    public static void schedule(SQLiteDatabase db, Migration migration) {
+        createProgressTable(db);
+        ContentValues values = new ContentValues(2);
+        values.put(COLUMN_NAME, migration.getName());
+        values.put(COLUMN_DONE, false);
+        db.insertWithOnConflict(TABLE_PROGRESS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Runs the migrations that were scheduled and haven't finished, in the order given.
+     * Call from {@code onOpen()}.
+     */
+    public static List<Result> runPending(SQLiteDatabase db, List<Migration> migrations, int chunkSize) {
+        List<Result> results = new ArrayList<>();
+        createProgressTable(db);
+        for (Migration migration : migrations) {
+            if (isPending(db, migration)) {
+                results.add(run(db, migration, chunkSize));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs the migration from where it left off, to the end. It must have been
+     * {@link #schedule scheduled}. If this throws, the chunks copied so far are kept.
+     */
+    public static Result run(SQLiteDatabase db, Migration migration, int chunkSize) {
+        final long start = SystemClock.elapsedRealtime();
+        final String[] whereArgs = {migration.getName()};
+        final String where = COLUMN_NAME + " = ?";
+        final ContentValues progress = new ContentValues(2);
+
+        final Long recordedLastId = lastIdOf(db, migration);
+        final boolean resumed = recordedLastId != null;
+        long lastId;
+        if (resumed) {
+            lastId = recordedLastId;
+        } else {
+            db.beginTransactionNonExclusive();
+            try {
+                migration.onStart(db);
+                progress.put(COLUMN_LAST_ID, Long.MIN_VALUE);
+                db.update(TABLE_PROGRESS, progress, where, whereArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            lastId = Long.MIN_VALUE;
+        }
+
+        int chunks = 0;
+        while (true) {
+            final long copiedUpTo;
+            db.beginTransactionNonExclusive();
+            try {
+                copiedUpTo = migration.copyChunk(db, lastId, chunkSize);
+                if (copiedUpTo == lastId) {
+                    // Nothing left to copy
+                    migration.onFinish(db);
+                    progress.put(COLUMN_DONE, true);
+                } else {
+                    progress.put(COLUMN_LAST_ID, copiedUpTo);
+                }
+                db.update(TABLE_PROGRESS, progress, where, whereArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (copiedUpTo == lastId) {
+                break;
+            }
+            lastId = copiedUpTo;
+            chunks++;
+        }
+        return new Result(migration.getName(), chunks, resumed,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    private static boolean isPending(SQLiteDatabase db, Migration migration) {
+        Cursor c = db.query(TABLE_PROGRESS, new String[] {COLUMN_DONE},
+                COLUMN_NAME + " = ?", new String[] {migration.getName()}, null, null, null);
+        try {
+            return c.moveToFirst() && c.getInt(0) == 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @return the id of the last row copied, or null if the migration hasn't started
+     */
+    private static Long lastIdOf(SQLiteDatabase db, Migration migration) {
+        Cursor c = db.query(TABLE_PROGRESS, new String[] {COLUMN_LAST_ID},
+                COLUMN_NAME + " = ?", new String[] {migration.getName()}, null, null, null);
+        try {
+            if (!c.moveToFirst()) {
+                throw new IllegalStateException(migration.getName() + " was never scheduled");
+            }
+            return c.isNull(0) ? null : c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private static void createProgressTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PROGRESS + " ("
+                + COLUMN_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_LAST_ID + " INTEGER, "
+                + COLUMN_DONE + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    private MigrationRunner() {}
+}
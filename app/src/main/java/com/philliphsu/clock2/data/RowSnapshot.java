@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+/**
+ * The id and a hash of the contents of every row of a {@link BaseItemCursor}, taken when the
+ * cursor was loaded. It is immutable, so it can be diffed on any thread, even after the cursor
+ * it was taken from is closed.
+ */
+public final class RowSnapshot {
+    private final long[] mIds;
+    private final long[] mHashes;
+
+    /**
+     * Reads every row of the cursor, and then moves it back to where it was.
+     */
+    static RowSnapshot of(BaseItemCursor<?> cursor) {
+        final int position = cursor.getPosition();
+        final int count = cursor.getCount();
+        final long[] ids = new long[count];
+        final long[] hashes = new long[count];
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getId();
+            hashes[i] = cursor.getContentHash();
+        }
+        cursor.moveToPosition(position);
+        return new RowSnapshot(ids, hashes);
+    }
+
+    private RowSnapshot(long[] ids, long[] hashes) {
+        mIds = ids;
+        mHashes = hashes;
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * Rows are matched by id, and changed if their hashes differ. Rows may have moved,
+     * since the lists are sorted by their contents, e.g. alarms by their times.
+     */
+    DiffUtil.DiffResult diffTo(final RowSnapshot newer) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return mIds.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newer.mIds.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return mIds[oldItemPosition] == newer.mIds[newItemPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return mHashes[oldItemPosition] == newer.mHashes[newItemPosition];
+            }
+        }, true/*detectMoves*/);
+    }
+}
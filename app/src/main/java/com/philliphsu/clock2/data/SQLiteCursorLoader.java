@@ -42,6 +42,8 @@ public abstract class SQLiteCursorLoader<
 
     private C mCursor;
     private OnContentChangeReceiver mOnContentChangeReceiver;
+    // The rows of the cursor we last delivered, to diff the next cursor against
+    private volatile RowSnapshot mDeliveredSnapshot;
 
     public SQLiteCursorLoader(Context context) {
         super(context);
@@ -56,6 +58,16 @@ public abstract class SQLiteCursorLoader<
      */
     protected abstract String getOnContentChangeAction();
 
+    /**
+     * @return the most rows a result may have for it to be diffed against the last one,
+     * since a diff reads every row. Loaders of {@link KeysetPagedCursor}s should return
+     * their page size, so that long lists aren't read in full. The default implementation
+     * returns {@link Integer#MAX_VALUE}.
+     */
+    protected int getMaxDiffRows() {
+        return Integer.MAX_VALUE;
+    }
+
     /* Runs on a worker thread */
     @Override
     public C loadInBackground() {
@@ -64,7 +76,12 @@ public abstract class SQLiteCursorLoader<
             // Ensure that the content window is filled
             // Ensure that the data is available in memory once it is
             // passed to the main thread
-            cursor.getCount();
+            final int count = cursor.getCount();
+            // Diff the rows here, so adapters can notify their lists
+            // of just the changed rows without blocking the main thread.
+            if (count <= getMaxDiffRows()) {
+                cursor.prepareDiff(mDeliveredSnapshot);
+            }
         }
         return cursor;
     }
@@ -81,6 +98,7 @@ public abstract class SQLiteCursorLoader<
         }
         Cursor oldCursor = mCursor;
         mCursor = cursor;
+        mDeliveredSnapshot = cursor == null ? null : cursor.getSnapshot();
 
         if (isStarted()) {
             super.deliverResult(cursor);
@@ -137,6 +155,7 @@ public abstract class SQLiteCursorLoader<
             mCursor.close();
         }
         mCursor = null;
+        mDeliveredSnapshot = null;
 
         if (mOnContentChangeReceiver != null) {
             LocalBroadcastHelper.unregisterReceiver(getContext(),
@@ -145,11 +164,22 @@ public abstract class SQLiteCursorLoader<
         }
     }
 
+    /**
+     * Called on the UI thread with the rows of our table that changed since the last call.
+     * Changes are already coalesced, see {@link ContentChangeNotifier}, so the default
+     * implementation reloads once per call. Subclasses can instead patch the result they
+     * hold in place, or ignore changes to rows they don't show.
+     */
+    protected void onRowsChanged(ContentChange change) {
+        onContentChanged();
+    }
+
     private final class OnContentChangeReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            Log.d(TAG, "Received content change event");
-            onContentChanged();
+            ContentChange change = ContentChangeNotifier.fromIntent(intent);
+            Log.d(TAG, "Received content change event: " + change);
+            onRowsChanged(change);
         }
     }
 }
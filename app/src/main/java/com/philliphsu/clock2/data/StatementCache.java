@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The compiled statements of a database, by their SQL, so that each statement that
+ * {@link DatabaseTableManager} runs is compiled once instead of on every call. Table
+ * managers are short-lived, so the statements are kept per database, not per manager.
+ *
+ * A statement can't be bound on two threads at once, so each is checked out with
+ * {@link #acquire(SQLiteDatabase, String)} for the duration of one call and handed back
+ * with {@link #release(SQLiteDatabase, String, SQLiteStatement)}. A thread that wants a
+ * statement that is checked out compiles its own, which is closed if it can't be kept.
+ */
+final class StatementCache {
+    // Keyed by helper, since our statements hold on to the database but not to its helper.
+    private static final Map<SQLiteOpenHelper, StatementCache> sCaches = new WeakHashMap<>();
+
+    // The database that the idle statements were compiled against. Guarded by this.
+    private SQLiteDatabase mDb;
+    // The statements not checked out right now. Guarded by this.
+    private final Map<String, SQLiteStatement> mIdle = new HashMap<>();
+
+    static synchronized StatementCache of(SQLiteOpenHelper dbHelper) {
+        StatementCache cache = sCaches.get(dbHelper);
+        if (cache == null) {
+            cache = new StatementCache();
+            sCaches.put(dbHelper, cache);
+        }
+        return cache;
+    }
+
+    private StatementCache() {
+    }
+
+    /**
+     * @return the statement for the SQL, with no arguments bound. Hand it back with
+     * {@link #release(SQLiteDatabase, String, SQLiteStatement)} instead of closing it.
+     */
+    SQLiteStatement acquire(SQLiteDatabase db, String sql) {
+        SQLiteStatement statement;
+        synchronized (this) {
+            if (db != mDb) {
+                // The helper closed and reopened its database.
+                closeIdleStatements();
+                mDb = db;
+            }
+            statement = mIdle.remove(sql);
+        }
+        return statement != null ? statement : db.compileStatement(sql);
+    }
+
+    void release(SQLiteDatabase db, String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (this) {
+            if (db == mDb && !mIdle.containsKey(sql)) {
+                mIdle.put(sql, statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    /**
+     * Call while holding the lock.
+     */
+    private void closeIdleStatements() {
+        for (SQLiteStatement statement : mIdle.values()) {
+            statement.close();
+        }
+        mIdle.clear();
+    }
+}
@@ -19,12 +19,14 @@
 
 package com.philliphsu.clock2.list;
 
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.util.Log;
 import android.view.ViewGroup;
 
 import com.philliphsu.clock2.data.BaseItemCursor;
 import com.philliphsu.clock2.data.ObjectWithId;
+import com.philliphsu.clock2.data.RowSnapshot;
 
 /**
  * Created by Phillip Hsu on 7/29/2016.
@@ -39,6 +41,7 @@ public abstract class BaseCursorAdapter<
 
     private final OnListItemInteractionListener<T> mListener;
     private C mCursor;
+    private boolean mDiffingEnabled;
 
     protected abstract VH onCreateViewHolder(ViewGroup parent, OnListItemInteractionListener<T> listener, int viewType);
 
@@ -84,14 +87,50 @@ public abstract class BaseCursorAdapter<
         return mCursor.getId();
     }
 
+    /**
+     * @return the position of the item with this stable id, or -1 if there is none
+     */
+    public final int findPosition(long stableId) {
+        return mCursor == null ? -1 : mCursor.positionOf(stableId);
+    }
+
+    /**
+     * When enabled, {@link #swapCursor(BaseItemCursor)} notifies the list of just the rows that
+     * were inserted, removed, moved or changed, by the diff that was computed in the background
+     * when the new cursor was loaded, see {@link BaseItemCursor#prepareDiff(RowSnapshot)}.
+     * Rows that didn't change aren't rebound. If the new cursor wasn't diffed against our
+     * current cursor, we fall back to {@link #notifyDataSetChanged()}.
+     */
+    public final void setDiffingEnabled(boolean enabled) {
+        mDiffingEnabled = enabled;
+    }
+
     public final void swapCursor(C cursor) {
         if (mCursor == cursor) {
             return;
         }
+        DiffUtil.DiffResult diff = null;
+        if (mDiffingEnabled && mCursor != null && cursor != null
+                && canDispatchDiff(mCursor.getCount(), cursor.getCount())) {
+            diff = cursor.getDiffFrom(mCursor.getSnapshot());
+        }
         if (mCursor != null) {
             mCursor.close();
         }
         mCursor = cursor;
-        notifyDataSetChanged();
+        if (diff != null) {
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * @return whether the rows that didn't change can keep their views when the item count
+     * changes as given. Subclasses whose view types depend on the item count should
+     * return false when they change. The default implementation returns true.
+     */
+    protected boolean canDispatchDiff(int oldCount, int newCount) {
+        return true;
     }
 }
@@ -188,13 +188,7 @@ public abstract class RecyclerViewFragment<
 
     public final void performScrollToStableId(long stableId) {
         if (stableId != RecyclerView.NO_ID) {
-            int position = -1;
-            for (int i = 0; i < mAdapter.getItemCount(); i++) {
-                if (mAdapter.getItemId(i) == stableId) {
-                    position = i;
-                    break;
-                }
-            }
+            int position = mAdapter.findPosition(stableId);
             if (position >= 0) {
                 scrollToPosition(position);
                 onScrolledToStableId(stableId, position);
@@ -25,10 +25,12 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.os.Parcelable;
 import androidx.core.app.NotificationCompat;
+import androidx.core.os.TraceCompat;
 import android.view.ViewGroup;
 
 import com.philliphsu.clock2.R;
 import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.AlarmCache;
 import com.philliphsu.clock2.alarms.misc.AlarmController;
 import com.philliphsu.clock2.ringtone.playback.AlarmRingtoneService;
 import com.philliphsu.clock2.ringtone.playback.RingtoneService;
@@ -115,17 +117,29 @@ public class AlarmActivity extends RingtoneActivity<Alarm> {
 
     @Override
     protected void onLeftButtonClick() {
-        mAlarmController.snoozeAlarm(getRingingObject());
-        // Can't call dismiss() because we don't want to also call cancelAlarm()! Why? For example,
-        // we don't want the alarm, if it has no recurrence, to be turned off right now.
-        stopAndFinish();
+        TraceCompat.beginSection("AlarmActivity.snooze");
+        try {
+            // Silences the ringtone before anything else, then snoozes in the background.
+            mAlarmController.snoozeRingingAlarm(getRingingObject());
+            // Can't call dismiss() because we don't want to also call cancelAlarm()! Why? For example,
+            // we don't want the alarm, if it has no recurrence, to be turned off right now.
+            stopAndFinish();
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 
     @Override
     protected void onRightButtonClick() {
-        // TODO do we really need to cancel the intent and alarm?
-        mAlarmController.cancelAlarm(getRingingObject(), false, true);
-        stopAndFinish();
+        TraceCompat.beginSection("AlarmActivity.dismiss");
+        try {
+            // Silences the ringtone before anything else, then cancels in the background.
+            // TODO do we really need to cancel the intent and alarm?
+            mAlarmController.dismissRingingAlarm(getRingingObject());
+            stopAndFinish();
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 
     @Override
@@ -133,6 +147,21 @@ public class AlarmActivity extends RingtoneActivity<Alarm> {
         return Alarm.CREATOR;
     }
 
+    @Override
+    protected Alarm readRingingObject(Intent intent) {
+        if (intent.hasExtra(AlarmCache.EXTRA_ALARM_ID)) {
+            // Doesn't read the table, see AlarmCache
+            return AlarmCache.getInstance(this).ringingStateFromExtras(intent);
+        }
+        // Scheduled by an older version of the app
+        return super.readRingingObject(intent);
+    }
+
+    @Override
+    protected void writeRingingObject(Intent intent, Alarm alarm) {
+        AlarmCache.getInstance(this).putRingingExtras(intent, alarm);
+    }
+
     // TODO: Consider changing the return type to Notification, and move the actual
     // task of notifying to the base class.
     @Override
@@ -111,16 +111,32 @@ public abstract class RingtoneActivity<T extends Parcelable> extends BaseActivit
         return null;
     }
 
+    /**
+     * @return the ringing object that the intent refers to, or null if there is none.
+     * The default implementation unmarshalls the {@link #EXTRA_RINGING_OBJECT} bytes.
+     */
+    protected T readRingingObject(Intent intent) {
+        final byte[] bytes = intent.getByteArrayExtra(EXTRA_RINGING_OBJECT);
+        return bytes == null ? null : ParcelableUtil.unmarshall(bytes, getParcelableCreator());
+    }
+
+    /**
+     * Puts the ringing object in the intent that starts the {@link RingtoneService}.
+     * Override together with {@link RingtoneService#readRingingObject(Intent)}.
+     */
+    protected void writeRingingObject(Intent intent, T ringingObject) {
+        intent.putExtra(EXTRA_RINGING_OBJECT, ParcelableUtil.marshall(ringingObject));
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         ButterKnife.bind(this);
 
-        final byte[] bytes = getIntent().getByteArrayExtra(EXTRA_RINGING_OBJECT);
-        if (bytes == null) {
+        mRingingObject = readRingingObject(getIntent());
+        if (mRingingObject == null) {
             throw new IllegalStateException("Cannot start RingtoneActivity without a ringing object");
         }
-        mRingingObject = ParcelableUtil.unmarshall(bytes, getParcelableCreator());
         sIsAlive = true;
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_TURN_SCREEN_ON);
@@ -137,8 +153,8 @@ public abstract class RingtoneActivity<T extends Parcelable> extends BaseActivit
         mLeftButton.setCompoundDrawablesWithIntrinsicBounds(0, getLeftButtonDrawable(), 0, 0);
         mRightButton.setCompoundDrawablesWithIntrinsicBounds(0, getRightButtonDrawable(), 0, 0);
 
-        Intent intent = new Intent(this, getRingtoneServiceClass())
-                .putExtra(EXTRA_RINGING_OBJECT, ParcelableUtil.marshall(mRingingObject));
+        Intent intent = new Intent(this, getRingtoneServiceClass());
+        writeRingingObject(intent, mRingingObject);
         startService(intent);
     }
 
@@ -24,10 +24,12 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Parcelable;
 import android.provider.Settings;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationCompat;
 
 import com.philliphsu.clock2.R;
 import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.AlarmCache;
 import com.philliphsu.clock2.alarms.misc.AlarmController;
 import com.philliphsu.clock2.alarms.misc.AlarmPreferences;
 
@@ -41,15 +43,32 @@ public class AlarmRingtoneService extends RingtoneService<Alarm> {
 
     private AlarmController mAlarmController;
 
+    /**
+     * Silences the ringing alarm, if any, right away. A ringing timer keeps ringing.
+     * @see RingtoneService#silenceRunningService(Class)
+     */
+    public static boolean silenceRunningService() {
+        return silenceRunningService(AlarmRingtoneService.class);
+    }
+
+    /**
+     * @return whether an alarm is ringing
+     */
+    @VisibleForTesting
+    public static boolean isRinging() {
+        return isRinging(AlarmRingtoneService.class);
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         // We can have this before super because this will only call through
         // WHILE this Service has already been alive.
         if (intent.getAction() != null) {
+            // Both silence the ringtone first, and do the rest in the background.
             if (ACTION_SNOOZE.equals(intent.getAction())) {
-                mAlarmController.snoozeAlarm(getRingingObject());
+                mAlarmController.snoozeRingingAlarm(getRingingObject());
             } else if (ACTION_DISMISS.equals(intent.getAction())) {
-                mAlarmController.cancelAlarm(getRingingObject(), false, true); // TODO do we really need to cancel the intent and alarm?
+                mAlarmController.dismissRingingAlarm(getRingingObject()); // TODO do we really need to cancel the intent and alarm?
             } else {
                 throw new UnsupportedOperationException();
             }
@@ -69,7 +88,7 @@ public class AlarmRingtoneService extends RingtoneService<Alarm> {
     @Override
     protected void onAutoSilenced() {
         // TODO do we really need to cancel the alarm and intent?
-        mAlarmController.cancelAlarm(getRingingObject(), false, true);
+        mAlarmController.cancelRingingAlarm(getRingingObject());
     }
 
     @Override
@@ -115,4 +134,12 @@ public class AlarmRingtoneService extends RingtoneService<Alarm> {
     protected Parcelable.Creator<Alarm> getParcelableCreator() {
         return Alarm.CREATOR;
     }
+
+    @Override
+    protected Alarm readRingingObject(Intent intent) {
+        if (intent.hasExtra(AlarmCache.EXTRA_ALARM_ID)) {
+            return AlarmCache.getInstance(this).ringingStateFromExtras(intent);
+        }
+        return super.readRingingObject(intent);
+    }
 }
@@ -32,6 +32,7 @@ import android.os.IBinder;
 import android.os.Parcelable;
 import android.os.Vibrator;
 import androidx.annotation.NonNull;
+import androidx.core.os.TraceCompat;
 import android.util.Log;
 
 import com.philliphsu.clock2.R;
@@ -39,6 +40,8 @@ import com.philliphsu.clock2.ringtone.RingtoneActivity;
 import com.philliphsu.clock2.util.LocalBroadcastHelper;
 import com.philliphsu.clock2.util.ParcelableUtil;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -59,10 +62,15 @@ public abstract class RingtoneService<T extends Parcelable> extends Service {
 //    public static final String EXTRA_ITEM_ID = RingtoneActivity.EXTRA_ITEM_ID;
     public static final String EXTRA_RINGING_OBJECT = RingtoneActivity.EXTRA_RINGING_OBJECT;
 
+    // The running service of each subclass, e.g. an alarm and a timer can ring at once.
+    // Only touched on the main thread.
+    private static final Map<Class<?>, RingtoneService<?>> sRunningInstances = new HashMap<>();
+
     private AudioManager mAudioManager;
     private RingtoneLoop mRingtone;
     private Vibrator mVibrator;
     private T mRingingObject;
+    private boolean mSilenced;
 
     // TODO: Using Handler for this is ill-suited? Alarm ringing could outlast the
     // application's life. Use AlarmManager API instead.
@@ -117,17 +125,25 @@ public abstract class RingtoneService<T extends Parcelable> extends Service {
         return null;
     }
 
+    /**
+     * @return the ringing object that the intent refers to, or null if there is none.
+     * The default implementation unmarshalls the {@link #EXTRA_RINGING_OBJECT} bytes.
+     */
+    protected T readRingingObject(Intent intent) {
+        final byte[] bytes = intent.getByteArrayExtra(EXTRA_RINGING_OBJECT);
+        return bytes == null ? null : ParcelableUtil.unmarshall(bytes, getParcelableCreator());
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (mRingingObject == null) {
-            final byte[] bytes = intent.getByteArrayExtra(EXTRA_RINGING_OBJECT);
-            if (bytes == null) {
+            mRingingObject = readRingingObject(intent);
+            if (mRingingObject == null) {
                 throw new IllegalStateException("Cannot start RingtoneService without a ringing object");
             }
-            mRingingObject = ParcelableUtil.unmarshall(bytes, getParcelableCreator());
         }
-        // Play ringtone, if not already playing
-        if (mAudioManager == null && mRingtone == null) {
+        // Play ringtone, if not already playing or silenced
+        if (!mSilenced && mAudioManager == null && mRingtone == null) {
             // TOneverDO: Pass 0 as the first argument
             startForeground(R.id.ringtone_service_notification, getForegroundNotification());
 
@@ -160,9 +176,38 @@ public abstract class RingtoneService<T extends Parcelable> extends Service {
         return START_NOT_STICKY;
     }
 
+    /**
+     * Stops the ringtone and vibration of the running service of the given class right away,
+     * without waiting for {@link #stopService(Intent)} to go through. Call on the main thread,
+     * before doing any other work in response to the user silencing the ringtone.
+     * @return whether a service of that class was running
+     */
+    protected static boolean silenceRunningService(Class<? extends RingtoneService> serviceClass) {
+        TraceCompat.beginSection("RingtoneService.silence");
+        try {
+            RingtoneService<?> running = sRunningInstances.get(serviceClass);
+            if (running == null) {
+                return false;
+            }
+            running.silence();
+            return true;
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * @return whether a service of the given class is running and still playing its ringtone
+     */
+    protected static boolean isRinging(Class<? extends RingtoneService> serviceClass) {
+        RingtoneService<?> running = sRunningInstances.get(serviceClass);
+        return running != null && !running.mSilenced && running.mRingtone != null;
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
+        sRunningInstances.put(getClass(), this);
         // Pretty sure this won't ever get called anymore... b/c EditAlarmActivity, the only component
         // that sends such a broadcast, is deprecated.
         LocalBroadcastHelper.registerReceiver(this, mNotifyMissedReceiver, ACTION_NOTIFY_MISSED);
@@ -171,18 +216,33 @@ public abstract class RingtoneService<T extends Parcelable> extends Service {
     @Override
     public void onDestroy() {
         Log.d(TAG, "onDestroy()");
-        mRingtone.stop();
-        mAudioManager.abandonAudioFocus(null); // no listener was set
-        if (mVibrator != null) {
-            mVibrator.cancel();
+        silence();
+        if (sRunningInstances.get(getClass()) == this) {
+            sRunningInstances.remove(getClass());
         }
-        mSilenceHandler.removeCallbacks(mSilenceRunnable);
         stopForeground(true);
         // Pretty sure this won't ever get called anymore... b/c EditAlarmActivity, the only component
         // that sends such a broadcast, is deprecated.
         LocalBroadcastHelper.unregisterReceiver(this, mNotifyMissedReceiver);
     }
 
+    private void silence() {
+        if (mSilenced) {
+            return;
+        }
+        mSilenced = true;
+        if (mRingtone != null) {
+            mRingtone.stop();
+        }
+        if (mAudioManager != null) {
+            mAudioManager.abandonAudioFocus(null); // no listener was set
+        }
+        if (mVibrator != null) {
+            mVibrator.cancel();
+        }
+        mSilenceHandler.removeCallbacks(mSilenceRunnable);
+    }
+
     @Override
     public final IBinder onBind(Intent intent) {
         return null;
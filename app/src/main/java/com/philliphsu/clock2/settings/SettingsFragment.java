@@ -19,7 +19,9 @@
 
 package com.philliphsu.clock2.settings;
 
+import android.app.Activity;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.media.AudioManager;
 import android.media.Ringtone;
@@ -29,10 +31,25 @@ import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.RingtonePreference;
+import android.util.Log;
+import android.widget.Toast;
 
 import com.philliphsu.clock2.R;
+import com.philliphsu.clock2.data.ClockBackup;
+import com.philliphsu.clock2.data.DatabaseExecutor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.Callable;
 
 public class SettingsFragment extends PreferenceFragment implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = "SettingsFragment";
+
+    private static final int REQUEST_BACK_UP = 1;
+    private static final int REQUEST_RESTORE = 2;
 
     public SettingsFragment() {}
 
@@ -54,6 +71,40 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
                 return true;
             }
         });
+        findPreference(getString(R.string.key_back_up))
+                .setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                        .addCategory(Intent.CATEGORY_OPENABLE)
+                        .setType("application/octet-stream")
+                        .putExtra(Intent.EXTRA_TITLE, getString(R.string.backup_file_name));
+                startActivityForResult(intent, REQUEST_BACK_UP);
+                return true;
+            }
+        });
+        findPreference(getString(R.string.key_restore))
+                .setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                // Any type, since providers don't keep the type the backup was saved with
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                        .addCategory(Intent.CATEGORY_OPENABLE)
+                        .setType("*/*");
+                startActivityForResult(intent, REQUEST_RESTORE);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_BACK_UP || requestCode == REQUEST_RESTORE) {
+            transfer(data.getData(), requestCode == REQUEST_RESTORE);
+        }
     }
 
     @Override
@@ -75,6 +126,55 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
         setSummary(sharedPreferences, key);
     }
 
+    /**
+     * Backs up to, or restores from, the document on the database writer thread,
+     * so that a backup includes the writes made before it. Toasts the outcome.
+     */
+    private void transfer(final Uri uri, final boolean restore) {
+        // The fragment may be gone by the time we're done.
+        final Context context = getActivity().getApplicationContext();
+        DatabaseExecutor.getInstance(context).write(restore ? "ClockBackup.restore" : "ClockBackup.backup",
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        try {
+                            if (restore) {
+                                InputStream in = context.getContentResolver().openInputStream(uri);
+                                if (in == null) {
+                                    throw new FileNotFoundException(uri.toString());
+                                }
+                                try {
+                                    ClockBackup.restore(context, Channels.newChannel(in));
+                                } finally {
+                                    in.close();
+                                }
+                                return R.string.restored;
+                            }
+                            // Truncates what the document held before
+                            OutputStream out = context.getContentResolver().openOutputStream(uri, "wt");
+                            if (out == null) {
+                                throw new FileNotFoundException(uri.toString());
+                            }
+                            try {
+                                ClockBackup.backup(context, Channels.newChannel(out));
+                            } finally {
+                                out.close();
+                            }
+                            return R.string.backed_up;
+                        } catch (IOException e) {
+                            Log.e(TAG, "Couldn't " + (restore ? "restore from " : "back up to ") + uri, e);
+                            return restore ? R.string.restore_failed : R.string.backup_failed;
+                        }
+                    }
+                },
+                new DatabaseExecutor.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer message) {
+                        Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
+
     private void setSummary(SharedPreferences prefs, String key) {
         Preference pref = findPreference(key);
         // Setting a ListPreference's summary value to "%s" in XML automatically updates the
@@ -217,10 +217,10 @@ public class StopwatchNotificationService extends ChronometerNotificationService
         addStartPauseAction(running, getNoteId());
         addStopAction(getNoteId());
 
-        quitCurrentThread(getNoteId());
+        stopTicking(getNoteId());
         if (running) {
             long startTime = mPrefs.getLong(StopwatchFragment.KEY_START_TIME, SystemClock.elapsedRealtime());
-            startNewThread(getNoteId(), startTime);
+            startTicking(getNoteId(), startTime);
         }
     }
 }
@@ -29,18 +29,34 @@ import com.philliphsu.clock2.stopwatch.Lap;
  */
 public class LapCursor extends BaseItemCursor<Lap> {
 
+    private final int mIdColumn;
+    private final int mT1Column;
+    private final int mT2Column;
+    private final int mPauseTimeColumn;
+    private final int mTotalTimeTextColumn;
+
     public LapCursor(Cursor cursor) {
         super(cursor);
+        mIdColumn = getColumnIndexOrThrow(LapsTable.COLUMN_ID);
+        mT1Column = getColumnIndexOrThrow(LapsTable.COLUMN_T1);
+        mT2Column = getColumnIndexOrThrow(LapsTable.COLUMN_T2);
+        mPauseTimeColumn = getColumnIndexOrThrow(LapsTable.COLUMN_PAUSE_TIME);
+        mTotalTimeTextColumn = getColumnIndexOrThrow(LapsTable.COLUMN_TOTAL_TIME_TEXT);
     }
 
     @Override
     public Lap getItem() {
-        Lap lap = new Lap();
-        lap.setId(getLong(getColumnIndexOrThrow(LapsTable.COLUMN_ID)));
-        lap.setT1(getLong(getColumnIndexOrThrow(LapsTable.COLUMN_T1)));
-        lap.setT2(getLong(getColumnIndexOrThrow(LapsTable.COLUMN_T2)));
-        lap.setPauseTime(getLong(getColumnIndexOrThrow(LapsTable.COLUMN_PAUSE_TIME)));
-        lap.setTotalTimeText(getString(getColumnIndexOrThrow(LapsTable.COLUMN_TOTAL_TIME_TEXT)));
+        return getItem(null);
+    }
+
+    @Override
+    public Lap getItem(Lap reuse) {
+        Lap lap = reuse != null ? reuse : new Lap();
+        lap.setId(getLong(mIdColumn));
+        lap.setT1(getLong(mT1Column));
+        lap.setT2(getLong(mT2Column));
+        lap.setPauseTime(getLong(mPauseTimeColumn));
+        lap.setTotalTimeText(getString(mTotalTimeTextColumn));
         return lap;
     }
 }
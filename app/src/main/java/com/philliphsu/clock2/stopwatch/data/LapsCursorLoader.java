@@ -31,13 +31,22 @@ public class LapsCursorLoader extends SQLiteCursorLoader<Lap, LapCursor> {
     public static final String ACTION_CHANGE_CONTENT
             = "com.philliphsu.clock2.stopwatch.data.action.CHANGE_CONTENT";
 
+    // A long stopwatch session can have thousands of laps, so they are read a page at a time.
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 5;
+
     public LapsCursorLoader(Context context) {
         super(context);
     }
 
     @Override
     protected LapCursor loadCursor() {
-        return new LapsTableManager(getContext()).queryItems();
+        return new LapsTableManager(getContext()).queryPaged(PAGE_SIZE, MAX_PAGES);
+    }
+
+    @Override
+    protected int getMaxDiffRows() {
+        return PAGE_SIZE;
     }
 
     @Override
@@ -55,7 +55,6 @@ public final class LapsTable {
     }
 
     public static void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_LAPS);
-        onCreate(db);
+        // The schema of this table has not changed since version 1.
     }
 }
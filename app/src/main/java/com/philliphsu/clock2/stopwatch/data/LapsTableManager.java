@@ -24,12 +24,29 @@ import android.content.Context;
 import android.database.Cursor;
 
 import com.philliphsu.clock2.data.DatabaseTableManager;
+import com.philliphsu.clock2.data.EntityCache;
 import com.philliphsu.clock2.stopwatch.Lap;
 
 /**
  * Created by Phillip Hsu on 8/8/2016.
  */
 public class LapsTableManager extends DatabaseTableManager<Lap> {
+    private static final int CACHE_SIZE = 16;
+
+    // Shared by every manager of the table, so our writes keep it current
+    private static final EntityCache<Lap> sCache = new EntityCache<>(CACHE_SIZE,
+            new EntityCache.Copier<Lap>() {
+                @Override
+                public Lap copy(Lap lap) {
+                    Lap copy = new Lap();
+                    copy.setId(lap.getId());
+                    copy.setT1(lap.t1());
+                    copy.setT2(lap.t2());
+                    copy.setPauseTime(lap.pauseTime());
+                    copy.setTotalTimeText(lap.totalTimeText());
+                    return copy;
+                }
+            });
 
     public LapsTableManager(Context context) {
         super(context);
@@ -40,6 +57,22 @@ public class LapsTableManager extends DatabaseTableManager<Lap> {
         return LapsTable.SORT_ORDER;
     }
 
+    @Override
+    protected EntityCache<Lap> getEntityCache() {
+        return sCache;
+    }
+
+    @Override
+    protected Lap readItem(long id) {
+        LapCursor cursor = queryItem(id);
+        try {
+            // Unlike the other item cursors, ours doesn't check for a valid row.
+            return cursor.getCount() > 0 ? cursor.getItem() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public LapCursor queryItem(long id) {
         return wrapInLapCursor(super.queryItem(id));
@@ -55,6 +88,11 @@ public class LapsTableManager extends DatabaseTableManager<Lap> {
         return wrapInLapCursor(super.queryItems(where, limit));
     }
 
+    @Override
+    public LapCursor queryPaged(int pageSize, int maxPages) {
+        return wrapInLapCursor(super.queryPaged(pageSize, maxPages));
+    }
+
 //    public LapCursor queryTwoMostRecentLaps(long currentLapId, long previousLapId) {
 //        String where = LapsTable.COLUMN_ID + " = " + currentLapId
 //                + " OR " + LapsTable.COLUMN_ID + " = " + previousLapId;
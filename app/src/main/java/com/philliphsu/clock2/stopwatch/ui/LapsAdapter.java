@@ -34,6 +34,7 @@ public class LapsAdapter extends BaseCursorAdapter<Lap, LapViewHolder, LapCursor
 
     public LapsAdapter() {
         super(null/*OnListItemInteractionListener*/);
+        setDiffingEnabled(true);
     }
 
     @Override
@@ -52,4 +53,10 @@ public class LapsAdapter extends BaseCursorAdapter<Lap, LapViewHolder, LapCursor
     public int getItemViewType(int position) {
         return getItemCount() == 1 ? VIEW_TYPE_FIRST_LAP : super.getItemViewType(position);
     }
+
+    @Override
+    protected boolean canDispatchDiff(int oldCount, int newCount) {
+        // The lone first lap has its own view type.
+        return (oldCount == 1) == (newCount == 1);
+    }
 }
@@ -133,10 +133,9 @@ public class TimerNotificationService extends ChronometerNotificationService {
     public void onDestroy() {
         super.onDestroy();
         // After being cancelled due to time being up, sometimes the active timer notification posts again
-        // with a static 00:00 text, along with the Time's up notification. My theory is
-        // our thread has enough leeway to sneak in a final call to post the notification before it
-        // is actually quit().
-        // As such, try cancelling the notification with this (tag, id) pair again.
+        // with a static 00:00 text, along with the Time's up notification. The scheduler
+        // no longer ticks a notification once it is removed, but as a precaution,
+        // try cancelling the notification with this (tag, id) pair again.
         for (int i = 0; i < mTimers.size(); i++) {
             cancelNotification(mTimers.keyAt(i));
         }
@@ -202,8 +201,8 @@ public class TimerNotificationService extends ChronometerNotificationService {
             updateNotification(id, true);
         }
         // This handles any other notification updates like the title or actions, even if
-        // the timer is not running because the current thread will update the notification
-        // (besides the content text) before quitting.
+        // the timer is not running because stopTicking() will update the notification
+        // (besides the content text) before it stops.
         syncNotificationWithTimerState(id, timer.isRunning());
     }
 
@@ -248,13 +247,10 @@ public class TimerNotificationService extends ChronometerNotificationService {
             mControllers.get(id).addOneMinute();
         } else if (ACTION_CANCEL_NOTIFICATION.equals(action)) {
             long id = intent.getLongExtra(EXTRA_CANCEL_TIMER_ID, -1);
-            cancelNotification(id);
-            // TODO: SHould this be before cancelNotification()? I'm worried
-            // that the thread's handler will have enough leeway to sneak
-            // in a notification update before it is quit. If it did,
-            // then at least cancelNotification should theoretically
-            // remove it...
+            // Stop ticking first, or else a tick could post the notification
+            // again after it was cancelled.
             releaseResources(id);
+            cancelNotification(id);
         } else {
             throw new IllegalArgumentException("TimerNotificationService cannot handle action " + action);
         }
@@ -282,9 +278,9 @@ public class TimerNotificationService extends ChronometerNotificationService {
         addStartPauseAction(running, id);
         addStopAction(id);
 
-        quitCurrentThread(id);
+        stopTicking(id);
         if (running) {
-            startNewThread(id, mTimers.get(id).endTime());
+            startTicking(id, mTimers.get(id).endTime());
         }
     }
     
@@ -29,24 +29,57 @@ import com.philliphsu.clock2.data.BaseItemCursor;
  */
 public class TimerCursor extends BaseItemCursor<Timer> {
 
+    private final int mIdColumn;
+    private final int mHourColumn;
+    private final int mMinuteColumn;
+    private final int mSecondColumn;
+    private final int mLabelColumn;
+    private final int mEndTimeColumn;
+    private final int mPauseTimeColumn;
+    private final int mDurationColumn;
+
     public TimerCursor(Cursor cursor) {
         super(cursor);
+        mIdColumn = getColumnIndexOrThrow(TimersTable.COLUMN_ID);
+        mHourColumn = getColumnIndexOrThrow(TimersTable.COLUMN_HOUR);
+        mMinuteColumn = getColumnIndexOrThrow(TimersTable.COLUMN_MINUTE);
+        mSecondColumn = getColumnIndexOrThrow(TimersTable.COLUMN_SECOND);
+        mLabelColumn = getColumnIndexOrThrow(TimersTable.COLUMN_LABEL);
+        mEndTimeColumn = getColumnIndexOrThrow(TimersTable.COLUMN_END_TIME);
+        mPauseTimeColumn = getColumnIndexOrThrow(TimersTable.COLUMN_PAUSE_TIME);
+        mDurationColumn = getColumnIndexOrThrow(TimersTable.COLUMN_DURATION);
     }
 
     @Override
     public Timer getItem() {
+        return getItem(null);
+    }
+
+    /**
+     * Only the mutable fields of a Timer can be filled in, so {@code reuse}
+     * is only reused if its other fields already match the current row.
+     */
+    @Override
+    public Timer getItem(Timer reuse) {
         if (isBeforeFirst() || isAfterLast())
             return null;
-        int hour = getInt(getColumnIndexOrThrow(TimersTable.COLUMN_HOUR));
-        int minute = getInt(getColumnIndexOrThrow(TimersTable.COLUMN_MINUTE));
-        int second = getInt(getColumnIndexOrThrow(TimersTable.COLUMN_SECOND));
-        String label = getString(getColumnIndexOrThrow(TimersTable.COLUMN_LABEL));
+        int hour = getInt(mHourColumn);
+        int minute = getInt(mMinuteColumn);
+        int second = getInt(mSecondColumn);
+        String label = getString(mLabelColumn);
 //            String group = getString(getColumnIndexOrThrow(COLUMN_GROUP));
-        Timer t = Timer.create(hour, minute, second, ""/*group*/, label);
-        t.setId(getLong(getColumnIndexOrThrow(TimersTable.COLUMN_ID)));
-        t.setEndTime(getLong(getColumnIndexOrThrow(TimersTable.COLUMN_END_TIME)));
-        t.setPauseTime(getLong(getColumnIndexOrThrow(TimersTable.COLUMN_PAUSE_TIME)));
-        t.setDuration(getLong(getColumnIndexOrThrow(TimersTable.COLUMN_DURATION)));
+        Timer t;
+        if (reuse != null && reuse.hour() == hour && reuse.minute() == minute
+                && reuse.second() == second && reuse.group().isEmpty()
+                && reuse.label().equals(label)) {
+            t = reuse;
+        } else {
+            t = Timer.create(hour, minute, second, ""/*group*/, label);
+        }
+        t.setId(getLong(mIdColumn));
+        t.setEndTime(getLong(mEndTimeColumn));
+        t.setPauseTime(getLong(mPauseTimeColumn));
+        t.setDuration(getLong(mDurationColumn));
         return t;
     }
 }
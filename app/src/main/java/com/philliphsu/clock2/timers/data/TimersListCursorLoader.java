@@ -31,13 +31,21 @@ public class TimersListCursorLoader extends SQLiteCursorLoader<Timer, TimerCurso
     public static final String ACTION_CHANGE_CONTENT
             = "com.philliphsu.clock2.timers.data.action.CHANGE_CONTENT";
 
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 5;
+
     public TimersListCursorLoader(Context context) {
         super(context);
     }
 
     @Override
     protected TimerCursor loadCursor() {
-        return new TimersTableManager(getContext()).queryItems();
+        return new TimersTableManager(getContext()).queryPaged(PAGE_SIZE, MAX_PAGES);
+    }
+
+    @Override
+    protected int getMaxDiffRows() {
+        return PAGE_SIZE;
     }
 
     @Override
@@ -21,6 +21,8 @@ package com.philliphsu.clock2.timers.data;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import com.philliphsu.clock2.data.ClockAppDatabaseHelper;
+
 /**
  * Created by Phillip Hsu on 7/30/2016.
  */
@@ -54,6 +56,9 @@ public final class TimersTable {
                     // All else equal, newer timers first
                     + COLUMN_ID + " DESC";
 
+    /** Follows {@link #SORT_ORDER}, so each page of the list is read from the index in order */
+    static final String INDEX_SORT_ORDER = "timers_sort_order";
+
     public static void onCreate(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + TABLE_TIMERS + " ("
                 // https://sqlite.org/autoinc.html
@@ -70,10 +75,20 @@ public final class TimersTable {
                 + COLUMN_END_TIME + " INTEGER NOT NULL, "
                 + COLUMN_PAUSE_TIME + " INTEGER NOT NULL, "
                 + COLUMN_DURATION + " INTEGER NOT NULL);");
+        createIndexes(db);
     }
 
     public static void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TIMERS);
-        onCreate(db);
+        if (oldVersion < ClockAppDatabaseHelper.VERSION_4) {
+            createIndexes(db);
+        }
+    }
+
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SORT_ORDER + " ON " + TABLE_TIMERS + " ("
+                + COLUMN_HOUR + " ASC, "
+                + COLUMN_MINUTE + " ASC, "
+                + COLUMN_SECOND + " ASC, "
+                + COLUMN_ID + " DESC)");
     }
 }
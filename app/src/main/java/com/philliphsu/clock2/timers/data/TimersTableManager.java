@@ -27,12 +27,26 @@ import android.util.Log;
 
 import com.philliphsu.clock2.timers.Timer;
 import com.philliphsu.clock2.data.DatabaseTableManager;
+import com.philliphsu.clock2.data.EntityCache;
 
 /**
  * Created by Phillip Hsu on 7/30/2016.
  */
 public class TimersTableManager extends DatabaseTableManager<Timer> {
     public static final String TAG = "TimersTableManager";
+    private static final int CACHE_SIZE = 32;
+
+    // Shared by every manager of the table, so our writes keep it current
+    private static final EntityCache<Timer> sCache = new EntityCache<>(CACHE_SIZE,
+            new EntityCache.Copier<Timer>() {
+                @Override
+                public Timer copy(Timer timer) {
+                    Timer copy = Timer.create(timer.hour(), timer.minute(), timer.second(),
+                            timer.group(), timer.label());
+                    timer.copyMutableFieldsTo(copy);
+                    return copy;
+                }
+            });
 
     public TimersTableManager(Context context) {
         super(context);
@@ -43,6 +57,21 @@ public class TimersTableManager extends DatabaseTableManager<Timer> {
         return TimersTable.SORT_ORDER;
     }
 
+    @Override
+    protected EntityCache<Timer> getEntityCache() {
+        return sCache;
+    }
+
+    @Override
+    protected Timer readItem(long id) {
+        TimerCursor cursor = queryItem(id);
+        try {
+            return cursor.getItem();
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public TimerCursor queryItem(long id) {
         return wrapInTimerCursor(super.queryItem(id));
@@ -54,9 +83,11 @@ public class TimersTableManager extends DatabaseTableManager<Timer> {
     }
 
     public TimerCursor queryStartedTimers() {
-        String where = TimersTable.COLUMN_END_TIME + " > " + SystemClock.elapsedRealtime()
+        // The time is bound, so the SQL is the same on every call and compiled once.
+        String where = TimersTable.COLUMN_END_TIME + " > ?"
                 + " OR " + TimersTable.COLUMN_PAUSE_TIME + " > 0";
-        return queryItems(where, null);
+        String[] whereArgs = {Long.toString(SystemClock.elapsedRealtime())};
+        return wrapInTimerCursor(queryItems(null, where, whereArgs, null));
     }
 
     @Override
@@ -64,6 +95,11 @@ public class TimersTableManager extends DatabaseTableManager<Timer> {
         return wrapInTimerCursor(super.queryItems(where, limit));
     }
 
+    @Override
+    public TimerCursor queryPaged(int pageSize, int maxPages) {
+        return wrapInTimerCursor(super.queryPaged(pageSize, maxPages));
+    }
+
     @Override
     protected String getTableName() {
         return TimersTable.TABLE_TIMERS;
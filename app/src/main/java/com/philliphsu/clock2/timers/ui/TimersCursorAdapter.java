@@ -38,6 +38,7 @@ public class TimersCursorAdapter extends BaseCursorAdapter<Timer, TimerViewHolde
                                AsyncTimersTableUpdateHandler asyncTimersTableUpdateHandler) {
         super(listener);
         mAsyncTimersTableUpdateHandler = asyncTimersTableUpdateHandler;
+        setDiffingEnabled(true);
     }
 
     @Override
@@ -39,11 +39,20 @@ import static android.app.PendingIntent.FLAG_CANCEL_CURRENT;
 public final class ContentIntentUtils {
 
     public static PendingIntent create(@NonNull Context context, int targetPage, long stableId) {
+        return create(context, targetPage, stableId, (int) stableId);
+    }
+
+    /**
+     * Like {@link #create(Context, int, long)}, but with a request code of your own, for
+     * when the intent shouldn't replace another one made for the same item.
+     */
+    public static PendingIntent create(@NonNull Context context, int targetPage, long stableId,
+                                       int requestCode) {
         Intent intent = new Intent(context, MainActivity.class)
                 .setAction(RecyclerViewFragment.ACTION_SCROLL_TO_STABLE_ID)
                 .putExtra(MainActivity.EXTRA_SHOW_PAGE, targetPage)
                 .putExtra(RecyclerViewFragment.EXTRA_SCROLL_TO_STABLE_ID, stableId);
-        return PendingIntent.getActivity(context, (int) stableId, intent, FLAG_CANCEL_CURRENT);
+        return PendingIntent.getActivity(context, requestCode, intent, FLAG_CANCEL_CURRENT);
     }
 
     private ContentIntentUtils() {}
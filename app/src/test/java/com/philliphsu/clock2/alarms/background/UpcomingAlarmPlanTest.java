@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.background;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.RingTimeCalculator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpcomingAlarmPlanTest {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long WINDOW = 5 * MINUTE;
+    // Mon, 02 Jan 2017 00:00 UTC
+    private static final long MIDNIGHT = 1483315200000L;
+
+    private final RingTimeCalculator mCalculator = new RingTimeCalculator(
+            RingTimeCalculator.SYSTEM_CLOCK, TimeZone.getTimeZone("UTC"));
+
+    @Test
+    public void nothingUpcoming_WakesUpForFirstUpcomingTime() {
+        UpcomingAlarmPlan plan = UpcomingAlarmPlan.of(
+                Arrays.asList(alarm(1, 9, 0), alarm(2, 6, 0), alarm(3, 6, 3)),
+                mCalculator, MIDNIGHT + 3 * HOUR, 2, WINDOW);
+
+        assertTrue(plan.shown.isEmpty());
+        assertEquals(MIDNIGHT + 4 * HOUR, plan.nextWakeupAt);
+    }
+
+    @Test
+    public void alarmsUpcomingWithinWindow_ShownByOneWakeup() {
+        UpcomingAlarmPlan plan = UpcomingAlarmPlan.of(
+                Arrays.asList(alarm(1, 9, 0), alarm(2, 6, 3), alarm(3, 6, 0)),
+                mCalculator, MIDNIGHT + 4 * HOUR, 2, WINDOW);
+
+        assertEquals(Arrays.asList(3L, 2L), idsOf(plan));
+        assertEquals(MIDNIGHT + 6 * HOUR, plan.shown.get(0).ringsAt);
+        assertEquals(MIDNIGHT + 7 * HOUR, plan.nextWakeupAt);
+    }
+
+    @Test
+    public void alarmIgnoringUpcomingRingTime_NotShown() {
+        Alarm ignoring = alarm(1, 5, 0);
+        ignoring.setDaysMask(0x7F);
+        ignoring.ignoreUpcomingRingTime(true);
+        UpcomingAlarmPlan plan = UpcomingAlarmPlan.of(Arrays.asList(ignoring, alarm(2, 5, 30)),
+                mCalculator, MIDNIGHT + 4 * HOUR, 2, WINDOW);
+
+        assertEquals(Arrays.asList(2L), idsOf(plan));
+        assertEquals(0, plan.nextWakeupAt);
+    }
+
+    @Test
+    public void snoozedAlarm_ShownEvenIfNotNotifyingInAdvance() {
+        Alarm snoozed = alarm(1, 6, 0);
+        snoozed.setSnoozing(System.currentTimeMillis() + 10 * MINUTE);
+        UpcomingAlarmPlan plan = UpcomingAlarmPlan.of(Arrays.asList(snoozed, alarm(2, 6, 0)),
+                mCalculator, MIDNIGHT + 5 * HOUR, 0, WINDOW);
+
+        assertEquals(Arrays.asList(1L), idsOf(plan));
+        assertTrue(plan.shown.get(0).snoozing);
+        assertEquals(0, plan.nextWakeupAt);
+    }
+
+    private static List<Long> idsOf(UpcomingAlarmPlan plan) {
+        List<Long> ids = new ArrayList<>();
+        for (UpcomingAlarmPlan.Entry e : plan.shown) {
+            ids.add(e.alarm.getId());
+        }
+        return ids;
+    }
+
+    private static Alarm alarm(long id, int hour, int minutes) {
+        Alarm alarm = Alarm.builder().hour(hour).minutes(minutes).build();
+        alarm.setId(id);
+        alarm.setEnabled(true);
+        return alarm;
+    }
+}
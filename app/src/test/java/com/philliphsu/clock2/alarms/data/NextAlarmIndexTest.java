@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.data;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.misc.RingTimeCalculator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Applies random writes to a {@link NextAlarmIndex} and to a plain list standing in
+ * for the alarms table, and checks that the index always agrees with a full scan.
+ */
+public class NextAlarmIndexTest {
+    private static final long START = 1467331200000L; // 2016-07-01T00:00:00Z
+
+    private long mNow;
+    private RingTimeCalculator mCalculator;
+    private NextAlarmIndex mIndex;
+    // Stands in for the alarms table
+    private Map<Long, Alarm> mTable;
+    private Random mRandom;
+
+    @Before
+    public void setUp() {
+        mNow = START;
+        mCalculator = new RingTimeCalculator(new RingTimeCalculator.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return mNow;
+            }
+        }, TimeZone.getTimeZone("America/New_York"));
+        mIndex = new NextAlarmIndex(mCalculator);
+        mTable = new LinkedHashMap<>();
+        mRandom = new Random(42);
+    }
+
+    @Test
+    public void emptyIndex() {
+        assertEquals(0, mIndex.nextN(5).length);
+        assertEquals(0, mIndex.ringingUpTo(Long.MAX_VALUE).length);
+        assertEquals(0, mIndex.snoozing().length);
+        assertEquals(-1, mIndex.firstRingTimeAfter(mNow));
+    }
+
+    @Test
+    public void randomWrites_IndexMatchesFullScan() {
+        long nextId = 1;
+        for (int step = 0; step < 5000; step++) {
+            int op = mRandom.nextInt(10);
+            if (op < 4 || mTable.isEmpty()) {
+                Alarm a = randomAlarm();
+                a.setId(nextId++);
+                mTable.put(a.getId(), a);
+                mIndex.put(a);
+            } else if (op < 8) {
+                Alarm old = randomExisting();
+                Alarm a = randomAlarm();
+                a.setId(old.getId());
+                mTable.put(a.getId(), a);
+                mIndex.put(a);
+            } else {
+                Alarm old = randomExisting();
+                mTable.remove(old.getId());
+                mIndex.remove(old.getId());
+            }
+            // Let time pass, so that ring times at the top of the heap go stale
+            mNow += mRandom.nextInt((int) TimeUnit.HOURS.toMillis(3));
+
+            if (step % 50 == 0) {
+                assertConsistent();
+            }
+        }
+        assertConsistent();
+    }
+
+    @Test
+    public void timePassing_RecurringAlarmMovesToNextOccurrence() {
+        Alarm daily = Alarm.builder().hour(7).minutes(0).build();
+        daily.setId(1);
+        daily.setEnabled(true);
+        for (int day = 0; day < 7; day++) {
+            daily.setRecurring(day, true);
+        }
+        Alarm once = Alarm.builder().hour(9).minutes(0).build();
+        once.setId(2);
+        once.setEnabled(true);
+        mTable.put(1L, daily);
+        mTable.put(2L, once);
+        mIndex.put(daily);
+        mIndex.put(once);
+
+        for (int hour = 0; hour < 24 * 10; hour++) {
+            mNow = START + TimeUnit.HOURS.toMillis(hour);
+            assertConsistent();
+        }
+    }
+
+    @Test
+    public void ringingUpTo_IncludesTiesWithLastOfNearest() {
+        for (long id = 1; id <= 5; id++) {
+            // Alarms 2, 3 and 4 ring at the same time
+            Alarm a = Alarm.builder().hour(id == 1 ? 6 : (id == 5 ? 8 : 7)).minutes(0).build();
+            a.setId(id);
+            a.setEnabled(true);
+            mTable.put(id, a);
+            mIndex.put(a);
+        }
+        long[] nearest = mIndex.nextN(2);
+        assertEquals(1, nearest[0]);
+        long[] window = mIndex.ringingUpTo(mIndex.ringTimeOf(nearest[1]));
+        Arrays.sort(window);
+        assertArrayEquals(new long[] {1, 2, 3, 4}, window);
+        assertEquals(mIndex.ringTimeOf(5), mIndex.firstRingTimeAfter(mIndex.ringTimeOf(2)));
+    }
+
+    @Test
+    public void snoozedAlarm_IsSkippedByFirstRingTimeAfter() {
+        Alarm snoozed = Alarm.builder().hour(6).minutes(0).build();
+        snoozed.setId(1);
+        snoozed.setEnabled(true);
+        snoozed.snooze(10);
+        Alarm later = Alarm.builder().hour(7).minutes(0).build();
+        later.setId(2);
+        later.setEnabled(true);
+        mIndex.put(snoozed);
+        mIndex.put(later);
+
+        assertArrayEquals(new long[] {1}, mIndex.snoozing());
+        assertEquals(mIndex.ringTimeOf(2), mIndex.firstRingTimeAfter(mNow));
+        // The end of the snooze is not a ring time
+        assertEquals(-1, mIndex.firstRingTimeAfter(mIndex.ringTimeOf(2)));
+    }
+
+    private void assertConsistent() {
+        mIndex.verifyAgainst(mTable.values());
+
+        // Brute force: the ring time of every enabled alarm, sorted
+        List<long[]> scan = new ArrayList<>();
+        for (Alarm a : mTable.values()) {
+            if (a.isEnabled()) {
+                scan.add(new long[] {mIndex.ringTimeOf(a.getId()), a.getId()});
+            }
+        }
+        Collections.sort(scan, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                int c = Long.compare(a[0], b[0]);
+                return c != 0 ? c : Long.compare(a[1], b[1]);
+            }
+        });
+
+        assertEquals(scan.size(), mIndex.size());
+        int n = Math.min(10, scan.size());
+        long[] expectedNext = new long[n];
+        for (int i = 0; i < n; i++) {
+            expectedNext[i] = scan.get(i)[1];
+        }
+        assertArrayEquals(expectedNext, mIndex.nextN(10));
+
+        int hours = 1 + mRandom.nextInt(48);
+        long bound = mNow + TimeUnit.HOURS.toMillis(hours);
+        List<Long> expectedWithin = new ArrayList<>();
+        for (long[] row : scan) {
+            if (row[0] <= bound) expectedWithin.add(row[1]);
+        }
+        long[] within = mIndex.ringingUpTo(bound);
+        Arrays.sort(within);
+        Collections.sort(expectedWithin);
+        assertEquals(expectedWithin.size(), within.length);
+        for (int i = 0; i < within.length; i++) {
+            assertEquals((long) expectedWithin.get(i), within[i]);
+        }
+        long expectedAfter = -1;
+        for (long[] row : scan) {
+            if (row[0] > bound) {
+                expectedAfter = row[0];
+                break;
+            }
+        }
+        assertEquals(expectedAfter, mIndex.firstRingTimeAfter(bound));
+    }
+
+    private Alarm randomAlarm() {
+        Alarm a = Alarm.builder()
+                .hour(mRandom.nextInt(24))
+                .minutes(mRandom.nextInt(60))
+                .build();
+        a.setEnabled(mRandom.nextInt(4) != 0);
+        a.setDaysMask(mRandom.nextBoolean() ? 0 : mRandom.nextInt(128));
+        a.ignoreUpcomingRingTime(a.hasRecurrence() && mRandom.nextInt(10) == 0);
+        return a;
+    }
+
+    private Alarm randomExisting() {
+        int skip = mRandom.nextInt(mTable.size());
+        for (Alarm a : mTable.values()) {
+            if (skip-- == 0) return a;
+        }
+        throw new AssertionError();
+    }
+}
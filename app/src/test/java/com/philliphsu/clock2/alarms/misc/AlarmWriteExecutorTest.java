@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.misc;
+
+import com.philliphsu.clock2.alarms.Alarm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AlarmWriteExecutorTest {
+    private ExecutorService mExecutor;
+    private AlarmWriteExecutor mWriteExecutor;
+    // The alarms written, as "id:minutes", in the order they were written
+    private final List<String> mWrites = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch mUnblock = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadExecutor();
+        mWriteExecutor = new AlarmWriteExecutor(mExecutor, new AlarmWriteExecutor.Writer() {
+            @Override
+            public void write(Alarm alarm) {
+                mWrites.add(alarm.getId() + ":" + alarm.minutes());
+            }
+        });
+        // Hold up the writer thread, so that the saves below pile up in the queue
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mUnblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void queuedSavesOfSameAlarm_CollapseIntoLatest() throws Exception {
+        Future<Void> first = mWriteExecutor.save(alarm(1, 0));
+        for (int minutes = 1; minutes < 10; minutes++) {
+            assertSame(first, mWriteExecutor.save(alarm(1, minutes)));
+        }
+        mUnblock.countDown();
+        first.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList("1:9"), mWrites);
+        assertEquals(1, mWriteExecutor.getQueuedCount());
+        assertEquals(9, mWriteExecutor.getCoalescedCount());
+        assertEquals(1, mWriteExecutor.getExecutedCount());
+    }
+
+    @Test
+    public void differentAlarms_WrittenInOrder() throws Exception {
+        mWriteExecutor.save(alarm(1, 0));
+        mWriteExecutor.save(alarm(2, 0));
+        mWriteExecutor.save(alarm(1, 5));
+        Future<Void> last = mWriteExecutor.save(alarm(3, 0));
+        mUnblock.countDown();
+        last.get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, mWrites.size());
+        assertEquals("1:5", mWrites.get(0));
+        assertEquals("2:0", mWrites.get(1));
+        assertEquals("3:0", mWrites.get(2));
+    }
+
+    @Test
+    public void saveAfterWriteStarted_GetsItsOwnWrite() throws Exception {
+        mUnblock.countDown();
+        Future<Void> first = mWriteExecutor.save(alarm(1, 0));
+        first.get(5, TimeUnit.SECONDS);
+        Future<Void> second = mWriteExecutor.save(alarm(1, 1));
+        second.get(5, TimeUnit.SECONDS);
+
+        assertTrue(first != second);
+        assertEquals(2, mWriteExecutor.getExecutedCount());
+        assertEquals("1:1", mWrites.get(1));
+    }
+
+    private static Alarm alarm(long id, int minutes) {
+        Alarm alarm = Alarm.builder().hour(0).minutes(minutes).build();
+        alarm.setId(id);
+        return alarm;
+    }
+}
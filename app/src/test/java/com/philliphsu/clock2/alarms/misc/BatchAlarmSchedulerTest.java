@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.misc;
+
+import com.philliphsu.clock2.alarms.Alarm;
+import com.philliphsu.clock2.alarms.data.NextAlarmIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks which alarms {@link BatchAlarmScheduler} arms from the {@link NextAlarmIndex},
+ * and when it wakes up to arm the next ones.
+ */
+public class BatchAlarmSchedulerTest {
+    private static final long START = 1467331200000L; // 2016-07-01T00:00:00Z
+
+    private NextAlarmIndex mIndex;
+
+    @Before
+    public void setUp() {
+        RingTimeCalculator calculator = new RingTimeCalculator(new RingTimeCalculator.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return START;
+            }
+        }, TimeZone.getTimeZone("America/New_York"));
+        mIndex = new NextAlarmIndex(calculator);
+    }
+
+    @Test
+    public void fewerAlarmsThanWindow_ArmsEverything_NoWakeup() {
+        put(1, 6);
+        put(2, 9);
+        put(3, 7);
+
+        BatchAlarmScheduler.Window window = BatchAlarmScheduler.windowOf(mIndex, 3);
+
+        assertArrayEquals(new long[] {1, 2, 3}, sorted(window.ids));
+        assertEquals(Long.MAX_VALUE, window.end);
+    }
+
+    @Test
+    public void moreAlarmsThanWindow_ArmsOnlyNearest_WakesUpAtLastOfThem() {
+        // Put out of order, so that the window doesn't just follow the ids
+        put(1, 19);
+        put(2, 8);
+        put(3, 15);
+        put(4, 6);
+        put(5, 11);
+        put(6, 17);
+
+        BatchAlarmScheduler.Window window = BatchAlarmScheduler.windowOf(mIndex, 3);
+
+        assertArrayEquals(new long[] {2, 4, 5}, sorted(window.ids));
+        assertEquals(mIndex.ringTimeOf(5), window.end);
+    }
+
+    @Test
+    public void tiesWithLastOfWindow_AreArmedWithIt() {
+        put(1, 6);
+        put(2, 7);
+        put(3, 7);
+        put(4, 7);
+        put(5, 8);
+
+        BatchAlarmScheduler.Window window = BatchAlarmScheduler.windowOf(mIndex, 2);
+
+        // Otherwise the ties would ring before the wakeup that arms them
+        assertArrayEquals(new long[] {1, 2, 3, 4}, sorted(window.ids));
+        assertEquals(mIndex.ringTimeOf(2), window.end);
+    }
+
+    @Test
+    public void removedAlarm_LeavesWindow() {
+        for (long id = 1; id <= 4; id++) {
+            put(id, (int) id + 5);
+        }
+        mIndex.remove(1);
+
+        BatchAlarmScheduler.Window window = BatchAlarmScheduler.windowOf(mIndex, 2);
+
+        assertArrayEquals(new long[] {2, 3}, sorted(window.ids));
+        assertEquals(mIndex.ringTimeOf(3), window.end);
+    }
+
+    /**
+     * @param hour before 20, so that the alarm rings on the day after {@link #START},
+     *             which is 20:00 in New York
+     */
+    private void put(long id, int hour) {
+        Alarm alarm = Alarm.builder().hour(hour).minutes(0).build();
+        alarm.setId(id);
+        alarm.setEnabled(true);
+        mIndex.put(alarm);
+    }
+
+    private static long[] sorted(long[] ids) {
+        long[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.alarms.misc;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.out;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link RingTimeCalculator} agrees with the Calendar-based
+ * implementation that {@code Alarm.ringsAt()} used to have.
+ */
+public class RingTimeCalculatorTest {
+    private static final String[] ZONES = {
+            "America/New_York",     // DST at 02:00
+            "Europe/London",        // DST at 01:00
+            "Australia/Lord_Howe",  // 30 minute DST
+            "America/Sao_Paulo",    // DST at midnight
+            "Asia/Beirut",          // DST at midnight
+            "Pacific/Apia",         // skipped a whole day in 2011
+            "Asia/Kolkata",         // no DST
+    };
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static class FakeClock implements RingTimeCalculator.Clock {
+        long now;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void ringsAt_AcrossDstTransitions_MatchesCalendarImplementation() {
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            FakeClock clock = new FakeClock();
+            RingTimeCalculator calculator = new RingTimeCalculator(clock, zone);
+            for (long transition : findTransitions(zone, 2010, 2014)) {
+                out.println("Testing " + id + " around " + transition);
+                // Every 40 minutes from a day before to a day after the transition
+                for (long now = transition - DAY; now <= transition + DAY; now += 40 * MINUTE) {
+                    clock.now = now;
+                    for (int h = 0; h < 24; h++) {
+                        for (int m = 0; m < 60; m += 15) {
+                            for (int mask = 0; mask < 128; mask += 9) {
+                                assertEquals(calendarRingsAt(zone, now, h, m, mask),
+                                        calculator.ringsAt(h, m, mask));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ringsAt_EveryRecurrenceMask_MatchesCalendarImplementation() {
+        TimeZone zone = TimeZone.getTimeZone("America/Los_Angeles");
+        FakeClock clock = new FakeClock();
+        RingTimeCalculator calculator = new RingTimeCalculator(clock, zone);
+        long start = new GregorianCalendar(2016, Calendar.JUNE, 1).getTimeInMillis();
+        // One full week, so that every day of the week is "today" at some point
+        for (long now = start; now < start + 7 * DAY; now += 37 * MINUTE) {
+            clock.now = now;
+            for (int h = 0; h < 24; h++) {
+                for (int mask = 0; mask < 128; mask++) {
+                    assertEquals(calendarRingsAt(zone, now, h, 30, mask),
+                            calculator.ringsAt(h, 30, mask));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ringsAt_InvalidMask_Throws() {
+        new RingTimeCalculator(RingTimeCalculator.SYSTEM_CLOCK, TimeZone.getDefault())
+                .ringsAt(0, 0, 1 << DaysOfWeek.NUM_DAYS);
+    }
+
+    @Test
+    public void getDefault_FollowsDefaultTimeZone() {
+        final TimeZone original = TimeZone.getDefault();
+        try {
+            final long now = System.currentTimeMillis();
+            for (String id : new String[] {"America/New_York", "Asia/Tokyo"}) {
+                final TimeZone zone = TimeZone.getTimeZone(id);
+                TimeZone.setDefault(zone);
+                assertEquals(new RingTimeCalculator(RingTimeCalculator.SYSTEM_CLOCK, zone)
+                                .ringsAt(7, 30, 0, now),
+                        RingTimeCalculator.getDefault().ringsAt(7, 30, 0, now));
+            }
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+
+    /*
+     * Not a real benchmark harness, but gives a rough idea of the per-call
+     * cost of each implementation. Run from the IDE to see the results.
+     */
+    @Test
+    public void ringsAt_ComparePerformanceWithCalendarImplementation() {
+        final TimeZone zone = TimeZone.getDefault();
+        final RingTimeCalculator calculator = new RingTimeCalculator(
+                RingTimeCalculator.SYSTEM_CLOCK, zone);
+        final int iterations = 200000;
+        long sink = 0;
+
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += calendarRingsAt(zone, System.currentTimeMillis(), i % 24, i % 60, i & 127);
+            }
+            long calendarNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += calculator.ringsAt(i % 24, i % 60, i & 127);
+            }
+            long calculatorNanos = System.nanoTime() - start;
+
+            out.println(String.format("Calendar: %d ns/op, RingTimeCalculator: %d ns/op",
+                    calendarNanos / iterations, calculatorNanos / iterations));
+        }
+        out.println(sink);
+    }
+
+    /**
+     * The implementation of {@code Alarm.ringsAt()} before it was
+     * moved to {@link RingTimeCalculator}, with "now" and the time zone pinned.
+     */
+    private static long calendarRingsAt(TimeZone zone, long now, int hour, int minutes, int mask) {
+        Calendar calendar = new GregorianCalendar(zone);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, hour);
+        calendar.set(Calendar.MINUTE, minutes);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+
+        long baseRingTime = calendar.getTimeInMillis();
+
+        if (mask == 0) {
+            if (baseRingTime <= now) {
+                baseRingTime += TimeUnit.DAYS.toMillis(1);
+            }
+            return baseRingTime;
+        }
+        int weekdayToday = calendar.get(Calendar.DAY_OF_WEEK);
+        int numDaysFromToday = -1;
+
+        for (int i = weekdayToday; i <= Calendar.SATURDAY; i++) {
+            if (isRecurring(mask, i - 1)) {
+                if (i == weekdayToday) {
+                    if (baseRingTime > now) {
+                        numDaysFromToday = 0;
+                        break;
+                    }
+                } else {
+                    numDaysFromToday = i - weekdayToday;
+                    break;
+                }
+            }
+        }
+        if (numDaysFromToday < 0) {
+            for (int i = Calendar.SUNDAY; i < weekdayToday; i++) {
+                if (isRecurring(mask, i - 1)) {
+                    numDaysFromToday = Calendar.SATURDAY - weekdayToday + i;
+                    break;
+                }
+            }
+        }
+        if (numDaysFromToday < 0 && isRecurring(mask, weekdayToday - 1)
+                && baseRingTime <= now) {
+            numDaysFromToday = 7;
+        }
+        return baseRingTime + TimeUnit.DAYS.toMillis(numDaysFromToday);
+    }
+
+    private static boolean isRecurring(int mask, int day) {
+        return (mask & (1 << day)) != 0;
+    }
+
+    /**
+     * @return the instants, in UTC millis, at which the zone's offset changes
+     * between the start of {@code fromYear} and the start of {@code toYear}
+     */
+    private static long[] findTransitions(TimeZone zone, int fromYear, int toYear) {
+        Calendar cal = new GregorianCalendar(zone);
+        cal.clear();
+        cal.set(fromYear, Calendar.JANUARY, 1);
+        long start = cal.getTimeInMillis();
+        cal.set(toYear, Calendar.JANUARY, 1);
+        long end = cal.getTimeInMillis();
+
+        long[] found = new long[2 * (toYear - fromYear) + 2];
+        int count = 0;
+        long step = TimeUnit.HOURS.toMillis(1);
+        for (long t = start; t < end && count < found.length; t += step) {
+            if (zone.getOffset(t) != zone.getOffset(t + step)) {
+                found[count++] = t + step;
+            }
+        }
+        long[] result = new long[count];
+        System.arraycopy(found, 0, result, 0, count);
+        return result;
+    }
+}
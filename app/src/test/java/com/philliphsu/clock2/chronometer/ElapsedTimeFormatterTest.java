@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link ElapsedTimeFormatter} against {@link String#format(Locale, String, Object...)},
+ * which is what {@code DateUtils.formatElapsedTime()} uses, in locales with their own digits.
+ */
+public class ElapsedTimeFormatterTest {
+    private static final Locale[] LOCALES = {
+            Locale.US,
+            Locale.forLanguageTag("ar-EG"),
+            Locale.forLanguageTag("fa-IR"),
+            Locale.forLanguageTag("hi-IN-u-nu-deva"),
+            Locale.forLanguageTag("th-TH-u-nu-thai"),
+    };
+
+    private final Locale mDefault = Locale.getDefault();
+    private final ElapsedTimeFormatter mFormatter = new ElapsedTimeFormatter();
+
+    @After
+    public void restoreLocale() {
+        Locale.setDefault(mDefault);
+    }
+
+    @Test
+    public void elapsedSeconds_MatchesStringFormat() {
+        final long[] durations = {0, 9, 59, 60, 61, 599, 3599, 3600, 3661, 35999, 36000, 360000};
+        for (Locale locale : LOCALES) {
+            Locale.setDefault(locale);
+            for (long seconds : durations) {
+                mFormatter.clear();
+                mFormatter.appendElapsedSeconds(seconds);
+                assertEquals(locale.toString(), expected(locale, seconds), mFormatter.toString());
+            }
+        }
+    }
+
+    @Test
+    public void centiseconds_MatchesStringFormat() {
+        for (Locale locale : LOCALES) {
+            Locale.setDefault(locale);
+            for (int cs = 0; cs < 100; cs++) {
+                mFormatter.clear();
+                mFormatter.appendElapsedSeconds(75);
+                mFormatter.appendCentiseconds(cs);
+                assertEquals(expected(locale, 75) + String.format(locale, ".%02d", cs),
+                        mFormatter.toString());
+            }
+        }
+    }
+
+    @Test
+    public void reusedBuffer_GrowsAndShrinks() {
+        Locale.setDefault(Locale.US);
+        mFormatter.clear();
+        mFormatter.append("\u2212");
+        mFormatter.appendElapsedSeconds(123456789);
+        mFormatter.append(" left");
+        assertEquals("\u221234293:33:09 left", mFormatter.toString());
+        mFormatter.clear();
+        mFormatter.appendElapsedSeconds(5);
+        assertEquals("00:05", mFormatter.toString());
+        assertEquals(5, mFormatter.length());
+        char[] dest = new char[5];
+        mFormatter.getChars(0, 5, dest, 0);
+        assertEquals("00:05", new String(dest));
+        assertEquals(":0", mFormatter.subSequence(2, 4).toString());
+    }
+
+    private static String expected(Locale locale, long seconds) {
+        final long hours = seconds / 3600;
+        final long minutes = seconds % 3600 / 60;
+        return hours > 0
+                ? String.format(locale, "%1$d:%2$02d:%3$02d", hours, minutes, seconds % 60)
+                : String.format(locale, "%1$02d:%2$02d", minutes, seconds % 60);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.chronometer;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.out;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link TickSchedule} against a fake clock for a simulated day, with every wakeup
+ * running late by a random amount, and checks that no chronometer drifts, skips
+ * or repeats a second.
+ */
+public class TickScheduleTest {
+    private static final long SECOND = 1000;
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    // Wakeups run this late at most, e.g. because the thread was busy
+    private static final long MAX_LATENESS = 300;
+
+    /**
+     * Shows whole seconds since or until its base, like {@link ChronometerDelegate}.
+     */
+    private static class FakeChronometer implements ChronometerNotificationScheduler.Tickable {
+        final long base;
+        final boolean countDown;
+        long dueAt;
+        long lastShown = -1;
+        int ticks;
+        int skips;
+        int repeats;
+        long maxLateness;
+
+        FakeChronometer(long base, boolean countDown) {
+            this.base = base;
+            this.countDown = countDown;
+        }
+
+        long shownAt(long now) {
+            return (countDown ? base - now : now - base) / SECOND;
+        }
+
+        @Override
+        public void onTick(long now) {
+            final long shown = shownAt(now);
+            if (lastShown >= 0) {
+                final long step = Math.abs(shown - lastShown);
+                if (step == 0) {
+                    repeats++;
+                } else if (step > 1) {
+                    skips++;
+                }
+            }
+            lastShown = shown;
+            maxLateness = Math.max(maxLateness, now - dueAt);
+            ticks++;
+        }
+
+        @Override
+        public long nextTickAt(long now) {
+            // Same as ChronometerDelegate.nextChangeAt()
+            dueAt = TickSchedule.nextBoundary(now, countDown ? base + 1 : base, SECOND);
+            return dueAt;
+        }
+    }
+
+    @Test
+    public void nextBoundary_IsAfterNowOnTheBasePhase() {
+        assertEquals(1000, TickSchedule.nextBoundary(0, 0, SECOND));
+        assertEquals(1000, TickSchedule.nextBoundary(999, 0, SECOND));
+        assertEquals(1250, TickSchedule.nextBoundary(1000, 250, SECOND));
+        // Base in the future, as for a countdown
+        assertEquals(750, TickSchedule.nextBoundary(0, 5750, SECOND));
+        assertEquals(-250, TickSchedule.nextBoundary(-1000, 750, SECOND));
+    }
+
+    @Test
+    public void simulatedDay_NoDrift() {
+        final long start = 123456789;
+        FakeChronometer[] chronometers = {
+                new FakeChronometer(start - 250, false),
+                new FakeChronometer(start - 3333, false),
+                new FakeChronometer(start + 2 * DAY + 777, true),
+        };
+        TickSchedule schedule = new TickSchedule();
+        for (FakeChronometer c : chronometers) {
+            schedule.add(c, start);
+        }
+
+        final int wakeups = run(schedule, start, new Random(42));
+
+        for (FakeChronometer c : chronometers) {
+            out.println(String.format("base %d: %d ticks, %d skips, %d repeats, max %d ms late",
+                    c.base, c.ticks, c.skips, c.repeats, c.maxLateness));
+            assertEquals(0, c.skips);
+            assertEquals(0, c.repeats);
+            // One tick per second of the day, give or take the one in progress at the end
+            assertTrue(Math.abs(DAY / SECOND - c.ticks) <= 1);
+            assertTrue(c.maxLateness <= MAX_LATENESS + TickSchedule.SLACK_MILLIS);
+            // After a day, still showing the right second
+            assertEquals(c.shownAt(c.dueAt - SECOND), c.lastShown);
+        }
+        out.println(wakeups + " wakeups for " + chronometers.length + " chronometers");
+    }
+
+    @Test
+    public void closePhases_ShareWakeups() {
+        final long start = 0;
+        TickSchedule schedule = new TickSchedule();
+        FakeChronometer[] chronometers = new FakeChronometer[50];
+        for (int i = 0; i < chronometers.length; i++) {
+            // Spread over less than the slack
+            chronometers[i] = new FakeChronometer(start + i, false);
+            schedule.add(chronometers[i], start);
+        }
+
+        final int wakeups = run(schedule, start, new Random(7));
+
+        out.println(wakeups + " wakeups for " + chronometers.length + " chronometers");
+        assertTrue(Math.abs(DAY / SECOND - wakeups) <= 1);
+        for (FakeChronometer c : chronometers) {
+            assertEquals(0, c.skips);
+            assertEquals(0, c.repeats);
+        }
+    }
+
+    @Test
+    public void randomPhases_WakeupsBoundBySlack() {
+        final long start = 0;
+        Random random = new Random(23);
+        TickSchedule schedule = new TickSchedule();
+        FakeChronometer[] chronometers = new FakeChronometer[50];
+        for (int i = 0; i < chronometers.length; i++) {
+            // As if 50 timers were started at random times
+            chronometers[i] = new FakeChronometer(start - random.nextInt((int) DAY), false);
+            schedule.add(chronometers[i], start);
+        }
+
+        final int wakeups = run(schedule, start, random);
+
+        out.println(wakeups + " wakeups for " + chronometers.length + " chronometers on random phases");
+        assertTrue(wakeups <= DAY / TickSchedule.SLACK_MILLIS + 1);
+        for (FakeChronometer c : chronometers) {
+            assertEquals(0, c.skips);
+            assertEquals(0, c.repeats);
+            assertTrue(Math.abs(DAY / SECOND - c.ticks) <= 1);
+            assertTrue(c.maxLateness <= MAX_LATENESS + TickSchedule.SLACK_MILLIS);
+        }
+    }
+
+    /**
+     * For contrast: posting the next tick a fixed second after each late wakeup
+     * loses seconds within minutes.
+     */
+    @Test
+    public void fixedDelay_Drifts() {
+        final long start = 0;
+        FakeChronometer c = new FakeChronometer(start, false);
+        Random random = new Random(42);
+        long now = start;
+        while (now < start + TimeUnit.HOURS.toMillis(1)) {
+            now += SECOND + random.nextInt((int) MAX_LATENESS);
+            c.onTick(now);
+        }
+        out.println("Fixed delay: " + c.skips + " skips in an hour");
+        assertTrue(c.skips > 0);
+    }
+
+    /**
+     * Wakes up when the schedule asks, but late by up to {@link #MAX_LATENESS},
+     * for one simulated day.
+     * @return the number of wakeups
+     */
+    private static int run(TickSchedule schedule, long start, Random random) {
+        int wakeups = 0;
+        long now = start;
+        while (now < start + DAY) {
+            final long wakeupAt = schedule.nextWakeupAt();
+            assertTrue(wakeupAt > now);
+            now = wakeupAt + random.nextInt((int) MAX_LATENESS + 1);
+            schedule.tickDue(now);
+            wakeups++;
+        }
+        return wakeups;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import org.junit.Test;
+
+import static com.philliphsu.clock2.data.ContentChange.DELETE;
+import static com.philliphsu.clock2.data.ContentChange.INSERT;
+import static com.philliphsu.clock2.data.ContentChange.UPDATE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContentChangeTest {
+
+    @Test
+    public void separateRows_KeptInOrder() {
+        ContentChange change = new ContentChange.Builder()
+                .add(UPDATE, 3)
+                .add(INSERT, 1)
+                .add(UPDATE, 2)
+                .add(DELETE, 4)
+                .build();
+
+        assertArrayEquals(new long[] {1}, change.getInsertedIds());
+        assertArrayEquals(new long[] {3, 2}, change.getUpdatedIds());
+        assertArrayEquals(new long[] {4}, change.getDeletedIds());
+        assertFalse(change.isAllRows());
+    }
+
+    @Test
+    public void insertThenUpdate_IsInsert() {
+        ContentChange change = new ContentChange.Builder()
+                .add(INSERT, 1).add(UPDATE, 1).add(UPDATE, 1).build();
+
+        assertArrayEquals(new long[] {1}, change.getInsertedIds());
+        assertArrayEquals(new long[0], change.getUpdatedIds());
+    }
+
+    @Test
+    public void insertThenDelete_IsNoChange() {
+        ContentChange.Builder builder = new ContentChange.Builder()
+                .add(INSERT, 1).add(UPDATE, 1).add(DELETE, 1);
+
+        assertTrue(builder.isEmpty());
+        assertTrue(builder.build().isEmpty());
+    }
+
+    @Test
+    public void updateThenDelete_IsDelete() {
+        ContentChange change = new ContentChange.Builder()
+                .add(UPDATE, 1).add(DELETE, 1).build();
+
+        assertArrayEquals(new long[0], change.getUpdatedIds());
+        assertArrayEquals(new long[] {1}, change.getDeletedIds());
+    }
+
+    @Test
+    public void deleteThenInsert_IsUpdate() {
+        ContentChange change = new ContentChange.Builder()
+                .add(DELETE, 1).add(INSERT, 1).build();
+
+        assertArrayEquals(new long[0], change.getInsertedIds());
+        assertArrayEquals(new long[] {1}, change.getUpdatedIds());
+        assertArrayEquals(new long[0], change.getDeletedIds());
+    }
+
+    @Test
+    public void allRows_AbsorbsRowChanges() {
+        ContentChange change = new ContentChange.Builder()
+                .add(INSERT, 1)
+                .addAllRows()
+                .add(DELETE, 2)
+                .build();
+
+        assertSame(ContentChange.ALL_ROWS, change);
+        assertFalse(change.isEmpty());
+    }
+
+    @Test
+    public void addChange_FoldsWithPendingRows() {
+        ContentChange earlier = new ContentChange.Builder()
+                .add(INSERT, 1).add(UPDATE, 2).build();
+        ContentChange change = new ContentChange.Builder()
+                .add(earlier)
+                .add(DELETE, 1)
+                .add(DELETE, 2)
+                .build();
+
+        assertArrayEquals(new long[0], change.getInsertedIds());
+        assertArrayEquals(new long[] {2}, change.getDeletedIds());
+    }
+}
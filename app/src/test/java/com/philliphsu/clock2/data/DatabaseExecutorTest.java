@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseExecutorTest {
+    private DatabaseExecutor mExecutor;
+    // The operations run, by name, in the order they ran
+    private final List<String> mRan = Collections.synchronizedList(new ArrayList<String>());
+    // The results delivered to callbacks, in the order they were delivered
+    private final List<Object> mResults = Collections.synchronizedList(new ArrayList<Object>());
+    // Released once per result delivered, since a Future completes before its callback runs
+    private final Semaphore mDelivered = new Semaphore(0);
+    // The failures of operations without a callback
+    private final List<Throwable> mLogged = Collections.synchronizedList(new ArrayList<Throwable>());
+    private final CountDownLatch mUnblock = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        mExecutor = newExecutor(2);
+    }
+
+    @Test
+    public void queuedWrites_RunInSubmissionOrder() throws Exception {
+        blockWriter();
+        mExecutor.write("bulk1", work("bulk1"), null);
+        mExecutor.write("edit1", work("edit1"), null);
+        mExecutor.write("bulk2", work("bulk2"), null);
+        Future<String> last = mExecutor.write("edit2", work("edit2"), null);
+        mUnblock.countDown();
+        mExecutor.write("bulk3", work("bulk3"), null).get(5, TimeUnit.SECONDS);
+
+        assertTrue(last.isDone());
+        assertEquals(list("blocker", "bulk1", "edit1", "bulk2", "edit2", "bulk3"), mRan);
+    }
+
+    @Test
+    public void queuedReads_UiPriorityRunsFirst() throws Exception {
+        // One reader thread, so that the reads run one at a time
+        mExecutor = newExecutor(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        mExecutor.read("blocker", DatabaseExecutor.PRIORITY_BACKGROUND, new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                mRan.add("blocker");
+                started.countDown();
+                mUnblock.await();
+                return null;
+            }
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        mExecutor.read("bg", DatabaseExecutor.PRIORITY_BACKGROUND, work("bg"), null);
+        mExecutor.read("ui", DatabaseExecutor.PRIORITY_UI, work("ui"), null);
+        mUnblock.countDown();
+        mExecutor.read("last", DatabaseExecutor.PRIORITY_BACKGROUND, work("last"), null)
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(list("blocker", "ui", "bg", "last"), mRan);
+    }
+
+    @Test
+    public void cancelledBeforeRunning_NeitherRunsNorCallsBack() throws Exception {
+        blockWriter();
+        Future<String> cancelled = mExecutor.write("cancelled", work("cancelled"), callback());
+        assertTrue(cancelled.cancel(false));
+        mUnblock.countDown();
+        mExecutor.write("next", work("next"), callback())
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(mDelivered.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertEquals(list("blocker", "next"), mRan);
+        assertEquals(list((Object) "next"), mResults);
+        assertFalse(mExecutor.getStats().containsKey("cancelled"));
+    }
+
+    @Test
+    public void result_DeliveredToFutureAndCallback() throws Exception {
+        Future<String> future = mExecutor.write("write", work("write"), callback());
+
+        assertEquals("write", future.get(5, TimeUnit.SECONDS));
+        assertTrue(mDelivered.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(list((Object) "write"), mResults);
+    }
+
+    @Test
+    public void reads_RunConcurrentlyWithBlockedWriter() throws Exception {
+        blockWriter();
+        final CountDownLatch bothReading = new CountDownLatch(2);
+        Callable<Boolean> read = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                bothReading.countDown();
+                // Only returns true if the other read runs at the same time
+                return bothReading.await(5, TimeUnit.SECONDS);
+            }
+        };
+        Future<Boolean> first = mExecutor.read("read", DatabaseExecutor.PRIORITY_UI, read, null);
+        Future<Boolean> second = mExecutor.read("read", DatabaseExecutor.PRIORITY_UI, read, null);
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        mUnblock.countDown();
+    }
+
+    @Test
+    public void stats_CountedByName() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mExecutor.write("alarms.update", work("update"), null)
+                    .get(5, TimeUnit.SECONDS);
+        }
+        Future<String> failing = mExecutor.write("alarms.insert",
+                new Callable<String>() {
+                    @Override
+                    public String call() {
+                        throw new IllegalStateException();
+                    }
+                }, null);
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {
+        }
+
+        DatabaseExecutor.Stats update = mExecutor.getStats().get("alarms.update");
+        assertEquals(3, update.count);
+        assertEquals(0, update.failed);
+        DatabaseExecutor.Stats insert = mExecutor.getStats().get("alarms.insert");
+        assertEquals(1, insert.count);
+        assertEquals(1, insert.failed);
+    }
+
+    @Test
+    public void failureWithoutCallback_IsLogged() throws Exception {
+        final IllegalStateException cause = new IllegalStateException();
+        Future<Void> failing = mExecutor.write("clear", new Callable<Void>() {
+            @Override
+            public Void call() {
+                throw cause;
+            }
+        }, null);
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {
+        }
+        // Logged before the writer takes its next operation
+        mExecutor.write("next", work("next"), null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, mLogged.size());
+        assertTrue(mLogged.get(0).getMessage().contains("clear"));
+        assertEquals(cause, mLogged.get(0).getCause());
+    }
+
+    private DatabaseExecutor newExecutor(int readThreads) {
+        return new DatabaseExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                readThreads,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                },
+                new DatabaseExecutor.Callback<Throwable>() {
+                    @Override
+                    public void onResult(Throwable failure) {
+                        mLogged.add(failure);
+                    }
+                });
+    }
+
+    /**
+     * Holds up the writer thread, so that the writes after this pile up in the queue.
+     */
+    private void blockWriter() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        mExecutor.write("blocker", new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                mRan.add("blocker");
+                started.countDown();
+                mUnblock.await();
+                return null;
+            }
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private Callable<String> work(final String name) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                mRan.add(name);
+                return name;
+            }
+        };
+    }
+
+    private DatabaseExecutor.Callback<String> callback() {
+        return new DatabaseExecutor.Callback<String>() {
+            @Override
+            public void onResult(String result) {
+                mResults.add(result);
+                mDelivered.release();
+            }
+        };
+    }
+
+    @SafeVarargs
+    private static <E> List<E> list(E... elements) {
+        List<E> list = new ArrayList<>();
+        Collections.addAll(list, elements);
+        return list;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EntityCacheTest {
+
+    private static final class Item extends ObjectWithId {
+        String value;
+
+        Item(long id, String value) {
+            setId(id);
+            this.value = value;
+        }
+    }
+
+    private final EntityCache<Item> mCache = new EntityCache<>(2, new EntityCache.Copier<Item>() {
+        @Override
+        public Item copy(Item item) {
+            return new Item(item.getId(), item.value);
+        }
+    });
+
+    @Test
+    public void get_ReturnsCopyOfLatestPut() {
+        Item item = new Item(1, "a");
+        mCache.put(item);
+        item.value = "changed without a put";
+
+        Item cached = mCache.get(1);
+        assertEquals("a", cached.value);
+        assertNotSame(cached, mCache.get(1));
+    }
+
+    @Test
+    public void overMaxSize_EvictsLeastRecentlyUsed() {
+        mCache.put(new Item(1, "a"));
+        mCache.put(new Item(2, "b"));
+        mCache.get(1);
+        mCache.put(new Item(3, "c"));
+
+        assertEquals(2, mCache.size());
+        assertNull(mCache.get(2));
+        assertEquals("a", mCache.get(1).value);
+        assertEquals("c", mCache.get(3).value);
+    }
+
+    @Test
+    public void hitsAndMisses_Counted() {
+        mCache.put(new Item(1, "a"));
+        mCache.get(1);
+        mCache.get(1);
+        mCache.get(2);
+
+        assertEquals(2, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void readFromTable_NotCachedIfWrittenMeanwhile() {
+        long stamp = mCache.stamp();
+        // A write of the row lands while we read the old row from the table
+        mCache.put(new Item(1, "new"));
+        mCache.putIfUnchangedSince(new Item(1, "old"), stamp);
+        assertEquals("new", mCache.get(1).value);
+
+        stamp = mCache.stamp();
+        // The row is deleted while we read it
+        mCache.remove(1);
+        mCache.putIfUnchangedSince(new Item(1, "deleted"), stamp);
+        assertNull(mCache.get(1));
+
+        stamp = mCache.stamp();
+        mCache.putIfUnchangedSince(new Item(2, "b"), stamp);
+        assertEquals("b", mCache.get(2).value);
+    }
+
+    @Test
+    public void eachPut_NewVersion() {
+        assertEquals(-1, mCache.versionOf(1));
+        mCache.put(new Item(1, "a"));
+        long first = mCache.versionOf(1);
+        mCache.put(new Item(1, "b"));
+        assertTrue(mCache.versionOf(1) > first);
+        mCache.clear();
+        assertEquals(-1, mCache.versionOf(1));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Phillip Hsu
+ *
+ * This file is part of ClockPlus.
+ *
+ * ClockPlus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ClockPlus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ClockPlus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.philliphsu.clock2.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class KeysetTest {
+
+    @Test
+    public void singleDescendingColumn() {
+        Keyset keyset = Keyset.fromSortOrder("_id DESC");
+        assertEquals("_id <= ? AND ((_id < ?))", keyset.whereAfter());
+        assertEquals("_id >= ? AND ((_id > ?))", keyset.whereBefore());
+        assertArrayEquals(new String[] {"7", "7"}, keyset.argsOf(new String[] {"7"}));
+    }
+
+    @Test
+    public void mixedDirections_ExpandRowValueComparison() {
+        Keyset keyset = Keyset.fromSortOrder("hour ASC, minute, _id DESC");
+        assertArrayEquals(new String[] {"hour", "minute", "_id"}, keyset.getColumns());
+        assertEquals("hour >= ? AND ((hour > ?)"
+                + " OR (hour = ? AND minute > ?)"
+                + " OR (hour = ? AND minute = ? AND _id < ?))", keyset.whereAfter());
+        assertEquals("hour <= ? AND ((hour < ?)"
+                + " OR (hour = ? AND minute < ?)"
+                + " OR (hour = ? AND minute = ? AND _id > ?))", keyset.whereBefore());
+        assertArrayEquals(new String[] {"1", "1", "1", "2", "1", "2", "3"},
+                keyset.argsOf(new String[] {"1", "2", "3"}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sortOrderWithoutId_IsRejected() {
+        Keyset.fromSortOrder("hour ASC, minute ASC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sortOrderWithCollation_IsRejected() {
+        Keyset.fromSortOrder("label COLLATE NOCASE, _id");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyOfWrongLength_IsRejected() {
+        Keyset.fromSortOrder("hour, _id").argsOf(new String[] {"1"});
+    }
+}